@@ -0,0 +1,244 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.TimeZone;
+
+/**
+ * Builds the AT Internet collection URLs of the hits of an event, with the same parameters as the AT Internet SDK
+ * sets from a Screen and an OnSiteAds Publisher:
+ * <ul>
+ * <li>screen: p (name), xto (campaign), f1..fn (screen custom variables) and x1..xn (app custom variables)</li>
+ * <li>publisher: type=AT and ati (impression) or atc (touch), holding
+ * PUB-campaign-creation-variant-format-generalPlacement-detailedPlacement-advertiser-url</li>
+ * </ul>
+ * Every hit also has the site (s), the visitor ID (idclient), the tag's version (vtag) and platform (ptag), the OS (os)
+ * and the app version (apvr), like the SDK's hits. It is dated with the time of its event, in milliseconds (ts) and
+ * as the local HHxMMxSS time (hl): a hit sent late, like one replayed from the event journal, is counted when its
+ * event happened.
+ *
+ * Immutable and thread safe: each URL is built in a single StringBuilder, sized for the common case.
+ */
+public final class CollectUrlBuilder
+{
+    public static final String PLATFORM = "Android";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final int INITIAL_CAPACITY = 320;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final String prefix;
+
+    /**
+     * @param collectUrl Collection endpoint, like https://logs1.xiti.com/hit.xiti
+     * @param site AT Internet site ID
+     * @param visitorId Visitor ID sent with each hit: without it, AT Internet would count each hit as a new visitor
+     * @param tagVersion Version of the tag sending the hits
+     * @param osVersion Version of the OS, like 12
+     * @param appVersion Version name of the app, null if unknown
+     */
+    public CollectUrlBuilder(@NonNull String collectUrl, @NonNull String site, @NonNull String visitorId,
+                             @NonNull String tagVersion, @NonNull String osVersion, @Nullable String appVersion) {
+        if (!collectUrl.startsWith("http://") && !collectUrl.startsWith("https://")) {
+            throw new IllegalArgumentException("collect URL must be an http or https URL");
+        }
+        if (site.isEmpty()) {
+            throw new IllegalArgumentException("site cannot be empty");
+        }
+        if (visitorId.isEmpty()) {
+            throw new IllegalArgumentException("visitorId cannot be empty");
+        }
+        StringBuilder builder = new StringBuilder(collectUrl.length() + 128);
+        builder.append(collectUrl).append(collectUrl.indexOf('?') < 0 ? '?' : '&').append("s=");
+        appendEncoded(builder, site);
+        builder.append("&idclient=");
+        appendEncoded(builder, visitorId);
+        builder.append("&vtag=");
+        appendEncoded(builder, tagVersion);
+        builder.append("&ptag=").append(PLATFORM).append("&os=");
+        appendEncoded(builder, "[android]-[" + osVersion + "]");
+        if (appVersion != null && !appVersion.isEmpty()) {
+            builder.append("&apvr=");
+            appendEncoded(builder, "[" + appVersion + "]");
+        }
+        this.prefix = builder.toString();
+    }
+
+    /**
+     * Build the URL of an event's screen hit
+     *
+     * @param hit The hits of the event
+     * @param extraCustomVarIndex Index of an additional screen custom variable, like the sampling rate,
+     * or {@link SamplingPolicy#NO_CUSTOM_VAR}
+     * @param extraCustomVarValue Value of the additional screen custom variable
+     * @param timestamp Time of the event, in milliseconds since the epoch
+     */
+    @NonNull
+    public String buildScreenHit(@NonNull HitDescription hit, int extraCustomVarIndex,
+                                 @Nullable String extraCustomVarValue, long timestamp) {
+        StringBuilder builder = startScreenHit(hit.getScreenName(), hit.getCampaign(), timestamp);
+        String webViewAnalyticsID = hit.getWebViewAnalyticsID();
+        if (webViewAnalyticsID != null) {
+            appendCustomVar(builder, CustomVarPlan.Scope.SCREEN, CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX,
+                    webViewAnalyticsID);
+        }
+        for (int i = 0; i < hit.getCustomVarCount(); i++) {
+            String value = hit.getCustomVarValue(i);
+            if (value != null && !value.isEmpty()) {
+                appendCustomVar(builder, hit.getCustomVarScope(i), hit.getCustomVarIndex(i), value);
+            }
+        }
+        if (extraCustomVarIndex != SamplingPolicy.NO_CUSTOM_VAR && extraCustomVarValue != null) {
+            appendCustomVar(builder, CustomVarPlan.Scope.SCREEN, extraCustomVarIndex, extraCustomVarValue);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Build the URL of a screen hit that isn't described by a {@link HitDescription}, like a summary hit
+     *
+     * @param screenName Name of the screen
+     * @param campaign Campaign of the screen, if any
+     * @param customVarIndex Index of the screen custom variable
+     * @param customVarValue Value of the screen custom variable
+     * @param timestamp Time of the hit, in milliseconds since the epoch
+     */
+    @NonNull
+    public String buildScreenHit(@NonNull String screenName, @Nullable String campaign, int customVarIndex,
+                                 @NonNull String customVarValue, long timestamp) {
+        StringBuilder builder = startScreenHit(screenName, campaign, timestamp);
+        appendCustomVar(builder, CustomVarPlan.Scope.SCREEN, customVarIndex, customVarValue);
+        return builder.toString();
+    }
+
+    /**
+     * Build the URL of an OnSiteAds publisher hit
+     *
+     * @param timestamp Time of the event, in milliseconds since the epoch
+     * @return The URL, or null if the publisher isn't sent, see {@link HitDescription.Action#NONE}
+     */
+    @Nullable
+    public String buildPublisherHit(@NonNull HitDescription.OnSiteAd onSiteAd, long timestamp) {
+        String parameter;
+        switch (onSiteAd.getAction()) {
+            case IMPRESSION:
+                parameter = "&type=AT&ati=";
+                break;
+            case TOUCH:
+                parameter = "&type=AT&atc=";
+                break;
+            default:
+                return null;
+        }
+        StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+        builder.append(prefix);
+        appendTime(builder, timestamp);
+        builder.append(parameter).append("PUB-");
+        appendPublisherField(builder, onSiteAd.getCampaignId(), false);
+        appendPublisherField(builder, onSiteAd.getCreation(), true);
+        appendPublisherField(builder, onSiteAd.getVariant(), true);
+        appendPublisherField(builder, onSiteAd.getFormat(), true);
+        appendPublisherField(builder, onSiteAd.getGeneralPlacement(), true);
+        appendPublisherField(builder, onSiteAd.getDetailedPlacement(), true);
+        appendPublisherField(builder, onSiteAd.getAdvertiserId(), true);
+        appendPublisherField(builder, onSiteAd.getUrl(), true);
+        return builder.toString();
+    }
+
+    /**
+     * @return Whether an event with these hits sends a publisher hit, see {@link #buildPublisherHit}
+     */
+    public static boolean hasPublisherHit(@NonNull HitDescription hit) {
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        return onSiteAd != null && onSiteAd.getAction() != HitDescription.Action.NONE;
+    }
+
+    private StringBuilder startScreenHit(String screenName, @Nullable String campaign, long timestamp) {
+        StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+        builder.append(prefix);
+        appendTime(builder, timestamp);
+        builder.append("&p=");
+        appendEncoded(builder, screenName);
+        if (campaign != null) {
+            builder.append("&xto=");
+            appendEncoded(builder, campaign);
+        }
+        return builder;
+    }
+
+    /**
+     * Append the timestamp of a hit, then its local time in the current time zone
+     */
+    private static void appendTime(StringBuilder builder, long timestamp) {
+        builder.append("&ts=").append(timestamp).append("&hl=");
+        long seconds = ((timestamp + TimeZone.getDefault().getOffset(timestamp)) / 1000) % SECONDS_PER_DAY;
+        if (seconds < 0) {
+            seconds += SECONDS_PER_DAY;
+        }
+        appendTwoDigits(builder, (int) (seconds / 3600));
+        builder.append('x');
+        appendTwoDigits(builder, (int) (seconds / 60 % 60));
+        builder.append('x');
+        appendTwoDigits(builder, (int) (seconds % 60));
+    }
+
+    private static void appendTwoDigits(StringBuilder builder, int value) {
+        if (value < 10) {
+            builder.append('0');
+        }
+        builder.append(value);
+    }
+
+    private static void appendCustomVar(StringBuilder builder, CustomVarPlan.Scope scope, int index, String value) {
+        builder.append('&').append(scope == CustomVarPlan.Scope.APP ? 'x' : 'f').append(index).append('=');
+        appendEncoded(builder, value);
+    }
+
+    private static void appendPublisherField(StringBuilder builder, @Nullable String value, boolean separator) {
+        if (separator) {
+            builder.append('-');
+        }
+        if (value != null) {
+            appendEncoded(builder, value);
+        }
+    }
+
+    /**
+     * Percent-encode a value's UTF-8 bytes, keeping only unreserved chars: spaces become %20, like the SDK sends them
+     */
+    static void appendEncoded(@NonNull StringBuilder builder, @NonNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    c == '-' || c == '_' || c == '.' || c == '~') {
+                builder.append(c);
+            } else if (c < 0x80) {
+                appendByte(builder, c);
+            } else if (c < 0x800) {
+                appendByte(builder, 0xC0 | (c >> 6));
+                appendByte(builder, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(builder, 0xF0 | (codePoint >> 18));
+                appendByte(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(builder, 0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: encoded as the replacement char, like String.getBytes does
+                appendByte(builder, 0xEF);
+                appendByte(builder, 0xBF);
+                appendByte(builder, 0xBD);
+            } else {
+                appendByte(builder, 0xE0 | (c >> 12));
+                appendByte(builder, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(builder, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder builder, int value) {
+        builder.append('%').append(HEX[(value >> 4) & 0xF]).append(HEX[value & 0xF]);
+    }
+}
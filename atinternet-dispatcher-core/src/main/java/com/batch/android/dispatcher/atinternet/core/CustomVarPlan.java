@@ -0,0 +1,232 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which AT Internet custom variables are sent with the screen of each event, and where their values come from:
+ * a Batch custom payload key, or a parameter of the event's deeplink.
+ *
+ * Immutable, compiled when built: the distinct payload keys and deeplink parameters are listed once, and each
+ * variable points to its source by index. Extracting the values of an event reads each source once and doesn't
+ * look at the configuration's strings again, so its cost only grows with the number of variables.
+ * Use a {@link Builder}.
+ */
+public final class CustomVarPlan
+{
+    /**
+     * Index of the screen custom variable holding the WebView analytics ID
+     */
+    public static final int WEBVIEW_ANALYTICS_ID_INDEX = 1;
+
+    /**
+     * Where a custom variable is set, like AT Internet's CustomVar.CustomVarType
+     */
+    public enum Scope {
+        SCREEN,
+        APP
+    }
+
+    private static final CustomVarPlan EMPTY = new Builder().build();
+    private static final String[] NO_VALUES = new String[0];
+
+    private final String[] payloadKeys;
+    private final String[] deeplinkParameters;
+    /**
+     * Per variable: index of its source, payload keys first, then deeplink parameters
+     */
+    private final int[] sources;
+    private final int[] indices;
+    private final Scope[] scopes;
+
+    private CustomVarPlan(Builder builder) {
+        List<String> keys = new ArrayList<>();
+        List<String> parameters = new ArrayList<>();
+        for (Variable variable : builder.variables) {
+            List<String> names = variable.fromDeeplink ? parameters : keys;
+            if (!names.contains(variable.name)) {
+                names.add(variable.name);
+            }
+        }
+        this.payloadKeys = keys.toArray(new String[0]);
+        this.deeplinkParameters = parameters.toArray(new String[0]);
+
+        int count = builder.variables.size();
+        this.sources = new int[count];
+        this.indices = new int[count];
+        this.scopes = new Scope[count];
+        for (int i = 0; i < count; i++) {
+            Variable variable = builder.variables.get(i);
+            sources[i] = variable.fromDeeplink ? payloadKeys.length + parameters.indexOf(variable.name) :
+                    keys.indexOf(variable.name);
+            indices[i] = variable.index;
+            scopes[i] = variable.scope;
+        }
+    }
+
+    /**
+     * @return The plan used by the dispatcher unless configured otherwise: no custom variable
+     */
+    @NonNull
+    public static CustomVarPlan getEmpty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return Number of custom variables
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * @param variable Variable, between 0 and {@link #size()}, in the order they were added
+     * @return AT Internet index of the variable
+     */
+    public int getIndex(int variable) {
+        return indices[variable];
+    }
+
+    @NonNull
+    public Scope getScope(int variable) {
+        return scopes[variable];
+    }
+
+    /**
+     * @return Whether the plan sets the custom variable of this index and scope
+     */
+    public boolean isSet(int index, @NonNull Scope scope) {
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] == index && scopes[i] == scope) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getPayloadKeyCount() {
+        return payloadKeys.length;
+    }
+
+    /**
+     * @param key Key, between 0 and {@link #getPayloadKeyCount()}
+     * @return Batch custom payload key read by the plan
+     */
+    @NonNull
+    public String getPayloadKey(int key) {
+        return payloadKeys[key];
+    }
+
+    /**
+     * @return Whether the plan reads the deeplink of events
+     */
+    public boolean usesDeeplink() {
+        return deeplinkParameters.length > 0;
+    }
+
+    /**
+     * Extract the custom variable values of an event
+     *
+     * @param fields The payload fields of the event
+     * @param deeplink The deeplink of the event, already read by the caller
+     * @return The value of each variable, null if its source is missing
+     */
+    @NonNull
+    String[] extract(@NonNull EventFields fields, @Nullable String deeplink) {
+        if (indices.length == 0) {
+            return NO_VALUES;
+        }
+        String[] sourceValues = new String[payloadKeys.length + deeplinkParameters.length];
+        for (int i = 0; i < payloadKeys.length; i++) {
+            sourceValues[i] = fields.getCustomValue(payloadKeys[i]);
+        }
+        if (deeplink != null) {
+            for (int i = 0; i < deeplinkParameters.length; i++) {
+                sourceValues[payloadKeys.length + i] = DeeplinkTagScanner.getTag(deeplink, deeplinkParameters[i]);
+            }
+        }
+
+        String[] values = new String[indices.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sourceValues[sources[i]];
+        }
+        return values;
+    }
+
+    private static final class Variable {
+
+        final String name;
+        final boolean fromDeeplink;
+        final int index;
+        final Scope scope;
+
+        Variable(String name, boolean fromDeeplink, int index, Scope scope) {
+            this.name = name;
+            this.fromDeeplink = fromDeeplink;
+            this.index = index;
+            this.scope = scope;
+        }
+    }
+
+    /**
+     * Builds a {@link CustomVarPlan}, starting from a plan without variables
+     */
+    public static final class Builder
+    {
+        private final List<Variable> variables = new ArrayList<>();
+
+        /**
+         * Send a Batch custom payload value as a custom variable
+         *
+         * @param key Custom payload key
+         * @param index AT Internet index of the variable, strictly positive
+         * @param scope Where the variable is set
+         */
+        @NonNull
+        public Builder addPayloadKey(@NonNull String key, int index, @NonNull Scope scope) {
+            return add(key, false, index, scope);
+        }
+
+        /**
+         * Send a parameter of the deeplink's query or fragment as a custom variable.
+         * The parameter is looked up like the deeplink's "xtor" parameter: a query parameter wins over the fragment,
+         * and its name is matched ignoring case.
+         *
+         * @param parameter Deeplink parameter name
+         * @param index AT Internet index of the variable, strictly positive
+         * @param scope Where the variable is set
+         */
+        @NonNull
+        public Builder addDeeplinkParameter(@NonNull String parameter, int index, @NonNull Scope scope) {
+            return add(parameter, true, index, scope);
+        }
+
+        private Builder add(String name, boolean fromDeeplink, int index, Scope scope) {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("custom variable source cannot be empty");
+            }
+            if (index <= 0) {
+                throw new IllegalArgumentException("custom variable index must be strictly positive");
+            }
+            if (scope == Scope.SCREEN && index == WEBVIEW_ANALYTICS_ID_INDEX) {
+                throw new IllegalArgumentException("screen custom variable " + WEBVIEW_ANALYTICS_ID_INDEX +
+                        " holds the WebView analytics ID");
+            }
+            for (Variable variable : variables) {
+                if (variable.index == index && variable.scope == scope) {
+                    throw new IllegalArgumentException(scope + " custom variable " + index + " is already set");
+                }
+            }
+            variables.add(new Variable(name, fromDeeplink, index, scope));
+            return this;
+        }
+
+        @NonNull
+        public CustomVarPlan build() {
+            return new CustomVarPlan(this);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.Charset;
+
+/**
+ * Single-pass extraction of a tag (like "xtor") from a deeplink's query or fragment.
+ *
+ * Gives the same results as parsing the deeplink with android.net.Uri: a query parameter wins over
+ * the fragment, the key is matched ignoring case, a query value is decoded like
+ * Uri#getQueryParameter ('+' is a space) and a fragment value like Uri#getFragment, the last matching
+ * fragment parameter wins, and non-hierarchical URIs (like "mailto:") have no tag.
+ * Unlike Uri, it works on offsets in the original string: nothing is allocated until the matching value
+ * is found, and only that value is decoded.
+ * It doesn't depend on the Android framework, so it can run on a plain JVM.
+ */
+final class DeeplinkTagScanner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char INVALID_INPUT_CHARACTER = '\ufffd';
+
+    private DeeplinkTagScanner() {}
+
+    /**
+     * Get a tag from a deeplink
+     *
+     * @param deeplink Deeplink, trimmed before being scanned
+     * @param tagName Tag key, case insensitive
+     * @return The decoded tag value, "" for a query parameter without value, or null if not found
+     */
+    @Nullable
+    static String getTag(@NonNull String deeplink, @NonNull String tagName) {
+        // Same as String#trim, without creating a String
+        int start = 0;
+        int end = deeplink.length();
+        while (start < end && deeplink.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && deeplink.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int schemeSeparator = indexOf(deeplink, ':', start, end);
+        if (schemeSeparator >= 0 &&
+                (schemeSeparator + 1 == end || deeplink.charAt(schemeSeparator + 1) != '/')) {
+            // Not hierarchical
+            return null;
+        }
+
+        int searchStart = schemeSeparator >= 0 ? schemeSeparator : start;
+        int fragmentSeparator = indexOf(deeplink, '#', searchStart, end);
+        int querySeparator = indexOf(deeplink, '?', searchStart, end);
+        if (querySeparator >= 0 && (fragmentSeparator < 0 || querySeparator < fragmentSeparator)) {
+            int queryEnd = fragmentSeparator >= 0 ? fragmentSeparator : end;
+            String value = findQueryValue(deeplink, tagName, querySeparator + 1, queryEnd);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        if (fragmentSeparator >= 0) {
+            return findFragmentValue(deeplink, tagName, fragmentSeparator + 1, end);
+        }
+        return null;
+    }
+
+    /**
+     * Query parameters are split on raw separators, the first matching key wins
+     */
+    @Nullable
+    private static String findQueryValue(String deeplink, String tagName, int start, int end) {
+        int paramStart = start;
+        while (paramStart < end) {
+            int paramEnd = indexOf(deeplink, '&', paramStart, end);
+            if (paramEnd < 0) {
+                paramEnd = end;
+            }
+            int keyEnd = indexOf(deeplink, '=', paramStart, paramEnd);
+            if (keyEnd < 0) {
+                keyEnd = paramEnd;
+            }
+            if (keyMatches(deeplink, paramStart, keyEnd, tagName)) {
+                if (keyEnd == paramEnd) {
+                    return "";
+                }
+                return decode(deeplink, keyEnd + 1, paramEnd, true);
+            }
+            paramStart = paramEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * The fragment is decoded before being split, so encoded '&' and '=' are separators too.
+     * A parameter only counts if something else than '=' follows its key, its value ends
+     * at the next '=', and the last matching key wins.
+     */
+    @Nullable
+    private static String findFragmentValue(String deeplink, String tagName, int start, int end) {
+        int valueStart = -1;
+        int valueEnd = -1;
+        int paramStart = start;
+        while (paramStart < end) {
+            int paramEnd = indexOfDecoded(deeplink, '&', paramStart, end);
+            int keyEnd = indexOfDecoded(deeplink, '=', paramStart, paramEnd);
+            if (keyEnd < paramEnd && keyMatches(deeplink, paramStart, keyEnd, tagName)) {
+                int candidateStart = keyEnd + separatorLength(deeplink, keyEnd);
+                int candidateEnd = indexOfDecoded(deeplink, '=', candidateStart, paramEnd);
+                if (candidateEnd > candidateStart || hasValueAfter(deeplink, candidateEnd, paramEnd)) {
+                    valueStart = candidateStart;
+                    valueEnd = candidateEnd;
+                }
+            }
+            paramStart = paramEnd + separatorLength(deeplink, paramEnd);
+        }
+        return valueStart >= 0 ? decode(deeplink, valueStart, valueEnd, false) : null;
+    }
+
+    /**
+     * @return Whether there is something else than '=' in the range
+     */
+    private static boolean hasValueAfter(String deeplink, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int separator = indexOfDecoded(deeplink, '=', i, end);
+            if (separator != i) {
+                return true;
+            }
+            i += separatorLength(deeplink, i);
+        }
+        return false;
+    }
+
+    private static boolean keyMatches(String deeplink, int start, int end, String tagName) {
+        if (indexOf(deeplink, '%', start, end) >= 0) {
+            // Rare: the key itself is encoded
+            return tagName.equalsIgnoreCase(decode(deeplink, start, end, false));
+        }
+        return end - start == tagName.length() &&
+                deeplink.regionMatches(true, start, tagName, 0, tagName.length());
+    }
+
+    private static int indexOf(String s, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of a character as it would be after decoding: either the raw character or its escape sequence.
+     * Escape sequences are skipped as a whole, so that "%2526" doesn't match '&'.
+     *
+     * @return The index, or end if not found
+     */
+    private static int indexOfDecoded(String s, char c, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char current = s.charAt(i);
+            if (current == c) {
+                return i;
+            }
+            if (current == '%') {
+                // Consume the escape sequence like decode does: an invalid character is swallowed with it
+                int high = i + 1 < end ? hexValue(s.charAt(i + 1)) : -1;
+                if (high < 0) {
+                    i += 2;
+                    continue;
+                }
+                int low = i + 2 < end ? hexValue(s.charAt(i + 2)) : -1;
+                if (low >= 0 && (high << 4 | low) == c) {
+                    return i;
+                }
+                i += 3;
+                continue;
+            }
+            i++;
+        }
+        return end;
+    }
+
+    /**
+     * Length of the separator found by {@link #indexOfDecoded(String, char, int, int)}
+     */
+    private static int separatorLength(String s, int index) {
+        return index < s.length() && s.charAt(index) == '%' ? 3 : 1;
+    }
+
+    /**
+     * Decode a percent-encoded range as UTF-8, exactly like Uri does, including how it replaces
+     * invalid escape sequences and malformed UTF-8 with U+FFFD
+     */
+    @NonNull
+    private static String decode(String s, int start, int end, boolean convertPlus) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%' || (convertPlus && c == '+')) {
+                break;
+            }
+            i++;
+        }
+        if (i == end) {
+            return s.substring(start, end);
+        }
+
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(s, start, i);
+        byte[] bytes = new byte[(end - i) / 2 + 1];
+        int byteCount = 0;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%') {
+                int high = i + 1 < end ? hexValue(s.charAt(i + 1)) : -1;
+                int low = high >= 0 && i + 2 < end ? hexValue(s.charAt(i + 2)) : -1;
+                if (low < 0) {
+                    byteCount = flush(builder, bytes, byteCount);
+                    builder.append(INVALID_INPUT_CHARACTER);
+                    if (i + (high < 0 ? 1 : 2) >= end) {
+                        // Truncated escape sequence: nothing left to decode
+                        return builder.toString();
+                    }
+                    // Skip up to the invalid character. Like Uri, the digits read so far still make a byte
+                    bytes[byteCount++] = (byte) Math.max(high, 0);
+                    i += high < 0 ? 2 : 3;
+                    continue;
+                }
+                bytes[byteCount++] = (byte) (high << 4 | low);
+                i += 3;
+            } else {
+                byteCount = flush(builder, bytes, byteCount);
+                builder.append(convertPlus && c == '+' ? ' ' : c);
+                i++;
+            }
+        }
+        flush(builder, bytes, byteCount);
+        return builder.toString();
+    }
+
+    private static int flush(StringBuilder builder, byte[] bytes, int byteCount) {
+        if (byteCount > 0) {
+            builder.append(new String(bytes, 0, byteCount, UTF_8));
+        }
+        return 0;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,222 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Low-overhead metrics of the dispatcher: event outcomes per type, XTOR tag issues, and latency
+ * histograms of each dispatch stage.
+ *
+ * Recording is a single striped counter increment (two for a latency), safe to call from any thread
+ * without contention. Read the metrics with {@link #snapshot()}.
+ */
+public final class DispatchMetrics
+{
+    /**
+     * What happened to an event
+     */
+    public enum Outcome {
+        SENT,
+        /**
+         * Its type is disabled in the event mapping
+         */
+        DISABLED,
+        DUPLICATE,
+        SAMPLED_OUT,
+        RATE_LIMITED,
+        /**
+         * Counted by the {@link EventRollup}, and sent in a summary hit
+         */
+        ROLLED_UP,
+        /**
+         * Sending it threw an exception, or failed for at least one of its destinations
+         */
+        FAILED,
+        /**
+         * A queue on its way was full: the asynchronous dispatch queue, or one in front of its destinations, like a
+         * parallel tracker target's
+         */
+        DROPPED
+    }
+
+    /**
+     * State of the XTOR tag of the events sending an OnSiteAds publisher hit
+     */
+    public enum XtorStatus {
+        VALID,
+        /**
+         * The event has no XTOR tag
+         */
+        MISSING,
+        /**
+         * The XTOR tag has no valid campaign, Batch's default campaign is used
+         */
+        INVALID
+    }
+
+    /**
+     * Timed stages of a dispatch
+     */
+    public enum Stage {
+        /**
+         * Whole {@code dispatchEvent} call, on the caller's thread
+         */
+        DISPATCH,
+        /**
+         * Copy of the payload fields, when events are queued, batched or journaled
+         */
+        SNAPSHOT,
+        /**
+         * Read of the payload fields: the XTOR tag from its source, the WebView analytics ID and the custom values
+         */
+        PAYLOAD,
+        /**
+         * Parse of the XTOR tag into the OnSiteAds publisher's campaign and labels, for events with a publisher hit
+         */
+        XTOR,
+        PUBLISHER_SEND,
+        SCREEN_SEND
+    }
+
+    /**
+     * Latencies are counted in power of two buckets of nanoseconds: bucket i holds latencies in [2^(i-1), 2^i)
+     */
+    static final int BUCKET_COUNT = 40;
+
+    private static final int TYPE_COUNT = EventType.values().length;
+    private static final int OUTCOME_COUNT = Outcome.values().length;
+    private static final int XTOR_OFFSET = TYPE_COUNT * OUTCOME_COUNT;
+    private static final int LATENCY_OFFSET = XTOR_OFFSET + XtorStatus.values().length;
+    /**
+     * Per stage: the buckets, then the total in nanoseconds
+     */
+    private static final int STAGE_LENGTH = BUCKET_COUNT + 1;
+    private static final int COUNTER_COUNT = LATENCY_OFFSET + Stage.values().length * STAGE_LENGTH;
+
+    private final StripedCounters counters = new StripedCounters(COUNTER_COUNT);
+
+    public void recordOutcome(@NonNull EventType type, @NonNull Outcome outcome) {
+        counters.add(type.ordinal() * OUTCOME_COUNT + outcome.ordinal(), 1);
+    }
+
+    public void recordXtorStatus(@NonNull XtorStatus status) {
+        counters.add(XTOR_OFFSET + status.ordinal(), 1);
+    }
+
+    /**
+     * @param stage Timed stage
+     * @param nanos Its duration, from {@link System#nanoTime()} differences
+     */
+    public void recordLatency(@NonNull Stage stage, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int base = LATENCY_OFFSET + stage.ordinal() * STAGE_LENGTH;
+        counters.add(base + getBucket(nanos), 1);
+        counters.add(base + BUCKET_COUNT, nanos);
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        return new Snapshot(counters.sumAll());
+    }
+
+    static int getBucket(long nanos) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Metrics at a point in time. Counts recorded while the snapshot was taken may be partially included.
+     */
+    public static final class Snapshot
+    {
+        private final long[] values;
+
+        private Snapshot(long[] values) {
+            this.values = values;
+        }
+
+        public long getEventCount(@NonNull EventType type, @NonNull Outcome outcome) {
+            return values[type.ordinal() * OUTCOME_COUNT + outcome.ordinal()];
+        }
+
+        /**
+         * @return Number of events of all types with this outcome
+         */
+        public long getEventCount(@NonNull Outcome outcome) {
+            long count = 0;
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                count += values[type * OUTCOME_COUNT + outcome.ordinal()];
+            }
+            return count;
+        }
+
+        public long getXtorCount(@NonNull XtorStatus status) {
+            return values[XTOR_OFFSET + status.ordinal()];
+        }
+
+        @NonNull
+        public Latency getLatency(@NonNull Stage stage) {
+            return new Latency(values, LATENCY_OFFSET + stage.ordinal() * STAGE_LENGTH);
+        }
+    }
+
+    /**
+     * Latency histogram of a stage
+     */
+    public static final class Latency
+    {
+        private final long[] buckets = new long[BUCKET_COUNT];
+        private final long count;
+        private final long totalNanos;
+
+        private Latency(long[] values, int offset) {
+            long sum = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = values[offset + i];
+                sum += buckets[i];
+            }
+            this.count = sum;
+            this.totalNanos = values[offset + BUCKET_COUNT];
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * @param percentile Percentile, between 0 and 100
+         * @return Upper bound of the bucket holding this percentile, in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return Number of latencies in each bucket: bucket i holds latencies from 2^(i-1) (0 for the first one)
+         * to 2^i nanoseconds, excluded
+         */
+        @NonNull
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects events already seen within a time window: a rotating Bloom filter.
+ *
+ * The filter is made of {@link #SLOT_COUNT} Bloom filters, each recording the events of one period of
+ * window / (SLOT_COUNT - 1). When a period ends, the oldest filter is cleared and records the next one,
+ * so an event is remembered for at least the window, and at most a period more.
+ * Its false positive rate stays below the configured one as long as no more than the expected number
+ * of events are recorded per window.
+ *
+ * Everything lives in a fixed-size buffer, checking an event doesn't allocate. The buffer can be
+ * a memory-mapped file, so that the filter survives a restart: see {@link #restore(ByteBuffer)}.
+ *
+ * Layout: magic (4) | version (4) | words per slot (4) | hash count (4) | window (8) | period start (8) |
+ * current slot (4) | unused (4) | slots (8 * words per slot * SLOT_COUNT)
+ *
+ * Thread safe.
+ */
+public final class DuplicateFilter
+{
+    static final int SLOT_COUNT = 4;
+
+    private static final int MAGIC = 0x42415444; // BATD
+    private static final int VERSION = 1;
+    private static final int MAX_HASH_COUNT = 16;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_WORDS_PER_SLOT = 8;
+    private static final int OFFSET_HASH_COUNT = 12;
+    private static final int OFFSET_WINDOW = 16;
+    private static final int OFFSET_PERIOD_START = 24;
+    private static final int OFFSET_CURRENT_SLOT = 32;
+    private static final int HEADER_SIZE = 40;
+
+    private final ByteBuffer buffer;
+    private final int wordsPerSlot;
+    private final long bitsPerSlot;
+    private final int hashCount;
+    private final long windowMillis;
+    private final long periodMillis;
+
+    private long periodStart;
+    private int currentSlot;
+    private long suppressedCount;
+
+    /**
+     * Create a filter held in memory
+     *
+     * @param windowMillis Minimum time an event is remembered, in milliseconds
+     * @param expectedEventsPerWindow Number of events the filter is sized for
+     * @param falsePositiveRate Maximum share of new events wrongly seen as duplicates, between 0 and 1
+     */
+    public DuplicateFilter(long windowMillis, int expectedEventsPerWindow, double falsePositiveRate) {
+        this(windowMillis, expectedEventsPerWindow, falsePositiveRate,
+                ByteBuffer.allocate(getByteSize(expectedEventsPerWindow, falsePositiveRate)));
+    }
+
+    /**
+     * Create a filter held in a buffer. If the buffer already holds a filter with the same dimensions,
+     * like a memory-mapped file written by a previous launch, its events are kept.
+     *
+     * @param storage Buffer of {@link #getByteSize(int, double)} bytes
+     * @see #DuplicateFilter(long, int, double)
+     */
+    public DuplicateFilter(long windowMillis, int expectedEventsPerWindow, double falsePositiveRate,
+                           @NonNull ByteBuffer storage) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("window must be strictly positive");
+        }
+        int words = getWordsPerSlot(expectedEventsPerWindow, falsePositiveRate);
+        if (storage.capacity() < getByteSize(words)) {
+            throw new IllegalArgumentException("storage is too small");
+        }
+        int hashes = getHashCount(words, expectedEventsPerWindow);
+
+        this.buffer = storage;
+        this.wordsPerSlot = words;
+        this.bitsPerSlot = words * 64L;
+        this.hashCount = hashes;
+        this.windowMillis = windowMillis;
+        this.periodMillis = getPeriodMillis(windowMillis);
+
+        if (hasHeader(storage) && storage.getInt(OFFSET_WORDS_PER_SLOT) == words &&
+                storage.getInt(OFFSET_HASH_COUNT) == hashes && storage.getLong(OFFSET_WINDOW) == windowMillis) {
+            loadState();
+        } else {
+            reset(storage, words, hashes, windowMillis);
+        }
+    }
+
+    private DuplicateFilter(ByteBuffer storage) {
+        this.buffer = storage;
+        this.wordsPerSlot = storage.getInt(OFFSET_WORDS_PER_SLOT);
+        this.bitsPerSlot = wordsPerSlot * 64L;
+        this.hashCount = storage.getInt(OFFSET_HASH_COUNT);
+        this.windowMillis = storage.getLong(OFFSET_WINDOW);
+        this.periodMillis = getPeriodMillis(windowMillis);
+        loadState();
+    }
+
+    /**
+     * Restore a filter from a buffer, keeping its dimensions and events
+     *
+     * @param storage Buffer holding a filter
+     * @return The filter, or null if the buffer doesn't hold a valid one
+     */
+    @Nullable
+    public static DuplicateFilter restore(@NonNull ByteBuffer storage) {
+        if (!hasHeader(storage)) {
+            return null;
+        }
+        int words = storage.getInt(OFFSET_WORDS_PER_SLOT);
+        int hashes = storage.getInt(OFFSET_HASH_COUNT);
+        int slot = storage.getInt(OFFSET_CURRENT_SLOT);
+        if (words <= 0 || storage.capacity() < getByteSize(words) || hashes <= 0 || hashes > MAX_HASH_COUNT ||
+                storage.getLong(OFFSET_WINDOW) <= 0 || slot < 0 || slot >= SLOT_COUNT) {
+            return null;
+        }
+        return new DuplicateFilter(storage);
+    }
+
+    /**
+     * @return Size of the buffer needed by a filter
+     */
+    public static int getByteSize(int expectedEventsPerWindow, double falsePositiveRate) {
+        return getByteSize(getWordsPerSlot(expectedEventsPerWindow, falsePositiveRate));
+    }
+
+    /**
+     * Check whether an event was already seen within the window, and remember it if it wasn't
+     *
+     * @param type The type of the event
+     * @param campaign Identifier of the event's campaign, like its XTOR tag
+     * @param webViewAnalyticsID The event's WebView analytics ID, if any
+     * @param nowMillis Current time, from {@link System#currentTimeMillis()}, as the filter can outlive the process
+     * @return true if the event is a duplicate
+     */
+    public synchronized boolean isDuplicate(@NonNull EventType type, @NonNull String campaign,
+                                            @Nullable String webViewAnalyticsID, long nowMillis) {
+        rotate(nowMillis);
+
+        long hash = Hashing.hash(Hashing.FNV_OFFSET_BASIS, type.name());
+        hash = Hashing.hash(Hashing.hash(hash, '\0'), campaign);
+        if (webViewAnalyticsID != null) {
+            hash = Hashing.hash(Hashing.hash(hash, '\1'), webViewAnalyticsID);
+        }
+        long hash1 = Hashing.mix(hash);
+        long hash2 = Hashing.mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (containsAll(slot, hash1, hash2)) {
+                suppressedCount++;
+                return true;
+            }
+        }
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) >>> 1) % bitsPerSlot;
+            int offset = getWordOffset(currentSlot, bit);
+            buffer.putLong(offset, buffer.getLong(offset) | (1L << bit));
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of events seen as duplicates by this instance
+     */
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private boolean containsAll(int slot, long hash1, long hash2) {
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) >>> 1) % bitsPerSlot;
+            if ((buffer.getLong(getWordOffset(slot, bit)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getWordOffset(int slot, long bit) {
+        return HEADER_SIZE + (slot * wordsPerSlot + (int) (bit >>> 6)) * 8;
+    }
+
+    private void rotate(long nowMillis) {
+        if (nowMillis < periodStart) {
+            // The clock went back: the age of the recorded events is unknown
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                clearSlot(slot);
+            }
+            periodStart = nowMillis;
+            saveState();
+            return;
+        }
+
+        long elapsedPeriods = (nowMillis - periodStart) / periodMillis;
+        if (elapsedPeriods == 0) {
+            return;
+        }
+        for (long i = 0; i < Math.min(elapsedPeriods, SLOT_COUNT); i++) {
+            currentSlot = (currentSlot + 1) % SLOT_COUNT;
+            clearSlot(currentSlot);
+        }
+        periodStart += elapsedPeriods * periodMillis;
+        saveState();
+    }
+
+    private void clearSlot(int slot) {
+        for (int word = 0; word < wordsPerSlot; word++) {
+            buffer.putLong(HEADER_SIZE + (slot * wordsPerSlot + word) * 8, 0);
+        }
+    }
+
+    private void loadState() {
+        periodStart = buffer.getLong(OFFSET_PERIOD_START);
+        currentSlot = buffer.getInt(OFFSET_CURRENT_SLOT);
+    }
+
+    private void saveState() {
+        buffer.putLong(OFFSET_PERIOD_START, periodStart);
+        buffer.putInt(OFFSET_CURRENT_SLOT, currentSlot);
+    }
+
+    private void reset(ByteBuffer storage, int words, int hashes, long window) {
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            clearSlot(slot);
+        }
+        // The magic goes last, so that a filter interrupted while being reset is not restored
+        storage.putInt(OFFSET_MAGIC, 0);
+        storage.putInt(OFFSET_VERSION, VERSION);
+        storage.putInt(OFFSET_WORDS_PER_SLOT, words);
+        storage.putInt(OFFSET_HASH_COUNT, hashes);
+        storage.putLong(OFFSET_WINDOW, window);
+        periodStart = 0;
+        currentSlot = 0;
+        saveState();
+        storage.putInt(OFFSET_MAGIC, MAGIC);
+    }
+
+    private static boolean hasHeader(ByteBuffer storage) {
+        return storage.capacity() >= HEADER_SIZE && storage.getInt(OFFSET_MAGIC) == MAGIC &&
+                storage.getInt(OFFSET_VERSION) == VERSION;
+    }
+
+    private static long getPeriodMillis(long windowMillis) {
+        return Math.max(1, (windowMillis + SLOT_COUNT - 2) / (SLOT_COUNT - 1));
+    }
+
+    private static int getByteSize(int wordsPerSlot) {
+        return HEADER_SIZE + SLOT_COUNT * wordsPerSlot * 8;
+    }
+
+    /**
+     * Size each slot so that the union of the slots meets the false positive rate
+     * with the expected number of events per period
+     */
+    private static int getWordsPerSlot(int expectedEventsPerWindow, double falsePositiveRate) {
+        if (expectedEventsPerWindow <= 0) {
+            throw new IllegalArgumentException("expected events per window must be strictly positive");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+        }
+        double eventsPerSlot = getEventsPerSlot(expectedEventsPerWindow);
+        double slotRate = falsePositiveRate / SLOT_COUNT;
+        double bits = Math.ceil(-eventsPerSlot * Math.log(slotRate) / (Math.log(2) * Math.log(2)));
+        return (int) Math.ceil(bits / 64);
+    }
+
+    private static int getHashCount(int wordsPerSlot, int expectedEventsPerWindow) {
+        double optimal = wordsPerSlot * 64 / getEventsPerSlot(expectedEventsPerWindow) * Math.log(2);
+        return (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round(optimal)));
+    }
+
+    private static double getEventsPerSlot(int expectedEventsPerWindow) {
+        return Math.ceil((double) expectedEventsPerWindow / (SLOT_COUNT - 1));
+    }
+}
@@ -0,0 +1,35 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The fields of a Batch event payload that are used to build its AT Internet hits.
+ * The mapper reads each field at most once per event, and only the fields it needs: the XTOR sources
+ * are read in precedence order, tracking ID, then custom XTOR, then deeplink, until one has a tag.
+ */
+public interface EventFields
+{
+    @Nullable
+    String getTrackingId();
+
+    @Nullable
+    String getDeeplink();
+
+    /**
+     * @return The "xtor" custom payload value
+     */
+    @Nullable
+    String getXtorCustomValue();
+
+    /**
+     * @return A custom payload value, read for the custom variables of a {@link CustomVarPlan}
+     */
+    @Nullable
+    String getCustomValue(@NonNull String key);
+
+    @Nullable
+    String getWebViewAnalyticsID();
+
+    boolean isPositiveAction();
+}
@@ -0,0 +1,299 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Turns Batch events into the description of their AT Internet hits.
+ * The XTOR tag of an event comes from its tracking ID, its deeplink or its "xtor" custom value, and the OnSiteAds
+ * campaign ID from the XTOR tag. See : https://marketplace.atinternet-solutions.com/ATInternetCampaignCreator/xtor/
+ * The other parts of a valid tag fill the matching fields of the OnSiteAds publisher: see {@link XtorTag}.
+ *
+ * How each event type is sent comes from an {@link EventMapping}, and the custom variables of the screen
+ * from a {@link CustomVarPlan}. Both can be replaced at any time.
+ *
+ * Thread safe: the parsing results and the variant labels are kept in lock-free caches, so that the labels of
+ * a campaign seen again are shared instead of being built for each event.
+ */
+public final class EventMapper
+{
+    public static final String XTOR = "xtor";
+
+    static final String TRACE_DEEPLINK = "AtInternet:deeplinkTag";
+    static final String TRACE_XTOR = "AtInternet:xtorCampaign";
+    private static final String BATCH_DEFAULT_CAMPAIGN = "[batch-default-campaign]";
+    private static final String BATCH_ADVERTISER_ID = "[batch]";
+
+    /**
+     * Number of deeplinks and XTOR tags whose parsing result is kept.
+     * A push campaign produces up to three events with the same deeplink and tag,
+     * there is no need to remember many campaigns.
+     */
+    private static final int PARSE_CACHE_CAPACITY = 32;
+
+    private static final ParseCache.Loader<String> DEEPLINK_XTOR_LOADER = new ParseCache.Loader<String>() {
+        @Nullable
+        @Override
+        public String load(@NonNull String deeplink) {
+            return DeeplinkTagScanner.getTag(deeplink, XTOR);
+        }
+    };
+
+    private static final ParseCache.Loader<XtorTag> XTOR_TAG_LOADER = new ParseCache.Loader<XtorTag>() {
+        @Nullable
+        @Override
+        public XtorTag load(@NonNull String xtorTag) {
+            return XtorTag.parse(xtorTag);
+        }
+    };
+
+    private static final ParseCache.Loader<String> VARIANT_LOADER = new ParseCache.Loader<String>() {
+        @NonNull
+        @Override
+        public String load(@NonNull String webViewAnalyticsID) {
+            return "[" + webViewAnalyticsID + "]";
+        }
+    };
+
+    private final ParseCache<String> deeplinkTagCache = new ParseCache<>(PARSE_CACHE_CAPACITY);
+
+    private final ParseCache<XtorTag> campaignCache = new ParseCache<>(PARSE_CACHE_CAPACITY);
+
+    /**
+     * Variant labels by WebView analytics ID. A WebView In-App only has a few buttons, and its events
+     * come close together, so the parse cache's capacity is enough.
+     */
+    private final ParseCache<String> variantCache = new ParseCache<>(PARSE_CACHE_CAPACITY);
+
+    private volatile EventMapping mapping = EventMapping.getDefault();
+
+    private volatile CustomVarPlan customVarPlan = CustomVarPlan.getEmpty();
+
+    private volatile boolean xtorFieldsFirst;
+
+    private volatile SectionTracer tracer;
+
+    /**
+     * Describe the hits of an event
+     *
+     * @param type The type of the event
+     * @param fields The payload fields of the event, not read if the type is disabled
+     * @return The hits to send, or null if the event type is disabled
+     */
+    @Nullable
+    public HitDescription map(@NonNull EventType type, @NonNull EventFields fields) {
+        return map(type, fields, customVarPlan);
+    }
+
+    /**
+     * Describe the hits of an event with the custom variable plan its fields were captured for, rather than the
+     * current one: an event queued before the plan was replaced only holds the payload values of its own plan.
+     *
+     * @param type The type of the event
+     * @param fields The payload fields of the event, not read if the type is disabled
+     * @param plan The custom variable plan of the fields
+     * @return The hits to send, or null if the event type is disabled
+     */
+    @Nullable
+    public HitDescription map(@NonNull EventType type, @NonNull EventFields fields, @NonNull CustomVarPlan plan) {
+        return map(type, fields, plan, null);
+    }
+
+    /**
+     * Describe the hits of an event, recording the latency of its {@link DispatchMetrics.Stage#PAYLOAD} and
+     * {@link DispatchMetrics.Stage#XTOR} stages
+     *
+     * @param type The type of the event
+     * @param fields The payload fields of the event, not read if the type is disabled
+     * @param plan The custom variable plan of the fields
+     * @param metrics Metrics recording the stages, or null not to time them
+     * @return The hits to send, or null if the event type is disabled
+     */
+    @Nullable
+    public HitDescription map(@NonNull EventType type, @NonNull EventFields fields, @NonNull CustomVarPlan plan,
+                              @Nullable DispatchMetrics metrics) {
+        EventMapping eventMapping = mapping;
+        if (!eventMapping.isEnabled(type)) {
+            return null;
+        }
+        long stageStart = metrics == null ? 0 : System.nanoTime();
+
+        // The deeplink is only read once: up front if the plan needs it, else when resolving the XTOR tag
+        boolean deeplinkRead = plan.usesDeeplink();
+        String deeplink = deeplinkRead ? fields.getDeeplink() : null;
+
+        String xtorTag = resolveXtorTag(fields, deeplinkRead, deeplink);
+        String webViewAnalyticsID = fields.getWebViewAnalyticsID();
+        String[] customVarValues = plan.extract(fields, deeplink);
+        EventMapping.Role role = eventMapping.getRole(type);
+        HitDescription.Action action = HitDescription.Action.NONE;
+        if (role == EventMapping.Role.IMPRESSION) {
+            action = HitDescription.Action.IMPRESSION;
+        } else if (role == EventMapping.Role.CLICK &&
+                (fields.isPositiveAction() || type == EventType.MESSAGING_WEBVIEW_CLICK)) {
+            // We send the click if it's a positive action or if it's a click inside a WebView In-App
+            action = HitDescription.Action.TOUCH;
+        }
+        if (metrics != null) {
+            long now = System.nanoTime();
+            metrics.recordLatency(DispatchMetrics.Stage.PAYLOAD, now - stageStart);
+            stageStart = now;
+        }
+
+        HitDescription.OnSiteAd onSiteAd = null;
+        if (role != EventMapping.Role.NONE) {
+            onSiteAd = mapOnSiteAd(action, eventMapping.getFormat(type), xtorTag, webViewAnalyticsID);
+            if (metrics != null) {
+                metrics.recordLatency(DispatchMetrics.Stage.XTOR, System.nanoTime() - stageStart);
+            }
+        }
+        return new HitDescription(eventMapping.getScreenName(type), xtorTag, webViewAnalyticsID, onSiteAd,
+                plan, customVarValues);
+    }
+
+    /**
+     * @return Whether events of this type are sent. Check it before reading an event's payload.
+     */
+    public boolean isEnabled(@NonNull EventType type) {
+        return mapping.isEnabled(type);
+    }
+
+    @NonNull
+    public EventMapping getMapping() {
+        return mapping;
+    }
+
+    public void setMapping(@NonNull EventMapping mapping) {
+        this.mapping = mapping;
+    }
+
+    @NonNull
+    public CustomVarPlan getCustomVarPlan() {
+        return customVarPlan;
+    }
+
+    public void setCustomVarPlan(@NonNull CustomVarPlan customVarPlan) {
+        this.customVarPlan = customVarPlan;
+    }
+
+    public boolean isXtorFieldsFirst() {
+        return xtorFieldsFirst;
+    }
+
+    /**
+     * Choose which value the publisher's format and variant get when both Batch and the XTOR tag have one.
+     * Batch's values win by default: the format of the event type in the {@link EventMapping}, and the variant
+     * of the WebView button. The other publisher fields only come from the XTOR tag.
+     *
+     * @param xtorFieldsFirst Whether the XTOR tag's format and variant win over Batch's
+     */
+    public void setXtorFieldsFirst(boolean xtorFieldsFirst) {
+        this.xtorFieldsFirst = xtorFieldsFirst;
+    }
+
+    /**
+     * @param tracer Tracer receiving the deeplink and XTOR parsing sections, or null not to trace them
+     */
+    public void setTracer(@Nullable SectionTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Get the XTOR tag of an event: its tracking ID if there is one, else its "xtor" custom value,
+     * else the "xtor" parameter of its deeplink.
+     * Sources are read in this order and only until one has a tag, so the deeplink is neither read
+     * nor parsed when a cheaper source wins.
+     *
+     * @param fields The payload fields of the event
+     * @return The XTOR tag, or null
+     */
+    @Nullable
+    public String resolveXtorTag(@NonNull EventFields fields) {
+        return resolveXtorTag(fields, false, null);
+    }
+
+    /**
+     * @param deeplinkRead Whether the deeplink was already read, in which case it isn't read again
+     * @param deeplink The deeplink, if it was already read
+     */
+    @Nullable
+    private String resolveXtorTag(EventFields fields, boolean deeplinkRead, String deeplink) {
+        String trackingId = fields.getTrackingId();
+        if (trackingId != null && !trackingId.isEmpty()) {
+            return trackingId;
+        }
+
+        String customXtorTag = fields.getXtorCustomValue();
+        if (customXtorTag != null) {
+            return customXtorTag;
+        }
+
+        if (!deeplinkRead) {
+            deeplink = fields.getDeeplink();
+        }
+        if (deeplink != null) {
+            return getCached(deeplinkTagCache, deeplink, DEEPLINK_XTOR_LOADER, TRACE_DEEPLINK);
+        }
+        return null;
+    }
+
+    @NonNull
+    public ParseCache<String> getDeeplinkTagCache() {
+        return deeplinkTagCache;
+    }
+
+    @NonNull
+    public ParseCache<XtorTag> getCampaignCache() {
+        return campaignCache;
+    }
+
+    @NonNull
+    public ParseCache<String> getVariantCache() {
+        return variantCache;
+    }
+
+    @Nullable
+    private <V> V getCached(ParseCache<V> cache, String key, ParseCache.Loader<V> loader, String traceSection) {
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer == null) {
+            return cache.get(key, loader);
+        }
+        sectionTracer.beginSection(traceSection);
+        try {
+            return cache.get(key, loader);
+        } finally {
+            sectionTracer.endSection();
+        }
+    }
+
+    private HitDescription.OnSiteAd mapOnSiteAd(HitDescription.Action action, String format, String xtorTag,
+                                                String webViewAnalyticsID) {
+        XtorTag tag = null;
+        if (xtorTag != null) {
+            tag = getCached(campaignCache, xtorTag, XTOR_TAG_LOADER, TRACE_XTOR);
+        }
+        String campaign = tag != null ? tag.getCampaign() : null;
+        boolean defaultCampaign = campaign == null || campaign.isEmpty();
+        if (defaultCampaign) {
+            campaign = BATCH_DEFAULT_CAMPAIGN;
+        }
+
+        String variant = null;
+        if (webViewAnalyticsID != null) {
+            variant = variantCache.get(webViewAnalyticsID, VARIANT_LOADER);
+        }
+        if (tag != null) {
+            boolean xtorFirst = xtorFieldsFirst;
+            XtorTag.Label xtorFormat = tag.getFormat();
+            if (xtorFormat != null && (xtorFirst || format == null)) {
+                format = xtorFormat.getValue();
+            }
+            XtorTag.Label xtorVariant = tag.getVariant();
+            if (xtorVariant != null && (xtorFirst || variant == null)) {
+                variant = xtorVariant.getValue();
+            }
+        }
+        return new HitDescription.OnSiteAd(campaign, format, BATCH_ADVERTISER_ID, variant, action, defaultCampaign,
+                tag);
+    }
+}
@@ -0,0 +1,170 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * How each event type is sent to AT Internet: its screen name, its OnSiteAds publisher format and role,
+ * and whether it is sent at all.
+ * Immutable, compiled into an array indexed by {@link EventType#ordinal()} so that looking up a type is
+ * a single array read. Use a {@link Builder} to change the default mapping.
+ */
+public final class EventMapping
+{
+    static final String NOTIFICATION_FORMAT = "[push]";
+    static final String MESSAGING_FORMAT = "[in-app]";
+
+    /**
+     * Which OnSiteAds publisher hit an event type sends
+     */
+    public enum Role {
+        IMPRESSION,
+        CLICK,
+        /**
+         * No publisher hit, only the screen
+         */
+        NONE
+    }
+
+    private static final EventMapping DEFAULT = new Builder().build();
+
+    private final String[] screenNames;
+    private final String[] formats;
+    private final Role[] roles;
+    private final boolean[] enabled;
+
+    private EventMapping(Builder builder) {
+        this.screenNames = builder.screenNames.clone();
+        this.formats = builder.formats.clone();
+        this.roles = builder.roles.clone();
+        this.enabled = builder.enabled.clone();
+    }
+
+    /**
+     * @return The mapping used by the dispatcher unless configured otherwise: every event type is sent
+     */
+    @NonNull
+    public static EventMapping getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return Whether events of this type are sent to AT Internet
+     */
+    public boolean isEnabled(@NonNull EventType type) {
+        return enabled[type.ordinal()];
+    }
+
+    /**
+     * @return Name of the AT Internet screen sent for this event type
+     */
+    @NonNull
+    public String getScreenName(@NonNull EventType type) {
+        return screenNames[type.ordinal()];
+    }
+
+    /**
+     * @return Format of the OnSiteAds publisher sent for this event type, if any
+     */
+    @Nullable
+    public String getFormat(@NonNull EventType type) {
+        return formats[type.ordinal()];
+    }
+
+    @NonNull
+    public Role getRole(@NonNull EventType type) {
+        return roles[type.ordinal()];
+    }
+
+    @NonNull
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Builds an {@link EventMapping}, starting from the default mapping
+     */
+    public static final class Builder
+    {
+        private final String[] screenNames;
+        private final String[] formats;
+        private final Role[] roles;
+        private final boolean[] enabled;
+
+        public Builder() {
+            EventType[] types = EventType.values();
+            screenNames = new String[types.length];
+            formats = new String[types.length];
+            roles = new Role[types.length];
+            enabled = new boolean[types.length];
+            for (EventType type : types) {
+                int index = type.ordinal();
+                screenNames[index] = type.getScreenName();
+                if (type.isNotificationEvent()) {
+                    formats[index] = NOTIFICATION_FORMAT;
+                } else if (type.isMessagingEvent()) {
+                    formats[index] = MESSAGING_FORMAT;
+                }
+                if (type.isImpression()) {
+                    roles[index] = Role.IMPRESSION;
+                } else if (type.isClick()) {
+                    roles[index] = Role.CLICK;
+                } else {
+                    roles[index] = Role.NONE;
+                }
+                enabled[index] = true;
+            }
+        }
+
+        private Builder(EventMapping mapping) {
+            screenNames = mapping.screenNames.clone();
+            formats = mapping.formats.clone();
+            roles = mapping.roles.clone();
+            enabled = mapping.enabled.clone();
+        }
+
+        /**
+         * Enable or disable an event type. Disabled events are dropped before their payload is read.
+         */
+        @NonNull
+        public Builder setEnabled(@NonNull EventType type, boolean enabled) {
+            this.enabled[type.ordinal()] = enabled;
+            return this;
+        }
+
+        @NonNull
+        public Builder setScreenName(@NonNull EventType type, @NonNull String screenName) {
+            if (screenName.isEmpty()) {
+                throw new IllegalArgumentException("The screen name of " + type + " cannot be empty");
+            }
+            screenNames[type.ordinal()] = screenName;
+            return this;
+        }
+
+        /**
+         * @param format Format of the OnSiteAds publisher, or null not to set one
+         */
+        @NonNull
+        public Builder setFormat(@NonNull EventType type, @Nullable String format) {
+            // Keep sharing the default labels when a configuration repeats them
+            if (NOTIFICATION_FORMAT.equals(format)) {
+                format = NOTIFICATION_FORMAT;
+            } else if (MESSAGING_FORMAT.equals(format)) {
+                format = MESSAGING_FORMAT;
+            }
+            formats[type.ordinal()] = format;
+            return this;
+        }
+
+        @NonNull
+        public Builder setRole(@NonNull EventType type, @NonNull Role role) {
+            roles[type.ordinal()] = role;
+            return this;
+        }
+
+        @NonNull
+        public EventMapping build() {
+            return new EventMapping(this);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Counts low-value events per (type, campaign) instead of sending each of them, until the counts are sent
+ * as summary hits by {@link #drain(Sender)}.
+ *
+ * Counts live in a fixed-size open addressing table held in a buffer: the key's chars are stored in its slot,
+ * so counting an event neither allocates nor creates a String. The buffer can be a memory-mapped file, so that
+ * counts survive a restart: see {@link #restore(ByteBuffer)}. A count is removed once its summary hit is sent:
+ * if the process dies in between, the count is sent again, it is never lost.
+ *
+ * Layout: magic (4) | version (4) | capacity (4) | count custom variable index (4) | flush interval (8) |
+ * types (4) | unused (4) | slots (SLOT_SIZE * capacity)
+ * Slot: type ordinal + 1, 0 if empty (2) | campaign length, -1 if none (2) | count (4) | hash (8) | campaign chars
+ *
+ * Thread safe.
+ */
+public final class EventRollup
+{
+    /**
+     * Longest campaign that can be counted, in chars. Events with a longer campaign are not rolled up.
+     */
+    public static final int MAX_CAMPAIGN_LENGTH = 120;
+
+    private static final int MAGIC = 0x42415452; // BATR
+    private static final int VERSION = 1;
+    private static final int MAX_CAPACITY = 4096;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_CUSTOM_VAR_INDEX = 12;
+    private static final int OFFSET_FLUSH_INTERVAL = 16;
+    private static final int OFFSET_TYPES = 24;
+    private static final int HEADER_SIZE = 32;
+
+    private static final int SLOT_TYPE = 0;
+    private static final int SLOT_CAMPAIGN_LENGTH = 2;
+    private static final int SLOT_COUNT = 4;
+    private static final int SLOT_HASH = 8;
+    private static final int SLOT_CAMPAIGN = 16;
+    static final int SLOT_SIZE = SLOT_CAMPAIGN + MAX_CAMPAIGN_LENGTH * 2;
+
+    private static final EventType[] EVENT_TYPES = EventType.values();
+
+    /**
+     * Receives the counts drained from a rollup
+     */
+    public interface Sender {
+        /**
+         * Send the summary hit of a count. Throw to keep the count, to be sent on the next drain.
+         *
+         * @param type Type of the counted events
+         * @param campaign Campaign of the counted events, null if they don't have one
+         * @param count Number of events
+         */
+        void send(@NonNull EventType type, @Nullable String campaign, int count);
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int countCustomVarIndex;
+    private final long flushIntervalMillis;
+    private final int types;
+
+    private final Object drainLock = new Object();
+
+    /**
+     * Create a rollup held in memory
+     *
+     * @param capacity Number of (type, campaign) keys that can be counted at once
+     * @param flushIntervalMillis Interval between two drains, in milliseconds
+     * @param countCustomVarIndex Index of the screen custom variable holding the count in summary hits
+     * @param types Event types to roll up
+     */
+    public EventRollup(int capacity, long flushIntervalMillis, int countCustomVarIndex, @NonNull Set<EventType> types) {
+        this(capacity, flushIntervalMillis, countCustomVarIndex, types, ByteBuffer.allocate(getByteSize(capacity)));
+    }
+
+    /**
+     * Create a rollup held in a buffer. If the buffer already holds a rollup with the same settings,
+     * like a memory-mapped file written by a previous launch, its counts are kept.
+     *
+     * @param storage Buffer of {@link #getByteSize(int)} bytes
+     * @see #EventRollup(int, long, int, Set)
+     */
+    public EventRollup(int capacity, long flushIntervalMillis, int countCustomVarIndex, @NonNull Set<EventType> types,
+                       @NonNull ByteBuffer storage) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flush interval must be strictly positive");
+        }
+        if (countCustomVarIndex <= 0 || countCustomVarIndex == CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX) {
+            throw new IllegalArgumentException("count custom variable index must be strictly positive, and not " +
+                    CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX);
+        }
+        if (storage.capacity() < getByteSize(capacity)) {
+            throw new IllegalArgumentException("storage is too small");
+        }
+        int typeMask = 0;
+        for (EventType type : types) {
+            typeMask |= 1 << type.ordinal();
+        }
+
+        this.buffer = storage;
+        this.capacity = capacity;
+        this.countCustomVarIndex = countCustomVarIndex;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.types = typeMask;
+
+        if (!hasHeader(storage) || storage.getInt(OFFSET_CAPACITY) != capacity) {
+            reset(storage);
+        } else if (storage.getInt(OFFSET_CUSTOM_VAR_INDEX) != countCustomVarIndex ||
+                storage.getLong(OFFSET_FLUSH_INTERVAL) != flushIntervalMillis || storage.getInt(OFFSET_TYPES) != typeMask) {
+            // Same table, new settings: keep the counts
+            writeSettings(storage);
+        }
+    }
+
+    private EventRollup(ByteBuffer storage) {
+        this.buffer = storage;
+        this.capacity = storage.getInt(OFFSET_CAPACITY);
+        this.countCustomVarIndex = storage.getInt(OFFSET_CUSTOM_VAR_INDEX);
+        this.flushIntervalMillis = storage.getLong(OFFSET_FLUSH_INTERVAL);
+        this.types = storage.getInt(OFFSET_TYPES);
+    }
+
+    /**
+     * Restore a rollup from a buffer, keeping its settings and counts
+     *
+     * @param storage Buffer holding a rollup
+     * @return The rollup, or null if the buffer doesn't hold a valid one
+     */
+    @Nullable
+    public static EventRollup restore(@NonNull ByteBuffer storage) {
+        if (!hasHeader(storage)) {
+            return null;
+        }
+        int capacity = storage.getInt(OFFSET_CAPACITY);
+        int index = storage.getInt(OFFSET_CUSTOM_VAR_INDEX);
+        if (capacity <= 0 || capacity > MAX_CAPACITY || storage.capacity() < getByteSize(capacity) ||
+                index <= 0 || index == CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX ||
+                storage.getLong(OFFSET_FLUSH_INTERVAL) <= 0) {
+            return null;
+        }
+        return new EventRollup(storage);
+    }
+
+    /**
+     * @return Size of the buffer needed by a rollup
+     */
+    public static int getByteSize(int capacity) {
+        return HEADER_SIZE + capacity * SLOT_SIZE;
+    }
+
+    public boolean isRolledUp(@NonNull EventType type) {
+        return (types & (1 << type.ordinal())) != 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public int getCountCustomVarIndex() {
+        return countCustomVarIndex;
+    }
+
+    /**
+     * Count an event
+     *
+     * @param type The type of the event
+     * @param campaign The event's campaign, like its XTOR tag, if any
+     * @return true if the event was counted, false if it must be sent: its type isn't rolled up,
+     * its campaign is too long or the table is full
+     */
+    public synchronized boolean add(@NonNull EventType type, @Nullable String campaign) {
+        if (!isRolledUp(type) || (campaign != null && campaign.length() > MAX_CAMPAIGN_LENGTH)) {
+            return false;
+        }
+        long hash = hash(type, campaign);
+        int free = -1;
+        int start = (int) ((hash >>> 1) % capacity);
+        for (int probe = 0; probe < capacity; probe++) {
+            int slot = getSlotOffset((start + probe) % capacity);
+            int slotType = buffer.getShort(slot + SLOT_TYPE);
+            if (slotType == 0) {
+                if (free < 0) {
+                    free = slot;
+                }
+                break;
+            }
+            int count = buffer.getInt(slot + SLOT_COUNT);
+            if (slotType == type.ordinal() + 1 && buffer.getLong(slot + SLOT_HASH) == hash &&
+                    hasCampaign(slot, campaign)) {
+                if (count == Integer.MAX_VALUE) {
+                    return false;
+                }
+                buffer.putInt(slot + SLOT_COUNT, count + 1);
+                return true;
+            }
+            if (count == 0 && free < 0) {
+                // Sent key: reused if the event's key isn't further in the table
+                free = slot;
+            }
+        }
+        if (free < 0) {
+            return false;
+        }
+
+        // The type goes last, so that a slot interrupted while being written is not used
+        buffer.putShort(free + SLOT_TYPE, (short) 0);
+        buffer.putLong(free + SLOT_HASH, hash);
+        if (campaign != null) {
+            for (int i = 0; i < campaign.length(); i++) {
+                buffer.putChar(free + SLOT_CAMPAIGN + i * 2, campaign.charAt(i));
+            }
+        }
+        buffer.putShort(free + SLOT_CAMPAIGN_LENGTH, (short) (campaign == null ? -1 : campaign.length()));
+        buffer.putInt(free + SLOT_COUNT, 1);
+        buffer.putShort(free + SLOT_TYPE, (short) (type.ordinal() + 1));
+        return true;
+    }
+
+    /**
+     * Send the summary hit of every count, on the calling thread.
+     * Events counted while draining are either included in this drain or kept for the next one.
+     *
+     * @param sender Sends the summary hits. Drain stops at the first count it fails to send.
+     * @return Number of summary hits sent
+     * @throws RuntimeException thrown by the sender, the count it failed to send and the next ones are kept
+     */
+    public int drain(@NonNull Sender sender) {
+        synchronized (drainLock) {
+            int sent = 0;
+            for (int i = 0; i < capacity; i++) {
+                int slot = getSlotOffset(i);
+                EventType type;
+                String campaign;
+                int count;
+                synchronized (this) {
+                    int slotType = buffer.getShort(slot + SLOT_TYPE);
+                    count = buffer.getInt(slot + SLOT_COUNT);
+                    if (slotType <= 0 || slotType > EVENT_TYPES.length || count <= 0) {
+                        continue;
+                    }
+                    type = EVENT_TYPES[slotType - 1];
+                    campaign = readCampaign(slot);
+                }
+
+                sender.send(type, campaign, count);
+                sent++;
+
+                synchronized (this) {
+                    // Events counted meanwhile stay for the next drain
+                    buffer.putInt(slot + SLOT_COUNT, buffer.getInt(slot + SLOT_COUNT) - count);
+                }
+            }
+
+            synchronized (this) {
+                if (getPendingCount() == 0) {
+                    // Forget the sent keys, so that lookups stay short
+                    for (int i = 0; i < capacity; i++) {
+                        buffer.putShort(getSlotOffset(i) + SLOT_TYPE, (short) 0);
+                    }
+                }
+            }
+            return sent;
+        }
+    }
+
+    /**
+     * @return Number of counted events waiting to be sent
+     */
+    public synchronized long getPendingCount() {
+        long pending = 0;
+        for (int i = 0; i < capacity; i++) {
+            int slot = getSlotOffset(i);
+            if (buffer.getShort(slot + SLOT_TYPE) != 0) {
+                pending += buffer.getInt(slot + SLOT_COUNT);
+            }
+        }
+        return pending;
+    }
+
+    private boolean hasCampaign(int slot, @Nullable String campaign) {
+        int length = buffer.getShort(slot + SLOT_CAMPAIGN_LENGTH);
+        if (campaign == null) {
+            return length < 0;
+        }
+        if (length != campaign.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(slot + SLOT_CAMPAIGN + i * 2) != campaign.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private String readCampaign(int slot) {
+        int length = buffer.getShort(slot + SLOT_CAMPAIGN_LENGTH);
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[Math.min(length, MAX_CAMPAIGN_LENGTH)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar(slot + SLOT_CAMPAIGN + i * 2);
+        }
+        return new String(chars);
+    }
+
+    private static int getSlotOffset(int index) {
+        return HEADER_SIZE + index * SLOT_SIZE;
+    }
+
+    private static long hash(EventType type, @Nullable String campaign) {
+        long hash = Hashing.hash(Hashing.FNV_OFFSET_BASIS, (char) type.ordinal());
+        if (campaign != null) {
+            hash = Hashing.hash(Hashing.hash(hash, '\0'), campaign);
+        }
+        return Hashing.mix(hash);
+    }
+
+    private void writeSettings(ByteBuffer storage) {
+        storage.putInt(OFFSET_CUSTOM_VAR_INDEX, countCustomVarIndex);
+        storage.putLong(OFFSET_FLUSH_INTERVAL, flushIntervalMillis);
+        storage.putInt(OFFSET_TYPES, types);
+    }
+
+    private void reset(ByteBuffer storage) {
+        // The magic goes last, so that a rollup interrupted while being reset is not restored
+        storage.putInt(OFFSET_MAGIC, 0);
+        for (int i = 0; i < capacity; i++) {
+            storage.putShort(getSlotOffset(i) + SLOT_TYPE, (short) 0);
+        }
+        storage.putInt(OFFSET_VERSION, VERSION);
+        storage.putInt(OFFSET_CAPACITY, capacity);
+        writeSettings(storage);
+        storage.putInt(OFFSET_MAGIC, MAGIC);
+    }
+
+    private static boolean hasHeader(ByteBuffer storage) {
+        return storage.capacity() >= HEADER_SIZE && storage.getInt(OFFSET_MAGIC) == MAGIC &&
+                storage.getInt(OFFSET_VERSION) == VERSION;
+    }
+}
@@ -0,0 +1,110 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a {@link SamplingPolicy} to events.
+ *
+ * Sampling is deterministic: an installation and a campaign get a fixed value between 0 and 1, and
+ * an event is kept if this value is below its type's rate. All the events of a campaign are kept or dropped
+ * together on a given installation, and as long as a funnel's later steps have higher rates than its first one
+ * (like opens versus displays), every kept impression keeps its clicks.
+ * Kept events then go through the policy's rate limit, if any.
+ *
+ * Thread safe.
+ */
+public final class EventSampler
+{
+    /**
+     * What happens to an event
+     */
+    public enum Decision {
+        KEEP,
+        /**
+         * Dropped by its type's sampling rate
+         */
+        SAMPLED_OUT,
+        /**
+         * Dropped because the rate limit was reached
+         */
+        RATE_LIMITED
+    }
+
+    private static final double UNIT = 1.0 / (1L << 53);
+
+    private final SamplingPolicy policy;
+    private final long installationHash;
+    private final TokenBucket rateLimit;
+
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    /**
+     * @param policy Policy to apply
+     * @param installationId Identifier of this installation, sampling is consistent for a given identifier
+     */
+    public EventSampler(@NonNull SamplingPolicy policy, @NonNull String installationId) {
+        this.policy = policy;
+        // Followed by a NUL separator, so that the installation and campaign identifiers can't run into each other
+        this.installationHash = Hashing.hash(Hashing.hash(Hashing.FNV_OFFSET_BASIS, installationId), '\0');
+        this.rateLimit = policy.isRateLimited() ?
+                new TokenBucket(policy.getMaxHits(), policy.getWindowNanos(), System.nanoTime()) : null;
+    }
+
+    @NonNull
+    public SamplingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Decide whether an event is sent
+     *
+     * @param type The type of the event
+     * @param campaign Identifier of the event's campaign, like its XTOR tag, or null
+     * @param hitCount Number of hits the event sends, counted against the rate limit
+     * @return The decision, dropped events are counted
+     */
+    @NonNull
+    public Decision sample(@NonNull EventType type, @Nullable String campaign, int hitCount) {
+        return sample(type, campaign, hitCount, System.nanoTime());
+    }
+
+    @NonNull
+    Decision sample(@NonNull EventType type, @Nullable String campaign, int hitCount, long nowNanos) {
+        double rate = policy.getRate(type);
+        if (rate < 1 && getSamplingValue(campaign) >= rate) {
+            sampledOut.incrementAndGet();
+            return Decision.SAMPLED_OUT;
+        }
+        if (rateLimit != null && !rateLimit.tryAcquire(hitCount, nowNanos)) {
+            rateLimited.incrementAndGet();
+            return Decision.RATE_LIMITED;
+        }
+        return Decision.KEEP;
+    }
+
+    /**
+     * @return Sampling value of this installation for a campaign, uniformly distributed in [0, 1)
+     */
+    double getSamplingValue(@Nullable String campaign) {
+        long hash = Hashing.hash(installationHash, campaign == null ? "" : campaign);
+        return (Hashing.mix(hash) >>> 11) * UNIT;
+    }
+
+    /**
+     * @return Number of events dropped by their type's sampling rate
+     */
+    public long getSampledOutCount() {
+        return sampledOut.get();
+    }
+
+    /**
+     * @return Number of events dropped because the rate limit was reached
+     */
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+}
@@ -0,0 +1,76 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Batch event types, as seen by the AT Internet dispatcher.
+ * Mirrors the Batch SDK's event types without depending on it.
+ */
+public enum EventType
+{
+    NOTIFICATION_DISPLAY("DisplayedBatchPushNotification", Category.NOTIFICATION, Interaction.IMPRESSION),
+    NOTIFICATION_OPEN("OpenedBatchPushNotification", Category.NOTIFICATION, Interaction.CLICK),
+    NOTIFICATION_DISMISS("DismissedBatchPushNotification", Category.NOTIFICATION, Interaction.NONE),
+    MESSAGING_SHOW("ShowedBatchInAppMessage", Category.MESSAGING, Interaction.IMPRESSION),
+    MESSAGING_CLOSE("ClosedBatchInAppMessage", Category.MESSAGING, Interaction.NONE),
+    MESSAGING_CLOSE_ERROR("ClosedErrorBatchInAppMessage", Category.MESSAGING, Interaction.NONE),
+    MESSAGING_AUTO_CLOSE("AutoClosedBatchInAppMessage", Category.MESSAGING, Interaction.NONE),
+    MESSAGING_CLICK("ClickedBatchInAppMessage", Category.MESSAGING, Interaction.CLICK),
+    MESSAGING_WEBVIEW_CLICK("WebViewClickedBatchInAppMessage", Category.MESSAGING, Interaction.CLICK),
+    /**
+     * An event type this version of the dispatcher doesn't know
+     */
+    UNKNOWN("UnknownBatchMessage", Category.OTHER, Interaction.NONE);
+
+    private enum Category {
+        NOTIFICATION,
+        MESSAGING,
+        OTHER
+    }
+
+    private enum Interaction {
+        IMPRESSION,
+        CLICK,
+        NONE
+    }
+
+    private final String screenName;
+    private final Category category;
+    private final Interaction interaction;
+
+    EventType(String screenName, Category category, Interaction interaction) {
+        this.screenName = screenName;
+        this.category = category;
+        this.interaction = interaction;
+    }
+
+    /**
+     * @return Name of the AT Internet screen sent for this event
+     */
+    @NonNull
+    public String getScreenName() {
+        return screenName;
+    }
+
+    public boolean isNotificationEvent() {
+        return category == Category.NOTIFICATION;
+    }
+
+    public boolean isMessagingEvent() {
+        return category == Category.MESSAGING;
+    }
+
+    /**
+     * @return Whether this event is an OnSiteAds impression
+     */
+    public boolean isImpression() {
+        return interaction == Interaction.IMPRESSION;
+    }
+
+    /**
+     * @return Whether this event is an OnSiteAds click
+     */
+    public boolean isClick() {
+        return interaction == Interaction.CLICK;
+    }
+}
@@ -0,0 +1,40 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+/**
+ * Allocation-free 64-bit hashing of strings: FNV-1a, followed by MurmurHash3's final mix
+ * to spread FNV's low quality bits over the whole value.
+ */
+final class Hashing {
+
+    static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    /**
+     * FNV-1a hash of a string's chars, continuing from a previous hash
+     */
+    static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = hash(hash, value.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a hash of a char, continuing from a previous hash
+     */
+    static long hash(long hash, char value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
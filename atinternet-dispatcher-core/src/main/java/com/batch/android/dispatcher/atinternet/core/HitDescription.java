@@ -0,0 +1,208 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable description of the AT Internet hits of a Batch event:
+ * a screen view, preceded by an OnSiteAds publisher hit for impressions and clicks.
+ * Built by {@link EventMapper}, and applied to the AT Internet trackers by the dispatcher.
+ */
+public final class HitDescription
+{
+    /**
+     * What the OnSiteAds publisher hit reports
+     */
+    public enum Action {
+        IMPRESSION,
+        TOUCH,
+        /**
+         * The publisher is configured but not sent, like for a click that isn't a positive action
+         */
+        NONE
+    }
+
+    /**
+     * OnSiteAds publisher hit
+     */
+    public static final class OnSiteAd
+    {
+        private final String campaignId;
+        private final String format;
+        private final String advertiserId;
+        private final String variant;
+        private final Action action;
+        private final boolean defaultCampaign;
+        private final XtorTag xtorTag;
+
+        OnSiteAd(@NonNull String campaignId, @Nullable String format, @NonNull String advertiserId,
+                 @Nullable String variant, @NonNull Action action, boolean defaultCampaign,
+                 @Nullable XtorTag xtorTag) {
+            this.campaignId = campaignId;
+            this.format = format;
+            this.advertiserId = advertiserId;
+            this.variant = variant;
+            this.action = action;
+            this.defaultCampaign = defaultCampaign;
+            this.xtorTag = xtorTag;
+        }
+
+        @NonNull
+        public String getCampaignId() {
+            return campaignId;
+        }
+
+        @Nullable
+        public String getFormat() {
+            return format;
+        }
+
+        @NonNull
+        public String getAdvertiserId() {
+            return advertiserId;
+        }
+
+        @Nullable
+        public String getVariant() {
+            return variant;
+        }
+
+        @NonNull
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * @return Whether the campaign ID is Batch's default one, as the event's XTOR tag is missing or invalid
+         */
+        public boolean isDefaultCampaign() {
+            return defaultCampaign;
+        }
+
+        /**
+         * @return The event's XTOR tag, if it is valid
+         */
+        @Nullable
+        public XtorTag getXtorTag() {
+            return xtorTag;
+        }
+
+        /**
+         * @return The creative of the XTOR tag, if any
+         */
+        @Nullable
+        public String getCreation() {
+            return xtorTag != null ? getValue(xtorTag.getCreative()) : null;
+        }
+
+        @Nullable
+        public String getGeneralPlacement() {
+            return xtorTag != null ? getValue(xtorTag.getGeneralPlacement()) : null;
+        }
+
+        @Nullable
+        public String getDetailedPlacement() {
+            return xtorTag != null ? getValue(xtorTag.getDetailedPlacement()) : null;
+        }
+
+        /**
+         * @return The website of the XTOR tag, if any
+         */
+        @Nullable
+        public String getUrl() {
+            return xtorTag != null ? xtorTag.getWebsite() : null;
+        }
+
+        @Nullable
+        private static String getValue(@Nullable XtorTag.Label label) {
+            return label != null ? label.getValue() : null;
+        }
+    }
+
+    private final String screenName;
+    private final String campaign;
+    private final String webViewAnalyticsID;
+    private final OnSiteAd onSiteAd;
+    private final CustomVarPlan customVarPlan;
+    private final String[] customVarValues;
+
+    HitDescription(@NonNull String screenName, @Nullable String campaign, @Nullable String webViewAnalyticsID,
+                   @Nullable OnSiteAd onSiteAd, @NonNull CustomVarPlan customVarPlan,
+                   @NonNull String[] customVarValues) {
+        this.screenName = screenName;
+        this.campaign = campaign;
+        this.webViewAnalyticsID = webViewAnalyticsID;
+        this.onSiteAd = onSiteAd;
+        this.customVarPlan = customVarPlan;
+        this.customVarValues = customVarValues;
+    }
+
+    /**
+     * @return The hits of the same event without its publisher hit, for an event whose publisher hit was already
+     * delivered
+     */
+    @NonNull
+    public HitDescription withoutOnSiteAd() {
+        if (onSiteAd == null) {
+            return this;
+        }
+        return new HitDescription(screenName, campaign, webViewAnalyticsID, null, customVarPlan, customVarValues);
+    }
+
+    @NonNull
+    public String getScreenName() {
+        return screenName;
+    }
+
+    /**
+     * @return The XTOR tag set as the screen's campaign, if any
+     */
+    @Nullable
+    public String getCampaign() {
+        return campaign;
+    }
+
+    /**
+     * @return The WebView analytics ID, sent as the screen's custom variable 1, if any
+     */
+    @Nullable
+    public String getWebViewAnalyticsID() {
+        return webViewAnalyticsID;
+    }
+
+    /**
+     * @return The OnSiteAds publisher hit to send before the screen, if any
+     */
+    @Nullable
+    public OnSiteAd getOnSiteAd() {
+        return onSiteAd;
+    }
+
+    /**
+     * @return Number of custom variables of the screen, from the {@link CustomVarPlan}, including those without value
+     */
+    public int getCustomVarCount() {
+        return customVarValues.length;
+    }
+
+    /**
+     * @param variable Variable, between 0 and {@link #getCustomVarCount()}
+     * @return AT Internet index of the variable
+     */
+    public int getCustomVarIndex(int variable) {
+        return customVarPlan.getIndex(variable);
+    }
+
+    @NonNull
+    public CustomVarPlan.Scope getCustomVarScope(int variable) {
+        return customVarPlan.getScope(variable);
+    }
+
+    /**
+     * @return Value of the variable, or null if the event doesn't have one
+     */
+    @Nullable
+    public String getCustomVarValue(int variable) {
+        return customVarValues[variable];
+    }
+}
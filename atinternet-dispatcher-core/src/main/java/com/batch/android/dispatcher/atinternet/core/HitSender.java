@@ -0,0 +1,177 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends hit URLs built by {@link CollectUrlBuilder} to the AT Internet collection endpoint, retrying failures.
+ *
+ * Hits are plain GET requests over HTTP/1.1 keep-alive connections: each response is read to its end and its stream
+ * closed, never disconnected, so that the platform keeps the connection in its pool and the next hit to the same
+ * host reuses it instead of opening a new TCP and TLS session. Hits sent back-to-back from one thread thus go out
+ * over a single warm connection.
+ *
+ * A hit is retried on network errors, 5xx and 429 responses, waiting retryDelayMillis and then twice as long
+ * before each new attempt. Only 2xx responses accept a hit: other ones, like 4xx or redirects, are final.
+ *
+ * Thread safe, though hits are meant to be sent from a single thread: see the dispatcher's direct hits.
+ */
+public final class HitSender
+{
+    public static final int DEFAULT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_DELAY_MS = 500;
+
+    private static final int MAX_RETRY_DELAY_SHIFT = 10;
+
+    private final int timeoutMillis;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+
+    private final byte[] discardBuffer = new byte[512];
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    public HitSender() {
+        this(DEFAULT_TIMEOUT_MS, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY_MS);
+    }
+
+    /**
+     * @param timeoutMillis Connect and read timeout of each attempt
+     * @param maxAttempts Maximum number of attempts per hit, at least 1
+     * @param retryDelayMillis Wait before the first retry of a hit, doubled before each next one
+     */
+    public HitSender(int timeoutMillis, int maxAttempts, long retryDelayMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be > 0");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be >= 1");
+        }
+        if (retryDelayMillis < 0) {
+            throw new IllegalArgumentException("retryDelayMillis must be >= 0");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Send a hit, blocking until it was accepted or its last attempt failed
+     *
+     * @param url URL of the hit
+     * @return true if the collection endpoint accepted the hit
+     */
+    public boolean send(@NonNull String url) {
+        for (int attempt = 1; ; attempt++) {
+            boolean retryable;
+            try {
+                int status = get(url);
+                if (status >= 200 && status < 300) {
+                    sent.incrementAndGet();
+                    return true;
+                }
+                retryable = status >= 500 || status == 429;
+            } catch (IOException e) {
+                retryable = true;
+            }
+            if (!retryable || attempt >= maxAttempts || !waitBeforeRetry(attempt)) {
+                failed.incrementAndGet();
+                return false;
+            }
+            retried.incrementAndGet();
+        }
+    }
+
+    private int get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(false);
+        // The request target is the only part of the request that grows with the hit
+        sentBytes.addAndGet(url.length());
+        int status = connection.getResponseCode();
+        discardBody(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+        return status;
+    }
+
+    /**
+     * Consume a response body, even an error one, for its connection to go back to the keep-alive pool
+     */
+    private void discardBody(InputStream body) {
+        if (body == null) {
+            return;
+        }
+        try {
+            synchronized (discardBuffer) {
+                //noinspection StatementWithEmptyBody
+                while (body.read(discardBuffer) != -1) {
+                }
+            }
+        } catch (IOException ignored) {
+            // The hit was answered, the connection just won't be reused
+        } finally {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+                // Same as above
+            }
+        }
+    }
+
+    private boolean waitBeforeRetry(int attempt) {
+        long delay = retryDelayMillis << Math.min(attempt - 1, MAX_RETRY_DELAY_SHIFT);
+        if (delay <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return The number of hits accepted by the collection endpoint
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return The number of hits given up after their last attempt, or a final error response
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return The number of retried attempts
+     */
+    public long getRetryCount() {
+        return retried.get();
+    }
+
+    /**
+     * @return The number of URL chars sent over all the attempts, which are ASCII as hits are percent-encoded.
+     * Request line and header overhead isn't included.
+     */
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+}
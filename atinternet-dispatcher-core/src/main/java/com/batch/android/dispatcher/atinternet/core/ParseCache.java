@@ -0,0 +1,160 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Small, fixed-size cache of parsing results keyed by the parsed string.
+ *
+ * The cache is 2-way set associative: a key can only live in the two slots of its set,
+ * and CLOCK's second chance decides which one is replaced: each hit marks its entry as referenced,
+ * and a referenced entry loses its mark instead of being evicted.
+ * Slots hold immutable entries and are read and written without any lock: two threads missing the
+ * same key both parse it and one of the results wins, which is fine for a cache.
+ * Its size never changes, no matter how many campaigns are seen during the app's lifetime.
+ *
+ * Null results are cached too, as "this deeplink has no XTOR" is as costly to compute as any other result.
+ *
+ * @param <V> Parsing result type
+ */
+public class ParseCache<V>
+{
+
+    /**
+     * Computes the value of a key on a cache miss
+     */
+    public interface Loader<V> {
+        @Nullable
+        V load(@NonNull String key);
+    }
+
+    /**
+     * Keys longer than this are parsed but not cached, so that a few huge deeplinks
+     * can't make the cache hold a lot of memory
+     */
+    static final int MAX_KEY_LENGTH = 2048;
+
+    private final int setMask;
+    private final AtomicReferenceArray<Entry<V>> slots;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param capacity Number of entries, rounded up to the next power of two (minimum 2)
+     */
+    public ParseCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        setMask = size / 2 - 1;
+        slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Get the cached value of a key, computing and caching it on a miss
+     *
+     * @param key Parsed string
+     * @param loader Called on a miss, on the calling thread
+     * @return The cached or computed value
+     */
+    @Nullable
+    public V get(@NonNull String key, @NonNull Loader<V> loader) {
+        int hash = spread(key.hashCode());
+        int first = (hash & setMask) << 1;
+
+        Entry<V> entry = slots.get(first);
+        if (entry == null || entry.hash != hash || !entry.key.equals(key)) {
+            entry = slots.get(first + 1);
+            if (entry == null || entry.hash != hash || !entry.key.equals(key)) {
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+
+        misses.incrementAndGet();
+        V value = loader.load(key);
+        if (key.length() <= MAX_KEY_LENGTH) {
+            insert(first, new Entry<>(key, hash, value));
+        }
+        return value;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Number of cached entries, for tests
+     */
+    int size() {
+        int size = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private void insert(int first, Entry<V> entry) {
+        // Free slot first, then CLOCK: give referenced entries a second chance
+        for (int i = 0; i < 2; i++) {
+            if (slots.compareAndSet(first + i, null, entry)) {
+                return;
+            }
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 2; i++) {
+                Entry<V> current = slots.get(first + i);
+                if (current == null || !current.referenced) {
+                    if (slots.compareAndSet(first + i, current, entry) && current != null) {
+                        evictions.incrementAndGet();
+                    }
+                    return;
+                }
+                current.referenced = false;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry<V> {
+        final String key;
+        final int hash;
+        final V value;
+        volatile boolean referenced;
+
+        Entry(String key, int hash, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which events are sent to AT Internet when there are more than needed: a sampling rate per event type,
+ * and an optional cap on the number of hits sent per time window.
+ * Immutable, use a {@link Builder}. Applied by an {@link EventSampler}.
+ */
+public final class SamplingPolicy
+{
+    /**
+     * Custom variable index meaning that the sampling rate isn't sent
+     */
+    public static final int NO_CUSTOM_VAR = 0;
+
+    private final double[] rates;
+    private final int maxHits;
+    private final long windowNanos;
+    private final int rateCustomVarIndex;
+
+    private SamplingPolicy(Builder builder) {
+        this.rates = builder.rates.clone();
+        this.maxHits = builder.maxHits;
+        this.windowNanos = builder.windowNanos;
+        this.rateCustomVarIndex = builder.rateCustomVarIndex;
+    }
+
+    /**
+     * @return Share of the events of this type that are sent, between 0 and 1
+     */
+    public double getRate(@NonNull EventType type) {
+        return rates[type.ordinal()];
+    }
+
+    /**
+     * @return Whether the number of hits per time window is capped
+     */
+    public boolean isRateLimited() {
+        return maxHits > 0;
+    }
+
+    /**
+     * @return Maximum number of hits per time window, if rate limited
+     */
+    public int getMaxHits() {
+        return maxHits;
+    }
+
+    /**
+     * @return Duration of the rate limit's time window in nanoseconds, if rate limited
+     */
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    /**
+     * @return Index of the screen custom variable the sampling rate is sent in,
+     * or {@link #NO_CUSTOM_VAR}
+     */
+    public int getRateCustomVarIndex() {
+        return rateCustomVarIndex;
+    }
+
+    /**
+     * Builds a {@link SamplingPolicy}, starting from a policy sending everything
+     */
+    public static final class Builder
+    {
+        private final double[] rates;
+        private int maxHits;
+        private long windowNanos;
+        private int rateCustomVarIndex = NO_CUSTOM_VAR;
+
+        public Builder() {
+            rates = new double[EventType.values().length];
+            Arrays.fill(rates, 1);
+        }
+
+        /**
+         * @param rate Share of the events of this type that are sent, between 0 (none) and 1 (all)
+         */
+        @NonNull
+        public Builder setRate(@NonNull EventType type, double rate) {
+            if (!(rate >= 0 && rate <= 1)) {
+                throw new IllegalArgumentException("sampling rate must be between 0 and 1");
+            }
+            rates[type.ordinal()] = rate;
+            return this;
+        }
+
+        /**
+         * Cap the number of hits sent per time window. Hits can be sent in bursts of up to maxHits,
+         * then at a steady maxHits per window: events that would exceed it are dropped.
+         *
+         * @param maxHits Maximum number of hits per window
+         * @param windowMillis Duration of the window, in milliseconds
+         */
+        @NonNull
+        public Builder setRateLimit(int maxHits, long windowMillis) {
+            if (maxHits <= 0 || windowMillis <= 0) {
+                throw new IllegalArgumentException("rate limit hits and window must be strictly positive");
+            }
+            this.maxHits = maxHits;
+            this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            return this;
+        }
+
+        /**
+         * Send the sampling rate of each event in a screen custom variable, so that counts can be re-weighted.
+         *
+         * @param index Index of the custom variable, or {@link #NO_CUSTOM_VAR} not to send it. It can't be
+         *              {@link CustomVarPlan#WEBVIEW_ANALYTICS_ID_INDEX}, nor a screen variable of the dispatcher's
+         *              {@link CustomVarPlan}.
+         */
+        @NonNull
+        public Builder setRateCustomVarIndex(int index) {
+            if (index < 0) {
+                throw new IllegalArgumentException("custom variable index cannot be negative");
+            }
+            if (index == CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX) {
+                throw new IllegalArgumentException("screen custom variable " + index +
+                        " holds the WebView analytics ID");
+            }
+            this.rateCustomVarIndex = index;
+            return this;
+        }
+
+        @NonNull
+        public SamplingPolicy build() {
+            return new SamplingPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives the sections of the dispatcher's work, to show them in a system trace.
+ *
+ * Sections are nested per thread: each {@link #beginSection(String)} is followed by an {@link #endSection()}
+ * on the same thread, even when the traced work throws. Async sections can end on another thread,
+ * and are matched by their name and cookie.
+ */
+public interface SectionTracer
+{
+    void beginSection(@NonNull String name);
+
+    void endSection();
+
+    void beginAsyncSection(@NonNull String name, int cookie);
+
+    void endAsyncSection(@NonNull String name, int cookie);
+}
@@ -0,0 +1,71 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed set of counters that many threads can increment without contending, in the spirit of
+ * {@code LongAdder} which isn't available on every supported Android version.
+ *
+ * Each thread adds to the row of a stripe picked from its ID, and a counter's value is the sum of its cells
+ * over all the stripes. Rows are padded to whole cache lines so that threads on different stripes
+ * don't share lines. Sums are not atomic snapshots: increments made while summing may be missed.
+ */
+final class StripedCounters {
+
+    /**
+     * Longs per 64-byte cache line
+     */
+    private static final int LINE_LONGS = 8;
+
+    private static final int STRIPES = getStripeCount(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells;
+    private final int counterCount;
+    private final int rowLength;
+
+    StripedCounters(int counterCount) {
+        this.counterCount = counterCount;
+        // Rounded up to whole lines, plus a line so that the first counters of a row don't share the previous one's
+        this.rowLength = ((counterCount + LINE_LONGS - 1) / LINE_LONGS + 1) * LINE_LONGS;
+        this.cells = new AtomicLongArray(STRIPES * rowLength);
+    }
+
+    void add(int counter, long value) {
+        cells.getAndAdd(getStripe() * rowLength + counter, value);
+    }
+
+    long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * rowLength + counter);
+        }
+        return sum;
+    }
+
+    /**
+     * @return The sum of every counter, indexed by counter
+     */
+    long[] sumAll() {
+        long[] sums = new long[counterCount];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int row = stripe * rowLength;
+            for (int counter = 0; counter < counterCount; counter++) {
+                sums[counter] += cells.get(row + counter);
+            }
+        }
+        return sums;
+    }
+
+    private static int getStripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9e3779b97f4a7c15L) >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * @return A power of two, at least twice the number of processors, capped to bound the memory used
+     */
+    static int getStripeCount(int processors) {
+        int stripes = Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+        return Math.min(stripes, 16);
+    }
+}
@@ -0,0 +1,41 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+/**
+ * Token bucket holding up to capacity tokens, refilled continuously at capacity tokens per window.
+ * Thread safe.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final long windowNanos;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(int capacity, long windowNanos, long nowNanos) {
+        this.capacity = capacity;
+        this.windowNanos = windowNanos;
+        this.tokens = capacity;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Take tokens if there are enough of them
+     *
+     * @param count Number of tokens to take
+     * @param nowNanos Current time, from {@link System#nanoTime()}
+     * @return true if the tokens were taken
+     */
+    synchronized boolean tryAcquire(int count, long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed * capacity / windowNanos);
+            lastRefillNanos = nowNanos;
+        }
+        if (tokens < count) {
+            return false;
+        }
+        tokens -= count;
+        return true;
+    }
+}
@@ -1,4 +1,4 @@
-package com.batch.android.dispatcher.atinternet;
+package com.batch.android.dispatcher.atinternet.core;
 
 import androidx.annotation.Nullable;
 
@@ -17,11 +17,11 @@ import java.util.ArrayList;
  * G: general position on the overall website.
  * H: details of the position on the web page.
  *
- * We need to parse the XTOR to retrieve the campaign ID when dispatching on OnSiteAds.
+ * We need to parse the XTOR to retrieve the campaign ID and the publisher fields when dispatching on OnSiteAds.
  */
 class Xtor {
 
-    private static final String[] XTOR_PREFIX = {
+    static final String[] XTOR_PREFIX = {
             "AD", // Advertisement
             "AL", // Affiliation
             "SEC", // Sponsored link
@@ -0,0 +1,191 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable model of a valid XTOR tag, with a getter for each of its parts.
+ * See {@link Xtor} for the format: A-B-[C]-[D]-[E]-[F]-[G]-[H].
+ *
+ * The tag is split once, when parsed, by recording where each part ends. The String or {@link Label} of a part is
+ * only created the first time it is requested, then kept: a tag cached by {@link EventMapper} costs nothing more
+ * than its campaign ID to events that only need this one.
+ *
+ * Thread safe: a part may be created twice by concurrent first reads, which give equal values.
+ */
+public final class XtorTag
+{
+    private static final int SOURCE = 0;
+    private static final int CAMPAIGN = 1;
+    private static final int CREATIVE = 2;
+    private static final int VARIANT = 3;
+    private static final int FORMAT = 4;
+    private static final int WEBSITE = 5;
+    private static final int GENERAL_PLACEMENT = 6;
+    private static final int DETAILED_PLACEMENT = 7;
+    private static final int PART_COUNT = 8;
+
+    private final String tag;
+    private final XtorView view;
+    private final String[] parts = new String[PART_COUNT];
+    private final Label[] labels = new Label[PART_COUNT];
+
+    private XtorTag(String tag, XtorView view) {
+        this.tag = tag;
+        this.view = view;
+    }
+
+    /**
+     * @param tag XTOR tag
+     * @return The tag's model, or null if it is not a valid XTOR tag
+     */
+    @Nullable
+    public static XtorTag parse(@NonNull String tag) {
+        XtorView view = XtorView.parse(tag);
+        if (!view.isValidXtor()) {
+            return null;
+        }
+        return new XtorTag(tag, view);
+    }
+
+    @NonNull
+    public String getSource() {
+        String source = getPart(SOURCE);
+        return source != null ? source : "";
+    }
+
+    /**
+     * @return The campaign ID, possibly empty
+     */
+    @NonNull
+    public String getCampaign() {
+        String campaign = getPart(CAMPAIGN);
+        return campaign != null ? campaign : "";
+    }
+
+    @Nullable
+    public Label getCreative() {
+        return getLabel(CREATIVE);
+    }
+
+    @Nullable
+    public Label getVariant() {
+        return getLabel(VARIANT);
+    }
+
+    /**
+     * @return The format, as given by AT Internet
+     */
+    @Nullable
+    public Label getFormat() {
+        return getLabel(FORMAT);
+    }
+
+    /**
+     * @return The URL of the website, without its brackets
+     */
+    @Nullable
+    public String getWebsite() {
+        Label website = getLabel(WEBSITE);
+        return website != null ? website.getLabel() : null;
+    }
+
+    @Nullable
+    public Label getGeneralPlacement() {
+        return getLabel(GENERAL_PLACEMENT);
+    }
+
+    @Nullable
+    public Label getDetailedPlacement() {
+        return getLabel(DETAILED_PLACEMENT);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return tag;
+    }
+
+    /**
+     * @return The part, or null if the tag doesn't have it or it is empty
+     */
+    @Nullable
+    private String getPart(int index) {
+        String part = parts[index];
+        if (part == null) {
+            part = view.getPart(index);
+            if (part == null || part.isEmpty()) {
+                return null;
+            }
+            parts[index] = part;
+        }
+        return part;
+    }
+
+    @Nullable
+    private Label getLabel(int index) {
+        Label label = labels[index];
+        if (label == null) {
+            String part = getPart(index);
+            if (part == null) {
+                return null;
+            }
+            label = Label.parse(part);
+            labels[index] = label;
+        }
+        return label;
+    }
+
+    /**
+     * Part of a XTOR tag written "[label]", "id[label]" or "id"
+     */
+    public static final class Label
+    {
+        private final String value;
+        private final String id;
+        private final String label;
+
+        private Label(String value, String id, String label) {
+            this.value = value;
+            this.id = id;
+            this.label = label;
+        }
+
+        @NonNull
+        static Label parse(@NonNull String value) {
+            int open = value.indexOf('[');
+            if (open < 0 || !value.endsWith("]")) {
+                return new Label(value, value, null);
+            }
+            String id = open > 0 ? value.substring(0, open) : null;
+            return new Label(value, id, value.substring(open + 1, value.length() - 1));
+        }
+
+        @Nullable
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return The label, without its brackets
+         */
+        @Nullable
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return The part as written in the tag, which is also how AT Internet's publisher fields expect it
+         */
+        @NonNull
+        public String getValue() {
+            return value;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
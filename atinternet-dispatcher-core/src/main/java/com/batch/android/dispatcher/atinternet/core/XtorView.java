@@ -0,0 +1,157 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Offset-based XTOR parser.
+ *
+ * Same format and escaping rules as {@link Xtor}, but parsing only records where each part ends
+ * in the original string: a part's String is only created when it is requested with {@link #getPart(int)},
+ * and the source prefix is validated in place.
+ * {@link #getValidCampaign(String)} goes further and extracts the campaign ID of a valid XTOR
+ * without allocating anything but the returned String.
+ */
+final class XtorView {
+
+    private static final int INITIAL_PARTS = 8;
+
+    private final String xtor;
+    /**
+     * End index (exclusive) of each part. A part starts right after the end of the previous one and its dash.
+     */
+    private int[] partEnds;
+    private int partCount;
+
+    private XtorView(String xtor) {
+        this.xtor = xtor;
+        this.partEnds = new int[INITIAL_PARTS];
+    }
+
+    @NonNull
+    static XtorView parse(@NonNull String xtor) {
+        XtorView view = new XtorView(xtor);
+        boolean isEscaped = false;
+        int partStart = 0;
+        for (int i = 0, n = xtor.length(); i < n; i++) {
+            switch (xtor.charAt(i)) {
+                case '[':
+                    isEscaped = true;
+                    break;
+                case ']':
+                    isEscaped = false;
+                    break;
+                case '-':
+                    if (!isEscaped) {
+                        view.addPart(i);
+                        partStart = i + 1;
+                    }
+                    break;
+            }
+        }
+
+        // Like Xtor, the last part is dropped if a bracket is left open
+        if (!isEscaped && partStart < xtor.length()) {
+            view.addPart(xtor.length());
+        }
+        return view;
+    }
+
+    /**
+     * Get the campaign ID (part 1) of a XTOR, if it is valid.
+     * Equivalent to parsing the XTOR and getting its part 1 if {@link Xtor#isValidXtor()}.
+     *
+     * @param xtor XTOR tag
+     * @return The campaign ID, or null if the XTOR is not valid
+     */
+    @Nullable
+    static String getValidCampaign(@NonNull String xtor) {
+        int length = xtor.length();
+        boolean isEscaped = false;
+        int partStart = 0;
+        int part = 0;
+        int campaignStart = -1;
+        int campaignEnd = -1;
+        for (int i = 0; i < length; i++) {
+            switch (xtor.charAt(i)) {
+                case '[':
+                    isEscaped = true;
+                    break;
+                case ']':
+                    isEscaped = false;
+                    break;
+                case '-':
+                    if (!isEscaped) {
+                        if (part == 0) {
+                            if (!hasValidPrefix(xtor, i)) {
+                                return null;
+                            }
+                            campaignStart = i + 1;
+                        } else if (part == 1) {
+                            campaignEnd = i;
+                        }
+                        part++;
+                        partStart = i + 1;
+                    }
+                    break;
+            }
+            if (campaignEnd >= 0) {
+                return xtor.substring(campaignStart, campaignEnd);
+            }
+        }
+
+        // Part 1 is the last part: it only exists if no bracket is left open
+        if (part == 1 && !isEscaped && partStart < length) {
+            return xtor.substring(campaignStart, length);
+        }
+        return null;
+    }
+
+    int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * Same as {@link Xtor#getPart(int)}, creating the part's String
+     */
+    @Nullable
+    String getPart(int index) {
+        if (index >= 0 && index < partCount) {
+            return xtor.substring(getPartStart(index), partEnds[index]);
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link Xtor#isValidXtor()}, without creating any String
+     */
+    boolean isValidXtor() {
+        return partCount >= 2 && hasValidPrefix(xtor, partEnds[0]);
+    }
+
+    private int getPartStart(int index) {
+        return index == 0 ? 0 : partEnds[index - 1] + 1;
+    }
+
+    private void addPart(int end) {
+        if (partCount == partEnds.length) {
+            int[] grown = new int[partEnds.length * 2];
+            System.arraycopy(partEnds, 0, grown, 0, partCount);
+            partEnds = grown;
+        }
+        partEnds[partCount++] = end;
+    }
+
+    /**
+     * @param xtor XTOR tag
+     * @param sourceEnd End index (exclusive) of part 0
+     */
+    private static boolean hasValidPrefix(String xtor, int sourceEnd) {
+        for (String prefix : Xtor.XTOR_PREFIX) {
+            if (prefix.length() <= sourceEnd && xtor.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
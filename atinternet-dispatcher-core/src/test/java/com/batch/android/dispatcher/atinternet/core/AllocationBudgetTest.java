@@ -0,0 +1,213 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Fails when a stage of the event mapping allocates more bytes per call than its budget.
+ *
+ * Budgets are kept in allocation-budgets.properties, next to this test: when a change legitimately
+ * allocates more, update the stage's budget in that file, in the same commit.
+ * Allocations are measured with the JVM's per-thread allocation counter, after a warm up so that the
+ * JIT compiled the code like it would in an app's steady state.
+ * They depend on the JVM, so this test is left out of the test task: run the allocationBudgetTest task, which uses
+ * the JVM the budgets were measured with.
+ */
+public class AllocationBudgetTest {
+
+    private static final String BUDGETS = "allocation-budgets.properties";
+    private static final int WARMUP_CALLS = 20000;
+    private static final int MEASURED_CALLS = 20000;
+
+    private static final String QUERY_DEEPLINK = "https://www.batch.com/fr/blog/2022/05/notifications" +
+            "?utm_source=batch&xtor=AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]";
+    private static final String FRAGMENT_DEEPLINK = "https://www.batch.com/fr/blog/2022/05/notifications" +
+            "#section=offers&xtor=CS1-[mylabeltest]-test-15[sef]";
+    private static final String ESCAPED_DEEPLINK = "https://www.batch.com/fr/blog/2022/05/notifications" +
+            "?xtor=CS1-%5Bmylabeltest%5D-test-15%5Bsef%5D";
+    private static final String NO_XTOR_DEEPLINK = "https://www.batch.com/fr/blog/2022/05/notifications" +
+            "?utm_source=batch";
+    private static final String XTOR = "AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]";
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * A stage whose allocations are measured
+     */
+    private interface Stage {
+        Object call();
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue("The JVM can't measure allocations",
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("The JVM can't measure allocations", threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static EventFields fields(final String trackingId, final String deeplink, final String xtorCustomValue,
+                                      final String webViewAnalyticsID) {
+        return new EventFields() {
+            @Override
+            public String getTrackingId() {
+                return trackingId;
+            }
+
+            @Override
+            public String getDeeplink() {
+                return deeplink;
+            }
+
+            @Override
+            public String getXtorCustomValue() {
+                return xtorCustomValue;
+            }
+
+            @Override
+            public String getCustomValue(@NonNull String key) {
+                return null;
+            }
+
+            @Override
+            public String getWebViewAnalyticsID() {
+                return webViewAnalyticsID;
+            }
+
+            @Override
+            public boolean isPositiveAction() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return Every measured stage, by name
+     */
+    private static Map<String, Stage> getStages() {
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        stages.put("deeplinkTag.query", scan(QUERY_DEEPLINK));
+        stages.put("deeplinkTag.fragment", scan(FRAGMENT_DEEPLINK));
+        stages.put("deeplinkTag.escaped", scan(ESCAPED_DEEPLINK));
+        stages.put("deeplinkTag.none", scan(NO_XTOR_DEEPLINK));
+        stages.put("xtor.parse", new Stage() {
+            @Override
+            public Object call() {
+                return Xtor.parse(XTOR);
+            }
+        });
+        stages.put("xtorView.validCampaign", new Stage() {
+            @Override
+            public Object call() {
+                return XtorView.getValidCampaign(XTOR);
+            }
+        });
+
+        Map<String, EventFields> shapes = new LinkedHashMap<>();
+        shapes.put("trackingId", fields(XTOR, null, null, null));
+        shapes.put("customValue", fields(null, QUERY_DEEPLINK, XTOR, null));
+        shapes.put("deeplink", fields(null, FRAGMENT_DEEPLINK, null, null));
+        shapes.put("webView", fields(null, QUERY_DEEPLINK, null, "button_1"));
+        shapes.put("none", fields(null, null, null, null));
+        for (final EventType type : EventType.values()) {
+            for (final Map.Entry<String, EventFields> shape : shapes.entrySet()) {
+                // One mapper per stage: its caches are warmed up with the stage's payload, like a campaign's events
+                final EventMapper mapper = new EventMapper();
+                stages.put("map." + type + "." + shape.getKey(), new Stage() {
+                    @Override
+                    public Object call() {
+                        return mapper.map(type, shape.getValue());
+                    }
+                });
+            }
+        }
+        return stages;
+    }
+
+    private static Stage scan(final String deeplink) {
+        return new Stage() {
+            @Override
+            public Object call() {
+                return DeeplinkTagScanner.getTag(deeplink, EventMapper.XTOR);
+            }
+        };
+    }
+
+    /**
+     * @return Bytes allocated per call, rounded up
+     */
+    private static long measure(Stage stage) {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            sink = stage.call();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            sink = stage.call();
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertNotSame(stage, sink);
+        return (allocated + MEASURED_CALLS - 1) / MEASURED_CALLS;
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        Properties budgets = new Properties();
+        InputStream input = AllocationBudgetTest.class.getClassLoader().getResourceAsStream(BUDGETS);
+        Assert.assertNotNull("Missing " + BUDGETS, input);
+        try {
+            budgets.load(input);
+        } finally {
+            input.close();
+        }
+        return budgets;
+    }
+
+    @Test
+    public void testAllocationBudgets() throws IOException {
+        Properties budgets = loadBudgets();
+        Map<String, Stage> stages = getStages();
+
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, Stage> stage : stages.entrySet()) {
+            String budget = budgets.getProperty(stage.getKey());
+            long allocated = measure(stage.getValue());
+            if (budget == null) {
+                failures.add(String.format(Locale.US, "%s has no budget, it allocates %d bytes per call",
+                        stage.getKey(), allocated));
+            } else if (allocated > Long.parseLong(budget.trim())) {
+                failures.add(String.format(Locale.US, "%s grew: %d bytes per call, over its budget of %s",
+                        stage.getKey(), allocated, budget.trim()));
+            }
+        }
+        for (String name : budgets.stringPropertyNames()) {
+            if (!stages.containsKey(name)) {
+                failures.add(name + " has a budget but is not measured anymore");
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder("Allocation budgets exceeded, fix the regression or update ")
+                    .append(BUDGETS).append(" on purpose:");
+            for (String failure : failures) {
+                message.append("\n  ").append(failure);
+            }
+            Assert.fail(message.toString());
+        }
+    }
+}
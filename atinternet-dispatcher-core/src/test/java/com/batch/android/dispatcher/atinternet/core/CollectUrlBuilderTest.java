@@ -0,0 +1,167 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Test the collection URLs of the hits sent without the AT Internet SDK
+ */
+public class CollectUrlBuilderTest {
+
+    private static final String COLLECT_URL = "https://logs.example.com/hit.xiti";
+    private static final String CLIENT = "s=123456&idclient=visitor-1&vtag=2.14.0&ptag=Android" +
+            "&os=%5Bandroid%5D-%5B12%5D&apvr=%5B4.2%20beta%5D";
+    /**
+     * 2022-04-15 05:20:07 UTC
+     */
+    private static final long TIMESTAMP = 1650000007000L;
+    private static final String TIME = "&ts=1650000007000&hl=05x20x07";
+
+    private final CollectUrlBuilder builder = new CollectUrlBuilder(COLLECT_URL, "123456", "visitor-1", "2.14.0",
+            "12", "4.2 beta");
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    private static EventFields fields(final String trackingId, final String xtorCustomValue,
+                                      final String webViewAnalyticsID, final Map<String, String> customValues) {
+        return new EventFields() {
+            @Override
+            public String getTrackingId() {
+                return trackingId;
+            }
+
+            @Override
+            public String getDeeplink() {
+                return null;
+            }
+
+            @Override
+            public String getXtorCustomValue() {
+                return xtorCustomValue;
+            }
+
+            @Override
+            public String getCustomValue(@NonNull String key) {
+                return customValues.get(key);
+            }
+
+            @Override
+            public String getWebViewAnalyticsID() {
+                return webViewAnalyticsID;
+            }
+
+            @Override
+            public boolean isPositiveAction() {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    public void testImpression() {
+        HitDescription hit = new EventMapper().map(EventType.NOTIFICATION_DISPLAY,
+                fields("CS1-[mylabeltest]-test-15[sef]", null, null, Collections.<String, String>emptyMap()));
+
+        Assert.assertEquals(COLLECT_URL + "?" + CLIENT + TIME + "&p=DisplayedBatchPushNotification" +
+                        "&xto=CS1-%5Bmylabeltest%5D-test-15%5Bsef%5D",
+                builder.buildScreenHit(hit, SamplingPolicy.NO_CUSTOM_VAR, null, TIMESTAMP));
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertTrue(CollectUrlBuilder.hasPublisherHit(hit));
+        Assert.assertEquals(COLLECT_URL + "?" + CLIENT + TIME + "&type=AT" +
+                        "&ati=PUB-%5Bmylabeltest%5D-test-15%5Bsef%5D-%5Bpush%5D---%5Bbatch%5D-",
+                builder.buildPublisherHit(onSiteAd, TIMESTAMP));
+    }
+
+    @Test
+    public void testTouchWithCustomVars() {
+        EventMapper mapper = new EventMapper();
+        mapper.setCustomVarPlan(new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.APP)
+                .build());
+        HitDescription hit = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK,
+                fields(null, "EPR-[mylabel]-totot", "button 1",
+                        Collections.singletonMap("campaign_id", "\u00e9&=")));
+        CollectUrlBuilder visitorBuilder = new CollectUrlBuilder(COLLECT_URL + "?debug=1", "123456", "visitor 1",
+                "2.14.0", "12", null);
+        String client = "s=123456&idclient=visitor%201&vtag=2.14.0&ptag=Android&os=%5Bandroid%5D-%5B12%5D";
+
+        Assert.assertEquals(COLLECT_URL + "?debug=1&" + client + TIME +
+                        "&p=WebViewClickedBatchInAppMessage&xto=EPR-%5Bmylabel%5D-totot" +
+                        "&f1=button%201&x2=%C3%A9%26%3D&f3=0.5",
+                visitorBuilder.buildScreenHit(hit, 3, "0.5", TIMESTAMP));
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals(COLLECT_URL + "?debug=1&" + client + TIME + "&type=AT" +
+                        "&atc=PUB-%5Bmylabel%5D-totot-%5Bbutton%201%5D-%5Bin-app%5D---%5Bbatch%5D-",
+                visitorBuilder.buildPublisherHit(onSiteAd, TIMESTAMP));
+    }
+
+    @Test
+    public void testSummaryAndUnsentPublisher() {
+        Assert.assertEquals(COLLECT_URL + "?" + CLIENT + TIME + "&p=ClosedBatchInAppMessage&f7=3",
+                builder.buildScreenHit("ClosedBatchInAppMessage", null, 7, "3", TIMESTAMP));
+
+        HitDescription hit = new EventMapper().map(EventType.MESSAGING_CLICK,
+                fields("AD-[fake]", null, null, Collections.<String, String>emptyMap()));
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertFalse(CollectUrlBuilder.hasPublisherHit(hit));
+        Assert.assertNull(builder.buildPublisherHit(onSiteAd, TIMESTAMP));
+    }
+
+    @Test
+    public void testLocalTime() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Paris"));
+        Assert.assertTrue(builder.buildScreenHit("ClosedBatchInAppMessage", null, 7, "3", TIMESTAMP)
+                .contains("&ts=1650000007000&hl=07x20x07&"));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        Assert.assertTrue(builder.buildScreenHit("ClosedBatchInAppMessage", null, 7, "3", TIMESTAMP)
+                .contains("&ts=1650000007000&hl=22x20x07&"));
+    }
+
+    @Test
+    public void testEncoding() throws UnsupportedEncodingException {
+        String value = "a b+*~/\u00e9\u20ac\ud83d\ude00";
+        StringBuilder encoded = new StringBuilder();
+        CollectUrlBuilder.appendEncoded(encoded, value);
+        Assert.assertEquals(URLEncoder.encode(value, "UTF-8").replace("+", "%20").replace("*", "%2A")
+                .replace("%7E", "~"), encoded.toString());
+
+        encoded.setLength(0);
+        CollectUrlBuilder.appendEncoded(encoded, "a\ud83d");
+        Assert.assertEquals("a%EF%BF%BD", encoded.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCollectUrl() {
+        new CollectUrlBuilder("logs.example.com/hit.xiti", "123456", "visitor-1", "2.14.0", "12", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyVisitorId() {
+        new CollectUrlBuilder(COLLECT_URL, "123456", "", "2.14.0", "12", null);
+    }
+}
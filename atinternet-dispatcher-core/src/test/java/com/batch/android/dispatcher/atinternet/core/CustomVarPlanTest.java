@@ -0,0 +1,127 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test the extraction of custom variables from event payloads
+ */
+public class CustomVarPlanTest {
+
+    private static final String DEEPLINK = "https://batch.com/?utm_source=push#utm_campaign=spring&xtor=AD-[deeplink]";
+
+    private final Map<String, Integer> reads = new HashMap<>();
+
+    private EventFields fields(final String deeplink, final Map<String, String> customValues) {
+        return new EventFields() {
+            private <T> T read(String field, T value) {
+                Integer count = reads.get(field);
+                reads.put(field, count == null ? 1 : count + 1);
+                return value;
+            }
+
+            @Override
+            public String getTrackingId() {
+                return read("trackingId", null);
+            }
+
+            @Override
+            public String getDeeplink() {
+                return read("deeplink", deeplink);
+            }
+
+            @Override
+            public String getXtorCustomValue() {
+                return read("xtorCustomValue", null);
+            }
+
+            @Override
+            public String getCustomValue(@NonNull String key) {
+                return read("customValue:" + key, customValues.get(key));
+            }
+
+            @Override
+            public String getWebViewAnalyticsID() {
+                return read("webViewAnalyticsID", null);
+            }
+
+            @Override
+            public boolean isPositiveAction() {
+                return read("positiveAction", true);
+            }
+        };
+    }
+
+    @Test
+    public void testExtraction() {
+        CustomVarPlan plan = new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.SCREEN)
+                .addDeeplinkParameter("utm_source", 3, CustomVarPlan.Scope.SCREEN)
+                .addDeeplinkParameter("UTM_CAMPAIGN", 4, CustomVarPlan.Scope.SCREEN)
+                .addPayloadKey("campaign_id", 1, CustomVarPlan.Scope.APP)
+                .addPayloadKey("missing", 5, CustomVarPlan.Scope.SCREEN)
+                .build();
+        Assert.assertEquals(5, plan.size());
+        Assert.assertEquals(2, plan.getPayloadKeyCount());
+        Assert.assertTrue(plan.usesDeeplink());
+
+        EventMapper mapper = new EventMapper();
+        mapper.setCustomVarPlan(plan);
+        Map<String, String> customValues = new HashMap<>();
+        customValues.put("campaign_id", "42");
+        HitDescription hit = mapper.map(EventType.NOTIFICATION_OPEN, fields(DEEPLINK, customValues));
+
+        Assert.assertEquals(5, hit.getCustomVarCount());
+        Assert.assertEquals(2, hit.getCustomVarIndex(0));
+        Assert.assertEquals("42", hit.getCustomVarValue(0));
+        Assert.assertEquals("push", hit.getCustomVarValue(1));
+        Assert.assertEquals("spring", hit.getCustomVarValue(2));
+        Assert.assertEquals(CustomVarPlan.Scope.APP, hit.getCustomVarScope(3));
+        Assert.assertEquals("42", hit.getCustomVarValue(3));
+        Assert.assertNull(hit.getCustomVarValue(4));
+        Assert.assertEquals("AD-[deeplink]", hit.getCampaign());
+
+        // Each source is read once, the deeplink included although both the plan and the XTOR tag need it
+        for (Map.Entry<String, Integer> read : reads.entrySet()) {
+            Assert.assertEquals(read.getKey(), 1, (int) read.getValue());
+        }
+    }
+
+    @Test
+    public void testEmptyPlan() {
+        EventMapper mapper = new EventMapper();
+        Assert.assertSame(CustomVarPlan.getEmpty(), mapper.getCustomVarPlan());
+
+        HitDescription hit = mapper.map(EventType.NOTIFICATION_OPEN, fields(null, new HashMap<String, String>()));
+        Assert.assertEquals(0, hit.getCustomVarCount());
+        Assert.assertFalse(CustomVarPlan.getEmpty().usesDeeplink());
+    }
+
+    @Test
+    public void testInvalidVariables() {
+        CustomVarPlan.Builder builder = new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.SCREEN);
+        assertInvalid(builder, "", 3, CustomVarPlan.Scope.SCREEN);
+        assertInvalid(builder, "key", 0, CustomVarPlan.Scope.SCREEN);
+        assertInvalid(builder, "key", CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX, CustomVarPlan.Scope.SCREEN);
+        assertInvalid(builder, "key", 2, CustomVarPlan.Scope.SCREEN);
+        // The same index can be used in both scopes
+        builder.addDeeplinkParameter("key", 2, CustomVarPlan.Scope.APP);
+        Assert.assertEquals(2, builder.build().size());
+    }
+
+    private static void assertInvalid(CustomVarPlan.Builder builder, String key, int index,
+                                      CustomVarPlan.Scope scope) {
+        try {
+            builder.addPayloadKey(key, index, scope);
+            Assert.fail("Expected " + key + " at " + index + " to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+}
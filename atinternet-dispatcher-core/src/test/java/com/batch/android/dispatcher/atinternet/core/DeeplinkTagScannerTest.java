@@ -0,0 +1,40 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the deeplink tag scanner
+ */
+public class DeeplinkTagScannerTest {
+
+    private static final String XTOR = "CS1-[mylabeltest]-test-15[sef]";
+
+    @Test
+    public void testDispatcherDeeplinks() {
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("https://batch.com.com/test#xtor=" + XTOR, "xtor"));
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("https://batch.com/test#xtor=CS1-%5Bmylabeltest%5D-test-15%5Bsef%5D", "xtor"));
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("batch://?xtor=" + XTOR, "xtor"));
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("batch://#xtor=" + XTOR, "xtor"));
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("https://batch.com/test?xtor=CS1-%5Bmylabeltest%5D-test-15%5Bsef%5D", "xtor"));
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("https://batch.com/test#XtOr=" + XTOR, "xtor"));
+        Assert.assertEquals(XTOR, DeeplinkTagScanner.getTag("https://batch.com/test?XTor=" + XTOR, "xtor"));
+        Assert.assertEquals("AD-[fake]", DeeplinkTagScanner.getTag("https://batch.com/test?xtor=AD-[fake]#xtor=CS8-[fake2]", "xtor"));
+        Assert.assertEquals("AD-[fake]", DeeplinkTagScanner.getTag(" \n               https://batch.com/test?xtor=AD-[fake]          \n ", "xtor"));
+    }
+
+    @Test
+    public void testEdgeCases() {
+        Assert.assertNull(DeeplinkTagScanner.getTag("https://batch.com/test", "xtor"));
+        Assert.assertNull(DeeplinkTagScanner.getTag("mailto:test@batch.com?xtor=AD-1", "xtor"));
+        Assert.assertNull(DeeplinkTagScanner.getTag("https://batch.com/test#xtor=", "xtor"));
+        Assert.assertEquals("", DeeplinkTagScanner.getTag("https://batch.com/test?xtor#xtor=AD-1", "xtor"));
+        Assert.assertEquals("AD 1", DeeplinkTagScanner.getTag("https://batch.com/test?xtor=AD+1", "xtor"));
+        Assert.assertEquals("AD+1", DeeplinkTagScanner.getTag("https://batch.com/test#xtor=AD+1", "xtor"));
+        Assert.assertEquals("AD-2", DeeplinkTagScanner.getTag("https://batch.com/test#xtor=AD-1&XTOR=AD-2", "xtor"));
+        Assert.assertEquals("AD-1", DeeplinkTagScanner.getTag("https://batch.com/test#xtor=AD-1=AD-2", "xtor"));
+        Assert.assertEquals("AD-1", DeeplinkTagScanner.getTag("https://batch.com/test#a=b%26xtor%3DAD-1", "xtor"));
+        Assert.assertNull(DeeplinkTagScanner.getTag("https://batch.com/test#a=b%2526xtor%253DAD-1", "xtor"));
+        Assert.assertEquals("\u00e9", DeeplinkTagScanner.getTag("https://batch.com/test?xtor=%C3%A9", "xtor"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the dispatcher's metrics and their striped counters
+ */
+public class DispatchMetricsTest {
+
+    @Test
+    public void testBuckets() {
+        Assert.assertEquals(0, DispatchMetrics.getBucket(0));
+        Assert.assertEquals(1, DispatchMetrics.getBucket(1));
+        Assert.assertEquals(2, DispatchMetrics.getBucket(2));
+        Assert.assertEquals(2, DispatchMetrics.getBucket(3));
+        Assert.assertEquals(11, DispatchMetrics.getBucket(1024));
+        Assert.assertEquals(10, DispatchMetrics.getBucket(1023));
+        Assert.assertEquals(DispatchMetrics.BUCKET_COUNT - 1, DispatchMetrics.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testLatency() {
+        DispatchMetrics metrics = new DispatchMetrics();
+        for (int i = 0; i < 90; i++) {
+            metrics.recordLatency(DispatchMetrics.Stage.PAYLOAD, 1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.recordLatency(DispatchMetrics.Stage.PAYLOAD, 100_000);
+        }
+        metrics.recordLatency(DispatchMetrics.Stage.SCREEN_SEND, -5);
+
+        DispatchMetrics.Latency mapping = metrics.snapshot().getLatency(DispatchMetrics.Stage.PAYLOAD);
+        Assert.assertEquals(100, mapping.getCount());
+        Assert.assertEquals(90 * 1000 + 10 * 100_000, mapping.getTotalNanos());
+        Assert.assertEquals(10_900, mapping.getMeanNanos());
+        Assert.assertEquals(1024, mapping.getPercentileNanos(50));
+        Assert.assertEquals(1024, mapping.getPercentileNanos(90));
+        Assert.assertEquals(131_072, mapping.getPercentileNanos(99));
+        Assert.assertEquals(90, mapping.getBuckets()[10]);
+
+        // Negative durations, from a clock going back, are counted as 0
+        DispatchMetrics.Latency screen = metrics.snapshot().getLatency(DispatchMetrics.Stage.SCREEN_SEND);
+        Assert.assertEquals(1, screen.getBuckets()[0]);
+        Assert.assertEquals(0, screen.getTotalNanos());
+
+        DispatchMetrics.Latency empty = metrics.snapshot().getLatency(DispatchMetrics.Stage.DISPATCH);
+        Assert.assertEquals(0, empty.getCount());
+        Assert.assertEquals(0, empty.getPercentileNanos(99));
+    }
+
+    @Test
+    public void testCounts() {
+        DispatchMetrics metrics = new DispatchMetrics();
+        metrics.recordOutcome(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT);
+        metrics.recordOutcome(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT);
+        metrics.recordOutcome(EventType.NOTIFICATION_OPEN, DispatchMetrics.Outcome.SENT);
+        metrics.recordOutcome(EventType.NOTIFICATION_OPEN, DispatchMetrics.Outcome.DUPLICATE);
+        metrics.recordXtorStatus(DispatchMetrics.XtorStatus.MISSING);
+
+        DispatchMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(2, snapshot.getEventCount(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(0, snapshot.getEventCount(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.DUPLICATE));
+        Assert.assertEquals(3, snapshot.getEventCount(DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(1, snapshot.getEventCount(DispatchMetrics.Outcome.DUPLICATE));
+        Assert.assertEquals(1, snapshot.getXtorCount(DispatchMetrics.XtorStatus.MISSING));
+        Assert.assertEquals(0, snapshot.getXtorCount(DispatchMetrics.XtorStatus.VALID));
+
+        // Snapshots don't change afterwards
+        metrics.recordOutcome(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT);
+        Assert.assertEquals(2, snapshot.getEventCount(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final DispatchMetrics metrics = new DispatchMetrics();
+        final int threadCount = 8;
+        final int recordsPerThread = 20_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int r = 0; r < recordsPerThread; r++) {
+                        metrics.recordOutcome(EventType.MESSAGING_CLICK, DispatchMetrics.Outcome.SENT);
+                        metrics.recordLatency(DispatchMetrics.Stage.DISPATCH, 3);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        DispatchMetrics.Snapshot snapshot = metrics.snapshot();
+        long total = (long) threadCount * recordsPerThread;
+        Assert.assertEquals(total, snapshot.getEventCount(EventType.MESSAGING_CLICK, DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(total, snapshot.getLatency(DispatchMetrics.Stage.DISPATCH).getCount());
+        Assert.assertEquals(total * 3, snapshot.getLatency(DispatchMetrics.Stage.DISPATCH).getTotalNanos());
+    }
+
+    @Test
+    public void testStripeCount() {
+        Assert.assertEquals(2, StripedCounters.getStripeCount(1));
+        Assert.assertEquals(4, StripedCounters.getStripeCount(2));
+        Assert.assertEquals(8, StripedCounters.getStripeCount(3));
+        Assert.assertEquals(16, StripedCounters.getStripeCount(8));
+        Assert.assertEquals(16, StripedCounters.getStripeCount(64));
+    }
+}
@@ -0,0 +1,93 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test the rotating Bloom filter used to suppress duplicate events
+ */
+public class DuplicateFilterTest {
+
+    private static final long WINDOW = 60000;
+    private static final long START = 1600000000000L;
+
+    @Test
+    public void testDuplicatesWithinWindow() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW, 100, 0.001);
+
+        Assert.assertFalse(filter.isDuplicate(EventType.NOTIFICATION_DISPLAY, "CS1-[one]", null, START));
+        Assert.assertTrue(filter.isDuplicate(EventType.NOTIFICATION_DISPLAY, "CS1-[one]", null, START + 1000));
+        Assert.assertFalse(filter.isDuplicate(EventType.NOTIFICATION_OPEN, "CS1-[one]", null, START + 1000));
+        Assert.assertFalse(filter.isDuplicate(EventType.NOTIFICATION_DISPLAY, "CS1-[two]", null, START + 1000));
+        Assert.assertFalse(filter.isDuplicate(EventType.NOTIFICATION_DISPLAY, "CS1-[one]", "button", START + 1000));
+        Assert.assertTrue(filter.isDuplicate(EventType.NOTIFICATION_DISPLAY, "CS1-[one]", "button", START + 2000));
+
+        // Remembered for the whole window
+        Assert.assertTrue(filter.isDuplicate(EventType.NOTIFICATION_DISPLAY, "CS1-[one]", null, START + WINDOW));
+        Assert.assertEquals(3, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void testExpiration() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW, 100, 0.001);
+        Assert.assertFalse(filter.isDuplicate(EventType.MESSAGING_SHOW, "AD-[one]", null, START));
+        // Forgotten at most one period (window / 3) after the window
+        long forgotten = START + WINDOW + WINDOW / 3 + 1;
+        Assert.assertFalse(filter.isDuplicate(EventType.MESSAGING_SHOW, "AD-[one]", null, forgotten));
+        Assert.assertTrue(filter.isDuplicate(EventType.MESSAGING_SHOW, "AD-[one]", null, forgotten + 1));
+
+        // Everything is forgotten if the clock goes back
+        Assert.assertFalse(filter.isDuplicate(EventType.MESSAGING_SHOW, "AD-[one]", null, START));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        int expected = 1000;
+        ByteBuffer storage = ByteBuffer.allocate(DuplicateFilter.getByteSize(expected, 0.01));
+        DuplicateFilter filter = new DuplicateFilter(WINDOW, expected, 0.01, storage);
+        for (int i = 0; i < expected; i++) {
+            filter.isDuplicate(EventType.MESSAGING_SHOW, "AD-[recorded-" + i + "]", null, START + i * WINDOW / expected);
+        }
+
+        // Check each new event against a copy of the filter, as checking an event records it
+        ByteBuffer copy = ByteBuffer.allocate(storage.capacity());
+        int falsePositives = 0;
+        int checks = 20000;
+        for (int i = 0; i < checks; i++) {
+            copy.clear();
+            copy.put(storage.array());
+            DuplicateFilter filterCopy = new DuplicateFilter(WINDOW, expected, 0.01, copy);
+            if (filterCopy.isDuplicate(EventType.MESSAGING_SHOW, "AD-[new-" + i + "]", null, START + WINDOW - 1)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("False positives: " + falsePositives, falsePositives < checks / 100);
+    }
+
+    @Test
+    public void testRestore() {
+        ByteBuffer storage = ByteBuffer.allocate(DuplicateFilter.getByteSize(100, 0.001));
+        Assert.assertNull(DuplicateFilter.restore(storage));
+
+        DuplicateFilter filter = new DuplicateFilter(WINDOW, 100, 0.001, storage);
+        Assert.assertFalse(filter.isDuplicate(EventType.MESSAGING_CLICK, "AD-[one]", null, START));
+
+        DuplicateFilter restored = DuplicateFilter.restore(storage);
+        Assert.assertNotNull(restored);
+        Assert.assertEquals(WINDOW, restored.getWindowMillis());
+        Assert.assertTrue(restored.isDuplicate(EventType.MESSAGING_CLICK, "AD-[one]", null, START + 1000));
+
+        // Same dimensions keep the events, other ones reset the filter
+        Assert.assertTrue(new DuplicateFilter(WINDOW, 100, 0.001, storage)
+                .isDuplicate(EventType.MESSAGING_CLICK, "AD-[one]", null, START + 2000));
+        Assert.assertFalse(new DuplicateFilter(WINDOW * 2, 100, 0.001, storage)
+                .isDuplicate(EventType.MESSAGING_CLICK, "AD-[one]", null, START + 3000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStorageTooSmall() {
+        new DuplicateFilter(WINDOW, 100, 0.001, ByteBuffer.allocate(DuplicateFilter.getByteSize(10, 0.001)));
+    }
+}
@@ -0,0 +1,363 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test the mapping of Batch events to AT Internet hits
+ */
+public class EventMapperTest {
+
+    private final EventMapper mapper = new EventMapper();
+
+    private static EventFields fields(final String trackingId, final String deeplink, final String xtorCustomValue,
+                                      final String webViewAnalyticsID, final boolean positiveAction) {
+        return new EventFields() {
+            @Override
+            public String getTrackingId() {
+                return trackingId;
+            }
+
+            @Override
+            public String getDeeplink() {
+                return deeplink;
+            }
+
+            @Override
+            public String getXtorCustomValue() {
+                return xtorCustomValue;
+            }
+
+            @Override
+            public String getCustomValue(@NonNull String key) {
+                return null;
+            }
+
+            @Override
+            public String getWebViewAnalyticsID() {
+                return webViewAnalyticsID;
+            }
+
+            @Override
+            public boolean isPositiveAction() {
+                return positiveAction;
+            }
+        };
+    }
+
+    @Test
+    public void testNotificationDisplay() {
+        HitDescription hit = mapper.map(EventType.NOTIFICATION_DISPLAY,
+                fields(null, "https://batch.com/test#xtor=CS1-[mylabeltest]-test-15[sef]", null, null, false));
+
+        Assert.assertEquals("DisplayedBatchPushNotification", hit.getScreenName());
+        Assert.assertEquals("CS1-[mylabeltest]-test-15[sef]", hit.getCampaign());
+        Assert.assertNull(hit.getWebViewAnalyticsID());
+
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals("[mylabeltest]", onSiteAd.getCampaignId());
+        Assert.assertEquals("[push]", onSiteAd.getFormat());
+        Assert.assertEquals("[batch]", onSiteAd.getAdvertiserId());
+        Assert.assertEquals("test", onSiteAd.getCreation());
+        Assert.assertEquals("15[sef]", onSiteAd.getVariant());
+        Assert.assertEquals(HitDescription.Action.IMPRESSION, onSiteAd.getAction());
+        Assert.assertFalse(onSiteAd.isDefaultCampaign());
+    }
+
+    @Test
+    public void testClicks() {
+        HitDescription.OnSiteAd onSiteAd = mapper.map(EventType.NOTIFICATION_OPEN,
+                fields("AD-[fake]", null, null, null, true)).getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals(HitDescription.Action.TOUCH, onSiteAd.getAction());
+
+        onSiteAd = mapper.map(EventType.MESSAGING_CLICK, fields("AD-[fake]", null, null, null, false)).getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals("[in-app]", onSiteAd.getFormat());
+        Assert.assertEquals(HitDescription.Action.NONE, onSiteAd.getAction());
+
+        HitDescription hit = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK,
+                fields(null, null, "EPR-[mylabel]-totot-titi", "button1", false));
+        Assert.assertEquals("button1", hit.getWebViewAnalyticsID());
+        onSiteAd = hit.getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals("[mylabel]", onSiteAd.getCampaignId());
+        Assert.assertEquals("[button1]", onSiteAd.getVariant());
+        Assert.assertEquals(HitDescription.Action.TOUCH, onSiteAd.getAction());
+    }
+
+    @Test
+    public void testVariantLabelsAreShared() {
+        HitDescription.OnSiteAd first = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK,
+                fields("AD-[mylabel]", null, null, "button1", false)).getOnSiteAd();
+        HitDescription.OnSiteAd second = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK,
+                fields("AD-[mylabel]", null, null, new String("button1"), false)).getOnSiteAd();
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertEquals("[button1]", second.getVariant());
+        Assert.assertSame(first.getVariant(), second.getVariant());
+        Assert.assertSame(first.getCampaignId(), second.getCampaignId());
+        Assert.assertSame(first.getFormat(), second.getFormat());
+        Assert.assertEquals(1, mapper.getVariantCache().getMissCount());
+        Assert.assertEquals(1, mapper.getVariantCache().getHitCount());
+    }
+
+    @Test
+    public void testXtorPublisherFields() {
+        String xtor = "AD-[campaign]-[creative]-3[variant]-[120x40]-[https://batch.com]-[home]-[header]";
+        HitDescription.OnSiteAd onSiteAd = mapper.map(EventType.MESSAGING_SHOW,
+                fields(xtor, null, null, null, false)).getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals("[campaign]", onSiteAd.getCampaignId());
+        Assert.assertEquals("[creative]", onSiteAd.getCreation());
+        Assert.assertEquals("https://batch.com", onSiteAd.getUrl());
+        Assert.assertEquals("[home]", onSiteAd.getGeneralPlacement());
+        Assert.assertEquals("[header]", onSiteAd.getDetailedPlacement());
+        // Batch's format wins, the tag's variant fills the missing WebView one
+        Assert.assertEquals("[in-app]", onSiteAd.getFormat());
+        Assert.assertEquals("3[variant]", onSiteAd.getVariant());
+
+        onSiteAd = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK,
+                fields(xtor, null, null, "button1", false)).getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals("[button1]", onSiteAd.getVariant());
+
+        mapper.setXtorFieldsFirst(true);
+        onSiteAd = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK,
+                fields(xtor, null, null, "button1", false)).getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertEquals("[120x40]", onSiteAd.getFormat());
+        Assert.assertEquals("3[variant]", onSiteAd.getVariant());
+
+        onSiteAd = mapper.map(EventType.MESSAGING_SHOW, fields("ZZ-[campaign]-[creative]", null, null, null, false))
+                .getOnSiteAd();
+        Assert.assertNotNull(onSiteAd);
+        Assert.assertNull(onSiteAd.getXtorTag());
+        Assert.assertNull(onSiteAd.getCreation());
+        Assert.assertEquals("[in-app]", onSiteAd.getFormat());
+    }
+
+    @Test
+    public void testScreenOnlyEvents() {
+        for (EventType type : new EventType[]{EventType.NOTIFICATION_DISMISS, EventType.MESSAGING_CLOSE,
+                EventType.MESSAGING_CLOSE_ERROR, EventType.MESSAGING_AUTO_CLOSE, EventType.UNKNOWN}) {
+            HitDescription hit = mapper.map(type, fields(null, null, null, null, true));
+            Assert.assertNull(hit.getOnSiteAd());
+            Assert.assertNull(hit.getCampaign());
+        }
+        Assert.assertEquals("UnknownBatchMessage",
+                mapper.map(EventType.UNKNOWN, fields(null, null, null, null, false)).getScreenName());
+    }
+
+    @Test
+    public void testInvalidXtorUsesDefaultCampaign() {
+        HitDescription hit = mapper.map(EventType.MESSAGING_SHOW, fields("ZZ-[mylabel]", null, null, null, false));
+        Assert.assertEquals("ZZ-[mylabel]", hit.getCampaign());
+        Assert.assertNotNull(hit.getOnSiteAd());
+        Assert.assertEquals("[batch-default-campaign]", hit.getOnSiteAd().getCampaignId());
+        Assert.assertTrue(hit.getOnSiteAd().isDefaultCampaign());
+
+        hit = mapper.map(EventType.MESSAGING_SHOW, fields(null, null, null, null, false));
+        Assert.assertNull(hit.getCampaign());
+        Assert.assertNotNull(hit.getOnSiteAd());
+        Assert.assertEquals("[batch-default-campaign]", hit.getOnSiteAd().getCampaignId());
+        Assert.assertTrue(hit.getOnSiteAd().isDefaultCampaign());
+    }
+
+    @Test
+    public void testXtorPrecedence() {
+        String deeplink = "https://batch.com/test?xtor=AD-[deeplink]";
+        Assert.assertEquals("AD-[tracking]",
+                mapper.resolveXtorTag(fields("AD-[tracking]", deeplink, "AD-[custom]", null, false)));
+        Assert.assertEquals("AD-[custom]",
+                mapper.resolveXtorTag(fields("", deeplink, "AD-[custom]", null, false)));
+        Assert.assertEquals("AD-[deeplink]",
+                mapper.resolveXtorTag(fields(null, deeplink, null, null, false)));
+        Assert.assertNull(mapper.resolveXtorTag(fields("", null, null, null, false)));
+    }
+
+    @Test
+    public void testFieldsAreReadOnceInPrecedenceOrder() {
+        final Map<String, Integer> reads = new HashMap<>();
+        final String[] values = {"", "https://batch.com/test?xtor=AD-[deeplink]", "AD-[custom]"};
+        EventFields counting = new EventFields() {
+            private String read(String field, String value) {
+                Integer count = reads.get(field);
+                reads.put(field, count == null ? 1 : count + 1);
+                return value;
+            }
+
+            @Override
+            public String getTrackingId() {
+                return read("trackingId", values[0]);
+            }
+
+            @Override
+            public String getDeeplink() {
+                return read("deeplink", values[1]);
+            }
+
+            @Override
+            public String getXtorCustomValue() {
+                return read("xtorCustomValue", values[2]);
+            }
+
+            @Override
+            public String getCustomValue(@NonNull String key) {
+                return read("customValue", null);
+            }
+
+            @Override
+            public String getWebViewAnalyticsID() {
+                return read("webViewAnalyticsID", "button1");
+            }
+
+            @Override
+            public boolean isPositiveAction() {
+                read("positiveAction", null);
+                return true;
+            }
+        };
+
+        HitDescription hit = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK, counting);
+        Assert.assertEquals("AD-[custom]", hit.getCampaign());
+        Assert.assertEquals("[button1]", hit.getOnSiteAd().getVariant());
+        // The custom value wins: the deeplink is neither read nor parsed
+        Assert.assertNull(reads.get("deeplink"));
+        Assert.assertEquals(0, mapper.getDeeplinkTagCache().getMissCount());
+        for (Map.Entry<String, Integer> read : reads.entrySet()) {
+            Assert.assertEquals(read.getKey(), 1, (int) read.getValue());
+        }
+
+        reads.clear();
+        values[2] = null;
+        hit = mapper.map(EventType.MESSAGING_WEBVIEW_CLICK, counting);
+        Assert.assertEquals("AD-[deeplink]", hit.getCampaign());
+        for (Map.Entry<String, Integer> read : reads.entrySet()) {
+            Assert.assertEquals(read.getKey(), 1, (int) read.getValue());
+        }
+        Assert.assertEquals(5, reads.size());
+    }
+
+    @Test
+    public void testCustomMapping() {
+        EventMapper customMapper = new EventMapper();
+        customMapper.setMapping(new EventMapping.Builder()
+                .setEnabled(EventType.MESSAGING_AUTO_CLOSE, false)
+                .setScreenName(EventType.MESSAGING_CLOSE, "InAppClosed")
+                .setRole(EventType.MESSAGING_CLOSE, EventMapping.Role.IMPRESSION)
+                .setFormat(EventType.MESSAGING_CLOSE, "[close]")
+                .setRole(EventType.MESSAGING_SHOW, EventMapping.Role.NONE)
+                .build());
+
+        Assert.assertFalse(customMapper.isEnabled(EventType.MESSAGING_AUTO_CLOSE));
+        // A disabled event's fields are never read
+        EventFields unreadable = new EventFields() {
+            @Override
+            public String getTrackingId() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public String getDeeplink() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public String getXtorCustomValue() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public String getCustomValue(@NonNull String key) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public String getWebViewAnalyticsID() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public boolean isPositiveAction() {
+                throw new AssertionError();
+            }
+        };
+        Assert.assertNull(customMapper.map(EventType.MESSAGING_AUTO_CLOSE, unreadable));
+
+        HitDescription hit = customMapper.map(EventType.MESSAGING_CLOSE, fields(null, null, null, null, false));
+        Assert.assertNotNull(hit);
+        Assert.assertEquals("InAppClosed", hit.getScreenName());
+        Assert.assertNotNull(hit.getOnSiteAd());
+        Assert.assertEquals("[close]", hit.getOnSiteAd().getFormat());
+        Assert.assertEquals(HitDescription.Action.IMPRESSION, hit.getOnSiteAd().getAction());
+
+        hit = customMapper.map(EventType.MESSAGING_SHOW, fields(null, null, null, null, false));
+        Assert.assertNotNull(hit);
+        Assert.assertNull(hit.getOnSiteAd());
+    }
+
+    @Test
+    public void testMappingStages() {
+        DispatchMetrics metrics = new DispatchMetrics();
+        mapper.map(EventType.NOTIFICATION_DISPLAY, fields("CS1-[mylabeltest]", null, null, null, false),
+                CustomVarPlan.getEmpty(), metrics);
+        // Screen-only events have no XTOR stage
+        mapper.map(EventType.NOTIFICATION_DISMISS, fields("CS1-[mylabeltest]", null, null, null, false),
+                CustomVarPlan.getEmpty(), metrics);
+
+        DispatchMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(2, snapshot.getLatency(DispatchMetrics.Stage.PAYLOAD).getCount());
+        Assert.assertEquals(1, snapshot.getLatency(DispatchMetrics.Stage.XTOR).getCount());
+    }
+
+    @Test
+    public void testTracedSections() {
+        final List<String> sections = new ArrayList<>();
+        EventMapper tracedMapper = new EventMapper();
+        tracedMapper.setTracer(new SectionTracer() {
+            @Override
+            public void beginSection(@NonNull String name) {
+                sections.add("begin " + name);
+            }
+
+            @Override
+            public void endSection() {
+                sections.add("end");
+            }
+
+            @Override
+            public void beginAsyncSection(@NonNull String name, int cookie) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public void endAsyncSection(@NonNull String name, int cookie) {
+                throw new AssertionError();
+            }
+        });
+
+        tracedMapper.map(EventType.NOTIFICATION_DISPLAY,
+                fields(null, "https://batch.com/test?xtor=CS1-[mylabeltest]", null, null, false));
+        Assert.assertEquals(Arrays.asList("begin " + EventMapper.TRACE_DEEPLINK, "end",
+                "begin " + EventMapper.TRACE_XTOR, "end"), sections);
+
+        // Screen-only events don't look for a campaign, and nothing is traced once the tracer is removed
+        sections.clear();
+        tracedMapper.map(EventType.NOTIFICATION_DISMISS, fields("CS1-[mylabeltest]", null, null, null, false));
+        Assert.assertTrue(sections.isEmpty());
+        tracedMapper.setTracer(null);
+        tracedMapper.map(EventType.NOTIFICATION_DISPLAY,
+                fields(null, "https://batch.com/test?xtor=CS1-[mylabeltest]", null, null, false));
+        Assert.assertTrue(sections.isEmpty());
+    }
+}
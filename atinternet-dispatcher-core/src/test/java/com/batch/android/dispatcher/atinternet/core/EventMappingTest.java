@@ -0,0 +1,68 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the event mapping table and its builder
+ */
+public class EventMappingTest {
+
+    @Test
+    public void testDefaultMapping() {
+        EventMapping mapping = EventMapping.getDefault();
+        for (EventType type : EventType.values()) {
+            Assert.assertTrue(mapping.isEnabled(type));
+            Assert.assertEquals(type.getScreenName(), mapping.getScreenName(type));
+        }
+        Assert.assertEquals("[push]", mapping.getFormat(EventType.NOTIFICATION_OPEN));
+        Assert.assertEquals("[in-app]", mapping.getFormat(EventType.MESSAGING_CLOSE));
+        Assert.assertNull(mapping.getFormat(EventType.UNKNOWN));
+        Assert.assertEquals(EventMapping.Role.IMPRESSION, mapping.getRole(EventType.NOTIFICATION_DISPLAY));
+        Assert.assertEquals(EventMapping.Role.CLICK, mapping.getRole(EventType.MESSAGING_WEBVIEW_CLICK));
+        Assert.assertEquals(EventMapping.Role.NONE, mapping.getRole(EventType.MESSAGING_AUTO_CLOSE));
+    }
+
+    @Test
+    public void testBuilder() {
+        EventMapping.Builder builder = new EventMapping.Builder()
+                .setEnabled(EventType.MESSAGING_AUTO_CLOSE, false)
+                .setScreenName(EventType.NOTIFICATION_OPEN, "PushOpened")
+                .setFormat(EventType.NOTIFICATION_OPEN, null)
+                .setRole(EventType.MESSAGING_CLOSE, EventMapping.Role.CLICK);
+        EventMapping mapping = builder.build();
+
+        Assert.assertFalse(mapping.isEnabled(EventType.MESSAGING_AUTO_CLOSE));
+        Assert.assertTrue(mapping.isEnabled(EventType.MESSAGING_CLOSE));
+        Assert.assertEquals("PushOpened", mapping.getScreenName(EventType.NOTIFICATION_OPEN));
+        Assert.assertNull(mapping.getFormat(EventType.NOTIFICATION_OPEN));
+        Assert.assertEquals(EventMapping.Role.CLICK, mapping.getRole(EventType.MESSAGING_CLOSE));
+
+        // Built mappings are not affected by later changes
+        builder.setEnabled(EventType.MESSAGING_AUTO_CLOSE, true);
+        Assert.assertFalse(mapping.isEnabled(EventType.MESSAGING_AUTO_CLOSE));
+        Assert.assertTrue(EventMapping.getDefault().isEnabled(EventType.MESSAGING_AUTO_CLOSE));
+
+        EventMapping copy = mapping.toBuilder().setEnabled(EventType.MESSAGING_SHOW, false).build();
+        Assert.assertFalse(copy.isEnabled(EventType.MESSAGING_AUTO_CLOSE));
+        Assert.assertFalse(copy.isEnabled(EventType.MESSAGING_SHOW));
+        Assert.assertTrue(mapping.isEnabled(EventType.MESSAGING_SHOW));
+    }
+
+    @Test
+    public void testDefaultFormatsAreShared() {
+        EventMapping mapping = new EventMapping.Builder()
+                .setFormat(EventType.MESSAGING_SHOW, new String("[push]"))
+                .setFormat(EventType.NOTIFICATION_OPEN, new String("[in-app]"))
+                .build();
+        Assert.assertSame(EventMapping.getDefault().getFormat(EventType.NOTIFICATION_OPEN),
+                mapping.getFormat(EventType.MESSAGING_SHOW));
+        Assert.assertSame(EventMapping.getDefault().getFormat(EventType.MESSAGING_SHOW),
+                mapping.getFormat(EventType.NOTIFICATION_OPEN));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyScreenName() {
+        new EventMapping.Builder().setScreenName(EventType.MESSAGING_SHOW, "");
+    }
+}
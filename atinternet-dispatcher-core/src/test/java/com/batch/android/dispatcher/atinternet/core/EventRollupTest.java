@@ -0,0 +1,130 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test the counting of low-value events into summary hits
+ */
+public class EventRollupTest {
+
+    private static final Set<EventType> TYPES = EnumSet.of(EventType.NOTIFICATION_DISMISS, EventType.MESSAGING_CLOSE);
+
+    private static final class RecordingSender implements EventRollup.Sender {
+        final List<String> sent = new ArrayList<>();
+
+        @Override
+        public void send(@NonNull EventType type, @Nullable String campaign, int count) {
+            sent.add(type + " " + campaign + " " + count);
+        }
+    }
+
+    @Test
+    public void testCountsPerTypeAndCampaign() {
+        EventRollup rollup = new EventRollup(16, 60000, 5, TYPES);
+        Assert.assertTrue(rollup.add(EventType.NOTIFICATION_DISMISS, "CS1-[one]"));
+        Assert.assertTrue(rollup.add(EventType.NOTIFICATION_DISMISS, "CS1-[one]"));
+        Assert.assertTrue(rollup.add(EventType.NOTIFICATION_DISMISS, "CS1-[two]"));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, "CS1-[one]"));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, null));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, null));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, ""));
+        Assert.assertFalse(rollup.add(EventType.MESSAGING_AUTO_CLOSE, "CS1-[one]"));
+        Assert.assertEquals(7, rollup.getPendingCount());
+
+        RecordingSender sender = new RecordingSender();
+        Assert.assertEquals(5, rollup.drain(sender));
+        Collections.sort(sender.sent);
+        Assert.assertEquals("[MESSAGING_CLOSE  1, MESSAGING_CLOSE CS1-[one] 1, MESSAGING_CLOSE null 2, " +
+                "NOTIFICATION_DISMISS CS1-[one] 2, NOTIFICATION_DISMISS CS1-[two] 1]", sender.sent.toString());
+        Assert.assertEquals(0, rollup.getPendingCount());
+
+        sender = new RecordingSender();
+        Assert.assertEquals(0, rollup.drain(sender));
+        Assert.assertTrue(sender.sent.isEmpty());
+    }
+
+    @Test
+    public void testFullTable() {
+        EventRollup rollup = new EventRollup(2, 60000, 5, TYPES);
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, "AD-[one]"));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, "AD-[two]"));
+        Assert.assertFalse(rollup.add(EventType.MESSAGING_CLOSE, "AD-[three]"));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, "AD-[two]"));
+
+        char[] longCampaign = new char[EventRollup.MAX_CAMPAIGN_LENGTH + 1];
+        Arrays.fill(longCampaign, 'x');
+        Assert.assertFalse(new EventRollup(2, 60000, 5, TYPES).add(EventType.MESSAGING_CLOSE, new String(longCampaign)));
+
+        // Sent keys are reused
+        rollup.drain(new RecordingSender());
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, "AD-[three]"));
+        Assert.assertTrue(rollup.add(EventType.MESSAGING_CLOSE, "AD-[four]"));
+    }
+
+    @Test
+    public void testFailedSendKeepsCounts() {
+        EventRollup rollup = new EventRollup(16, 60000, 5, TYPES);
+        rollup.add(EventType.MESSAGING_CLOSE, "AD-[one]");
+        rollup.add(EventType.MESSAGING_CLOSE, "AD-[one]");
+        try {
+            rollup.drain(new EventRollup.Sender() {
+                @Override
+                public void send(@NonNull EventType type, @Nullable String campaign, int count) {
+                    throw new IllegalStateException("offline");
+                }
+            });
+            Assert.fail("The sender's exception should be thrown");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+        rollup.add(EventType.MESSAGING_CLOSE, "AD-[one]");
+
+        RecordingSender sender = new RecordingSender();
+        rollup.drain(sender);
+        Assert.assertEquals("[MESSAGING_CLOSE AD-[one] 3]", sender.sent.toString());
+    }
+
+    @Test
+    public void testRestore() {
+        ByteBuffer storage = ByteBuffer.allocate(EventRollup.getByteSize(8));
+        EventRollup rollup = new EventRollup(8, 30000, 4, TYPES, storage);
+        rollup.add(EventType.NOTIFICATION_DISMISS, "CS1-[one]");
+        rollup.add(EventType.NOTIFICATION_DISMISS, "CS1-[one]");
+
+        EventRollup restored = EventRollup.restore(storage);
+        Assert.assertNotNull(restored);
+        Assert.assertEquals(8, restored.getCapacity());
+        Assert.assertEquals(30000, restored.getFlushIntervalMillis());
+        Assert.assertEquals(4, restored.getCountCustomVarIndex());
+        Assert.assertTrue(restored.isRolledUp(EventType.MESSAGING_CLOSE));
+        Assert.assertFalse(restored.isRolledUp(EventType.MESSAGING_AUTO_CLOSE));
+        Assert.assertTrue(restored.add(EventType.NOTIFICATION_DISMISS, "CS1-[one]"));
+
+        // New settings keep the counts, a new capacity doesn't
+        rollup = new EventRollup(8, 60000, 6, EnumSet.of(EventType.NOTIFICATION_DISMISS), storage);
+        Assert.assertEquals(3, rollup.getPendingCount());
+        Assert.assertEquals(60000, EventRollup.restore(storage).getFlushIntervalMillis());
+        ByteBuffer larger = ByteBuffer.allocate(EventRollup.getByteSize(16));
+        larger.put(storage.array());
+        Assert.assertEquals(0, new EventRollup(16, 60000, 6, TYPES, larger).getPendingCount());
+
+        Assert.assertNull(EventRollup.restore(ByteBuffer.allocate(EventRollup.getByteSize(8))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWebViewCustomVarIndex() {
+        new EventRollup(8, 60000, CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX, TYPES);
+    }
+}
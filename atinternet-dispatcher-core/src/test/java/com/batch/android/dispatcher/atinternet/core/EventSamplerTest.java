@@ -0,0 +1,121 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the sampling and rate limiting of events
+ */
+public class EventSamplerTest {
+
+    @Test
+    public void testSamplingIsDeterministic() {
+        SamplingPolicy policy = new SamplingPolicy.Builder()
+                .setRate(EventType.NOTIFICATION_DISPLAY, 0.1)
+                .setRate(EventType.NOTIFICATION_OPEN, 0.5)
+                .build();
+        EventSampler sampler = new EventSampler(policy, "installation-1");
+        EventSampler sameInstallation = new EventSampler(policy, "installation-1");
+
+        int keptDisplays = 0;
+        for (int i = 0; i < 10000; i++) {
+            String campaign = "AD-[campaign-" + i + "]";
+            EventSampler.Decision display = sampler.sample(EventType.NOTIFICATION_DISPLAY, campaign, 2);
+            Assert.assertEquals(display, sameInstallation.sample(EventType.NOTIFICATION_DISPLAY, campaign, 2));
+            if (display == EventSampler.Decision.KEEP) {
+                keptDisplays++;
+                // Opens have a higher rate: the funnel of a kept display is complete
+                Assert.assertEquals(EventSampler.Decision.KEEP, sampler.sample(EventType.NOTIFICATION_OPEN, campaign, 2));
+            }
+            // Types without a rate are always kept
+            Assert.assertEquals(EventSampler.Decision.KEEP, sampler.sample(EventType.MESSAGING_SHOW, campaign, 2));
+        }
+        Assert.assertTrue("Kept " + keptDisplays, keptDisplays > 800 && keptDisplays < 1200);
+        Assert.assertEquals(10000 - keptDisplays, sameInstallation.getSampledOutCount());
+        Assert.assertEquals(0, sampler.getRateLimitedCount());
+    }
+
+    @Test
+    public void testSamplingDependsOnInstallation() {
+        SamplingPolicy policy = new SamplingPolicy.Builder().setRate(EventType.MESSAGING_SHOW, 0.5).build();
+        int kept = 0;
+        for (int i = 0; i < 1000; i++) {
+            EventSampler sampler = new EventSampler(policy, "installation-" + i);
+            if (sampler.sample(EventType.MESSAGING_SHOW, "AD-[campaign]", 1) == EventSampler.Decision.KEEP) {
+                kept++;
+            }
+            double value = sampler.getSamplingValue(null);
+            Assert.assertTrue(value >= 0 && value < 1);
+        }
+        Assert.assertTrue("Kept " + kept, kept > 400 && kept < 600);
+    }
+
+    @Test
+    public void testExtremeRates() {
+        SamplingPolicy policy = new SamplingPolicy.Builder().setRate(EventType.MESSAGING_CLOSE, 0).build();
+        EventSampler sampler = new EventSampler(policy, "installation");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(EventSampler.Decision.SAMPLED_OUT, sampler.sample(EventType.MESSAGING_CLOSE, "c" + i, 1));
+            Assert.assertEquals(EventSampler.Decision.KEEP, sampler.sample(EventType.MESSAGING_SHOW, "c" + i, 1));
+        }
+        Assert.assertEquals(100, sampler.getSampledOutCount());
+    }
+
+    @Test
+    public void testRateLimit() {
+        SamplingPolicy policy = new SamplingPolicy.Builder().setRateLimit(10, 1000).build();
+        EventSampler sampler = new EventSampler(policy, "installation");
+        long now = System.nanoTime();
+
+        // A burst of up to 10 hits goes through
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(EventSampler.Decision.KEEP, sampler.sample(EventType.MESSAGING_SHOW, null, 2, now));
+        }
+        Assert.assertEquals(EventSampler.Decision.RATE_LIMITED, sampler.sample(EventType.MESSAGING_SHOW, null, 2, now));
+        Assert.assertEquals(EventSampler.Decision.RATE_LIMITED, sampler.sample(EventType.MESSAGING_CLOSE, null, 1, now));
+
+        // Then 10 hits per second
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        Assert.assertEquals(EventSampler.Decision.KEEP, sampler.sample(EventType.MESSAGING_CLOSE, null, 1, now));
+        Assert.assertEquals(EventSampler.Decision.RATE_LIMITED, sampler.sample(EventType.MESSAGING_CLOSE, null, 1, now));
+
+        // The bucket doesn't fill beyond its capacity
+        now += TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(EventSampler.Decision.KEEP, sampler.sample(EventType.MESSAGING_CLOSE, null, 1, now));
+        }
+        Assert.assertEquals(EventSampler.Decision.RATE_LIMITED, sampler.sample(EventType.MESSAGING_CLOSE, null, 1, now));
+
+        Assert.assertEquals(4, sampler.getRateLimitedCount());
+        Assert.assertEquals(0, sampler.getSampledOutCount());
+    }
+
+    @Test
+    public void testInvalidPolicies() {
+        SamplingPolicy.Builder builder = new SamplingPolicy.Builder();
+        double[] invalidRates = {-0.1, 1.1, Double.NaN};
+        for (double rate : invalidRates) {
+            try {
+                builder.setRate(EventType.MESSAGING_SHOW, rate);
+                Assert.fail("Accepted rate " + rate);
+            } catch (IllegalArgumentException expected) {
+                // Rejected
+            }
+        }
+        try {
+            builder.setRateLimit(0, 1000);
+            Assert.fail("Accepted an empty rate limit");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+        try {
+            builder.setRateCustomVarIndex(CustomVarPlan.WEBVIEW_ANALYTICS_ID_INDEX);
+            Assert.fail("Accepted the WebView analytics ID's custom variable");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+        Assert.assertFalse(builder.build().isRateLimited());
+    }
+}
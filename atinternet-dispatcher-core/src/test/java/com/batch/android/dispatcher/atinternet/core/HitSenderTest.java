@@ -0,0 +1,141 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Test the sending of hits to a local collection endpoint
+ */
+public class HitSenderTest {
+
+    private static final byte[] PIXEL = new byte[43];
+
+    static {
+        // Without it, the server's split header and body writes wait for the client's delayed ACK, ~40ms per hit
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer server;
+    private String collectUrl;
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final Queue<Integer> statuses = new ArrayDeque<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hit.xiti", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.add(exchange.getRequestURI().getRawQuery());
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                Integer status;
+                synchronized (statuses) {
+                    status = statuses.poll();
+                }
+                // Like the collection endpoint's pixel, a body keeps the stub's connections alive
+                exchange.sendResponseHeaders(status == null ? 200 : status, PIXEL.length);
+                exchange.getResponseBody().write(PIXEL);
+                exchange.close();
+            }
+        });
+        server.start();
+        collectUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/hit.xiti";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void respond(int... responses) {
+        synchronized (statuses) {
+            for (int status : responses) {
+                statuses.add(status);
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        CollectUrlBuilder builder = new CollectUrlBuilder(collectUrl, "123456", "visitor-1", "2.14.0", "12", null);
+        HitSender sender = new HitSender();
+        long urlChars = 0;
+        for (int i = 0; i < 20; i++) {
+            String url = builder.buildScreenHit("ClosedBatchInAppMessage", "AD-[" + i + "]", 7, "1", 1650000007000L);
+            urlChars += url.length();
+            Assert.assertTrue(sender.send(url));
+        }
+
+        Assert.assertEquals(20, received.size());
+        String last = received.get(19);
+        Assert.assertTrue(last, last.startsWith("s=123456&idclient=visitor-1&"));
+        Assert.assertTrue(last, last.endsWith("&p=ClosedBatchInAppMessage&xto=AD-%5B19%5D&f7=1"));
+        Assert.assertEquals(1, clientPorts.size());
+        Assert.assertEquals(20, sender.getSentCount());
+        Assert.assertEquals(urlChars, sender.getSentBytes());
+    }
+
+    @Test
+    public void testRetries() {
+        HitSender sender = new HitSender(1000, 3, 1);
+        respond(503, 429);
+        Assert.assertTrue(sender.send(collectUrl + "?s=1&p=first"));
+        Assert.assertEquals(2, sender.getRetryCount());
+
+        // Final response
+        respond(400);
+        Assert.assertFalse(sender.send(collectUrl + "?s=1&p=second"));
+        Assert.assertEquals(2, sender.getRetryCount());
+
+        respond(500, 502, 503);
+        Assert.assertFalse(sender.send(collectUrl + "?s=1&p=third"));
+        Assert.assertEquals(4, sender.getRetryCount());
+
+        // Redirects aren't followed, the hit wasn't collected
+        respond(302);
+        Assert.assertFalse(sender.send(collectUrl + "?s=1&p=fourth"));
+        Assert.assertEquals(4, sender.getRetryCount());
+
+        Assert.assertEquals(1, sender.getSentCount());
+        Assert.assertEquals(3, sender.getFailedCount());
+        Assert.assertEquals(8, received.size());
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testNetworkErrors() throws IOException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        HitSender sender = new HitSender(1000, 2, 1);
+        Assert.assertFalse(sender.send("http://127.0.0.1:" + closedPort + "/hit.xiti?s=1"));
+        Assert.assertEquals(1, sender.getRetryCount());
+        Assert.assertEquals(1, sender.getFailedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAttempts() {
+        new HitSender(1000, 0, 1);
+    }
+}
@@ -0,0 +1,126 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the dispatcher's bounded parse cache
+ */
+public class ParseCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final ParseCache.Loader<String> upperCaseLoader = new ParseCache.Loader<String>() {
+        @Override
+        public String load(@NonNull String key) {
+            loads.incrementAndGet();
+            return key.startsWith("null") ? null : key.toUpperCase();
+        }
+    };
+
+    @Test
+    public void testHitAndMiss() {
+        ParseCache<String> cache = new ParseCache<>(8);
+
+        Assert.assertEquals("AD-1", cache.get("ad-1", upperCaseLoader));
+        Assert.assertEquals("AD-1", cache.get("ad-1", upperCaseLoader));
+        Assert.assertEquals("AD-1", cache.get("ad-1", upperCaseLoader));
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testNullIsCached() {
+        ParseCache<String> cache = new ParseCache<>(8);
+
+        Assert.assertNull(cache.get("null-deeplink", upperCaseLoader));
+        Assert.assertNull(cache.get("null-deeplink", upperCaseLoader));
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        ParseCache<String> cache = new ParseCache<>(16);
+        Assert.assertEquals(16, cache.capacity());
+
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals("CS-" + i, cache.get("cs-" + i, upperCaseLoader));
+        }
+
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertEquals(10000, cache.getMissCount());
+        Assert.assertEquals(10000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testReferencedEntryGetsSecondChance() {
+        // A single set of two slots
+        ParseCache<String> cache = new ParseCache<>(2);
+        cache.get("hot", upperCaseLoader);
+        cache.get("cold", upperCaseLoader);
+
+        // "hot" is referenced, "cold" is not: "cold" is evicted
+        cache.get("hot", upperCaseLoader);
+        cache.get("new", upperCaseLoader);
+
+        int loadsBefore = loads.get();
+        cache.get("hot", upperCaseLoader);
+        Assert.assertEquals(loadsBefore, loads.get());
+        cache.get("cold", upperCaseLoader);
+        Assert.assertEquals(loadsBefore + 1, loads.get());
+    }
+
+    @Test
+    public void testLongKeysAreNotCached() {
+        ParseCache<String> cache = new ParseCache<>(8);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() <= ParseCache.MAX_KEY_LENGTH) {
+            builder.append("deeplink");
+        }
+        String key = builder.toString();
+
+        Assert.assertEquals(key.toUpperCase(), cache.get(key, upperCaseLoader));
+        Assert.assertEquals(key.toUpperCase(), cache.get(key, upperCaseLoader));
+
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final ParseCache<String> cache = new ParseCache<>(32);
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String key = "xtor-" + ((i * 7 + seed) % 64);
+                    if (!key.toUpperCase().equals(cache.get(key, upperCaseLoader))) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(0, errors.get());
+        Assert.assertEquals(80000, cache.getHitCount() + cache.getMissCount());
+        Assert.assertTrue(cache.size() <= 32);
+    }
+}
@@ -0,0 +1,87 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the XTOR tag model
+ */
+public class XtorTagTest {
+
+    @Test
+    public void testAllParts() {
+        XtorTag tag = XtorTag.parse(
+                "AD-3030000-[spring_sale]-12[banner-top]-[120x40]-[https://batch.com/sale]-[home]-[header]");
+        Assert.assertNotNull(tag);
+        Assert.assertEquals("AD", tag.getSource());
+        Assert.assertEquals("3030000", tag.getCampaign());
+
+        XtorTag.Label creative = tag.getCreative();
+        Assert.assertNotNull(creative);
+        Assert.assertEquals("[spring_sale]", creative.getValue());
+        Assert.assertNull(creative.getId());
+        Assert.assertEquals("spring_sale", creative.getLabel());
+
+        XtorTag.Label variant = tag.getVariant();
+        Assert.assertNotNull(variant);
+        Assert.assertEquals("12[banner-top]", variant.getValue());
+        Assert.assertEquals("12", variant.getId());
+        Assert.assertEquals("banner-top", variant.getLabel());
+
+        Assert.assertNotNull(tag.getFormat());
+        Assert.assertEquals("[120x40]", tag.getFormat().getValue());
+        Assert.assertEquals("https://batch.com/sale", tag.getWebsite());
+        Assert.assertNotNull(tag.getGeneralPlacement());
+        Assert.assertEquals("home", tag.getGeneralPlacement().getLabel());
+        Assert.assertNotNull(tag.getDetailedPlacement());
+        Assert.assertEquals("header", tag.getDetailedPlacement().getLabel());
+    }
+
+    @Test
+    public void testMissingParts() {
+        XtorTag tag = XtorTag.parse("EPR-2413");
+        Assert.assertNotNull(tag);
+        Assert.assertEquals("2413", tag.getCampaign());
+        Assert.assertNull(tag.getCreative());
+        Assert.assertNull(tag.getVariant());
+        Assert.assertNull(tag.getWebsite());
+        Assert.assertNull(tag.getDetailedPlacement());
+
+        tag = XtorTag.parse("EPR-50-[]--20190923");
+        Assert.assertNotNull(tag);
+        Assert.assertNotNull(tag.getCreative());
+        Assert.assertNull(tag.getCreative().getId());
+        Assert.assertEquals("", tag.getCreative().getLabel());
+        Assert.assertNull(tag.getVariant());
+
+        XtorTag.Label format = tag.getFormat();
+        Assert.assertNotNull(format);
+        Assert.assertEquals("20190923", format.getId());
+        Assert.assertNull(format.getLabel());
+    }
+
+    @Test
+    public void testInvalidTags() {
+        for (String xtorTag : new String[]{"", "AD", "AD-", "AD-[unclosed", "ZZ-campaign", "salut salut"}) {
+            Assert.assertNull(xtorTag, XtorTag.parse(xtorTag));
+        }
+    }
+
+    @Test
+    public void testSameCampaignAsXtorView() {
+        for (String xtorTag : new String[]{"CS1-[mylabeltest]-test-15[sef]", "AD--x", "PUB-]-[-]-x",
+                "EPR-50-[BA-notification-2019-09-23]-20190923-[WEB_BA_notification]-[]-[]-"}) {
+            XtorTag tag = XtorTag.parse(xtorTag);
+            Assert.assertNotNull(xtorTag, tag);
+            Assert.assertEquals(xtorTag, XtorView.getValidCampaign(xtorTag), tag.getCampaign());
+        }
+    }
+
+    @Test
+    public void testPartsAreCreatedOnce() {
+        XtorTag tag = XtorTag.parse("AD-[campaign]-[creative]");
+        Assert.assertNotNull(tag);
+        Assert.assertSame(tag.getCampaign(), tag.getCampaign());
+        Assert.assertSame(tag.getCreative(), tag.getCreative());
+    }
+}
@@ -1,19 +1,11 @@
-package com.batch.android.dispatcher.atinternet;
-
-import android.os.Build;
-
-import androidx.test.ext.junit.runners.AndroidJUnit4;
+package com.batch.android.dispatcher.atinternet.core;
 
 import org.junit.Assert;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.robolectric.annotation.Config;
 
 /**
  * Test the AT Internet XTOR parser
  */
-@RunWith(AndroidJUnit4.class)
-@Config(sdk = Build.VERSION_CODES.O_MR1)
 public class XtorTest {
 
     public void compareXtor(String[] expectedParts, Xtor xtor) {
@@ -0,0 +1,89 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Test the offset-based XTOR parser against {@link Xtor}
+ */
+public class XtorViewTest {
+
+    private static final String[] XTOR_TEST_CASES = {
+            "EPR-50-[BA_notification_2019_09_24]-20190924-[WEB_BA_notification]",
+            "CS1-[mylabeltest]-test-15[sef]",
+            "EPR-2413",
+            "EPR-50-[BA-notification-2019-09-23]-20190923-[WEB_BA_notification]-[]-[]-",
+            "---",
+            "salut salut",
+            "-test-15[sefsef]--",
+            "",
+            "AD",
+            "AD-",
+            "AD-[unclosed",
+            "AD-campaign-[unclosed",
+            "A-D-campaign",
+            "INTERNAL-campaign",
+            "PUB-]-[-]-x",
+    };
+
+    private static final char[] RANDOM_ALPHABET = {'A', 'D', 'E', 'P', 'R', 'S', 'C', 'I', 'N', 'T', '1', 'x', '-', '-', '[', ']'};
+
+    public void compareToXtor(String xtorTag) {
+        Xtor xtor = Xtor.parse(xtorTag);
+        XtorView view = XtorView.parse(xtorTag);
+
+        Assert.assertEquals(xtorTag, xtor.getParts().length, view.getPartCount());
+        for (int i = -1; i <= xtor.getParts().length; ++i) {
+            Assert.assertEquals(xtorTag, xtor.getPart(i), view.getPart(i));
+        }
+        Assert.assertEquals(xtorTag, xtor.isValidXtor(), view.isValidXtor());
+        Assert.assertEquals(xtorTag, xtor.isValidXtor() ? xtor.getPart(1) : null, XtorView.getValidCampaign(xtorTag));
+    }
+
+    @Test
+    public void testSameResultsAsXtor() {
+        for (String xtorTag : XTOR_TEST_CASES) {
+            compareToXtor(xtorTag);
+        }
+    }
+
+    @Test
+    public void testRandomXtors() {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        for (int iteration = 0; iteration < 100000; iteration++) {
+            builder.setLength(0);
+            if (random.nextBoolean()) {
+                builder.append(Xtor.XTOR_PREFIX[random.nextInt(Xtor.XTOR_PREFIX.length)]);
+            }
+            int length = random.nextInt(24);
+            for (int i = 0; i < length; i++) {
+                builder.append(RANDOM_ALPHABET[random.nextInt(RANDOM_ALPHABET.length)]);
+            }
+            compareToXtor(builder.toString());
+        }
+    }
+
+    @Test
+    public void testManyParts() {
+        StringBuilder builder = new StringBuilder("AD");
+        for (int i = 0; i < 40; i++) {
+            builder.append('-').append(i);
+        }
+        compareToXtor(builder.toString());
+        Assert.assertEquals(41, XtorView.parse(builder.toString()).getPartCount());
+    }
+
+    @Test
+    public void testValidCampaign() {
+        Assert.assertEquals("[mylabeltest]", XtorView.getValidCampaign("CS1-[mylabeltest]-test-15[sef]"));
+        Assert.assertEquals("2413", XtorView.getValidCampaign("EPR-2413"));
+        Assert.assertEquals("[BA-notification-2019-09-23]",
+                XtorView.getValidCampaign("EPR-[BA-notification-2019-09-23]-20190923"));
+        Assert.assertNull(XtorView.getValidCampaign("salut-salut"));
+        Assert.assertNull(XtorView.getValidCampaign("AD-"));
+        Assert.assertNull(XtorView.getValidCampaign("AD-[unclosed"));
+    }
+}
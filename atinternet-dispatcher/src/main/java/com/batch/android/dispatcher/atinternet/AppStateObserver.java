@@ -0,0 +1,44 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Observes the application state using the memory trim callbacks, which are the only
+ * application-wide signals available without any extra dependency:
+ * {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} tells us that the app went to the background,
+ * higher levels and {@link #onLowMemory()} that the process may be killed soon.
+ */
+class AppStateObserver implements ComponentCallbacks2 {
+
+    interface Listener {
+        void onAppStateChanged(@NonNull FlushTrigger trigger);
+    }
+
+    private final Listener listener;
+
+    AppStateObserver(@NonNull Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            listener.onAppStateChanged(FlushTrigger.APP_BACKGROUND);
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            listener.onAppStateChanged(FlushTrigger.MEMORY_PRESSURE);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        listener.onAppStateChanged(FlushTrigger.MEMORY_PRESSURE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // Not used
+    }
+}
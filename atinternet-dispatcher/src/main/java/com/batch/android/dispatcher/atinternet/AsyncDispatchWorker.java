@@ -0,0 +1,350 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background worker draining {@link BoundedEventQueue}s on a dedicated thread.
+ *
+ * Submitting an event only costs a queue insertion (and an unpark if the worker is sleeping),
+ * the handler always runs on the worker thread, except when the queue is full and the
+ * {@link OverflowPolicy#RUN_ON_CALLER} policy is used.
+ * As there is a single worker thread, events submitted by one thread are handled in order.
+ *
+ * With several lanes, each lane has its own queue and overflow policy, and events are only handled in order
+ * within a lane. Lane 0 has the highest priority: the worker serves the lanes in priority order, each one
+ * handling up to its weight in events per round. Once the lanes hold maxQueued events, an incoming event
+ * sheds the oldest event of the lowest non-empty lane below its own, or is handled by its lane's overflow
+ * policy as if its lane was full. See {@link PriorityLanes}.
+ *
+ * @param <T> Event type
+ */
+class AsyncDispatchWorker<T> implements Runnable {
+
+    static final String THREAD_NAME = "batch-atinternet-dispatcher";
+
+    /**
+     * Gives the lane of an event
+     */
+    interface LaneClassifier<T> {
+        int getLane(@NonNull T event);
+    }
+
+    private final BoundedEventQueue<T>[] queues;
+    private final OverflowPolicy[] overflowPolicies;
+    private final int[] weights;
+    private final int maxQueued;
+    @Nullable
+    private final LaneClassifier<T> classifier;
+    private final EventHandler<T> handler;
+    @Nullable
+    private final EventHandler<T> dropHandler;
+    private final Thread thread;
+
+    /**
+     * Events each lane can still handle in the current round, only used by the worker thread
+     */
+    private final int[] credits;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong retired = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLongArray droppedPerLane;
+    private final AtomicInteger flushWaiters = new AtomicInteger();
+    private final Object flushLock = new Object();
+
+    private volatile boolean running = true;
+    private volatile boolean parked = false;
+
+    AsyncDispatchWorker(int capacity, @NonNull OverflowPolicy overflowPolicy, @NonNull EventHandler<T> handler,
+                        @Nullable EventHandler<T> dropHandler) {
+        this(capacity, overflowPolicy, handler, dropHandler, THREAD_NAME);
+    }
+
+    /**
+     * @param handler Handler of the events, called on the worker thread
+     * @param dropHandler Handler of the events dropped by the overflow policy, called on the submitting thread
+     * @param threadName Name of the worker thread
+     */
+    AsyncDispatchWorker(int capacity, @NonNull OverflowPolicy overflowPolicy, @NonNull EventHandler<T> handler,
+                        @Nullable EventHandler<T> dropHandler, @NonNull String threadName) {
+        this(new int[]{capacity}, new OverflowPolicy[]{overflowPolicy}, new int[]{1}, Integer.MAX_VALUE, null,
+                handler, dropHandler, threadName);
+    }
+
+    /**
+     * @param capacities Capacity of each lane, from the highest priority to the lowest
+     * @param overflowPolicies Overflow policy of each lane
+     * @param weights Number of events each lane handles per round
+     * @param maxQueued Number of events waiting in all the lanes from which lower lanes are shed
+     * @param classifier Gives the lane of each event, null if there is a single lane
+     * @param handler Handler of the events, called on the worker thread
+     * @param dropHandler Handler of the events dropped by the overflow policies, called on the submitting thread
+     * @param threadName Name of the worker thread
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    AsyncDispatchWorker(@NonNull int[] capacities, @NonNull OverflowPolicy[] overflowPolicies, @NonNull int[] weights,
+                        int maxQueued, @Nullable LaneClassifier<T> classifier, @NonNull EventHandler<T> handler,
+                        @Nullable EventHandler<T> dropHandler, @NonNull String threadName) {
+        this.queues = new BoundedEventQueue[capacities.length];
+        for (int lane = 0; lane < capacities.length; lane++) {
+            queues[lane] = new BoundedEventQueue<>(capacities[lane]);
+        }
+        this.overflowPolicies = overflowPolicies;
+        this.weights = weights;
+        this.credits = weights.clone();
+        this.maxQueued = maxQueued;
+        this.classifier = classifier;
+        this.handler = handler;
+        this.dropHandler = dropHandler;
+        this.droppedPerLane = new AtomicLongArray(capacities.length);
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Queue an event for the worker thread, applying the overflow policy if the queue is full.
+     *
+     * @param event Event to handle
+     */
+    void submit(@NonNull T event) {
+        submitted.incrementAndGet();
+        if (!running) {
+            handleNow(event);
+            return;
+        }
+
+        int lane = classifier == null ? 0 : classifier.getLane(event);
+        BoundedEventQueue<T> queue = queues[lane];
+        while (true) {
+            boolean underPressure = queues.length > 1 && getQueueSize() >= maxQueued && !shedBelow(lane);
+            if (!underPressure && queue.offer(event)) {
+                break;
+            }
+            switch (overflowPolicies[lane]) {
+                case DROP_NEWEST:
+                    drop(event, lane);
+                    return;
+                case DROP_OLDEST:
+                    T oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest, lane);
+                    } else if (underPressure) {
+                        // The pressure comes from higher lanes, which this event can't displace
+                        drop(event, lane);
+                        return;
+                    }
+                    break;
+                case RUN_ON_CALLER:
+                default:
+                    handleNow(event);
+                    return;
+            }
+        }
+
+        if (!running) {
+            // We raced with shutdown(): the worker may already be gone, don't leave the event behind
+            drain();
+        } else if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Wait until every event submitted before this call has been handled or dropped.
+     *
+     * @param timeoutMillis Maximum time to wait
+     * @return true if the queue was flushed before the timeout
+     */
+    boolean flush(long timeoutMillis) {
+        long target = submitted.get();
+        if (retired.get() >= target) {
+            return true;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        flushWaiters.incrementAndGet();
+        try {
+            synchronized (flushLock) {
+                while (retired.get() < target) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(flushLock, remaining);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            flushWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stop the worker thread after it handled the queued events.
+     * Events submitted after this call are handled on the calling thread.
+     *
+     * @param timeoutMillis Maximum time to wait for the worker thread
+     * @return true if the worker thread stopped before the timeout
+     */
+    boolean shutdown(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean stopped = !thread.isAlive();
+        if (stopped) {
+            drain();
+        }
+        return stopped;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getDroppedCount(int lane) {
+        return droppedPerLane.get(lane);
+    }
+
+    int getLaneCount() {
+        return queues.length;
+    }
+
+    int getQueueSize() {
+        int size = 0;
+        for (BoundedEventQueue<T> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    boolean isWorkerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            T event = pollNext();
+            if (event != null) {
+                handleNow(event);
+                continue;
+            }
+            if (!running) {
+                break;
+            }
+            parked = true;
+            if (running && isEmpty()) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+
+    /**
+     * Poll the highest priority lane that has an event and credits left.
+     * A new round starts, giving every lane its weight in credits again, once no such lane is left.
+     */
+    @Nullable
+    private T pollNext() {
+        for (int round = 0; round < 2; round++) {
+            for (int lane = 0; lane < queues.length; lane++) {
+                if (credits[lane] > 0) {
+                    T event = queues[lane].poll();
+                    if (event != null) {
+                        credits[lane]--;
+                        return event;
+                    }
+                }
+            }
+            System.arraycopy(weights, 0, credits, 0, weights.length);
+        }
+        return null;
+    }
+
+    /**
+     * Drop the oldest event of the lowest non-empty lane below a lane
+     *
+     * @return false if every lower lane is empty
+     */
+    private boolean shedBelow(int lane) {
+        for (int lower = queues.length - 1; lower > lane; lower--) {
+            T event = queues[lower].poll();
+            if (event != null) {
+                drop(event, lower);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isEmpty() {
+        for (BoundedEventQueue<T> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void drain() {
+        for (BoundedEventQueue<T> queue : queues) {
+            T event;
+            while ((event = queue.poll()) != null) {
+                handleNow(event);
+            }
+        }
+    }
+
+    private void handleNow(T event) {
+        try {
+            handler.handle(event);
+        } catch (RuntimeException ignored) {
+            // The handler is responsible for reporting its errors
+        } finally {
+            retire();
+        }
+    }
+
+    private void drop(T event, int lane) {
+        dropped.incrementAndGet();
+        droppedPerLane.incrementAndGet(lane);
+        try {
+            if (dropHandler != null) {
+                dropHandler.handle(event);
+            }
+        } catch (RuntimeException ignored) {
+            // The handler is responsible for reporting its errors
+        } finally {
+            retire();
+        }
+    }
+
+    private void retire() {
+        retired.incrementAndGet();
+        if (flushWaiters.get() > 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+}
@@ -1,22 +1,36 @@
 package com.batch.android.dispatcher.atinternet;
 
-import android.net.Uri;
+import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.atinternet.tracker.ATInternet;
-import com.atinternet.tracker.CustomVar;
-import com.atinternet.tracker.Publisher;
-import com.atinternet.tracker.Screen;
 import com.atinternet.tracker.Tracker;
 import com.batch.android.Batch;
 import com.batch.android.BatchEventDispatcher;
+import com.batch.android.dispatcher.atinternet.core.CollectUrlBuilder;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventFields;
+import com.batch.android.dispatcher.atinternet.core.EventMapper;
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
+import com.batch.android.dispatcher.atinternet.core.EventRollup;
+import com.batch.android.dispatcher.atinternet.core.EventSampler;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.HitDescription;
+import com.batch.android.dispatcher.atinternet.core.HitSender;
+import com.batch.android.dispatcher.atinternet.core.ParseCache;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+import com.batch.android.dispatcher.atinternet.core.SectionTracer;
+import com.batch.android.dispatcher.atinternet.core.XtorTag;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * AtInternet Event Dispatcher
@@ -33,32 +47,140 @@ public class AtInternetDispatcher implements BatchEventDispatcher
     private static final String DISPATCHER_NAME = "at_internet";
     private static final int DISPATCHER_VERSION = 1;
 
-    private static final String XTOR = "xtor";
-    private static final String BATCH_DEFAULT_CAMPAIGN = "[batch-default-campaign]";
+    static final String XTOR = EventMapper.XTOR;
     public static final String BATCH_CAMPAIGN_TRACKER = "batch-campaign-tracker";
     public static final String BATCH_PUBLISHER_TRACKER = "batch-publisher-tracker";
 
     /**
-     * Event name used when logging on AT Internet
+     * Default settings of the asynchronous dispatch mode
      */
-    private static final String NOTIFICATION_DISPLAY_NAME = "DisplayedBatchPushNotification";
-    private static final String NOTIFICATION_OPEN_NAME = "OpenedBatchPushNotification";
-    private static final String NOTIFICATION_DISMISS_NAME = "DismissedBatchPushNotification";
-    private static final String MESSAGING_SHOW_NAME = "ShowedBatchInAppMessage";
-    private static final String MESSAGING_CLOSE_NAME = "ClosedBatchInAppMessage";
-    private static final String MESSAGING_CLOSE_ERROR_NAME = "ClosedErrorBatchInAppMessage";
-    private static final String MESSAGING_AUTO_CLOSE_NAME = "AutoClosedBatchInAppMessage";
-    private static final String MESSAGING_CLICK_NAME = "ClickedBatchInAppMessage";
-    private static final String MESSAGING_WEBVIEW_CLICK_NAME = "WebViewClickedBatchInAppMessage";
-    private static final String UNKNOWN_EVENT_NAME = "UnknownBatchMessage";
+    private static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 256;
+    static final long ASYNC_SHUTDOWN_TIMEOUT_MS = 5000;
 
-    private final Map<String, Tracker> trackerCache;
+    /**
+     * Default sizing of the duplicate filter
+     */
+    private static final int DEFAULT_DUPLICATE_EXPECTED_EVENTS = 1000;
+    private static final double DEFAULT_DUPLICATE_FALSE_POSITIVE_RATE = 0.001;
+
+    /**
+     * Default settings of the event rollup
+     */
+    private static final int DEFAULT_ROLLUP_CAPACITY = 64;
+    private static final Set<EventType> DEFAULT_ROLLUP_TYPES = Collections.unmodifiableSet(EnumSet.of(
+            EventType.NOTIFICATION_DISMISS, EventType.MESSAGING_CLOSE, EventType.MESSAGING_AUTO_CLOSE,
+            EventType.MESSAGING_CLOSE_ERROR));
+
+    static final String PREWARM_THREAD_NAME = "batch-atinternet-prewarm";
+
+    static final String SETUP_THREAD_NAME = "batch-atinternet-setup";
+    static final int PRE_SETUP_CAPACITY = 64;
+
+    /**
+     * Names of the system trace sections
+     */
+    static final String TRACE_DISPATCH = "AtInternet:dispatchEvent";
+    static final String TRACE_DEFERRED = "AtInternet:deferredDispatch";
+    static final String TRACE_SEND_EVENT = "AtInternet:sendEvent";
+    static final String TRACE_MAPPING = "AtInternet:mapEvent";
+    static final String TRACE_GET_TRACKER = "AtInternet:getTracker";
+    static final String TRACE_SEND_PUBLISHER = "AtInternet:sendPublisher";
+    static final String TRACE_SEND_SCREEN = "AtInternet:sendScreen";
+
+    /**
+     * Dispatcher event type of each Batch event type, indexed by {@link Batch.EventDispatcher.Type#ordinal()}
+     */
+    private static final EventType[] EVENT_TYPES = compileEventTypes();
+
+    private final TrackerInitTiming trackerInitTiming;
+
+    private final TrackerRegistry trackerRegistry;
+
+    private boolean prewarmStarted;
+
+    private final SetupController setupController = new SetupController(new EventHandler<EventSnapshot>() {
+        @Override
+        public void handle(@NonNull EventSnapshot event) {
+            sendPreSetupEvent(event);
+        }
+    }, new EventHandler<EventSnapshot>() {
+        @Override
+        public void handle(@NonNull EventSnapshot event) {
+            DispatchMetrics dispatchMetrics = metrics;
+            if (dispatchMetrics != null) {
+                dispatchMetrics.recordOutcome(getEventType(event.getType()), DispatchMetrics.Outcome.DROPPED);
+            }
+        }
+    });
+
+    /**
+     * Whether the application set the event mapping, which the one of the meta-data must not replace.
+     * Guarded by this.
+     */
+    private boolean eventMappingSet;
+
+    private final EventMapper eventMapper = new EventMapper();
+
+    private final EventRouter eventRouter = new EventRouter(new EventRouter.Sender() {
+        @Override
+        public void send(@NonNull EventSnapshot event) {
+            dispatchSnapshotNow(event);
+        }
+
+        @Override
+        public void drop(@NonNull EventSnapshot event) {
+            dropSnapshot(event);
+        }
+
+        @NonNull
+        @Override
+        public List<EventSnapshot> takeRecoveredEvents() {
+            if (!journalController.isReplayPending()) {
+                return Collections.emptyList();
+            }
+            return takeJournalReplay();
+        }
+    });
+
+    private AppStateObserver appStateObserver;
+
+    private final JournalController journalController = new JournalController();
+
+    private final DuplicateController duplicateController = new DuplicateController();
+
+    private final RollupController rollupController = new RollupController(new RollupController.SummarySender() {
+        @Override
+        public void send(@NonNull EventType type, @Nullable String campaign, int count, int countCustomVarIndex) {
+            sendSummary(type, campaign, count, countCustomVarIndex);
+        }
+    });
+
+    private final SamplingController samplingController = new SamplingController();
+
+    private volatile DispatchMetrics metrics;
 
-    private Tracker trackerOverride;
+    private MetricsReporter metricsReporter;
+
+    private volatile SectionTracer tracer;
+
+    private final TrackerHits trackerHits;
+
+    private volatile TrackerFanOut trackerFanOut = TrackerFanOut.DEFAULT;
+
+    private volatile DirectHits directHits;
+
+    private final AtomicInteger traceCookies = new AtomicInteger();
 
     AtInternetDispatcher()
     {
-        trackerCache = new HashMap<>();
+        this(TrackerRegistry.AT_INTERNET_FACTORY);
+    }
+
+    AtInternetDispatcher(@NonNull TrackerRegistry.TrackerFactory trackerFactory)
+    {
+        trackerInitTiming = new TrackerInitTiming(trackerFactory, BATCH_PUBLISHER_TRACKER, BATCH_CAMPAIGN_TRACKER);
+        trackerRegistry = new TrackerRegistry(trackerInitTiming);
+        trackerHits = new TrackerHits(trackerRegistry);
     }
 
     /**
@@ -71,204 +193,1074 @@ public class AtInternetDispatcher implements BatchEventDispatcher
     public void dispatchEvent(@NonNull Batch.EventDispatcher.Type type,
                               @NonNull Batch.EventDispatcher.Payload payload)
     {
-        String xtorTag = getXtorTag(payload);
+        DispatchMetrics dispatchMetrics = metrics;
+        long start = dispatchMetrics == null ? 0 : System.nanoTime();
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer != null) {
+            sectionTracer.beginSection(TRACE_DISPATCH);
+        }
+        try {
+            if (setupController.isPending() && holdUntilSetup(type, payload)) {
+                if (dispatchMetrics != null) {
+                    recordStage(dispatchMetrics, DispatchMetrics.Stage.DISPATCH, start);
+                }
+                return;
+            }
 
-        if (shouldBeDispatchedAsOnSiteAd(type)) {
-            dispatchAsOnSiteAd(type, payload, xtorTag);
+            // Disabled types are dropped before anything is read from the payload
+            EventType eventType = getEventType(type);
+            if (!eventMapper.isEnabled(eventType)) {
+                if (dispatchMetrics != null) {
+                    dispatchMetrics.recordOutcome(eventType, DispatchMetrics.Outcome.DISABLED);
+                    recordStage(dispatchMetrics, DispatchMetrics.Stage.DISPATCH, start);
+                }
+                return;
+            }
+
+            EventJournal eventJournal = journalController.get();
+            if (!eventRouter.isDeferring() && eventJournal == null) {
+                dispatchEventNow(type, payload, EventJournal.NO_SEQUENCE);
+            } else {
+                EventSnapshot snapshot = EventSnapshot.of(type, payload, eventMapper.getCustomVarPlan());
+                if (dispatchMetrics != null) {
+                    recordStage(dispatchMetrics, DispatchMetrics.Stage.SNAPSHOT, start);
+                }
+                if (eventJournal != null) {
+                    snapshot.setJournalSequence(eventJournal.append(snapshot));
+                }
+                routeSnapshot(snapshot);
+            }
+            if (dispatchMetrics != null) {
+                recordStage(dispatchMetrics, DispatchMetrics.Stage.DISPATCH, start);
+            }
+        } finally {
+            if (sectionTracer != null) {
+                sectionTracer.endSection();
+            }
         }
+    }
+
+    /**
+     Enable the asynchronous dispatch mode, using a queue of 256 events that drops the oldest events when full.
+
+     @see #enableAsyncDispatch(int, OverflowPolicy)
+     */
+    public void enableAsyncDispatch() {
+        enableAsyncDispatch(DEFAULT_ASYNC_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
 
-        Screen screen = getTracker(BATCH_CAMPAIGN_TRACKER).Screens().add(getATEventName(type));
-        if (xtorTag != null) {
-            screen.Campaign(xtorTag);
+    /**
+     Enable the asynchronous dispatch mode.
+     When enabled, {@link #dispatchEvent(Batch.EventDispatcher.Type, Batch.EventDispatcher.Payload)} only copies
+     the payload fields it needs and queues them: parsing and sending the hits to AT Internet is done on a dedicated
+     background thread. Events are sent in the order they were dispatched.
+     Calling this method again replaces the current queue, after sending the events it holds.
+
+     @param capacity Maximum number of events waiting to be sent, rounded up to the next power of two,
+     and to at least 2.
+     @param overflowPolicy What to do with an event when the queue is full.
+     */
+    public void enableAsyncDispatch(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        eventRouter.enableAsync(capacity, overflowPolicy);
+    }
+
+    /**
+     Enable the asynchronous dispatch mode with priority lanes.
+     Like {@link #enableAsyncDispatch(int, OverflowPolicy)}, but events wait in a bounded queue per
+     {@link DispatchLane}: conversions are sent ahead of impressions, which are sent ahead of dismissals and closes,
+     and lower lanes are shed first when the queue is under pressure. Events are only sent in the order they
+     were dispatched within a lane.
+     Calling this method again replaces the current queue, after sending the events it holds.
+
+     @param lanes Configuration of the lanes, see {@link PriorityLanes#getDefault()}.
+     */
+    public void enableAsyncDispatch(@NonNull PriorityLanes lanes) {
+        eventRouter.enableAsync(lanes, new AsyncDispatchWorker.LaneClassifier<EventSnapshot>() {
+            @Override
+            public int getLane(@NonNull EventSnapshot event) {
+                EventType eventType = getEventType(event.getType());
+                return DispatchLane.of(eventType, eventMapper.getMapping().getRole(eventType),
+                        event.isPositiveAction()).ordinal();
+            }
+        });
+    }
+
+    /**
+     Dropped events end like the ones whose hits were dropped: their outcome is recorded and their journal record
+     completed, as they won't be sent
+     */
+    private void dropSnapshot(@NonNull EventSnapshot event) {
+        event.endAsyncTrace();
+        DispatchMetrics dispatchMetrics = metrics;
+        if (dispatchMetrics != null) {
+            dispatchMetrics.recordOutcome(getEventType(event.getType()), DispatchMetrics.Outcome.DROPPED);
+        }
+        EventJournal eventJournal = journalController.get();
+        if (eventJournal != null) {
+            eventJournal.complete(event.getJournalSequence());
         }
+    }
+
+    /**
+     Disable the asynchronous dispatch mode, events are sent on the caller's thread again.
+     Events still waiting in the queue are sent before this method returns.
+     */
+    public void disableAsyncDispatch() {
+        eventRouter.disableAsync();
+    }
+
+    /**
+     Enable hit batching, flushing batched hits on all the available {@link FlushTrigger}.
+
+     @see #enableHitBatching(long, int, Set)
+     */
+    public void enableHitBatching(long batchWindowMillis, int maxBatchSize) {
+        enableHitBatching(batchWindowMillis, maxBatchSize, EnumSet.allOf(FlushTrigger.class));
+    }
 
-        String webViewButtonId = payload.getWebViewAnalyticsID();
-        if (webViewButtonId != null) {
-            screen.CustomVars().add(1, webViewButtonId, CustomVar.CustomVarType.Screen);
+    /**
+     Enable hit batching.
+     When enabled, the Screen and Publisher hits of the dispatched events are held back and sent to
+     AT Internet in groups, so that they go out in a single network burst.
+     A batch is sent when it holds maxBatchSize events, when batchWindowMillis elapsed since its first event,
+     when {@link #flush(long)} is called, or when one of the flushTriggers happens.
+     Hits are identical to the ones sent without batching.
+     Calling this method again replaces the current batcher, after sending the hits it holds.
+
+     @param batchWindowMillis Maximum time an event can wait in a batch, in milliseconds.
+     @param maxBatchSize Maximum number of events in a batch.
+     @param flushTriggers Application state changes that send the current batch right away.
+     */
+    public void enableHitBatching(long batchWindowMillis, int maxBatchSize, @NonNull Set<FlushTrigger> flushTriggers) {
+        eventRouter.enableBatching(batchWindowMillis, maxBatchSize, flushTriggers);
+    }
+
+    /**
+     Disable hit batching, hits are sent as soon as their event is dispatched again.
+     Batched hits are sent before this method returns.
+     */
+    public void disableHitBatching() {
+        eventRouter.disableBatching();
+    }
+
+    /**
+     Wait until all the events dispatched before this call have been sent to the AT Internet SDK.
+     Returns immediately if neither the asynchronous dispatch mode nor hit batching are enabled.
+     The summary hits of the event rollup, if enabled, are sent too. With direct hits, this also waits until the
+     queued hits were sent to the collection endpoint. Events dispatched while the dispatcher is set up, after its
+     registration, are sent once the setup is done: this waits for it too.
+
+     @param timeoutMillis Maximum time to wait for the asynchronous queue, in milliseconds.
+     @return true if all the events were sent before the timeout.
+     */
+    public boolean flush(long timeoutMillis) {
+        if (!setupController.await(timeoutMillis)) {
+            return false;
         }
-        screen.sendView();
+        // The worker sends the recovered events ahead of the queued ones: only replay them here if none was queued
+        boolean flushed = eventRouter.flushQueue(timeoutMillis);
+        if (journalController.isReplayPending()) {
+            replayJournal();
+            flushed = eventRouter.flushQueue(timeoutMillis) && flushed;
+        }
+        eventRouter.releaseBatch();
+        DirectHits direct = directHits;
+        if (direct != null) {
+            flushed = direct.flush(timeoutMillis) && flushed;
+        }
+        // Summary hits go out on this thread, after the queued direct hits
+        rollupController.flush();
+        return trackerFanOut.flush(timeoutMillis) && flushed;
     }
 
     /**
-     Specify the ATInternet {@link Tracker} instance that the dispatcher should use.
-     If set to null (its default value), Batch will automatically instantiate its own trackers
-     using the default configuration.
-     This method is useful if you set your {@link Tracker} instances in your code.
+     Enable the event journal, keeping up to 128 events.
 
-     @param trackerOverride Tracker instance to use. null if Batch should use its default one.
+     @see #enableEventJournal(Context, int)
      */
-    public void setTrackerOverride(@Nullable Tracker trackerOverride) {
-        this.trackerOverride = trackerOverride;
-        if (trackerOverride == null) {
-            clearTrackerCache();
+    public void enableEventJournal(@NonNull Context context) {
+        enableEventJournal(context, EventJournal.DEFAULT_CAPACITY);
+    }
+
+    /**
+     Enable the event journal.
+     When enabled, dispatched events are written to a small memory-mapped file until they have been sent
+     to the AT Internet SDK, so that they are not lost if the process dies in between, for example while they wait
+     in the asynchronous queue or in a batch.
+     Events found in the journal are sent again from the dispatcher's setup thread, once the application's
+     meta-data configuration was applied, or before the next event from the asynchronous dispatch thread or the
+     batcher's thread if they get there first, or on {@link #flush(long)}. They are never sent from the thread
+     dispatching an event. They keep their custom payload values: those of the payload keys configured when they
+     are sent again are looked up in the journal.
+     The journal stays enabled on the next application launches, with the same capacity, until
+     {@link #disableEventJournal()} is called.
+     Events with a very long deeplink, WebView analytics ID or custom payload values are not written to
+     the journal.
+
+     @param context Any context, used to locate the journal file.
+     @param capacity Maximum number of events in the journal. When full, the oldest events are overwritten.
+     */
+    public void enableEventJournal(@NonNull Context context, int capacity) {
+        journalController.enable(context, capacity);
+    }
+
+    /**
+     Disable the event journal and delete its file.
+     Events recovered from the journal that were not sent again yet are sent first.
+     */
+    public void disableEventJournal() {
+        if (journalController.isReplayPending()) {
+            replayJournal();
         }
+        journalController.disable();
+    }
+
+    /**
+     Enable duplicate suppression, sized for 1000 events per window with a 0.1% false positive rate.
+
+     @see #enableDuplicateSuppression(long, int, double)
+     */
+    public void enableDuplicateSuppression(long windowMillis) {
+        enableDuplicateSuppression(windowMillis, DEFAULT_DUPLICATE_EXPECTED_EVENTS, DEFAULT_DUPLICATE_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     Enable duplicate suppression.
+     When enabled, an impression or click with the same type, XTOR tag and WebView analytics ID as one sent
+     less than windowMillis ago is dropped, like a notification displayed again. Events without an XTOR tag
+     can't be told apart and are always sent.
+     Events are remembered in a fixed-size filter: a new event can wrongly be seen as a duplicate,
+     at most at the given rate as long as there are no more than the expected number of events per window.
+     Calling this method again replaces the current filter, forgetting the events it saw.
+
+     @param windowMillis Minimum time an event is remembered, in milliseconds.
+     @param expectedEventsPerWindow Number of impressions and clicks per window the filter is sized for.
+     @param falsePositiveRate Maximum share of new events wrongly dropped, between 0 and 1.
+     */
+    public void enableDuplicateSuppression(long windowMillis, int expectedEventsPerWindow, double falsePositiveRate) {
+        duplicateController.enable(windowMillis, expectedEventsPerWindow, falsePositiveRate);
+    }
+
+    /**
+     Enable duplicate suppression, remembering the events across application launches.
+     The events are kept in a small memory-mapped file. Like the event journal, duplicate suppression then stays
+     enabled on the next application launches, until {@link #disableDuplicateSuppression()} is called.
+
+     @param context Any context, used to locate the filter file.
+     @see #enableDuplicateSuppression(long, int, double)
+     */
+    public void enableDuplicateSuppression(@NonNull Context context, long windowMillis, int expectedEventsPerWindow,
+                                           double falsePositiveRate) {
+        duplicateController.enable(context, windowMillis, expectedEventsPerWindow, falsePositiveRate);
+    }
+
+    /**
+     Disable duplicate suppression and delete its file, if any.
+     */
+    public void disableDuplicateSuppression() {
+        duplicateController.disable();
+    }
+
+    /**
+     @return The number of events dropped as duplicates since duplicate suppression was enabled.
+     */
+    public long getSuppressedDuplicateCount() {
+        return duplicateController.getSuppressedCount();
+    }
+
+    /**
+     Enable the event rollup of close and dismiss events, keeping up to 64 (type, campaign) counts.
+
+     @see #enableEventRollup(Context, long, int, Set, int)
+     */
+    public void enableEventRollup(@NonNull Context context, long flushIntervalMillis, int countCustomVarIndex) {
+        enableEventRollup(context, flushIntervalMillis, countCustomVarIndex, DEFAULT_ROLLUP_TYPES,
+                DEFAULT_ROLLUP_CAPACITY);
+    }
+
+    /**
+     Enable the event rollup.
+     When enabled, events of the given types are not sent one by one: they are counted per type and campaign (XTOR tag),
+     and each count is sent every flushIntervalMillis as a single summary hit: the screen of the type, with the
+     campaign and the number of events as a screen custom variable. Counts are also sent when the app goes to the
+     background, and on {@link #flush(long)}.
+     Counts are kept in a small memory-mapped file until they are sent, so that none is lost if the process dies.
+     Like the event journal, the rollup then stays enabled on the next application launches, until
+     {@link #disableEventRollup()} is called. Calling this method again applies the new settings, keeping the counts
+     if the capacity didn't change.
+     Events that send an OnSiteAds publisher hit, whose campaign is longer than
+     {@link EventRollup#MAX_CAMPAIGN_LENGTH}, or that don't fit in a full rollup are sent as usual.
+
+     @param context Any context, used to locate the rollup file.
+     @param flushIntervalMillis Interval between two sends of the summary hits, in milliseconds.
+     @param countCustomVarIndex Index of the screen custom variable holding the number of events. Can't be 1,
+     which holds the WebView analytics ID.
+     @param types Event types to roll up.
+     @param capacity Maximum number of (type, campaign) counts waiting to be sent.
+     */
+    public void enableEventRollup(@NonNull Context context, long flushIntervalMillis, int countCustomVarIndex,
+                                  @NonNull Set<EventType> types, int capacity) {
+        rollupController.enable(context, flushIntervalMillis, countCustomVarIndex, types, capacity);
     }
 
-    private Tracker getTracker(@NonNull String trackerName) {
-        if (trackerOverride != null) {
-            return trackerOverride;
+    /**
+     Disable the event rollup and delete its file, if any.
+     Pending counts are sent before this method returns.
+     */
+    public void disableEventRollup() {
+        rollupController.disable();
+    }
+
+    /**
+     @return The number of counted events waiting for their summary hit, 0 if the event rollup is not enabled.
+     */
+    public long getPendingRollupCount() {
+        return rollupController.getPendingCount();
+    }
+
+    /**
+     Send the summary hit of a rollup count to every tracker target, or to the collection endpoint with direct hits.
+     Fails only if every target failed, so that the count isn't sent twice to the others, or if the direct hit
+     wasn't accepted.
+     */
+    private void sendSummary(@NonNull EventType eventType, @Nullable String campaign, int count,
+                             int countCustomVarIndex) {
+        EventMapping eventMapping = eventMapper.getMapping();
+        if (!eventMapping.isEnabled(eventType)) {
+            // Disabled after its events were counted
+            return;
+        }
+        String screenName = eventMapping.getScreenName(eventType);
+        DirectHits direct = directHits;
+        if (direct != null) {
+            direct.sendSummary(screenName, campaign, countCustomVarIndex, count);
+            return;
         }
+        trackerFanOut.sendSummary(trackerHits, screenName, campaign, countCustomVarIndex, count);
+    }
 
-        Tracker tracker = trackerCache.get(trackerName);
-        if (tracker == null) {
-            synchronized (trackerCache) {
-                tracker = trackerCache.get(trackerName);
-                if (tracker == null) {
-                    tracker = ATInternet.getInstance().getTracker(trackerName);
-                    trackerCache.put(trackerName, tracker);
-                }
+    /**
+     Start observing the application state, used for hit batching's {@link FlushTrigger} and the event rollup,
+     and reopen the event journal, the duplicate filter and the event rollup if they were enabled during a
+     previous launch.
+
+     @param context Any context, its application context is kept.
+     */
+    synchronized void attachContext(@NonNull Context context) {
+        if (appStateObserver != null) {
+            return;
+        }
+        journalController.reopen(context);
+        duplicateController.reopen(context);
+        rollupController.reopen(context);
+        appStateObserver = new AppStateObserver(new AppStateObserver.Listener() {
+            @Override
+            public void onAppStateChanged(@NonNull FlushTrigger trigger) {
+                onFlushTrigger(trigger);
             }
+        });
+        context.getApplicationContext().registerComponentCallbacks(appStateObserver);
+    }
+
+    void onFlushTrigger(@NonNull FlushTrigger trigger) {
+        eventRouter.onFlushTrigger(trigger);
+        if (trigger == FlushTrigger.APP_BACKGROUND) {
+            // Counts are safe in their file: only send them when the user leaves the app
+            rollupController.requestFlush();
         }
-        return tracker;
     }
 
-    private void clearTrackerCache() {
-        synchronized (trackerCache) {
-            trackerCache.clear();
+    /**
+     @return The number of events dropped because the asynchronous queue was full.
+     */
+    public long getDroppedEventCount() {
+        return eventRouter.getDroppedCount();
+    }
+
+    /**
+     @return The number of events of a lane dropped because the asynchronous queue was full or under pressure,
+     0 if priority lanes are not enabled.
+     */
+    public long getDroppedEventCount(@NonNull DispatchLane lane) {
+        return eventRouter.getDroppedCount(lane);
+    }
+
+    /**
+     Send the events recovered from the journal through the regular pipeline, if they weren't taken yet
+     */
+    void replayJournal() {
+        for (EventSnapshot event : takeJournalReplay()) {
+            routeSnapshot(event);
         }
     }
 
-    private void dispatchAsOnSiteAd(Batch.EventDispatcher.Type type, Batch.EventDispatcher.Payload payload, String xtorTag) {
+    /**
+     Take the events recovered from the journal, restored for the current custom variable plan
+
+     @return The events to send, empty if another thread took them
+     */
+    @NonNull
+    private List<EventSnapshot> takeJournalReplay() {
+        return journalController.takeReplay(eventMapper.getCustomVarPlan());
+    }
+
+    private void routeSnapshot(@NonNull EventSnapshot event) {
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer != null) {
+            // Covers the time the event waits in the queue and the batch, until it is sent
+            event.beginAsyncTrace(sectionTracer, traceCookies.incrementAndGet());
+        }
+        eventRouter.route(event);
+    }
 
-        Publisher publisher;
-        String campaign = null;
+    private void dispatchSnapshotNow(@NonNull EventSnapshot event) {
+        event.endAsyncTrace();
+        boolean pending = false;
+        try {
+            pending = dispatchEventNow(event.getType(), event, event.getJournalSequence());
+        } catch (RuntimeException e) {
+            Log.e("Batch", "Something went wrong dispatching event to AT Internet: " + e.getLocalizedMessage());
+        } finally {
+            EventJournal eventJournal = journalController.get();
+            if (eventJournal != null && !pending) {
+                eventJournal.complete(event.getJournalSequence());
+            }
+        }
+    }
 
-        if (xtorTag != null) {
-            Xtor xtor = Xtor.parse(xtorTag);
-            if (xtor.isValidXtor()) {
-                campaign = xtor.getPart(1);
+    /**
+     @param journalSequence Sequence of the event's journal record, {@link EventJournal#NO_SEQUENCE} if it has none
+     @return true if the event's hits are still being sent: its {@link SendCompletion} records its outcome and
+     completes its journal record
+     */
+    private boolean dispatchEventNow(@NonNull Batch.EventDispatcher.Type type,
+                                     @NonNull Batch.EventDispatcher.Payload payload,
+                                     long journalSequence)
+    {
+        EventType eventType = getEventType(type);
+        DispatchMetrics dispatchMetrics = metrics;
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer != null) {
+            sectionTracer.beginSection(TRACE_SEND_EVENT);
+        }
+        try {
+            DispatchMetrics.Outcome outcome = sendEvent(eventType, payload, dispatchMetrics, journalSequence);
+            if (outcome == null) {
+                return true;
+            }
+            if (dispatchMetrics != null) {
+                dispatchMetrics.recordOutcome(eventType, outcome);
+            }
+            return false;
+        } catch (RuntimeException e) {
+            if (dispatchMetrics != null) {
+                dispatchMetrics.recordOutcome(eventType, DispatchMetrics.Outcome.FAILED);
+            }
+            throw e;
+        } finally {
+            if (sectionTracer != null) {
+                sectionTracer.endSection();
             }
         }
+    }
 
-        Tracker publisherTracker = getTracker(BATCH_PUBLISHER_TRACKER);
-        if (campaign != null && !campaign.isEmpty()) {
-            publisher = publisherTracker.Publishers().add(campaign);
+    /**
+     @return The outcome of the event, or null if its hits are still being sent
+     */
+    @Nullable
+    private DispatchMetrics.Outcome sendEvent(@NonNull EventType eventType,
+                                              @NonNull Batch.EventDispatcher.Payload payload,
+                                              @Nullable DispatchMetrics dispatchMetrics,
+                                              long journalSequence)
+    {
+        EventFields fields;
+        CustomVarPlan plan;
+        long timestamp;
+        boolean recovered = false;
+        boolean publisherHitDelivered = false;
+        if (payload instanceof EventSnapshot) {
+            // Its custom values were copied for the plan of its time, which may have been replaced since
+            EventSnapshot snapshot = (EventSnapshot) payload;
+            fields = snapshot;
+            plan = snapshot.getCustomVarPlan();
+            timestamp = snapshot.getTimestamp();
+            recovered = snapshot.isRecovered();
+            publisherHitDelivered = snapshot.isPublisherHitDelivered();
         } else {
-            publisher = publisherTracker.Publishers().add(BATCH_DEFAULT_CAMPAIGN);
+            fields = new PayloadFields(payload);
+            plan = eventMapper.getCustomVarPlan();
+            timestamp = System.currentTimeMillis();
+        }
+        HitDescription hit = mapEvent(eventType, fields, plan, dispatchMetrics);
+        if (hit == null) {
+            // Its type was disabled after it was queued or journaled
+            return DispatchMetrics.Outcome.DISABLED;
         }
 
-        if (type.isNotificationEvent()) {
-            publisher.setFormat("[push]");
-        } else if (type.isMessagingEvent()) {
-            publisher.setFormat("[in-app]");
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        if (dispatchMetrics != null && onSiteAd != null) {
+            dispatchMetrics.recordXtorStatus(getXtorStatus(hit, onSiteAd));
         }
-        publisher.setAdvertiserId("[batch]");
 
-        String webViewButtonId = payload.getWebViewAnalyticsID();
-        if (webViewButtonId != null) {
-            publisher.setVariant("[" + webViewButtonId + "]");
+        // A replayed event went through the filter when it was first dispatched, which remembered it
+        if (!recovered && onSiteAd != null && hit.getCampaign() != null &&
+                duplicateController.isDuplicate(eventType, hit.getCampaign(), hit.getWebViewAnalyticsID())) {
+            return DispatchMetrics.Outcome.DUPLICATE;
         }
 
-        if (isImpression(type)) {
-            publisher.sendImpression();
-        } else if (isClick(type) &&
-                (payload.isPositiveAction() || type == Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK)) {
-            // We send the click if it's a positive action or if it's a click inside a WebView In-App
-            publisher.sendTouch();
+        if (onSiteAd == null && rollupController.add(eventType, hit.getCampaign())) {
+            return DispatchMetrics.Outcome.ROLLED_UP;
         }
+
+        if (publisherHitDelivered) {
+            // Only its screen hit failed
+            hit = hit.withoutOnSiteAd();
+            onSiteAd = null;
+        }
+
+        SamplingPolicy policy = samplingController.getPolicy();
+        if (policy != null) {
+            boolean sendsPublisher = onSiteAd != null && onSiteAd.getAction() != HitDescription.Action.NONE;
+            DispatchMetrics.Outcome sampledOutcome = samplingController.sample(policy, eventType, hit.getCampaign(),
+                    sendsPublisher ? 2 : 1);
+            if (sampledOutcome != null) {
+                return sampledOutcome;
+            }
+        }
+
+        return sendToTargets(eventType, hit, policy, dispatchMetrics, timestamp, journalSequence);
     }
 
-    private static String getXtorTag(Batch.EventDispatcher.Payload payload) {
-        String xtorTag = payload.getTrackingId();
-        if (xtorTag != null && !xtorTag.isEmpty()) {
-            return xtorTag;
+    /**
+     Send the hits of an event to every tracker target, or queue them for the collection endpoint with direct hits
+
+     @param timestamp Time the event was dispatched, in milliseconds since the epoch
+     @return The outcome of the event, or null if its hits were queued for parallel targets or direct hits:
+     they record its outcome and complete its journal record once sent
+     */
+    @Nullable
+    private DispatchMetrics.Outcome sendToTargets(@NonNull EventType eventType, @NonNull HitDescription hit,
+                                                  @Nullable SamplingPolicy policy,
+                                                  @Nullable DispatchMetrics dispatchMetrics,
+                                                  long timestamp, long journalSequence) {
+        EventJournal eventJournal = journalController.get();
+        DirectHits direct = directHits;
+        if (direct != null) {
+            direct.send(eventType, hit, policy, timestamp, dispatchMetrics, eventJournal, journalSequence);
+            return null;
+        }
+        return trackerFanOut.send(trackerHits, eventType, hit, policy, dispatchMetrics, eventJournal, journalSequence);
+    }
+
+    private static DispatchMetrics.XtorStatus getXtorStatus(@NonNull HitDescription hit,
+                                                            @NonNull HitDescription.OnSiteAd onSiteAd) {
+        if (hit.getCampaign() == null) {
+            return DispatchMetrics.XtorStatus.MISSING;
         }
-        return getTagFromPayload(payload, XTOR);
+        return onSiteAd.isDefaultCampaign() ? DispatchMetrics.XtorStatus.INVALID : DispatchMetrics.XtorStatus.VALID;
+    }
+
+    /**
+     Record the latency of a stage that started at stageStart
+
+     @return The end of the stage, start of the next one
+     */
+    static long recordStage(@NonNull DispatchMetrics dispatchMetrics, @NonNull DispatchMetrics.Stage stage,
+                                    long stageStart) {
+        long now = System.nanoTime();
+        dispatchMetrics.recordLatency(stage, now - stageStart);
+        return now;
     }
 
-    private static String getTagFromPayload(Batch.EventDispatcher.Payload payload, String tagName) {
-        String tag = getTagFromDeeplink(payload, tagName);
+    /**
+     Start recording metrics: the outcome of the events per type, the state of their XTOR tag,
+     and the latency of each dispatch stage. Recording them has a negligible cost,
+     see {@link DispatchMetrics}. Does nothing if metrics are already enabled.
+     */
+    public void enableMetrics() {
+        synchronized (this) {
+            if (metrics == null) {
+                metrics = new DispatchMetrics();
+            }
+        }
+    }
 
-        String tagTmp = payload.getCustomValue(tagName);
-        if (tagTmp != null) {
-            tag = tagTmp;
+    /**
+     Stop recording metrics, forgetting the recorded ones and stopping their listener, if any.
+     */
+    public void disableMetrics() {
+        MetricsReporter previous;
+        synchronized (this) {
+            previous = metricsReporter;
+            metricsReporter = null;
+            metrics = null;
+        }
+        if (previous != null) {
+            previous.stop();
         }
-        return tag;
     }
 
-    private static String getTagFromDeeplink(Batch.EventDispatcher.Payload payload, String tagName) {
-        String tag = null;
-        String deeplink = payload.getDeeplink();
-        if (deeplink != null) {
-            try {
-                deeplink = deeplink.trim();
-                tagName = tagName.toLowerCase();
-                Uri uri = Uri.parse(deeplink);
+    /**
+     @return The metrics recorded since they were enabled, or null if they aren't.
+     */
+    @Nullable
+    public DispatchMetrics.Snapshot getMetrics() {
+        DispatchMetrics dispatchMetrics = metrics;
+        return dispatchMetrics == null ? null : dispatchMetrics.snapshot();
+    }
 
-                String fragment = uri.getFragment();
-                if (uri.isHierarchical()) {
-                    if (fragment != null && !fragment.isEmpty()) {
-                        Map<String, String> fragments = getFragmentMap(fragment);
-                        String tagTmp = fragments.get(tagName);
-                        if (tagTmp != null) {
-                            tag =  tagTmp;
-                        }
-                    }
+    /**
+     Enable or disable system trace sections around the dispatcher's work: dispatchEvent, deeplink and XTOR parsing,
+     tracker lookups and each hit sent to AT Internet. Deferred events also get an async section covering the time
+     they wait in the queue or the batch. Sections show up in systrace and Perfetto captures, on API 18 and newer
+     (API 29 for async sections). Tracing is disabled by default, and costs a field read when disabled.
 
-                    Set<String> keys = uri.getQueryParameterNames();
-                    for (String key : keys) {
-                        if (tagName.equalsIgnoreCase(key)) {
-                            return uri.getQueryParameter(key);
-                        }
+     @param enabled Whether to emit trace sections.
+     */
+    public void setSystemTracingEnabled(boolean enabled) {
+        setSectionTracer(enabled ? SystemTracer.INSTANCE : null);
+    }
+
+    public boolean isSystemTracingEnabled() {
+        return tracer != null;
+    }
+
+    void setSectionTracer(@Nullable SectionTracer sectionTracer) {
+        tracer = sectionTracer;
+        eventMapper.setTracer(sectionTracer);
+        trackerHits.setTracer(sectionTracer);
+    }
+
+    /**
+     Enable metrics and report them periodically to a listener, on a background thread.
+     Reported metrics are cumulative, since metrics were enabled.
+
+     @param listener Listener to report the metrics to, or null to stop reporting them.
+     @param intervalMillis Interval between two reports, in milliseconds.
+     */
+    public void setMetricsListener(@Nullable MetricsListener listener, long intervalMillis) {
+        MetricsReporter previous;
+        synchronized (this) {
+            previous = metricsReporter;
+            metricsReporter = null;
+            if (listener != null) {
+                if (metrics == null) {
+                    metrics = new DispatchMetrics();
+                }
+                metricsReporter = new MetricsReporter(metrics, listener, intervalMillis);
+            }
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     Sample the events sent to AT Internet, and cap the number of hits sent per time window.
+     Sampling is consistent for an installation: all the events of a campaign are kept or dropped together,
+     see {@link EventSampler}. Events are sampled when they are sent, after their type was checked to be enabled.
+
+     @param policy Policy to apply, or null to send every event.
+     @throws IllegalArgumentException If the policy's rate custom variable is a screen variable of the
+     {@link CustomVarPlan}.
+     */
+    public void setSamplingPolicy(@Nullable SamplingPolicy policy) {
+        synchronized (this) {
+            SamplingController.checkRateCustomVar(policy, eventMapper.getCustomVarPlan());
+            samplingController.setPolicy(policy);
+        }
+    }
+
+    @Nullable
+    public SamplingPolicy getSamplingPolicy() {
+        return samplingController.getPolicy();
+    }
+
+    /**
+     @return The number of events dropped by their type's sampling rate since the sampling policy was set.
+     */
+    public long getSampledOutEventCount() {
+        return samplingController.getSampledOutCount();
+    }
+
+    /**
+     @return The number of events dropped by the sampling policy's rate limit since it was set.
+     */
+    public long getRateLimitedEventCount() {
+        return samplingController.getRateLimitedCount();
+    }
+
+    /**
+     Specify the ATInternet {@link Tracker} instance that the dispatcher should use.
+     If set to null (its default value), Batch will automatically instantiate its own trackers
+     using the default configuration.
+     This method is useful if you set your {@link Tracker} instances in your code.
+     With several {@link #setTrackerTargets(List, boolean) tracker targets}, every target uses this tracker:
+     it receives one copy of the hits per target.
+
+     @param trackerOverride Tracker instance to use. null if Batch should use its default one.
+     */
+    public void setTrackerOverride(@Nullable Tracker trackerOverride) {
+        trackerRegistry.setGlobalOverride(trackerOverride);
+    }
+
+    /**
+     Specify the ATInternet {@link Tracker} instance that the dispatcher should use for one of its trackers:
+     {@link #BATCH_CAMPAIGN_TRACKER} (screens) or {@link #BATCH_PUBLISHER_TRACKER} (OnSiteAds publishers).
+     It takes precedence over {@link #setTrackerOverride(Tracker)}.
+     Can be called at any time, even while events are being dispatched from other threads.
+
+     @param trackerName Name of the overridden tracker.
+     @param trackerOverride Tracker instance to use. null to remove the override.
+     */
+    public void setTrackerOverride(@NonNull String trackerName, @Nullable Tracker trackerOverride) {
+        trackerRegistry.setOverride(trackerName, trackerOverride);
+    }
+
+    /**
+     Send the hits of every event to several AT Internet sites, one after the other.
+
+     @see #setTrackerTargets(List, boolean)
+     */
+    public void setTrackerTargets(@NonNull List<TrackerTarget> targets) {
+        setTrackerTargets(targets, false);
+    }
+
+    /**
+     Send the hits of every event to several AT Internet sites, like a global site and per-country sites.
+     Each event is parsed once, then its Screen and Publisher hits are sent through the trackers of every target.
+     By default, the only target is {@link TrackerTarget#getDefault()}.
+
+     Sequentially, targets are sent to one after the other, on the thread sending the event: a failing target
+     doesn't prevent the others from being sent.
+     In parallel, each target gets its own background thread and queue of 256 events, dropping the oldest ones when
+     full: a slow target doesn't delay the others, nor the event's dispatch. Targets should then use distinct trackers,
+     as they are used from different threads. An event is only removed from the event journal, and its outcome only
+     recorded in the metrics, once every target sent its hits or dropped them:
+     {@link DispatchMetrics.Outcome#DROPPED} if a target's queue dropped them, {@link DispatchMetrics.Outcome#FAILED}
+     if sending them to a target failed, {@link DispatchMetrics.Outcome#SENT} otherwise.
+
+     Targets are told apart by their tracker names: a global {@link #setTrackerOverride(Tracker)} replaces the tracker
+     of every target, which then each send their own copy of the hits to that single tracker. Override the trackers
+     per name with {@link #setTrackerOverride(String, Tracker)} instead.
+     Calling this method again replaces the targets, after sending the hits queued for the current ones.
+
+     @param targets Sites to send hits to, at least one.
+     @param parallel Whether to send to the targets in parallel.
+     */
+    public void setTrackerTargets(@NonNull List<TrackerTarget> targets, boolean parallel) {
+        TrackerFanOut fanOut = new TrackerFanOut(targets, parallel);
+        TrackerFanOut previous;
+        synchronized (this) {
+            previous = trackerFanOut;
+            trackerFanOut = fanOut;
+        }
+        previous.shutdown(ASYNC_SHUTDOWN_TIMEOUT_MS);
+    }
+
+    /**
+     @return The AT Internet sites hits are sent to.
+     */
+    @NonNull
+    public List<TrackerTarget> getTrackerTargets() {
+        return trackerFanOut.getTargets();
+    }
+
+    /**
+     @return The number of hits dropped because the queue of a parallel tracker target was full.
+     */
+    public long getDroppedTargetHitCount() {
+        return trackerFanOut.getDroppedCount();
+    }
+
+    /**
+     Send hits to AT Internet's collection endpoint directly, with the default retry settings.
+
+     @see #enableDirectHits(Context, String, String, String, HitSender)
+     */
+    public void enableDirectHits(@NonNull Context context, @NonNull String collectUrl, @NonNull String site,
+                                 @NonNull String visitorId) {
+        enableDirectHits(context, collectUrl, site, visitorId, new HitSender());
+    }
+
+    /**
+     Send hits to AT Internet's collection endpoint directly, instead of through the AT Internet SDK's trackers.
+     The URL of each hit is built from the same fields as the Screen and Publisher the trackers would send,
+     see {@link CollectUrlBuilder}, then queued for a background thread: up to 256 hits wait there, the oldest are
+     dropped when full. Hits are sent over reused keep-alive connections, and retried on network and server errors.
+     Each hit is dated with the time its event was dispatched, even if it is sent later.
+     Tracker targets are not used while direct hits are enabled.
+     Calling this method again replaces the endpoint, after sending the hits queued for the current one.
+
+     An event is only {@link DispatchMetrics.Outcome#SENT} once all its hits were accepted: it is
+     {@link DispatchMetrics.Outcome#DROPPED} if the queue dropped one, {@link DispatchMetrics.Outcome#FAILED}
+     if one was given up. The event journal keeps the events whose hits weren't all accepted, to send them
+     again on the next launch, and the event rollup only forgets a count once its summary hit was accepted.
+
+     @param context Used to read the app's version, sent with each hit.
+     @param collectUrl Collection endpoint, like https://logs1.xiti.com/hit.xiti
+     @param site AT Internet site ID.
+     @param visitorId Visitor ID sent with each hit, use the one of your AT Internet trackers so that visitors
+     are counted once.
+     @param sender Sends the hits, with its timeout and retry settings.
+     */
+    public void enableDirectHits(@NonNull Context context, @NonNull String collectUrl, @NonNull String site,
+                                 @NonNull String visitorId, @NonNull HitSender sender) {
+        swapDirectHits(DirectHits.create(context, collectUrl, site, visitorId, sender));
+    }
+
+    /**
+     Send hits through the AT Internet SDK's trackers again.
+     Hits still waiting in the direct hits queue are sent before this method returns.
+     */
+    public void disableDirectHits() {
+        swapDirectHits(null);
+    }
+
+    private void swapDirectHits(@Nullable DirectHits direct) {
+        DirectHits previous;
+        synchronized (this) {
+            previous = directHits;
+            directHits = direct;
+        }
+        if (previous != null) {
+            previous.shutdown(ASYNC_SHUTDOWN_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     @return The sender of the direct hits, with their sent, failed and retried counts, or null if they are disabled.
+     */
+    @Nullable
+    public HitSender getDirectHitSender() {
+        DirectHits direct = directHits;
+        return direct == null ? null : direct.getSender();
+    }
+
+    /**
+     @return The number of hits dropped because the direct hits queue was full.
+     */
+    public long getDroppedDirectHitCount() {
+        DirectHits direct = directHits;
+        return direct == null ? 0 : direct.getDroppedCount();
+    }
+
+    /**
+     Create the dispatcher's trackers on a background thread, so that the first event doesn't pay for it.
+     Events dispatched meanwhile are not held back by the other tracker's creation,
+     they only wait for the one they need if it is still being created.
+     Called by the dispatcher's setup if the {@link TrackerInitStrategy#EAGER} strategy is configured,
+     later calls do nothing.
+     */
+    public void prewarmTrackers() {
+        synchronized (this) {
+            if (prewarmStarted) {
+                return;
+            }
+            prewarmStarted = true;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // In the order a notification or in-app impression needs them
+                    for (TrackerTarget target : trackerFanOut.getTargets()) {
+                        trackerHits.getTracker(target.getPublisherTrackerName());
+                        trackerHits.getTracker(target.getCampaignTrackerName());
                     }
+                } catch (RuntimeException e) {
+                    Log.e("Batch", "Could not create the AT Internet trackers: " + e.getLocalizedMessage());
                 }
-            } catch (Exception e) {
-                Log.e("Batch", "Something went wrong parsing deeplink: " + e.getLocalizedMessage());
             }
+        }, PREWARM_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     Run the dispatcher's setup on a background thread, like reading the application's meta-data and reopening
+     the files of a previous launch, so that registering the dispatcher doesn't pay for it.
+     Events dispatched meanwhile are copied to a small buffer, holding the last 64 events, and sent by the setup
+     thread once it is done, so that they are sent with the configuration of the setup without waiting for it.
+     {@link #flush(long)} waits for the setup, within its timeout.
+     */
+    void startSetup(@NonNull Runnable setup) {
+        setupController.start(setup);
+    }
+
+    /**
+     Keep a copy of an event dispatched while the setup is pending, for the setup thread to send it once done
+
+     @return false if the setup is done: the event must be dispatched as usual
+     */
+    private boolean holdUntilSetup(@NonNull Batch.EventDispatcher.Type type,
+                                   @NonNull Batch.EventDispatcher.Payload payload) {
+        // The mapping of the setup isn't known yet: the payload is read even if the type ends up disabled
+        return setupController.hold(EventSnapshot.of(type, payload, eventMapper.getCustomVarPlan()));
+    }
+
+    /**
+     Send an event held during the setup, now that the mapping of the setup is known
+     */
+    private void sendPreSetupEvent(@NonNull EventSnapshot event) {
+        EventType eventType = getEventType(event.getType());
+        if (!eventMapper.isEnabled(eventType)) {
+            DispatchMetrics dispatchMetrics = metrics;
+            if (dispatchMetrics != null) {
+                dispatchMetrics.recordOutcome(eventType, DispatchMetrics.Outcome.DISABLED);
+            }
+            return;
         }
-        return tag;
+        EventJournal eventJournal = journalController.get();
+        if (eventJournal != null) {
+            event.setJournalSequence(eventJournal.append(event));
+        }
+        routeSnapshot(event);
     }
 
-    private static boolean shouldBeDispatchedAsOnSiteAd(Batch.EventDispatcher.Type type) {
-        return isImpression(type) || isClick(type);
+    /**
+     @return Time between the dispatcher's registration and the moment its trackers were both created,
+     in milliseconds, or -1 if they weren't yet. Overridden trackers aren't created by the dispatcher.
+     */
+    public long getTrackersTimeToReadyMillis() {
+        return trackerInitTiming.getTimeToReadyMillis();
     }
 
-    private static boolean isImpression(Batch.EventDispatcher.Type type) {
-        return type.equals(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY) ||
-                type.equals(Batch.EventDispatcher.Type.MESSAGING_SHOW);
+    /**
+     @return Time spent creating the dispatcher's trackers, in milliseconds.
+     */
+    public long getTrackerCreationMillis() {
+        return trackerInitTiming.getCreationMillis();
     }
 
-    private static boolean isClick(Batch.EventDispatcher.Type type) {
-        return type.equals(Batch.EventDispatcher.Type.NOTIFICATION_OPEN) ||
-                type.equals(Batch.EventDispatcher.Type.MESSAGING_CLICK) ||
-                type.equals(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK);
+    @Nullable
+    private HitDescription mapEvent(@NonNull EventType eventType, @NonNull EventFields fields,
+                                    @NonNull CustomVarPlan plan, @Nullable DispatchMetrics dispatchMetrics) {
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer == null) {
+            return eventMapper.map(eventType, fields, plan, dispatchMetrics);
+        }
+        sectionTracer.beginSection(TRACE_MAPPING);
+        try {
+            return eventMapper.map(eventType, fields, plan, dispatchMetrics);
+        } finally {
+            sectionTracer.endSection();
+        }
     }
 
-    private static Map<String, String> getFragmentMap(String fragment)
-    {
-        String[] params = fragment.split("&");
-        Map<String, String> map = new HashMap<>();
-        for (String param : params) {
-            String[] parts = param.split("=");
-            if (parts.length >= 2) {
-                map.put(parts[0].toLowerCase(), parts[1]);
+    /**
+     Specify how each event type is sent to AT Internet, or whether it is sent at all.
+     Events whose type is disabled are dropped as soon as they are dispatched, without reading their payload.
+     The mapping can also be set with a JSON resource, see {@link AtInternetRegistrar}.
+
+     @param eventMapping Mapping to use, {@link EventMapping#getDefault()} sends every event.
+     */
+    public void setEventMapping(@NonNull EventMapping eventMapping) {
+        synchronized (this) {
+            eventMappingSet = true;
+            eventMapper.setMapping(eventMapping);
+        }
+    }
+
+    /**
+     Set the mapping of the application's meta-data, from the setup, unless the application already set one
+     */
+    void setMetaDataEventMapping(@NonNull EventMapping eventMapping) {
+        synchronized (this) {
+            if (!eventMappingSet) {
+                eventMapper.setMapping(eventMapping);
             }
         }
-        return map;
     }
 
-    private static String getATEventName(Batch.EventDispatcher.Type type) {
+    @NonNull
+    public EventMapping getEventMapping() {
+        return eventMapper.getMapping();
+    }
+
+    /**
+     Send custom variables with the screen of each event, extracted from Batch custom payload keys or
+     deeplink parameters. The plan is compiled when built, so that extracting the values of an event
+     only reads the configured sources.
+
+     @param customVarPlan Plan to use, {@link CustomVarPlan#getEmpty()} sends no custom variable.
+     @throws IllegalArgumentException If the plan sets the screen custom variable holding the
+     {@link SamplingPolicy}'s rate.
+     */
+    public void setCustomVarPlan(@NonNull CustomVarPlan customVarPlan) {
+        synchronized (this) {
+            SamplingController.checkRateCustomVar(samplingController.getPolicy(), customVarPlan);
+            eventMapper.setCustomVarPlan(customVarPlan);
+        }
+    }
+
+    @NonNull
+    public CustomVarPlan getCustomVarPlan() {
+        return eventMapper.getCustomVarPlan();
+    }
+
+    /**
+     Choose whether the format and variant parts of the XTOR tag win over Batch's values for the OnSiteAds
+     publisher: the format of the event type, and the analytics ID of the WebView button.
+     Batch's values win by default. The creative, placements and website of the tag are always sent.
+
+     @param xtorFieldsFirst Whether the XTOR tag's format and variant win
+     */
+    public void setXtorFieldsFirst(boolean xtorFieldsFirst) {
+        eventMapper.setXtorFieldsFirst(xtorFieldsFirst);
+    }
+
+    public boolean isXtorFieldsFirst() {
+        return eventMapper.isXtorFieldsFirst();
+    }
+
+    private static EventType getEventType(Batch.EventDispatcher.Type type) {
+        return EVENT_TYPES[type.ordinal()];
+    }
+
+    private static EventType[] compileEventTypes() {
+        Batch.EventDispatcher.Type[] batchTypes = Batch.EventDispatcher.Type.values();
+        EventType[] eventTypes = new EventType[batchTypes.length];
+        for (Batch.EventDispatcher.Type batchType : batchTypes) {
+            eventTypes[batchType.ordinal()] = toEventType(batchType);
+        }
+        return eventTypes;
+    }
+
+    private static EventType toEventType(Batch.EventDispatcher.Type type) {
         switch (type) {
             case NOTIFICATION_DISPLAY:
-                return NOTIFICATION_DISPLAY_NAME;
+                return EventType.NOTIFICATION_DISPLAY;
             case NOTIFICATION_OPEN:
-                return NOTIFICATION_OPEN_NAME;
+                return EventType.NOTIFICATION_OPEN;
             case NOTIFICATION_DISMISS:
-                return NOTIFICATION_DISMISS_NAME;
+                return EventType.NOTIFICATION_DISMISS;
             case MESSAGING_SHOW:
-                return MESSAGING_SHOW_NAME;
+                return EventType.MESSAGING_SHOW;
             case MESSAGING_CLOSE:
-                return MESSAGING_CLOSE_NAME;
+                return EventType.MESSAGING_CLOSE;
             case MESSAGING_AUTO_CLOSE:
-                return MESSAGING_AUTO_CLOSE_NAME;
+                return EventType.MESSAGING_AUTO_CLOSE;
             case MESSAGING_CLOSE_ERROR:
-                return MESSAGING_CLOSE_ERROR_NAME;
+                return EventType.MESSAGING_CLOSE_ERROR;
             case MESSAGING_CLICK:
-                return MESSAGING_CLICK_NAME;
+                return EventType.MESSAGING_CLICK;
             case MESSAGING_WEBVIEW_CLICK:
-                return MESSAGING_WEBVIEW_CLICK_NAME;
+                return EventType.MESSAGING_WEBVIEW_CLICK;
         }
-        return UNKNOWN_EVENT_NAME;
+        return EventType.UNKNOWN;
+    }
+
+    ParseCache<String> getDeeplinkTagCache() {
+        return eventMapper.getDeeplinkTagCache();
+    }
+
+    ParseCache<XtorTag> getCampaignCache() {
+        return eventMapper.getCampaignCache();
+    }
+
+    ParseCache<String> getVariantCache() {
+        return eventMapper.getVariantCache();
     }
 
     @Nullable
@@ -1,16 +1,37 @@
 package com.batch.android.dispatcher.atinternet;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
 import com.batch.android.eventdispatcher.DispatcherRegistrar;
 
+import org.json.JSONException;
+
+import java.io.IOException;
+
 /**
  * AtInternet Registrar
  * The class will be instantiated from the SDK using reflection
  * See the library {@link android.Manifest} for more information
+ *
+ * The trackers' initialization can be configured with an application meta-data:
+ * {@code <meta-data android:name="com.batch.android.dispatcher.atinternet.tracker_init" android:value="eager" />}
+ * See {@link TrackerInitStrategy}, the default is lazy.
+ *
+ * The event mapping can be configured with a JSON raw resource, see {@link EventMappingParser} for its format:
+ * {@code <meta-data android:name="com.batch.android.dispatcher.atinternet.event_mapping" android:resource="@raw/atinternet_mapping" />}
  */
 public class AtInternetRegistrar implements DispatcherRegistrar
 {
+    static final String TRACKER_INIT_METADATA = "com.batch.android.dispatcher.atinternet.tracker_init";
+    static final String EVENT_MAPPING_METADATA = "com.batch.android.dispatcher.atinternet.event_mapping";
+
     /**
      * Singleton instance
      */
@@ -26,8 +47,80 @@ public class AtInternetRegistrar implements DispatcherRegistrar
     {
         if (instance == null) {
             instance = new AtInternetDispatcher();
+            if (context != null) {
+                setUp(instance, context.getApplicationContext() != null ? context.getApplicationContext() : context);
+            }
         }
         return instance;
     }
+
+    /**
+     * Configure the dispatcher from the application's meta-data, reopen its files and replay the events of its
+     * journal, on the dispatcher's setup thread: the registration, which happens while the application starts,
+     * only creates the dispatcher.
+     */
+    private static void setUp(@NonNull final AtInternetDispatcher dispatcher, @NonNull final Context context)
+    {
+        dispatcher.startSetup(new Runnable() {
+            @Override
+            public void run() {
+                Bundle metaData = getMetaData(context);
+                EventMapping eventMapping = getEventMapping(context, metaData);
+                if (eventMapping != null) {
+                    dispatcher.setMetaDataEventMapping(eventMapping);
+                }
+                dispatcher.attachContext(context);
+                if (getTrackerInitStrategy(metaData) == TrackerInitStrategy.EAGER) {
+                    dispatcher.prewarmTrackers();
+                }
+                dispatcher.replayJournal();
+            }
+        });
+    }
+
+    @Nullable
+    private static Bundle getMetaData(@NonNull Context context)
+    {
+        try {
+            return context.getPackageManager()
+                    .getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA).metaData;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The event mapping configured in the application's meta-data, or null to keep the default one
+     */
+    @Nullable
+    static EventMapping getEventMapping(@NonNull Context context, @Nullable Bundle metaData)
+    {
+        int resourceId = metaData == null ? 0 : metaData.getInt(EVENT_MAPPING_METADATA);
+        if (resourceId == 0) {
+            return null;
+        }
+        try {
+            return EventMappingParser.parse(context.getResources().openRawResource(resourceId));
+        } catch (IOException | JSONException | RuntimeException e) {
+            Log.e("Batch", "Could not read the AT Internet event mapping, using the default one: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    @NonNull
+    static TrackerInitStrategy getTrackerInitStrategy(@Nullable Bundle metaData)
+    {
+        String value = metaData == null ? null : metaData.getString(TRACKER_INIT_METADATA);
+        if (value == null) {
+            return TrackerInitStrategy.LAZY;
+        }
+        for (TrackerInitStrategy strategy : TrackerInitStrategy.values()) {
+            if (strategy.name().equalsIgnoreCase(value.trim())) {
+                return strategy;
+            }
+        }
+        Log.e("Batch", "Unknown AT Internet tracker initialization strategy: " + value);
+        return TrackerInitStrategy.LAZY;
+    }
 }
 
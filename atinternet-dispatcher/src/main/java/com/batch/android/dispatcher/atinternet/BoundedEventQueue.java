@@ -0,0 +1,111 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free multi-producer/multi-consumer queue.
+ *
+ * Array based ring buffer where each slot carries a sequence number telling producers and
+ * consumers whether it is ready to be written or read (see Dmitry Vyukov's bounded MPMC queue).
+ * Producers and consumers only contend on a CAS of their own cursor, never on a lock, so
+ * {@link #offer(Object)} can safely be called from the main thread.
+ *
+ * Elements are returned in the order their slot was claimed, which means that events offered
+ * by a given thread are always polled in the order they were offered.
+ *
+ * The ring has at least two slots: in a single-slot ring, the sequence number a consumer leaves behind
+ * is the one the next producer expects, so a full slot would look free.
+ *
+ * @param <T> Element type
+ */
+class BoundedEventQueue<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity Minimum capacity of the queue, rounded up to the next power of two, and to at least 2
+     */
+    BoundedEventQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException("capacity is too large");
+        }
+        mask = size - 1;
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element at the end of the queue
+     *
+     * @param element Element to add
+     * @return false if the queue is full
+     */
+    boolean offer(T element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the element at the head of the queue
+     *
+     * @return The element, or null if the queue is empty
+     */
+    @Nullable
+    T poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T element = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, capacity());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
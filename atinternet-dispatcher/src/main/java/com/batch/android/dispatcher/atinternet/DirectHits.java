@@ -0,0 +1,168 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.CollectUrlBuilder;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.HitDescription;
+import com.batch.android.dispatcher.atinternet.core.HitSender;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+
+/**
+ * Sends the hits of events straight to the AT Internet collection endpoint, without the AT Internet SDK.
+ *
+ * URLs are built on the dispatching thread, then queued for a single worker thread that sends them with a
+ * {@link HitSender}: hits queued while it is busy go out back-to-back over the same keep-alive connection.
+ * When the queue is full, the oldest hits are dropped. Each hit tells its event's {@link SendCompletion} whether it
+ * was accepted, failed or dropped, so that the event's outcome and journal record only reflect what was delivered:
+ * an event whose publisher hit was accepted but whose screen hit wasn't is replayed without its publisher hit.
+ *
+ * Summary hits of the event rollup are sent on the rollup's thread instead: a count is only removed from the
+ * rollup once its summary hit was accepted.
+ */
+final class DirectHits {
+
+    static final String THREAD_NAME = "batch-atinternet-direct-hits";
+
+    static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * A hit waiting to be sent, with the completion of its event
+     */
+    private static final class QueuedHit {
+        final String url;
+        final boolean publisher;
+        final SendCompletion completion;
+
+        QueuedHit(String url, boolean publisher, SendCompletion completion) {
+            this.url = url;
+            this.publisher = publisher;
+            this.completion = completion;
+        }
+    }
+
+    private final CollectUrlBuilder urlBuilder;
+    private final HitSender sender;
+    private final AsyncDispatchWorker<QueuedHit> worker;
+
+    DirectHits(@NonNull CollectUrlBuilder urlBuilder, @NonNull final HitSender sender) {
+        this.urlBuilder = urlBuilder;
+        this.sender = sender;
+        worker = new AsyncDispatchWorker<>(QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, new EventHandler<QueuedHit>() {
+            @Override
+            public void handle(@NonNull QueuedHit hit) {
+                if (sender.send(hit.url)) {
+                    if (hit.publisher) {
+                        hit.completion.onPublisherHitSent();
+                    }
+                    hit.completion.onSent();
+                } else {
+                    Log.e("Batch", "Could not send a hit to AT Internet after " + sender.getMaxAttempts() +
+                            " attempts");
+                    hit.completion.onFailed();
+                }
+            }
+        }, new EventHandler<QueuedHit>() {
+            @Override
+            public void handle(@NonNull QueuedHit hit) {
+                hit.completion.onDropped();
+            }
+        }, THREAD_NAME);
+        worker.start();
+    }
+
+    /**
+     * Create the direct hits of a collection endpoint, sent with the version of the app, of the OS and of the
+     * AT Internet SDK they replace
+     */
+    @NonNull
+    static DirectHits create(@NonNull Context context, @NonNull String collectUrl, @NonNull String site,
+                             @NonNull String visitorId, @NonNull HitSender sender) {
+        CollectUrlBuilder urlBuilder = new CollectUrlBuilder(collectUrl, site, visitorId,
+                BuildConfig.AT_INTERNET_VERSION, Build.VERSION.RELEASE, getAppVersion(context));
+        return new DirectHits(urlBuilder, sender);
+    }
+
+    @Nullable
+    private static String getAppVersion(@NonNull Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queue the hits of an event: its publisher hit, if any, then its screen hit, like the tracker path.
+     * Once they were all sent or dropped, the event's outcome is recorded in dispatchMetrics, and its journal
+     * record completed if they were all accepted.
+     *
+     * @param timestamp Time of the event, in milliseconds since the epoch
+     */
+    void send(@NonNull EventType eventType, @NonNull HitDescription hit, @Nullable SamplingPolicy policy,
+              long timestamp, @Nullable DispatchMetrics dispatchMetrics, @Nullable EventJournal journal,
+              long journalSequence) {
+        SendCompletion completion = new SendCompletion(eventType, dispatchMetrics, journal, journalSequence,
+                CollectUrlBuilder.hasPublisherHit(hit) ? 2 : 1, true);
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        if (onSiteAd != null) {
+            String publisherHit = urlBuilder.buildPublisherHit(onSiteAd, timestamp);
+            if (publisherHit != null) {
+                worker.submit(new QueuedHit(publisherHit, true, completion));
+            }
+        }
+
+        String screenHit;
+        if (policy != null && policy.getRateCustomVarIndex() != SamplingPolicy.NO_CUSTOM_VAR) {
+            screenHit = urlBuilder.buildScreenHit(hit, policy.getRateCustomVarIndex(),
+                    Double.toString(policy.getRate(eventType)), timestamp);
+        } else {
+            screenHit = urlBuilder.buildScreenHit(hit, SamplingPolicy.NO_CUSTOM_VAR, null, timestamp);
+        }
+        worker.submit(new QueuedHit(screenHit, false, completion));
+    }
+
+    /**
+     * Send a summary hit of the event rollup on the calling thread
+     *
+     * @throws IllegalStateException if the hit couldn't be sent, so that the rollup keeps the count
+     */
+    void sendSummary(@NonNull String screenName, @Nullable String campaign, int countCustomVarIndex, int count) {
+        String url = urlBuilder.buildScreenHit(screenName, campaign, countCustomVarIndex, Integer.toString(count),
+                System.currentTimeMillis());
+        if (!sender.send(url)) {
+            throw new IllegalStateException("Could not send a summary hit after " + sender.getMaxAttempts() +
+                    " attempts");
+        }
+    }
+
+    /**
+     * Wait until the hits queued before this call have been sent or given up
+     */
+    boolean flush(long timeoutMillis) {
+        return worker.flush(timeoutMillis);
+    }
+
+    /**
+     * Stop the worker thread after it sent the queued hits
+     */
+    boolean shutdown(long timeoutMillis) {
+        return worker.shutdown(timeoutMillis);
+    }
+
+    @NonNull
+    HitSender getSender() {
+        return sender;
+    }
+
+    long getDroppedCount() {
+        return worker.getDroppedCount();
+    }
+}
@@ -0,0 +1,44 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+/**
+ * Lanes of the asynchronous queue when priority lanes are enabled, from the highest priority to the lowest.
+ * See {@link AtInternetDispatcher#enableAsyncDispatch(PriorityLanes)}.
+ */
+public enum DispatchLane
+{
+    /**
+     * The events sending a touch: those mapped to the {@link EventMapping.Role#CLICK} role, with a positive action
+     * or from a WebView In-App
+     */
+    CONVERSION,
+
+    /**
+     * Impressions, and clicks not sending a touch, like notification opens without a positive action
+     */
+    IMPRESSION,
+
+    /**
+     * Dismissals and closes
+     */
+    LOW_VALUE;
+
+    /**
+     * @param role Role of the event type in the current {@link EventMapping}
+     */
+    @NonNull
+    static DispatchLane of(@NonNull EventType type, @NonNull EventMapping.Role role, boolean positiveAction) {
+        // Same rule as the touch of the OnSiteAds publisher hit
+        if (role == EventMapping.Role.CLICK && (positiveAction || type == EventType.MESSAGING_WEBVIEW_CLICK)) {
+            return CONVERSION;
+        }
+        if (role != EventMapping.Role.NONE || type.isImpression() || type.isClick()) {
+            return IMPRESSION;
+        }
+        return LOW_VALUE;
+    }
+}
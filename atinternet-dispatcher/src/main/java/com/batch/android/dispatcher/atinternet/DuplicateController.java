@@ -0,0 +1,112 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.DuplicateFilter;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import java.io.IOException;
+
+/**
+ * The duplicate suppression of the dispatcher: the {@link DuplicateFilter} remembering the events, and the file
+ * keeping it across launches, if any.
+ *
+ * Enabling it again replaces the filter, forgetting the events it saw. Disabling it deletes the file. A file left by
+ * a previous launch is reopened with its settings.
+ */
+final class DuplicateController {
+
+    private volatile DuplicateFilter filter;
+
+    private DuplicateFilterFile filterFile;
+
+    /**
+     * Remember the events in memory only
+     */
+    void enable(long windowMillis, int expectedEventsPerWindow, double falsePositiveRate) {
+        swap(new DuplicateFilter(windowMillis, expectedEventsPerWindow, falsePositiveRate), null);
+    }
+
+    /**
+     * Remember the events in a file, across launches
+     */
+    void enable(@NonNull Context context, long windowMillis, int expectedEventsPerWindow, double falsePositiveRate) {
+        DuplicateFilterFile file;
+        try {
+            file = DuplicateFilterFile.open(DuplicateFilterFile.getFile(context), windowMillis,
+                    expectedEventsPerWindow, falsePositiveRate);
+        } catch (IOException e) {
+            Log.e("Batch", "Could not open the AT Internet dispatcher duplicate filter: " + e.getLocalizedMessage());
+            return;
+        }
+        swap(file.getFilter(), file);
+    }
+
+    void disable() {
+        DuplicateFilterFile previous = swap(null, null);
+        if (previous != null) {
+            previous.delete();
+        }
+    }
+
+    /**
+     * Reopen the filter of a previous launch, if it isn't enabled yet and left its file
+     */
+    void reopen(@NonNull Context context) {
+        if (filter != null || !DuplicateFilterFile.getFile(context).exists()) {
+            return;
+        }
+        DuplicateFilterFile file;
+        try {
+            file = DuplicateFilterFile.reopen(DuplicateFilterFile.getFile(context));
+        } catch (IOException e) {
+            Log.e("Batch", "Could not reopen the AT Internet dispatcher duplicate filter: " + e.getLocalizedMessage());
+            return;
+        }
+        if (file != null) {
+            swap(file.getFilter(), file);
+        }
+    }
+
+    /**
+     * Replace the filter, closing the previous one's file
+     *
+     * @return The previous filter file, if any
+     */
+    @Nullable
+    private DuplicateFilterFile swap(@Nullable DuplicateFilter newFilter, @Nullable DuplicateFilterFile file) {
+        DuplicateFilterFile previous;
+        synchronized (this) {
+            previous = filterFile;
+            filter = newFilter;
+            filterFile = file;
+        }
+        if (previous != null && previous != file) {
+            previous.close();
+        }
+        return previous;
+    }
+
+    /**
+     * Check whether an impression or click was already sent within the window, remembering it otherwise
+     *
+     * @return false if duplicate suppression is disabled or the event is new: it must be sent as usual
+     */
+    boolean isDuplicate(@NonNull EventType eventType, @NonNull String campaign, @Nullable String webViewAnalyticsID) {
+        DuplicateFilter current = filter;
+        return current != null &&
+                current.isDuplicate(eventType, campaign, webViewAnalyticsID, System.currentTimeMillis());
+    }
+
+    /**
+     * @return The number of events dropped as duplicates since the filter was enabled, 0 if it isn't
+     */
+    long getSuppressedCount() {
+        DuplicateFilter current = filter;
+        return current == null ? 0 : current.getSuppressedCount();
+    }
+}
@@ -0,0 +1,113 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.DuplicateFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link DuplicateFilter} held in a memory-mapped file, so that the events it saw survive the death of the process.
+ * Like the {@link EventJournal}, updating it is a few puts in the mapped buffer, written back by the kernel.
+ */
+final class DuplicateFilterFile {
+
+    static final String FILE_NAME = "com.batch.android.dispatcher.atinternet.dedup";
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final DuplicateFilter filter;
+    private boolean closed = false;
+
+    private DuplicateFilterFile(File file, RandomAccessFile randomAccessFile, DuplicateFilter filter) {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.filter = filter;
+    }
+
+    @NonNull
+    static File getFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Open a filter file, creating it if needed. The events it holds are kept if it was created with the same
+     * settings, otherwise it is reset.
+     *
+     * @throws IOException if the file could not be opened or mapped
+     */
+    @NonNull
+    static DuplicateFilterFile open(@NonNull File file, long windowMillis, int expectedEventsPerWindow,
+                                    double falsePositiveRate) throws IOException {
+        int size = DuplicateFilter.getByteSize(expectedEventsPerWindow, falsePositiveRate);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(size);
+            }
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            DuplicateFilter filter = new DuplicateFilter(windowMillis, expectedEventsPerWindow, falsePositiveRate, buffer);
+            return new DuplicateFilterFile(file, randomAccessFile, filter);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reopen a filter file with the settings it was created with
+     *
+     * @return The filter file, or null if the file doesn't hold a valid filter
+     * @throws IOException if the file could not be opened or mapped
+     */
+    @Nullable
+    static DuplicateFilterFile reopen(@NonNull File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+            DuplicateFilter filter = DuplicateFilter.restore(buffer);
+            if (filter != null) {
+                return new DuplicateFilterFile(file, randomAccessFile, filter);
+            }
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        randomAccessFile.close();
+        return null;
+    }
+
+    @NonNull
+    DuplicateFilter getFilter() {
+        return filter;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            randomAccessFile.close();
+        } catch (IOException ignored) {
+            // Nothing we can do
+        }
+    }
+
+    /**
+     * Close the filter file and delete it
+     */
+    synchronized void delete() {
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,14 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Handles an event handed over by one of the dispatcher's deferred stages.
+ * Implementations should catch and report their own errors, runtime exceptions are swallowed
+ * by the stages to keep them alive.
+ *
+ * @param <T> Event type
+ */
+interface EventHandler<T> {
+    void handle(@NonNull T event);
+}
@@ -0,0 +1,567 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Crash-safe journal of the events that have not been sent to the AT Internet SDK yet.
+ *
+ * The journal is a memory-mapped file holding a ring of fixed-width binary records: writing to it
+ * is a handful of absolute puts in the mapped buffer, and what has been written survives the death
+ * of the process as the kernel owns the mapped pages.
+ * A record holds every field of an {@link EventSnapshot}: the event type, its XTOR sources, the WebView analytics ID,
+ * the values of the custom payload keys read by the {@link CustomVarPlan}, and the time it was dispatched.
+ * It is identified by a sequence number which also gives its slot in the ring: once the ring is full, appending
+ * overwrites the oldest pending record.
+ *
+ * Record layout (little details matter for torn writes):
+ * sequence (8) | timestamp (8) | type (1) | flags (1) | field count (2) | char count (2) | delivered (1) |
+ * unused (1) | checksum (4) | fields
+ * Fields are the tracking ID, the XTOR custom value, the deeplink, the WebView analytics ID, then each payload key
+ * followed by its value. Each one is written as a length char, {@link #NULL_LENGTH} for a null field,
+ * followed by its UTF-16 chars.
+ * The sequence is cleared first and written last, and the checksum covers every field, so a record
+ * that was only partially written is either seen as empty or rejected on recovery.
+ * The delivered byte is left out of the checksum: it is set on its own once the publisher hit of a record's event
+ * was delivered, so that a replay only sends its screen hit.
+ *
+ * The header holds the capacity of the journal, so that it can be reopened as it was created.
+ */
+final class EventJournal {
+
+    static final String FILE_NAME = "com.batch.android.dispatcher.atinternet.journal";
+    static final int DEFAULT_CAPACITY = 128;
+    static final long NO_SEQUENCE = 0;
+
+    static final int RECORD_SIZE = 1024;
+    static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x4241544a; // BATJ
+    /**
+     * Version 1 records only held the XTOR source that won: their events are not recovered
+     */
+    private static final int VERSION = 2;
+
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_TIMESTAMP = 8;
+    private static final int OFFSET_TYPE = 16;
+    private static final int OFFSET_FLAGS = 17;
+    private static final int OFFSET_FIELD_COUNT = 18;
+    private static final int OFFSET_CHAR_COUNT = 20;
+    private static final int OFFSET_DELIVERED = 22;
+    private static final int OFFSET_CHECKSUM = 24;
+    static final int OFFSET_CHARS = 28;
+    static final int MAX_CHARS = (RECORD_SIZE - OFFSET_CHARS) / 2;
+
+    private static final int FLAG_POSITIVE_ACTION = 1;
+    private static final int DELIVERED_PUBLISHER_HIT = 1;
+    private static final char NULL_LENGTH = 0xffff;
+    private static final int FIELD_TRACKING_ID = 0;
+    private static final int FIELD_XTOR_CUSTOM_VALUE = 1;
+    private static final int FIELD_DEEPLINK = 2;
+    private static final int FIELD_WEBVIEW_ID = 3;
+    private static final int FIXED_FIELD_COUNT = 4;
+
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * Stable type codes, Batch's enum ordinals may change between SDK versions
+     */
+    private static final Batch.EventDispatcher.Type[] TYPES_BY_CODE = {
+            null,
+            Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+            Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+            Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+            Batch.EventDispatcher.Type.MESSAGING_SHOW,
+            Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+            Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE,
+            Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR,
+            Batch.EventDispatcher.Type.MESSAGING_CLICK,
+            Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+    };
+
+    /**
+     * Record read when opening the journal, until it is restored for the custom variable plan of the replay
+     */
+    private static final class RecoveredRecord {
+        long sequence;
+        final long timestamp;
+        final Batch.EventDispatcher.Type type;
+        final boolean positiveAction;
+        final boolean publisherHitDelivered;
+        final String[] fields;
+
+        RecoveredRecord(long sequence, long timestamp, Batch.EventDispatcher.Type type, boolean positiveAction,
+                        boolean publisherHitDelivered, String[] fields) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.positiveAction = positiveAction;
+            this.publisherHitDelivered = publisherHitDelivered;
+            this.fields = fields;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private List<RecoveredRecord> recovered;
+
+    private long nextSequence;
+    private long evictedCount = 0;
+    private long skippedCount = 0;
+    private boolean closed = false;
+
+    private EventJournal(File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, int capacity,
+                         List<RecoveredRecord> recovered, long nextSequence) {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.recovered = recovered;
+        this.nextSequence = nextSequence;
+    }
+
+    @NonNull
+    static File getFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Open a journal file, creating it if needed, and recover the records it holds.
+     * If the file has been created with another capacity, its valid records are recovered and the file
+     * is recreated. A corrupted file, or one written by another version, is recreated empty.
+     *
+     * @param file Journal file
+     * @param capacity Maximum number of records
+     * @return The opened journal
+     * @throws IOException if the file could not be opened or mapped
+     */
+    @NonNull
+    static EventJournal open(@NonNull File file, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            List<RecoveredRecord> recovered = new ArrayList<>();
+            int fileCapacity = readCapacity(randomAccessFile);
+            boolean sameLayout = fileCapacity == capacity;
+            if (!sameLayout && fileCapacity > 0) {
+                // Read the records of the previous capacity before the file is resized
+                recover(map(randomAccessFile, fileCapacity), fileCapacity, false, recovered);
+            }
+
+            long size = getFileSize(capacity);
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(size);
+            }
+            MappedByteBuffer buffer = map(randomAccessFile, capacity);
+            long nextSequence;
+            if (sameLayout) {
+                nextSequence = recover(buffer, capacity, true, recovered) + 1;
+            } else {
+                // Recreate the journal, recovered events will be written again when replayed
+                for (int position = 0; position < buffer.capacity(); position += 8) {
+                    buffer.putLong(position, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, capacity);
+                buffer.putInt(12, RECORD_SIZE);
+                nextSequence = 1;
+            }
+            return new EventJournal(file, randomAccessFile, buffer, capacity, recovered, nextSequence);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reopen a journal file with the capacity it was created with, or the default capacity if its header
+     * isn't valid
+     *
+     * @throws IOException if the file could not be opened or mapped
+     */
+    @NonNull
+    static EventJournal reopen(@NonNull File file) throws IOException {
+        int capacity;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            capacity = readCapacity(randomAccessFile);
+        }
+        return open(file, capacity > 0 ? capacity : DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return Whether records found when opening the journal have not been taken yet
+     */
+    synchronized boolean hasRecoveredEvents() {
+        return !recovered.isEmpty();
+    }
+
+    /**
+     * Take the records found when opening the journal, oldest first. Later calls return an empty list.
+     * Records that are still in the journal keep their sequence, so that completing them once sent
+     * removes them from the journal. Events are marked as recovered, along with their publisher hit's delivery.
+     *
+     * @param customVarPlan Plan the events will be sent with: the values of its payload keys are looked up
+     * in the records
+     */
+    @NonNull
+    synchronized List<EventSnapshot> takeRecoveredEvents(@NonNull CustomVarPlan customVarPlan) {
+        List<EventSnapshot> events = new ArrayList<>(recovered.size());
+        for (RecoveredRecord record : recovered) {
+            String[] fields = record.fields;
+            int keyCount = (fields.length - FIXED_FIELD_COUNT) / 2;
+            String[] keys = new String[keyCount];
+            String[] values = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = fields[FIXED_FIELD_COUNT + 2 * i];
+                values[i] = fields[FIXED_FIELD_COUNT + 2 * i + 1];
+            }
+            EventSnapshot event = EventSnapshot.restore(record.type,
+                    fields[FIELD_TRACKING_ID],
+                    fields[FIELD_DEEPLINK],
+                    fields[FIELD_XTOR_CUSTOM_VALUE],
+                    fields[FIELD_WEBVIEW_ID],
+                    record.positiveAction,
+                    record.timestamp,
+                    customVarPlan,
+                    keys,
+                    values);
+            event.setJournalSequence(record.sequence);
+            event.setRecovered(record.publisherHitDelivered);
+            events.add(event);
+        }
+        recovered = Collections.emptyList();
+        return events;
+    }
+
+    /**
+     * Write an event to the journal
+     *
+     * @param event Event to write
+     * @return The record's sequence, or {@link #NO_SEQUENCE} if the event could not be written
+     */
+    synchronized long append(@NonNull EventSnapshot event) {
+        int typeCode = getTypeCode(event.getType());
+        int keyCount = event.getCustomValueCount();
+        int fieldCount = FIXED_FIELD_COUNT + 2 * keyCount;
+        int charCount = fieldCount +
+                getLength(event.getTrackingId()) +
+                getLength(event.getXtorCustomValue()) +
+                getLength(event.getDeeplink()) +
+                getLength(event.getWebViewAnalyticsID());
+        for (int i = 0; i < keyCount; i++) {
+            charCount += getLength(event.getCustomKey(i)) + getLength(event.getCustomValueAt(i));
+        }
+
+        if (closed || typeCode == 0 || charCount > MAX_CHARS) {
+            skippedCount++;
+            return NO_SEQUENCE;
+        }
+
+        long sequence = nextSequence++;
+        int base = getRecordOffset(sequence, capacity);
+        if (buffer.getLong(base + OFFSET_SEQUENCE) != NO_SEQUENCE) {
+            evictedCount++;
+        }
+        buffer.putLong(base + OFFSET_SEQUENCE, NO_SEQUENCE);
+
+        long timestamp = event.getTimestamp();
+        int flags = event.isPositiveAction() ? FLAG_POSITIVE_ACTION : 0;
+        buffer.putLong(base + OFFSET_TIMESTAMP, timestamp);
+        buffer.put(base + OFFSET_TYPE, (byte) typeCode);
+        buffer.put(base + OFFSET_FLAGS, (byte) flags);
+        buffer.putShort(base + OFFSET_FIELD_COUNT, (short) fieldCount);
+        buffer.putShort(base + OFFSET_CHAR_COUNT, (short) charCount);
+        buffer.put(base + OFFSET_DELIVERED, (byte) 0);
+
+        int position = base + OFFSET_CHARS;
+        position = putField(position, event.getTrackingId());
+        position = putField(position, event.getXtorCustomValue());
+        position = putField(position, event.getDeeplink());
+        position = putField(position, event.getWebViewAnalyticsID());
+        for (int i = 0; i < keyCount; i++) {
+            position = putField(position, event.getCustomKey(i));
+            position = putField(position, event.getCustomValueAt(i));
+        }
+
+        int checksum = checksum(buffer, base, sequence, timestamp, typeCode, flags, fieldCount, charCount);
+        buffer.putInt(base + OFFSET_CHECKSUM, checksum);
+        buffer.putLong(base + OFFSET_SEQUENCE, sequence);
+        return sequence;
+    }
+
+    /**
+     * Remove a record from the journal, once its event has been sent.
+     * Does nothing if the record has already been overwritten.
+     *
+     * @param sequence Sequence returned by {@link #append(EventSnapshot)}
+     */
+    synchronized void complete(long sequence) {
+        if (closed || sequence == NO_SEQUENCE) {
+            return;
+        }
+        int base = getRecordOffset(sequence, capacity);
+        if (buffer.getLong(base + OFFSET_SEQUENCE) == sequence) {
+            buffer.putLong(base + OFFSET_SEQUENCE, NO_SEQUENCE);
+        }
+    }
+
+    /**
+     * Remember that the publisher hit of a record's event was delivered, for a replay not to send it again.
+     * Does nothing if the record has already been completed or overwritten.
+     *
+     * @param sequence Sequence returned by {@link #append(EventSnapshot)}
+     */
+    synchronized void setPublisherHitDelivered(long sequence) {
+        if (closed || sequence == NO_SEQUENCE) {
+            return;
+        }
+        int base = getRecordOffset(sequence, capacity);
+        if (buffer.getLong(base + OFFSET_SEQUENCE) == sequence) {
+            buffer.put(base + OFFSET_DELIVERED, (byte) DELIVERED_PUBLISHER_HIT);
+        }
+    }
+
+    /**
+     * @return The number of records waiting to be completed
+     */
+    synchronized int getPendingCount() {
+        if (closed) {
+            return 0;
+        }
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE + OFFSET_SEQUENCE) != NO_SEQUENCE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of pending records that were overwritten because the journal was full
+     */
+    synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * @return The number of events that could not be written, because they were too large
+     */
+    synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Close the journal, keeping its file
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            randomAccessFile.close();
+        } catch (IOException ignored) {
+            // Nothing we can do
+        }
+    }
+
+    /**
+     * Close the journal and delete its file
+     */
+    synchronized void delete() {
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * Read the valid records of a journal buffer, oldest first
+     *
+     * @param sameLayout Whether the buffer is the journal's own: torn records are then cleared, and records keep
+     * their sequence. Otherwise they will be written again.
+     * @return The highest sequence found, 0 if none
+     */
+    private static long recover(ByteBuffer buffer, int capacity, boolean sameLayout,
+                                List<RecoveredRecord> recovered) {
+        long maxSequence = 0;
+        int first = recovered.size();
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = HEADER_SIZE + slot * RECORD_SIZE;
+            long sequence = buffer.getLong(base + OFFSET_SEQUENCE);
+            if (sequence == NO_SEQUENCE) {
+                continue;
+            }
+            RecoveredRecord record = readRecord(buffer, base, sequence);
+            if (record == null || getRecordOffset(sequence, capacity) != base) {
+                // Torn or corrupted record
+                if (sameLayout) {
+                    buffer.putLong(base + OFFSET_SEQUENCE, NO_SEQUENCE);
+                }
+                continue;
+            }
+            maxSequence = Math.max(maxSequence, sequence);
+            recovered.add(record);
+        }
+
+        List<RecoveredRecord> added = recovered.subList(first, recovered.size());
+        Collections.sort(added, new Comparator<RecoveredRecord>() {
+            @Override
+            public int compare(RecoveredRecord firstRecord, RecoveredRecord secondRecord) {
+                long diff = firstRecord.sequence - secondRecord.sequence;
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        if (!sameLayout) {
+            for (RecoveredRecord record : added) {
+                record.sequence = NO_SEQUENCE;
+            }
+        }
+        return maxSequence;
+    }
+
+    @Nullable
+    private static RecoveredRecord readRecord(ByteBuffer buffer, int base, long sequence) {
+        long timestamp = buffer.getLong(base + OFFSET_TIMESTAMP);
+        int typeCode = buffer.get(base + OFFSET_TYPE);
+        int flags = buffer.get(base + OFFSET_FLAGS);
+        int fieldCount = buffer.getShort(base + OFFSET_FIELD_COUNT);
+        int charCount = buffer.getShort(base + OFFSET_CHAR_COUNT);
+        if (typeCode <= 0 || typeCode >= TYPES_BY_CODE.length ||
+                fieldCount < FIXED_FIELD_COUNT || (fieldCount - FIXED_FIELD_COUNT) % 2 != 0 ||
+                charCount < fieldCount || charCount > MAX_CHARS) {
+            return null;
+        }
+        if (checksum(buffer, base, sequence, timestamp, typeCode, flags, fieldCount, charCount) !=
+                buffer.getInt(base + OFFSET_CHECKSUM)) {
+            return null;
+        }
+
+        String[] fields = new String[fieldCount];
+        int position = base + OFFSET_CHARS;
+        int end = position + charCount * 2;
+        for (int i = 0; i < fieldCount; i++) {
+            char length = buffer.getChar(position);
+            position += 2;
+            if (length == NULL_LENGTH) {
+                continue;
+            }
+            if (position + length * 2 > end) {
+                return null;
+            }
+            char[] chars = new char[length];
+            for (int j = 0; j < length; j++, position += 2) {
+                chars[j] = buffer.getChar(position);
+            }
+            fields[i] = new String(chars);
+        }
+        if (position != end) {
+            return null;
+        }
+        boolean publisherHitDelivered = (buffer.get(base + OFFSET_DELIVERED) & DELIVERED_PUBLISHER_HIT) != 0;
+        return new RecoveredRecord(sequence, timestamp, TYPES_BY_CODE[typeCode], (flags & FLAG_POSITIVE_ACTION) != 0,
+                publisherHitDelivered, fields);
+    }
+
+    private int putField(int position, @Nullable String value) {
+        if (value == null) {
+            buffer.putChar(position, NULL_LENGTH);
+            return position + 2;
+        }
+        int length = value.length();
+        buffer.putChar(position, (char) length);
+        position += 2;
+        for (int i = 0; i < length; i++, position += 2) {
+            buffer.putChar(position, value.charAt(i));
+        }
+        return position;
+    }
+
+    private static int getLength(@Nullable String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * @return The capacity written in the header of a journal file, or 0 if the file isn't a valid journal
+     */
+    private static int readCapacity(RandomAccessFile randomAccessFile) throws IOException {
+        long length = randomAccessFile.length();
+        if (length < HEADER_SIZE) {
+            return 0;
+        }
+        randomAccessFile.seek(0);
+        int magic = randomAccessFile.readInt();
+        int version = randomAccessFile.readInt();
+        int capacity = randomAccessFile.readInt();
+        int recordSize = randomAccessFile.readInt();
+        if (magic != MAGIC || version != VERSION || recordSize != RECORD_SIZE || capacity < 1 ||
+                length != getFileSize(capacity)) {
+            return 0;
+        }
+        return capacity;
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile randomAccessFile, int capacity) throws IOException {
+        return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, getFileSize(capacity));
+    }
+
+    private static long getFileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+
+    private static int getRecordOffset(long sequence, int capacity) {
+        return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Checksum of a record's header fields and of its charCount chars, already in the buffer
+     */
+    private static int checksum(ByteBuffer buffer, int base, long sequence, long timestamp, int typeCode, int flags,
+                                int fieldCount, int charCount) {
+        int checksum = FNV_OFFSET_BASIS;
+        checksum = (checksum ^ (int) sequence) * FNV_PRIME;
+        checksum = (checksum ^ (int) (sequence >>> 32)) * FNV_PRIME;
+        checksum = (checksum ^ (int) timestamp) * FNV_PRIME;
+        checksum = (checksum ^ (int) (timestamp >>> 32)) * FNV_PRIME;
+        checksum = (checksum ^ typeCode) * FNV_PRIME;
+        checksum = (checksum ^ (flags & 0xff)) * FNV_PRIME;
+        checksum = (checksum ^ fieldCount) * FNV_PRIME;
+        checksum = (checksum ^ charCount) * FNV_PRIME;
+        int position = base + OFFSET_CHARS;
+        for (int i = 0; i < charCount; i++, position += 2) {
+            checksum = (checksum ^ buffer.getChar(position)) * FNV_PRIME;
+        }
+        return checksum;
+    }
+
+    private static int getTypeCode(Batch.EventDispatcher.Type type) {
+        for (int code = 1; code < TYPES_BY_CODE.length; code++) {
+            if (TYPES_BY_CODE[code] == type) {
+                return code;
+            }
+        }
+        return 0;
+    }
+}
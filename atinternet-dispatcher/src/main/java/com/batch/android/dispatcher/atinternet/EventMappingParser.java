@@ -0,0 +1,85 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Reads an {@link EventMapping} from JSON. Each key is the name of a Batch event type, whose
+ * optional attributes override the default mapping of this type:
+ * <pre>
+ * {
+ *   "MESSAGING_AUTO_CLOSE": { "enabled": false },
+ *   "NOTIFICATION_OPEN": { "screen_name": "PushOpened", "format": "[push]", "role": "click" }
+ * }
+ * </pre>
+ * "role" is one of "impression", "click" or "none", and a null "format" removes the publisher's format.
+ */
+final class EventMappingParser {
+
+    static final String ENABLED = "enabled";
+    static final String SCREEN_NAME = "screen_name";
+    static final String FORMAT = "format";
+    static final String ROLE = "role";
+
+    private EventMappingParser() {
+    }
+
+    @NonNull
+    static EventMapping parse(@NonNull InputStream input) throws IOException, JSONException {
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return parse(content.toString("UTF-8"));
+        } finally {
+            input.close();
+        }
+    }
+
+    @NonNull
+    static EventMapping parse(@NonNull String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        EventMapping.Builder builder = new EventMapping.Builder();
+        Iterator<String> keys = root.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            EventType type = parseEnum(EventType.class, key, key);
+            JSONObject attributes = root.getJSONObject(key);
+            if (attributes.has(ENABLED)) {
+                builder.setEnabled(type, attributes.getBoolean(ENABLED));
+            }
+            if (attributes.has(SCREEN_NAME)) {
+                builder.setScreenName(type, attributes.getString(SCREEN_NAME));
+            }
+            if (attributes.has(FORMAT)) {
+                builder.setFormat(type, attributes.isNull(FORMAT) ? null : attributes.getString(FORMAT));
+            }
+            if (attributes.has(ROLE)) {
+                builder.setRole(type, parseEnum(EventMapping.Role.class, attributes.getString(ROLE), key));
+            }
+        }
+        return builder.build();
+    }
+
+    private static <T extends Enum<T>> T parseEnum(Class<T> enumClass, String value, String key) throws JSONException {
+        try {
+            return Enum.valueOf(enumClass, value.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown " + enumClass.getSimpleName() + " \"" + value + "\" for " + key);
+        }
+    }
+}
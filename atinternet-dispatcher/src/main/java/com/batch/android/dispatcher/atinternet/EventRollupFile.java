@@ -0,0 +1,115 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.EventRollup;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+
+/**
+ * {@link EventRollup} held in a memory-mapped file, so that its counts survive the death of the process.
+ * Like the {@link EventJournal}, counting an event is a few puts in the mapped buffer, written back by the kernel.
+ */
+final class EventRollupFile {
+
+    static final String FILE_NAME = "com.batch.android.dispatcher.atinternet.rollup";
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final EventRollup rollup;
+    private boolean closed = false;
+
+    private EventRollupFile(File file, RandomAccessFile randomAccessFile, EventRollup rollup) {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.rollup = rollup;
+    }
+
+    @NonNull
+    static File getFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Open a rollup file, creating it if needed. The counts it holds are kept if it was created with the same
+     * capacity, otherwise it is reset.
+     *
+     * @throws IOException if the file could not be opened or mapped
+     */
+    @NonNull
+    static EventRollupFile open(@NonNull File file, int capacity, long flushIntervalMillis, int countCustomVarIndex,
+                                @NonNull Set<EventType> types) throws IOException {
+        int size = EventRollup.getByteSize(capacity);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(size);
+            }
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            EventRollup rollup = new EventRollup(capacity, flushIntervalMillis, countCustomVarIndex, types, buffer);
+            return new EventRollupFile(file, randomAccessFile, rollup);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reopen a rollup file with the settings it was created with
+     *
+     * @return The rollup file, or null if the file doesn't hold a valid rollup
+     * @throws IOException if the file could not be opened or mapped
+     */
+    @Nullable
+    static EventRollupFile reopen(@NonNull File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+            EventRollup rollup = EventRollup.restore(buffer);
+            if (rollup != null) {
+                return new EventRollupFile(file, randomAccessFile, rollup);
+            }
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        randomAccessFile.close();
+        return null;
+    }
+
+    @NonNull
+    EventRollup getRollup() {
+        return rollup;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            randomAccessFile.close();
+        } catch (IOException ignored) {
+            // Nothing we can do
+        }
+    }
+
+    /**
+     * Close the rollup file and delete it
+     */
+    synchronized void delete() {
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,221 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Routes the snapshots of the dispatched events to the thread sending their hits: through the asynchronous
+ * queue, then the hit batcher, when enabled, or straight to the {@link Sender} otherwise.
+ *
+ * Enabling the queue or the batcher again replaces it, after sending the events it holds. The events recovered
+ * from the event journal are sent ahead of the next event reaching the worker's or the batcher's thread.
+ */
+final class EventRouter {
+
+    /**
+     * Sends the hits of the routed events
+     */
+    interface Sender {
+        /**
+         * Send the hits of an event on the calling thread
+         */
+        void send(@NonNull EventSnapshot event);
+
+        /**
+         * Record an event dropped by a full asynchronous queue, which won't be sent
+         */
+        void drop(@NonNull EventSnapshot event);
+
+        /**
+         * @return The events recovered from the event journal that were not sent yet, taking them
+         */
+        @NonNull
+        List<EventSnapshot> takeRecoveredEvents();
+    }
+
+    private final Sender sender;
+
+    private volatile AsyncDispatchWorker<EventSnapshot> asyncWorker;
+
+    private volatile HitBatcher<EventSnapshot> hitBatcher;
+
+    private volatile Set<FlushTrigger> flushTriggers = Collections.emptySet();
+
+    EventRouter(@NonNull Sender sender) {
+        this.sender = sender;
+    }
+
+    void enableAsync(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        AsyncDispatchWorker<EventSnapshot> worker = new AsyncDispatchWorker<>(capacity, overflowPolicy,
+                createAsyncHandler(), createAsyncDropHandler());
+        worker.start();
+        stopAsyncWorker(swapAsyncWorker(worker));
+    }
+
+    void enableAsync(@NonNull PriorityLanes lanes,
+                     @NonNull AsyncDispatchWorker.LaneClassifier<EventSnapshot> classifier) {
+        AsyncDispatchWorker<EventSnapshot> worker = new AsyncDispatchWorker<>(lanes.getCapacities(),
+                lanes.getOverflowPolicies(), lanes.getWeights(), lanes.getMaxQueuedEvents(), classifier,
+                createAsyncHandler(), createAsyncDropHandler(), AsyncDispatchWorker.THREAD_NAME);
+        worker.start();
+        stopAsyncWorker(swapAsyncWorker(worker));
+    }
+
+    void disableAsync() {
+        stopAsyncWorker(swapAsyncWorker(null));
+    }
+
+    private EventHandler<EventSnapshot> createAsyncHandler() {
+        return new EventHandler<EventSnapshot>() {
+            @Override
+            public void handle(@NonNull EventSnapshot event) {
+                for (EventSnapshot recovered : sender.takeRecoveredEvents()) {
+                    dispatch(recovered);
+                }
+                dispatch(event);
+            }
+        };
+    }
+
+    private EventHandler<EventSnapshot> createAsyncDropHandler() {
+        return new EventHandler<EventSnapshot>() {
+            @Override
+            public void handle(@NonNull EventSnapshot event) {
+                sender.drop(event);
+            }
+        };
+    }
+
+    private synchronized AsyncDispatchWorker<EventSnapshot> swapAsyncWorker(
+            @Nullable AsyncDispatchWorker<EventSnapshot> worker) {
+        AsyncDispatchWorker<EventSnapshot> previous = asyncWorker;
+        asyncWorker = worker;
+        return previous;
+    }
+
+    private static void stopAsyncWorker(@Nullable AsyncDispatchWorker<EventSnapshot> worker) {
+        if (worker != null && !worker.shutdown(AtInternetDispatcher.ASYNC_SHUTDOWN_TIMEOUT_MS)) {
+            Log.e("Batch", "AT Internet dispatcher worker did not stop in time, some events may be sent late");
+        }
+    }
+
+    void enableBatching(long batchWindowMillis, int maxBatchSize, @NonNull Set<FlushTrigger> triggers) {
+        HitBatcher<EventSnapshot> batcher = new HitBatcher<>(batchWindowMillis, maxBatchSize,
+                new EventHandler<EventSnapshot>() {
+                    @Override
+                    public void handle(@NonNull EventSnapshot event) {
+                        for (EventSnapshot recovered : sender.takeRecoveredEvents()) {
+                            sender.send(recovered);
+                        }
+                        sender.send(event);
+                    }
+                });
+        HitBatcher<EventSnapshot> previous;
+        synchronized (this) {
+            previous = hitBatcher;
+            flushTriggers = triggers.isEmpty() ?
+                    Collections.<FlushTrigger>emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(triggers));
+            hitBatcher = batcher;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    void disableBatching() {
+        HitBatcher<EventSnapshot> previous;
+        synchronized (this) {
+            previous = hitBatcher;
+            hitBatcher = null;
+            flushTriggers = Collections.emptySet();
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return false if events are sent on the thread dispatching them, without being copied first
+     */
+    boolean isDeferring() {
+        return asyncWorker != null || hitBatcher != null;
+    }
+
+    /**
+     * Queue an event for the asynchronous worker, or send it from the calling thread
+     */
+    void route(@NonNull EventSnapshot event) {
+        AsyncDispatchWorker<EventSnapshot> worker = asyncWorker;
+        if (worker != null) {
+            worker.submit(event);
+            return;
+        }
+        dispatch(event);
+    }
+
+    /**
+     * Add an event to the current batch, or send it right away
+     */
+    private void dispatch(@NonNull EventSnapshot event) {
+        HitBatcher<EventSnapshot> batcher = hitBatcher;
+        if (batcher != null) {
+            batcher.add(event);
+            return;
+        }
+        sender.send(event);
+    }
+
+    /**
+     * Wait until the events queued before this call reached the batcher or were sent
+     *
+     * @return false if the asynchronous queue wasn't empty before the timeout
+     */
+    boolean flushQueue(long timeoutMillis) {
+        AsyncDispatchWorker<EventSnapshot> worker = asyncWorker;
+        return worker == null || worker.flush(timeoutMillis);
+    }
+
+    /**
+     * Send the current batch on the calling thread
+     */
+    void releaseBatch() {
+        HitBatcher<EventSnapshot> batcher = hitBatcher;
+        if (batcher != null) {
+            batcher.release();
+        }
+    }
+
+    void onFlushTrigger(@NonNull FlushTrigger trigger) {
+        HitBatcher<EventSnapshot> batcher = hitBatcher;
+        if (batcher != null && flushTriggers.contains(trigger)) {
+            // Callbacks come on the main thread: send the hits from the batcher's thread
+            batcher.requestRelease();
+        }
+    }
+
+    /**
+     * @return The number of events dropped because the asynchronous queue was full, 0 if it is disabled
+     */
+    long getDroppedCount() {
+        AsyncDispatchWorker<EventSnapshot> worker = asyncWorker;
+        return worker == null ? 0 : worker.getDroppedCount();
+    }
+
+    /**
+     * @return The number of events of a lane dropped by the asynchronous queue, 0 if priority lanes are disabled
+     */
+    long getDroppedCount(@NonNull DispatchLane lane) {
+        AsyncDispatchWorker<EventSnapshot> worker = asyncWorker;
+        if (worker == null || worker.getLaneCount() == 1) {
+            return 0;
+        }
+        return worker.getDroppedCount(lane.ordinal());
+    }
+}
@@ -0,0 +1,277 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.EventFields;
+import com.batch.android.dispatcher.atinternet.core.SectionTracer;
+
+/**
+ * Copy of the payload fields read by the dispatcher. The copied fields are immutable.
+ *
+ * Used to hand an event over to the background worker: Batch's payload should not be
+ * read outside of the dispatchEvent call, so we copy what we need and nothing more.
+ * Only the XTOR source that wins is kept, along with the custom payload values and the deeplink
+ * needed by the {@link CustomVarPlan}. The messaging/push payloads are not retained.
+ *
+ * A snapshot is dated when its event was dispatched, so that hits sent late keep the time of their event.
+ * It also holds mutable dispatch state: the sequence of its {@link EventJournal} record, if it has one, whether it
+ * was recovered from the journal, and the async trace section covering its wait, if tracing is enabled.
+ * They are set before the snapshot is handed over to another thread.
+ */
+final class EventSnapshot implements Batch.EventDispatcher.Payload, EventFields {
+
+    private final Batch.EventDispatcher.Type type;
+    private final String trackingId;
+    private final String deeplink;
+    private final String xtorCustomValue;
+    private final String webViewAnalyticsId;
+    private final boolean positiveAction;
+    private final long timestamp;
+    private final CustomVarPlan customVarPlan;
+    /**
+     * Values of the plan's payload keys, by key index
+     */
+    private final String[] customValues;
+
+    private long journalSequence = EventJournal.NO_SEQUENCE;
+    private boolean recovered = false;
+    private boolean publisherHitDelivered = false;
+
+    private SectionTracer asyncTracer;
+    private int traceCookie;
+
+    private EventSnapshot(Batch.EventDispatcher.Type type,
+                          String trackingId,
+                          String deeplink,
+                          String xtorCustomValue,
+                          String webViewAnalyticsId,
+                          boolean positiveAction,
+                          long timestamp,
+                          CustomVarPlan customVarPlan,
+                          String[] customValues) {
+        this.type = type;
+        this.trackingId = trackingId;
+        this.deeplink = deeplink;
+        this.xtorCustomValue = xtorCustomValue;
+        this.webViewAnalyticsId = webViewAnalyticsId;
+        this.positiveAction = positiveAction;
+        this.timestamp = timestamp;
+        this.customVarPlan = customVarPlan;
+        this.customValues = customValues;
+    }
+
+    /**
+     * Copy the fields of a payload, reading each one once. XTOR sources that can't be used because
+     * a source with a higher precedence has a tag are not read, see {@link EventFields}, unless the
+     * custom variable plan needs the deeplink.
+     *
+     * @param customVarPlan Plan whose payload keys and deeplink are copied
+     */
+    static EventSnapshot of(@NonNull Batch.EventDispatcher.Type type,
+                            @NonNull Batch.EventDispatcher.Payload payload,
+                            @NonNull CustomVarPlan customVarPlan) {
+        String trackingId = payload.getTrackingId();
+        String xtorCustomValue = null;
+        String deeplink = null;
+        if (trackingId == null || trackingId.isEmpty()) {
+            xtorCustomValue = payload.getCustomValue(AtInternetDispatcher.XTOR);
+            if (xtorCustomValue == null) {
+                deeplink = payload.getDeeplink();
+            }
+        }
+        if (deeplink == null && customVarPlan.usesDeeplink()) {
+            deeplink = payload.getDeeplink();
+        }
+
+        String[] customValues = new String[customVarPlan.getPayloadKeyCount()];
+        for (int i = 0; i < customValues.length; i++) {
+            customValues[i] = payload.getCustomValue(customVarPlan.getPayloadKey(i));
+        }
+        return new EventSnapshot(type,
+                trackingId,
+                deeplink,
+                xtorCustomValue,
+                payload.getWebViewAnalyticsID(),
+                payload.isPositiveAction(),
+                System.currentTimeMillis(),
+                customVarPlan,
+                customValues);
+    }
+
+    /**
+     * Rebuild a snapshot from its journal record, for the plan it will be sent with.
+     * A payload key of the plan that isn't in the record, because the plan changed since the event
+     * was dispatched, has no value.
+     *
+     * @param timestamp Time the event was dispatched, in milliseconds since the epoch
+     * @param keys Payload keys held by the record
+     * @param values Value of each key, in the same order
+     */
+    static EventSnapshot restore(@NonNull Batch.EventDispatcher.Type type,
+                                 @Nullable String trackingId,
+                                 @Nullable String deeplink,
+                                 @Nullable String xtorCustomValue,
+                                 @Nullable String webViewAnalyticsId,
+                                 boolean positiveAction,
+                                 long timestamp,
+                                 @NonNull CustomVarPlan customVarPlan,
+                                 @NonNull String[] keys,
+                                 @NonNull String[] values) {
+        String[] customValues = new String[customVarPlan.getPayloadKeyCount()];
+        for (int i = 0; i < customValues.length; i++) {
+            String planKey = customVarPlan.getPayloadKey(i);
+            for (int j = 0; j < keys.length; j++) {
+                if (planKey.equals(keys[j])) {
+                    customValues[i] = values[j];
+                    break;
+                }
+            }
+        }
+        return new EventSnapshot(type, trackingId, deeplink, xtorCustomValue, webViewAnalyticsId, positiveAction,
+                timestamp, customVarPlan, customValues);
+    }
+
+    /**
+     * @return The plan the custom payload values were copied for
+     */
+    @NonNull
+    CustomVarPlan getCustomVarPlan() {
+        return customVarPlan;
+    }
+
+    /**
+     * @return The number of custom payload values held, one per payload key of the snapshot's plan
+     */
+    int getCustomValueCount() {
+        return customValues.length;
+    }
+
+    @NonNull
+    String getCustomKey(int index) {
+        return customVarPlan.getPayloadKey(index);
+    }
+
+    @Nullable
+    String getCustomValueAt(int index) {
+        return customValues[index];
+    }
+
+    /**
+     * @return Time the event was dispatched, in milliseconds since the epoch
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    long getJournalSequence() {
+        return journalSequence;
+    }
+
+    void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
+    /**
+     * @return Whether the snapshot was recovered from the journal of a previous launch, to be replayed
+     */
+    boolean isRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return Whether the publisher hit of a recovered event was delivered before, in which case only its screen
+     * hit is replayed
+     */
+    boolean isPublisherHitDelivered() {
+        return publisherHitDelivered;
+    }
+
+    void setRecovered(boolean publisherHitDelivered) {
+        this.recovered = true;
+        this.publisherHitDelivered = publisherHitDelivered;
+    }
+
+    void beginAsyncTrace(@NonNull SectionTracer tracer, int cookie) {
+        this.asyncTracer = tracer;
+        this.traceCookie = cookie;
+        tracer.beginAsyncSection(AtInternetDispatcher.TRACE_DEFERRED, cookie);
+    }
+
+    /**
+     * End the async trace section of this snapshot, if it has one that isn't ended yet
+     */
+    void endAsyncTrace() {
+        SectionTracer tracer = asyncTracer;
+        if (tracer != null) {
+            asyncTracer = null;
+            tracer.endAsyncSection(AtInternetDispatcher.TRACE_DEFERRED, traceCookie);
+        }
+    }
+
+    @NonNull
+    Batch.EventDispatcher.Type getType() {
+        return type;
+    }
+
+    @Nullable
+    @Override
+    public String getTrackingId() {
+        return trackingId;
+    }
+
+    @Nullable
+    @Override
+    public String getDeeplink() {
+        return deeplink;
+    }
+
+    @Override
+    public boolean isPositiveAction() {
+        return positiveAction;
+    }
+
+    @Nullable
+    @Override
+    public String getCustomValue(@NonNull String key) {
+        // The mapper asks for the plan's own key strings: the identity check finds them without comparing
+        for (int i = 0; i < customValues.length; i++) {
+            String planKey = customVarPlan.getPayloadKey(i);
+            if (planKey == key || planKey.equals(key)) {
+                return customValues[i];
+            }
+        }
+        if (AtInternetDispatcher.XTOR.equals(key)) {
+            return xtorCustomValue;
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public String getXtorCustomValue() {
+        return xtorCustomValue;
+    }
+
+    @Nullable
+    @Override
+    public BatchMessage getMessagingPayload() {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public BatchPushPayload getPushPayload() {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public String getWebViewAnalyticsID() {
+        return webViewAnalyticsId;
+    }
+}
@@ -0,0 +1,18 @@
+package com.batch.android.dispatcher.atinternet;
+
+/**
+ * Application state changes that make the dispatcher send its batched hits right away.
+ * See {@link AtInternetDispatcher#enableHitBatching(long, int, java.util.Set)}.
+ */
+public enum FlushTrigger
+{
+    /**
+     * The application UI went to the background
+     */
+    APP_BACKGROUND,
+
+    /**
+     * The system is low on memory and may kill the application's process soon
+     */
+    MEMORY_PRESSURE
+}
@@ -0,0 +1,154 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates events and releases them in groups, so that the hits they produce are sent
+ * in a single network burst rather than waking the radio up for each event.
+ *
+ * A batch is released on the batcher's thread when it reaches its maximum size, or when the batch window elapsed
+ * since its first event was added: the thread adding events, like the main thread, never sends them.
+ * Events added while a full batch waits for its release join it.
+ * Batches are always released in order, one at a time.
+ *
+ * @param <T> Event type
+ */
+class HitBatcher<T> {
+
+    static final String THREAD_NAME = "batch-atinternet-batcher";
+
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final EventHandler<T> handler;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object batchLock = new Object();
+    private final Object releaseLock = new Object();
+
+    private List<T> batch;
+    private ScheduledFuture<?> scheduledRelease;
+    private boolean closed = false;
+
+    private final Runnable releaseTask = new Runnable() {
+        @Override
+        public void run() {
+            release();
+        }
+    };
+
+    HitBatcher(long windowMillis, int maxBatchSize, @NonNull EventHandler<T> handler) {
+        if (windowMillis <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("batch window and size must be strictly positive");
+        }
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.handler = handler;
+        this.batch = new ArrayList<>(maxBatchSize);
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Add an event to the current batch
+     *
+     * @param event Event to add
+     */
+    void add(@NonNull T event) {
+        boolean full = false;
+        boolean wasClosed;
+        synchronized (batchLock) {
+            wasClosed = closed;
+            if (!wasClosed) {
+                batch.add(event);
+                // Only the event filling the batch requests its release, the following ones join it
+                full = batch.size() == maxBatchSize;
+                if (!full && batch.size() == 1) {
+                    scheduledRelease = scheduler.schedule(releaseTask, windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        if (wasClosed) {
+            handleNow(event);
+        } else if (full) {
+            requestRelease();
+        }
+    }
+
+    /**
+     * Release the current batch on the calling thread
+     */
+    void release() {
+        synchronized (releaseLock) {
+            List<T> events;
+            synchronized (batchLock) {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                events = batch;
+                batch = new ArrayList<>(maxBatchSize);
+                if (scheduledRelease != null) {
+                    scheduledRelease.cancel(false);
+                    scheduledRelease = null;
+                }
+            }
+            for (T event : events) {
+                handleNow(event);
+            }
+        }
+    }
+
+    /**
+     * Release the current batch on the batcher's thread, without waiting for it to be sent
+     */
+    void requestRelease() {
+        try {
+            scheduler.execute(releaseTask);
+        } catch (RuntimeException ignored) {
+            // Rejected: the batcher was closed and already released its events
+        }
+    }
+
+    /**
+     * Release the current batch and stop the batcher.
+     * Events added after this call are handled immediately on the calling thread.
+     */
+    void close() {
+        synchronized (batchLock) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        release();
+    }
+
+    int getPendingCount() {
+        synchronized (batchLock) {
+            return batch.size();
+        }
+    }
+
+    private void handleNow(T event) {
+        try {
+            handler.handle(event);
+        } catch (RuntimeException ignored) {
+            // The handler is responsible for reporting its errors
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The event journal of the dispatcher, and the events it recovered from a previous launch until they are taken
+ * to be sent again.
+ *
+ * Enabling it again replaces the journal, closing the previous one. Disabling it deletes the file. A file left by
+ * a previous launch is reopened with its capacity.
+ */
+final class JournalController {
+
+    private volatile EventJournal journal;
+
+    /**
+     * Whether the journal holds recovered events that have not been taken yet
+     */
+    private volatile boolean replayPending;
+
+    void enable(@NonNull Context context, int capacity) {
+        EventJournal eventJournal;
+        try {
+            eventJournal = EventJournal.open(EventJournal.getFile(context), capacity);
+        } catch (IOException | RuntimeException e) {
+            Log.e("Batch", "Could not open the AT Internet dispatcher journal: " + e.getLocalizedMessage());
+            return;
+        }
+        swap(eventJournal);
+    }
+
+    /**
+     * Reopen the journal of a previous launch, if it isn't enabled yet and left its file
+     */
+    void reopen(@NonNull Context context) {
+        if (journal != null || !EventJournal.getFile(context).exists()) {
+            return;
+        }
+        EventJournal eventJournal;
+        try {
+            eventJournal = EventJournal.reopen(EventJournal.getFile(context));
+        } catch (IOException | RuntimeException e) {
+            Log.e("Batch", "Could not reopen the AT Internet dispatcher journal: " + e.getLocalizedMessage());
+            return;
+        }
+        swap(eventJournal);
+    }
+
+    private void swap(@NonNull EventJournal eventJournal) {
+        EventJournal previous;
+        synchronized (this) {
+            previous = journal;
+            journal = eventJournal;
+            if (eventJournal.hasRecoveredEvents()) {
+                replayPending = true;
+            }
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Delete the journal. The recovered events that weren't taken yet are lost: take them first.
+     */
+    void disable() {
+        EventJournal previous;
+        synchronized (this) {
+            previous = journal;
+            journal = null;
+        }
+        if (previous != null) {
+            previous.delete();
+        }
+    }
+
+    /**
+     * @return The journal, or null if it is disabled
+     */
+    @Nullable
+    EventJournal get() {
+        return journal;
+    }
+
+    boolean isReplayPending() {
+        return replayPending;
+    }
+
+    /**
+     * Take the events recovered from the journal, restored for a custom variable plan. Events that lost
+     * their record, because the journal was recreated, are written to it again.
+     *
+     * @return The events to send, empty if another thread took them
+     */
+    @NonNull
+    List<EventSnapshot> takeReplay(@NonNull CustomVarPlan plan) {
+        EventJournal eventJournal;
+        synchronized (this) {
+            eventJournal = journal;
+            replayPending = false;
+        }
+        if (eventJournal == null) {
+            return Collections.emptyList();
+        }
+        List<EventSnapshot> events = eventJournal.takeRecoveredEvents(plan);
+        for (EventSnapshot event : events) {
+            if (event.getJournalSequence() == EventJournal.NO_SEQUENCE) {
+                event.setJournalSequence(eventJournal.append(event));
+                if (event.isPublisherHitDelivered()) {
+                    eventJournal.setPublisherHitDelivered(event.getJournalSequence());
+                }
+            }
+        }
+        return events;
+    }
+}
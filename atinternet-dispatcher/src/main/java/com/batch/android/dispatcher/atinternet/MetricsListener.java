@@ -0,0 +1,17 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+
+/**
+ * Receives the dispatcher's metrics periodically.
+ * See {@link AtInternetDispatcher#setMetricsListener(MetricsListener, long)}.
+ */
+public interface MetricsListener
+{
+    /**
+     * Called on a background thread with the metrics recorded since they were enabled
+     */
+    void onMetrics(@NonNull DispatchMetrics.Snapshot snapshot);
+}
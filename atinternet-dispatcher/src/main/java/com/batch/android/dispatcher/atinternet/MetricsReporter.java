@@ -0,0 +1,51 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes a snapshot of the metrics to a {@link MetricsListener} at a fixed interval, on its own thread
+ */
+final class MetricsReporter {
+
+    static final String THREAD_NAME = "batch-atinternet-metrics";
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    MetricsReporter(@NonNull final DispatchMetrics metrics, @NonNull final MetricsListener listener,
+                    long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis must be strictly positive");
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onMetrics(metrics.snapshot());
+                } catch (RuntimeException e) {
+                    // Keep reporting: an exception would cancel the next runs
+                    Log.e("Batch", "Metrics listener failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,24 @@
+package com.batch.android.dispatcher.atinternet;
+
+/**
+ * What the dispatcher should do with an event when its asynchronous queue is full.
+ * See {@link AtInternetDispatcher#enableAsyncDispatch(int, OverflowPolicy)}.
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Discard the incoming event
+     */
+    DROP_NEWEST,
+
+    /**
+     * Discard the oldest queued event to make room for the incoming one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Dispatch the incoming event synchronously on the calling thread.
+     * No event is lost, but this event may be sent before older queued ones.
+     */
+    RUN_ON_CALLER
+}
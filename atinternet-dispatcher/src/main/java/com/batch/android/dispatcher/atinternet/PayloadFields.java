@@ -0,0 +1,54 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.EventFields;
+
+/**
+ * Exposes a Batch payload to the event mapper, reading its fields on demand
+ */
+final class PayloadFields implements EventFields {
+
+    private final Batch.EventDispatcher.Payload payload;
+
+    PayloadFields(@NonNull Batch.EventDispatcher.Payload payload) {
+        this.payload = payload;
+    }
+
+    @Nullable
+    @Override
+    public String getTrackingId() {
+        return payload.getTrackingId();
+    }
+
+    @Nullable
+    @Override
+    public String getDeeplink() {
+        return payload.getDeeplink();
+    }
+
+    @Nullable
+    @Override
+    public String getXtorCustomValue() {
+        return payload.getCustomValue(AtInternetDispatcher.XTOR);
+    }
+
+    @Nullable
+    @Override
+    public String getCustomValue(@NonNull String key) {
+        return payload.getCustomValue(key);
+    }
+
+    @Nullable
+    @Override
+    public String getWebViewAnalyticsID() {
+        return payload.getWebViewAnalyticsID();
+    }
+
+    @Override
+    public boolean isPositiveAction() {
+        return payload.isPositiveAction();
+    }
+}
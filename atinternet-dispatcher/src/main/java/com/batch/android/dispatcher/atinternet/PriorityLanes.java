@@ -0,0 +1,129 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Configuration of the asynchronous queue's priority lanes: each {@link DispatchLane} has its own bounded queue
+ * and overflow policy, and a weight giving its share of the worker thread.
+ *
+ * The worker serves the lanes in priority order: in each round, a lane sends up to its weight in events before
+ * the next lane gets its turn, so that a burst of impressions can only delay a conversion by a few events,
+ * and lower lanes are never starved.
+ * Once the lanes hold {@link #getMaxQueuedEvents()} events in total, the queue is under pressure: an incoming
+ * event makes room by dropping the oldest event of the lowest non-empty lane below its own, and is otherwise
+ * handled by its lane's overflow policy as if the lane was full.
+ *
+ * Immutable, use a {@link Builder}.
+ */
+public final class PriorityLanes
+{
+    private static final PriorityLanes DEFAULT = new Builder().build();
+
+    private final int[] capacities;
+    private final OverflowPolicy[] overflowPolicies;
+    private final int[] weights;
+    private final int maxQueuedEvents;
+
+    private PriorityLanes(Builder builder) {
+        this.capacities = builder.capacities.clone();
+        this.overflowPolicies = builder.overflowPolicies.clone();
+        this.weights = builder.weights.clone();
+        this.maxQueuedEvents = builder.maxQueuedEvents;
+    }
+
+    /**
+     * @return Lanes of 64 conversions run on the caller's thread when full, 256 impressions and 128 low value
+     * events dropping their oldest event when full, weighted 4, 2 and 1, and up to 256 queued events in total
+     */
+    @NonNull
+    public static PriorityLanes getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return Maximum number of events waiting in the lane, rounded up to the next power of two by the queue
+     */
+    public int getCapacity(@NonNull DispatchLane lane) {
+        return capacities[lane.ordinal()];
+    }
+
+    @NonNull
+    public OverflowPolicy getOverflowPolicy(@NonNull DispatchLane lane) {
+        return overflowPolicies[lane.ordinal()];
+    }
+
+    /**
+     * @return Number of events the lane sends in a round
+     */
+    public int getWeight(@NonNull DispatchLane lane) {
+        return weights[lane.ordinal()];
+    }
+
+    /**
+     * @return Number of events waiting in all the lanes from which the queue is under pressure
+     */
+    public int getMaxQueuedEvents() {
+        return maxQueuedEvents;
+    }
+
+    int[] getCapacities() {
+        return capacities.clone();
+    }
+
+    OverflowPolicy[] getOverflowPolicies() {
+        return overflowPolicies.clone();
+    }
+
+    int[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * Builds a {@link PriorityLanes}, starting from {@link #getDefault()}
+     */
+    public static final class Builder
+    {
+        private final int[] capacities = {64, 256, 128};
+        private final OverflowPolicy[] overflowPolicies = {
+                OverflowPolicy.RUN_ON_CALLER,
+                OverflowPolicy.DROP_OLDEST,
+                OverflowPolicy.DROP_OLDEST
+        };
+        private final int[] weights = {4, 2, 1};
+        private int maxQueuedEvents = 256;
+
+        /**
+         * @param capacity Maximum number of events waiting in the lane
+         * @param overflowPolicy What to do with an event of this lane when it is full or the queue is under pressure
+         * @param weight Number of events the lane sends in a round, strictly positive
+         */
+        @NonNull
+        public Builder setLane(@NonNull DispatchLane lane, int capacity, @NonNull OverflowPolicy overflowPolicy,
+                               int weight) {
+            if (capacity <= 0 || weight <= 0) {
+                throw new IllegalArgumentException("lane capacity and weight must be strictly positive");
+            }
+            capacities[lane.ordinal()] = capacity;
+            overflowPolicies[lane.ordinal()] = overflowPolicy;
+            weights[lane.ordinal()] = weight;
+            return this;
+        }
+
+        /**
+         * @param maxQueuedEvents Number of events waiting in all the lanes from which lower lanes are shed
+         */
+        @NonNull
+        public Builder setMaxQueuedEvents(int maxQueuedEvents) {
+            if (maxQueuedEvents <= 0) {
+                throw new IllegalArgumentException("max queued events must be strictly positive");
+            }
+            this.maxQueuedEvents = maxQueuedEvents;
+            return this;
+        }
+
+        @NonNull
+        public PriorityLanes build() {
+            return new PriorityLanes(this);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.EventRollup;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * The event rollup of the dispatcher: the file keeping its counts, and the {@link RollupFlusher} sending them.
+ *
+ * Enabling it again applies the new settings, keeping the counts if the capacity didn't change. Disabling it sends
+ * the pending counts, then deletes the file. A file left by a previous launch is reopened with its settings.
+ */
+final class RollupController {
+
+    /**
+     * Sends the summary hit of a count, throwing if it wasn't sent so that the rollup keeps the count
+     */
+    interface SummarySender {
+        void send(@NonNull EventType type, @Nullable String campaign, int count, int countCustomVarIndex);
+    }
+
+    private final SummarySender summarySender;
+
+    private volatile RollupFlusher flusher;
+
+    private EventRollupFile rollupFile;
+
+    RollupController(@NonNull SummarySender summarySender) {
+        this.summarySender = summarySender;
+    }
+
+    void enable(@NonNull Context context, long flushIntervalMillis, int countCustomVarIndex,
+                @NonNull Set<EventType> types, int capacity) {
+        EventRollupFile file;
+        try {
+            file = EventRollupFile.open(EventRollupFile.getFile(context), capacity, flushIntervalMillis,
+                    countCustomVarIndex, types);
+        } catch (IOException e) {
+            Log.e("Batch", "Could not open the AT Internet dispatcher rollup: " + e.getLocalizedMessage());
+            return;
+        }
+        swap(file);
+    }
+
+    void disable() {
+        EventRollupFile previous = swap(null);
+        if (previous != null) {
+            previous.delete();
+        }
+    }
+
+    /**
+     * Reopen the rollup of a previous launch, if it isn't enabled yet and left its file
+     */
+    void reopen(@NonNull Context context) {
+        if (flusher != null || !EventRollupFile.getFile(context).exists()) {
+            return;
+        }
+        EventRollupFile file;
+        try {
+            file = EventRollupFile.reopen(EventRollupFile.getFile(context));
+        } catch (IOException e) {
+            Log.e("Batch", "Could not reopen the AT Internet dispatcher rollup: " + e.getLocalizedMessage());
+            return;
+        }
+        if (file != null) {
+            swap(file);
+        }
+    }
+
+    /**
+     * Replace the rollup, sending the previous one's counts and closing its file
+     *
+     * @return The previous rollup file, if any
+     */
+    @Nullable
+    private EventRollupFile swap(@Nullable EventRollupFile file) {
+        RollupFlusher newFlusher = null;
+        if (file != null) {
+            final int countCustomVarIndex = file.getRollup().getCountCustomVarIndex();
+            newFlusher = new RollupFlusher(file.getRollup(), new EventRollup.Sender() {
+                @Override
+                public void send(@NonNull EventType type, @Nullable String campaign, int count) {
+                    summarySender.send(type, campaign, count, countCustomVarIndex);
+                }
+            });
+        }
+
+        RollupFlusher previousFlusher;
+        EventRollupFile previous;
+        synchronized (this) {
+            previousFlusher = flusher;
+            previous = rollupFile;
+            flusher = newFlusher;
+            rollupFile = file;
+        }
+        if (previousFlusher != null) {
+            previousFlusher.stop();
+            if (file == null) {
+                // Send the pending counts before the file is deleted, a new rollup file keeps them
+                previousFlusher.flush();
+            }
+        }
+        if (previous != null && previous != file) {
+            previous.close();
+        }
+        return previous;
+    }
+
+    /**
+     * Count an event instead of sending it
+     *
+     * @return false if the rollup is disabled, doesn't roll up this type, or has no room left: the event must be
+     * sent as usual
+     */
+    boolean add(@NonNull EventType eventType, @Nullable String campaign) {
+        RollupFlusher current = flusher;
+        return current != null && current.getRollup().add(eventType, campaign);
+    }
+
+    /**
+     * Send the summary hits on the calling thread
+     */
+    void flush() {
+        RollupFlusher current = flusher;
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    /**
+     * Send the summary hits on the flusher's thread
+     */
+    void requestFlush() {
+        RollupFlusher current = flusher;
+        if (current != null) {
+            current.requestFlush();
+        }
+    }
+
+    /**
+     * @return The number of counted events waiting for their summary hit, 0 if the rollup is disabled
+     */
+    long getPendingCount() {
+        RollupFlusher current = flusher;
+        return current == null ? 0 : current.getRollup().getPendingCount();
+    }
+}
@@ -0,0 +1,78 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.dispatcher.atinternet.core.EventRollup;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains an {@link EventRollup} at its flush interval, and on request, on its own thread
+ */
+final class RollupFlusher {
+
+    static final String THREAD_NAME = "batch-atinternet-rollup";
+
+    private final EventRollup rollup;
+    private final EventRollup.Sender sender;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    RollupFlusher(@NonNull EventRollup rollup, @NonNull EventRollup.Sender sender) {
+        this.rollup = rollup;
+        this.sender = sender;
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        long interval = rollup.getFlushIntervalMillis();
+        scheduler.scheduleAtFixedRate(flushTask, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    EventRollup getRollup() {
+        return rollup;
+    }
+
+    /**
+     * Send the summary hits on the calling thread
+     */
+    void flush() {
+        try {
+            rollup.drain(sender);
+        } catch (RuntimeException e) {
+            // Keep flushing: an exception would cancel the next runs, and the counts are kept for them
+            Log.e("Batch", "Could not send the AT Internet summary hits: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Send the summary hits on the flusher's thread, without waiting for them to be sent
+     */
+    void requestFlush() {
+        try {
+            scheduler.execute(flushTask);
+        } catch (RuntimeException ignored) {
+            // Rejected: the flusher was stopped
+        }
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+}
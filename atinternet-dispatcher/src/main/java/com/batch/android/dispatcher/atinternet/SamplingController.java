@@ -0,0 +1,120 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventSampler;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+
+import java.util.UUID;
+
+/**
+ * The sampling of the dispatcher: its {@link SamplingPolicy}, and the {@link EventSampler} applying it.
+ *
+ * The sampler is created when the first event is sampled, as it needs Batch's installation ID, and again once
+ * the policy was replaced, restarting its counts.
+ */
+final class SamplingController {
+
+    /**
+     * Used for sampling if Batch's installation ID isn't available
+     */
+    private static String fallbackInstallationId;
+
+    private volatile SamplingPolicy policy;
+
+    private volatile EventSampler sampler;
+
+    void setPolicy(@Nullable SamplingPolicy samplingPolicy) {
+        policy = samplingPolicy;
+    }
+
+    @Nullable
+    SamplingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sample an event with a policy returned by {@link #getPolicy()}
+     *
+     * @param hitCount Number of hits the event sends
+     * @return The outcome of the event if it was dropped, or null if it must be sent
+     */
+    @Nullable
+    DispatchMetrics.Outcome sample(@NonNull SamplingPolicy samplingPolicy, @NonNull EventType eventType,
+                                   @Nullable String campaign, int hitCount) {
+        switch (getSampler(samplingPolicy).sample(eventType, campaign, hitCount)) {
+            case SAMPLED_OUT:
+                return DispatchMetrics.Outcome.SAMPLED_OUT;
+            case RATE_LIMITED:
+                return DispatchMetrics.Outcome.RATE_LIMITED;
+            case KEEP:
+                break;
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of events dropped by their type's sampling rate since the current policy was set
+     */
+    long getSampledOutCount() {
+        EventSampler current = sampler;
+        return current == null || current.getPolicy() != policy ? 0 : current.getSampledOutCount();
+    }
+
+    /**
+     * @return The number of events dropped by the rate limit since the current policy was set
+     */
+    long getRateLimitedCount() {
+        EventSampler current = sampler;
+        return current == null || current.getPolicy() != policy ? 0 : current.getRateLimitedCount();
+    }
+
+    /**
+     * Get the sampler applying a policy, created on first use: events are only dispatched once Batch started,
+     * which is needed to get its installation ID.
+     */
+    private EventSampler getSampler(@NonNull SamplingPolicy samplingPolicy) {
+        EventSampler current = sampler;
+        if (current != null && current.getPolicy() == samplingPolicy) {
+            return current;
+        }
+        synchronized (this) {
+            if (sampler == null || sampler.getPolicy() != samplingPolicy) {
+                sampler = new EventSampler(samplingPolicy, getInstallationId());
+            }
+            return sampler;
+        }
+    }
+
+    private static synchronized String getInstallationId() {
+        String installationId = Batch.User.getInstallationID();
+        if (installationId != null) {
+            return installationId;
+        }
+        if (fallbackInstallationId == null) {
+            Log.e("Batch", "Batch installation ID unavailable, AT Internet sampling won't be consistent across launches");
+            fallbackInstallationId = UUID.randomUUID().toString();
+        }
+        return fallbackInstallationId;
+    }
+
+    /**
+     * The sampling rate is sent in a screen custom variable, which the plan must not set too
+     *
+     * @throws IllegalArgumentException If the plan sets it
+     */
+    static void checkRateCustomVar(@Nullable SamplingPolicy samplingPolicy, @NonNull CustomVarPlan plan) {
+        if (samplingPolicy != null && samplingPolicy.getRateCustomVarIndex() != SamplingPolicy.NO_CUSTOM_VAR &&
+                plan.isSet(samplingPolicy.getRateCustomVarIndex(), CustomVarPlan.Scope.SCREEN)) {
+            throw new IllegalArgumentException("screen custom variable " + samplingPolicy.getRateCustomVarIndex() +
+                    " holds the sampling rate");
+        }
+    }
+}
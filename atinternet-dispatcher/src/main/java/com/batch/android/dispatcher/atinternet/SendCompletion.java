@@ -0,0 +1,96 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+/**
+ * The end of an event whose hits are still being sent once its dispatch returns, from the threads of the parallel
+ * tracker targets or of the direct hits.
+ *
+ * Each send reports how it ended: once they all did, the event's outcome is recorded and its journal record
+ * completed, so that an event whose hits were queued but never sent is replayed on the next launch.
+ * The outcome is {@link DispatchMetrics.Outcome#SENT} if every send succeeded, else
+ * {@link DispatchMetrics.Outcome#DROPPED} if one was dropped, else {@link DispatchMetrics.Outcome#FAILED}.
+ * A completion can also keep the journal record of an event that wasn't delivered, for it to be replayed. The record
+ * then remembers whether the publisher hit was delivered, so that the replay only sends the undelivered screen hit.
+ */
+final class SendCompletion {
+
+    private final EventType eventType;
+    private final DispatchMetrics metrics;
+    private final EventJournal journal;
+    private final long journalSequence;
+    private final boolean keepUndelivered;
+
+    private int remainingSends;
+    private boolean dropped = false;
+    private boolean failed = false;
+
+    /**
+     * @param sendCount Number of sends that will report to this completion, at least 1
+     */
+    SendCompletion(@NonNull EventType eventType, @Nullable DispatchMetrics metrics, @Nullable EventJournal journal,
+                   long journalSequence, int sendCount) {
+        this(eventType, metrics, journal, journalSequence, sendCount, false);
+    }
+
+    /**
+     * @param sendCount Number of sends that will report to this completion, at least 1
+     * @param keepUndelivered Whether to only complete the journal record if every send succeeded
+     */
+    SendCompletion(@NonNull EventType eventType, @Nullable DispatchMetrics metrics, @Nullable EventJournal journal,
+                   long journalSequence, int sendCount, boolean keepUndelivered) {
+        this.eventType = eventType;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.journalSequence = journalSequence;
+        this.remainingSends = sendCount;
+        this.keepUndelivered = keepUndelivered;
+    }
+
+    void onSent() {
+        onSendEnded(DispatchMetrics.Outcome.SENT);
+    }
+
+    /**
+     * Report the publisher hit of the event as delivered, before it is reported with {@link #onSent()}
+     */
+    void onPublisherHitSent() {
+        if (journal != null && keepUndelivered) {
+            journal.setPublisherHitDelivered(journalSequence);
+        }
+    }
+
+    void onFailed() {
+        onSendEnded(DispatchMetrics.Outcome.FAILED);
+    }
+
+    void onDropped() {
+        onSendEnded(DispatchMetrics.Outcome.DROPPED);
+    }
+
+    private void onSendEnded(@NonNull DispatchMetrics.Outcome sendOutcome) {
+        DispatchMetrics.Outcome outcome;
+        synchronized (this) {
+            if (remainingSends <= 0) {
+                return;
+            }
+            dropped |= sendOutcome == DispatchMetrics.Outcome.DROPPED;
+            failed |= sendOutcome == DispatchMetrics.Outcome.FAILED;
+            if (--remainingSends > 0) {
+                return;
+            }
+            outcome = dropped ? DispatchMetrics.Outcome.DROPPED :
+                    (failed ? DispatchMetrics.Outcome.FAILED : DispatchMetrics.Outcome.SENT);
+        }
+        if (metrics != null) {
+            metrics.recordOutcome(eventType, outcome);
+        }
+        if (journal != null && (outcome == DispatchMetrics.Outcome.SENT || !keepUndelivered)) {
+            journal.complete(journalSequence);
+        }
+    }
+}
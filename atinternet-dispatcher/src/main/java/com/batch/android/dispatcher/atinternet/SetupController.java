@@ -0,0 +1,130 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The background setup of the dispatcher, and the events dispatched while it runs.
+ *
+ * Those events are held in a buffer of {@link AtInternetDispatcher#PRE_SETUP_CAPACITY} events, dropping the oldest
+ * when full, and handed to the sender by the setup thread once the setup is done, in the order they were dispatched.
+ */
+final class SetupController {
+
+    private final EventHandler<EventSnapshot> sender;
+
+    private final EventHandler<EventSnapshot> dropHandler;
+
+    /**
+     * Counted down once the setup is done and the events dispatched meanwhile were sent, null if there is
+     * none pending
+     */
+    private volatile CountDownLatch pendingSetup;
+
+    /**
+     * Events dispatched while the setup is pending. Guarded by this.
+     */
+    private final ArrayDeque<EventSnapshot> preSetupEvents = new ArrayDeque<>();
+
+    /**
+     * @param sender Sends the held events, from the setup thread
+     * @param dropHandler Gets the events dropped because the buffer was full
+     */
+    SetupController(@NonNull EventHandler<EventSnapshot> sender, @NonNull EventHandler<EventSnapshot> dropHandler) {
+        this.sender = sender;
+        this.dropHandler = dropHandler;
+    }
+
+    void start(@NonNull final Runnable setup) {
+        final CountDownLatch done = new CountDownLatch(1);
+        pendingSetup = done;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    setup.run();
+                } catch (RuntimeException e) {
+                    Log.e("Batch", "Could not set up the AT Internet dispatcher: " + e.getLocalizedMessage());
+                } finally {
+                    sendPreSetupEvents();
+                    done.countDown();
+                }
+            }
+        }, AtInternetDispatcher.SETUP_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean isPending() {
+        return pendingSetup != null;
+    }
+
+    /**
+     * Keep an event dispatched while the setup is pending, for the setup thread to send it once done.
+     * The oldest event is dropped if the buffer is full.
+     *
+     * @return false if the setup is done: the event must be dispatched as usual
+     */
+    boolean hold(@NonNull EventSnapshot event) {
+        EventSnapshot dropped = null;
+        synchronized (this) {
+            if (pendingSetup == null) {
+                return false;
+            }
+            if (preSetupEvents.size() == AtInternetDispatcher.PRE_SETUP_CAPACITY) {
+                dropped = preSetupEvents.pollFirst();
+            }
+            preSetupEvents.addLast(event);
+        }
+        if (dropped != null) {
+            dropHandler.handle(dropped);
+        }
+        return true;
+    }
+
+    /**
+     * Send the events held during the setup, in the order they were dispatched, until none is left: the events
+     * dispatched after that are sent as usual
+     */
+    private void sendPreSetupEvents() {
+        while (true) {
+            List<EventSnapshot> events;
+            synchronized (this) {
+                if (preSetupEvents.isEmpty()) {
+                    pendingSetup = null;
+                    return;
+                }
+                events = new ArrayList<>(preSetupEvents);
+                preSetupEvents.clear();
+            }
+            for (EventSnapshot event : events) {
+                sender.handle(event);
+            }
+        }
+    }
+
+    /**
+     * Wait for the pending setup, if any, and the events it holds to be sent
+     *
+     * @return false if the setup wasn't done before the timeout
+     */
+    boolean await(long timeoutMillis) {
+        CountDownLatch setup = pendingSetup;
+        if (setup == null) {
+            return true;
+        }
+        try {
+            return setup.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
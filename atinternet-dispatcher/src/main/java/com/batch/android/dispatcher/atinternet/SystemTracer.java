@@ -0,0 +1,48 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.dispatcher.atinternet.core.SectionTracer;
+
+/**
+ * Sends the dispatcher's sections to {@link Trace}, so that they show up in systrace and Perfetto.
+ * Sections need API 18, async sections API 29: on older versions they are ignored.
+ */
+final class SystemTracer implements SectionTracer {
+
+    static final SystemTracer INSTANCE = new SystemTracer();
+
+    private SystemTracer() {
+    }
+
+    @Override
+    public void beginSection(@NonNull String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @Override
+    public void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void beginAsyncSection(@NonNull String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+    }
+
+    @Override
+    public void endAsyncSection(@NonNull String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+}
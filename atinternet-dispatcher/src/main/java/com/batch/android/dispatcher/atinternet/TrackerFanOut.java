@@ -0,0 +1,232 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.HitDescription;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The AT Internet sites the hits of every event are sent to.
+ *
+ * Sequential fan-outs send to each site in turn, on the thread sending the event: a failing site doesn't prevent
+ * the others from being sent.
+ * Parallel fan-outs give each site its own bounded queue and worker thread: a slow site doesn't
+ * delay the others, and the hits of a site are still sent in the order of their events.
+ * When a site's queue is full, its oldest hits are dropped, and their send is told so.
+ *
+ * Immutable: the dispatcher replaces its fan-out as a whole.
+ */
+final class TrackerFanOut {
+
+    static final String THREAD_NAME_PREFIX = "batch-atinternet-fanout-";
+
+    static final int QUEUE_CAPACITY = 256;
+
+    static final TrackerFanOut DEFAULT = new TrackerFanOut(Collections.singletonList(TrackerTarget.getDefault()), false);
+
+    /**
+     * Send of the hits of an event to a target of a parallel fan-out
+     */
+    interface TargetSend {
+        /**
+         * Send the hits, reporting its own errors. Called on the target's thread.
+         */
+        void send();
+
+        /**
+         * Called instead of {@link #send()} if the target's queue dropped it, on the submitting thread
+         */
+        void onDropped();
+    }
+
+    private final List<TrackerTarget> targets;
+
+    /**
+     * Worker of each target, by index, or null for a sequential fan-out
+     */
+    private final List<AsyncDispatchWorker<TargetSend>> workers;
+
+    TrackerFanOut(@NonNull List<TrackerTarget> targets, boolean parallel) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one tracker target is needed");
+        }
+        this.targets = Collections.unmodifiableList(new ArrayList<>(targets));
+        if (!parallel) {
+            this.workers = null;
+            return;
+        }
+
+        EventHandler<TargetSend> sender = new EventHandler<TargetSend>() {
+            @Override
+            public void handle(@NonNull TargetSend send) {
+                send.send();
+            }
+        };
+        EventHandler<TargetSend> dropHandler = new EventHandler<TargetSend>() {
+            @Override
+            public void handle(@NonNull TargetSend send) {
+                send.onDropped();
+            }
+        };
+        List<AsyncDispatchWorker<TargetSend>> targetWorkers = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            AsyncDispatchWorker<TargetSend> worker = new AsyncDispatchWorker<>(QUEUE_CAPACITY,
+                    OverflowPolicy.DROP_OLDEST, sender, dropHandler, THREAD_NAME_PREFIX + i);
+            worker.start();
+            targetWorkers.add(worker);
+        }
+        this.workers = targetWorkers;
+    }
+
+    @NonNull
+    List<TrackerTarget> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Send the hits of an event to every target, through their trackers. The event is only parsed once,
+     * whatever the number of targets.
+     *
+     * @param journal Journal holding the event's record, completed once every parallel target sent or dropped
+     * the hits
+     * @return The outcome of the event, or null if its hits were queued for parallel targets: a
+     * {@link SendCompletion} records the outcome once they were all sent or dropped
+     * @throws RuntimeException if sending to every sequential target failed
+     */
+    @Nullable
+    DispatchMetrics.Outcome send(@NonNull final TrackerHits trackerHits, @NonNull final EventType eventType,
+                                 @NonNull final HitDescription hit, @Nullable final SamplingPolicy policy,
+                                 @Nullable final DispatchMetrics dispatchMetrics, @Nullable EventJournal journal,
+                                 long journalSequence) {
+        if (workers != null) {
+            final SendCompletion completion = new SendCompletion(eventType, dispatchMetrics, journal, journalSequence,
+                    targets.size());
+            for (int i = 0; i < targets.size(); i++) {
+                final TrackerTarget target = targets.get(i);
+                workers.get(i).submit(new TargetSend() {
+                    @Override
+                    public void send() {
+                        try {
+                            trackerHits.send(target, eventType, hit, policy, dispatchMetrics);
+                            completion.onSent();
+                        } catch (RuntimeException e) {
+                            Log.e("Batch", "Something went wrong sending hits to AT Internet tracker target " +
+                                    target + ": " + e.getLocalizedMessage());
+                            completion.onFailed();
+                        }
+                    }
+
+                    @Override
+                    public void onDropped() {
+                        completion.onDropped();
+                    }
+                });
+            }
+            return null;
+        }
+
+        if (targets.size() == 1) {
+            trackerHits.send(targets.get(0), eventType, hit, policy, dispatchMetrics);
+            return DispatchMetrics.Outcome.SENT;
+        }
+
+        // A failing target must not prevent the others from being sent, the event only throws if they all fail
+        RuntimeException failure = null;
+        int failures = 0;
+        for (TrackerTarget target : targets) {
+            try {
+                trackerHits.send(target, eventType, hit, policy, dispatchMetrics);
+            } catch (RuntimeException e) {
+                Log.e("Batch", "Something went wrong sending hits to AT Internet tracker target " +
+                        target + ": " + e.getLocalizedMessage());
+                failures++;
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null && failures == targets.size()) {
+            throw failure;
+        }
+        return failures > 0 ? DispatchMetrics.Outcome.FAILED : DispatchMetrics.Outcome.SENT;
+    }
+
+    /**
+     * Send the summary hit of an event rollup count to every target, on the calling thread, even for parallel
+     * fan-outs: the rollup must know whether it was sent.
+     *
+     * @throws RuntimeException if sending to every target failed, so that the count isn't sent twice to the others
+     */
+    void sendSummary(@NonNull TrackerHits trackerHits, @NonNull String screenName, @Nullable String campaign,
+                     int countCustomVarIndex, int count) {
+        RuntimeException failure = null;
+        int failures = 0;
+        for (TrackerTarget target : targets) {
+            try {
+                trackerHits.sendSummary(target, screenName, campaign, countCustomVarIndex, count);
+            } catch (RuntimeException e) {
+                Log.e("Batch", "Something went wrong sending a summary hit to AT Internet tracker target " +
+                        target + ": " + e.getLocalizedMessage());
+                failures++;
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null && failures == targets.size()) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Wait until the hits queued for every target have been sent
+     *
+     * @return true if they were sent before the timeout, for every target
+     */
+    boolean flush(long timeoutMillis) {
+        if (workers == null) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean flushed = true;
+        for (AsyncDispatchWorker<TargetSend> worker : workers) {
+            flushed &= worker.flush(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        return flushed;
+    }
+
+    /**
+     * Stop the workers after they sent their queued hits
+     */
+    void shutdown(long timeoutMillis) {
+        if (workers == null) {
+            return;
+        }
+        for (AsyncDispatchWorker<TargetSend> worker : workers) {
+            worker.shutdown(timeoutMillis);
+        }
+    }
+
+    /**
+     * @return Number of hits dropped because a target's queue was full
+     */
+    long getDroppedCount() {
+        if (workers == null) {
+            return 0;
+        }
+        long dropped = 0;
+        for (AsyncDispatchWorker<TargetSend> worker : workers) {
+            dropped += worker.getDroppedCount();
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,171 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.atinternet.tracker.CustomVar;
+import com.atinternet.tracker.Publisher;
+import com.atinternet.tracker.Screen;
+import com.atinternet.tracker.Tracker;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.HitDescription;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+import com.batch.android.dispatcher.atinternet.core.SectionTracer;
+
+/**
+ * Sends the hits of events through the trackers of a {@link TrackerTarget}: the OnSiteAds Publisher hit, if any,
+ * then the Screen hit, with its campaign and custom variables.
+ *
+ * Thread safe: the trackers are looked up in the dispatcher's {@link TrackerRegistry} for every hit, so that
+ * overrides apply right away.
+ */
+final class TrackerHits {
+
+    private final TrackerRegistry trackerRegistry;
+
+    private volatile SectionTracer tracer;
+
+    TrackerHits(@NonNull TrackerRegistry trackerRegistry) {
+        this.trackerRegistry = trackerRegistry;
+    }
+
+    void setTracer(@Nullable SectionTracer sectionTracer) {
+        tracer = sectionTracer;
+    }
+
+    /**
+     * Send the hits of an event to a target, recording the latency of each send if dispatchMetrics isn't null
+     */
+    void send(@NonNull TrackerTarget target, @NonNull EventType eventType, @NonNull HitDescription hit,
+              @Nullable SamplingPolicy policy, @Nullable DispatchMetrics dispatchMetrics) {
+        long stageStart = dispatchMetrics == null ? 0 : System.nanoTime();
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        if (onSiteAd != null) {
+            sendOnSiteAd(target.getPublisherTrackerName(), onSiteAd);
+            if (dispatchMetrics != null) {
+                stageStart = AtInternetDispatcher.recordStage(dispatchMetrics, DispatchMetrics.Stage.PUBLISHER_SEND,
+                        stageStart);
+            }
+        }
+
+        sendScreen(target.getCampaignTrackerName(), eventType, hit, policy);
+        if (dispatchMetrics != null) {
+            AtInternetDispatcher.recordStage(dispatchMetrics, DispatchMetrics.Stage.SCREEN_SEND, stageStart);
+        }
+    }
+
+    /**
+     * Send the summary hit of an event rollup count to a target
+     */
+    void sendSummary(@NonNull TrackerTarget target, @NonNull String screenName, @Nullable String campaign,
+                     int countCustomVarIndex, int count) {
+        Screen screen = getTracker(target.getCampaignTrackerName()).Screens().add(screenName);
+        if (campaign != null) {
+            screen.Campaign(campaign);
+        }
+        screen.CustomVars().add(countCustomVarIndex, Integer.toString(count), CustomVar.CustomVarType.Screen);
+        screen.sendView();
+    }
+
+    Tracker getTracker(@NonNull String trackerName) {
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer == null) {
+            return trackerRegistry.get(trackerName);
+        }
+        sectionTracer.beginSection(AtInternetDispatcher.TRACE_GET_TRACKER);
+        try {
+            return trackerRegistry.get(trackerName);
+        } finally {
+            sectionTracer.endSection();
+        }
+    }
+
+    private void sendScreen(@NonNull String trackerName, @NonNull EventType eventType, @NonNull HitDescription hit,
+                            @Nullable SamplingPolicy policy) {
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer != null) {
+            sectionTracer.beginSection(AtInternetDispatcher.TRACE_SEND_SCREEN);
+        }
+        try {
+            Screen screen = getTracker(trackerName).Screens().add(hit.getScreenName());
+            if (hit.getCampaign() != null) {
+                screen.Campaign(hit.getCampaign());
+            }
+
+            String webViewButtonId = hit.getWebViewAnalyticsID();
+            if (webViewButtonId != null) {
+                screen.CustomVars().add(1, webViewButtonId, CustomVar.CustomVarType.Screen);
+            }
+            for (int i = 0; i < hit.getCustomVarCount(); i++) {
+                String value = hit.getCustomVarValue(i);
+                if (value != null && !value.isEmpty()) {
+                    screen.CustomVars().add(hit.getCustomVarIndex(i), value,
+                            getCustomVarType(hit.getCustomVarScope(i)));
+                }
+            }
+            if (policy != null && policy.getRateCustomVarIndex() != SamplingPolicy.NO_CUSTOM_VAR) {
+                screen.CustomVars().add(policy.getRateCustomVarIndex(),
+                        Double.toString(policy.getRate(eventType)), CustomVar.CustomVarType.Screen);
+            }
+            screen.sendView();
+        } finally {
+            if (sectionTracer != null) {
+                sectionTracer.endSection();
+            }
+        }
+    }
+
+    private void sendOnSiteAd(@NonNull String trackerName, @NonNull HitDescription.OnSiteAd onSiteAd) {
+        SectionTracer sectionTracer = tracer;
+        if (sectionTracer != null) {
+            sectionTracer.beginSection(AtInternetDispatcher.TRACE_SEND_PUBLISHER);
+        }
+        try {
+            sendPublisher(trackerName, onSiteAd);
+        } finally {
+            if (sectionTracer != null) {
+                sectionTracer.endSection();
+            }
+        }
+    }
+
+    private void sendPublisher(@NonNull String trackerName, @NonNull HitDescription.OnSiteAd onSiteAd) {
+        Publisher publisher = getTracker(trackerName).Publishers().add(onSiteAd.getCampaignId());
+        if (onSiteAd.getFormat() != null) {
+            publisher.setFormat(onSiteAd.getFormat());
+        }
+        publisher.setAdvertiserId(onSiteAd.getAdvertiserId());
+        if (onSiteAd.getVariant() != null) {
+            publisher.setVariant(onSiteAd.getVariant());
+        }
+        if (onSiteAd.getCreation() != null) {
+            publisher.setCreation(onSiteAd.getCreation());
+        }
+        if (onSiteAd.getGeneralPlacement() != null) {
+            publisher.setGeneralPlacement(onSiteAd.getGeneralPlacement());
+        }
+        if (onSiteAd.getDetailedPlacement() != null) {
+            publisher.setDetailedPlacement(onSiteAd.getDetailedPlacement());
+        }
+        if (onSiteAd.getUrl() != null) {
+            publisher.setUrl(onSiteAd.getUrl());
+        }
+
+        switch (onSiteAd.getAction()) {
+            case IMPRESSION:
+                publisher.sendImpression();
+                break;
+            case TOUCH:
+                publisher.sendTouch();
+                break;
+            case NONE:
+                break;
+        }
+    }
+
+    private static CustomVar.CustomVarType getCustomVarType(CustomVarPlan.Scope scope) {
+        return scope == CustomVarPlan.Scope.APP ? CustomVar.CustomVarType.App : CustomVar.CustomVarType.Screen;
+    }
+}
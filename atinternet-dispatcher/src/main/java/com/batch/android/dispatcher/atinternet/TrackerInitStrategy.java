@@ -0,0 +1,22 @@
+package com.batch.android.dispatcher.atinternet;
+
+/**
+ * When the dispatcher creates its AT Internet trackers.
+ * Set it with the "com.batch.android.dispatcher.atinternet.tracker_init" meta-data of your application,
+ * using the lowercase name of a strategy, see {@link AtInternetRegistrar}.
+ */
+public enum TrackerInitStrategy
+{
+    /**
+     * Create the trackers when the first event is dispatched.
+     * No AT Internet class is loaded before that, but the first event pays for the trackers' creation.
+     */
+    LAZY,
+
+    /**
+     * Create the trackers on a background thread as soon as the dispatcher is registered,
+     * so that the first event doesn't pay for it.
+     * Events dispatched before the trackers are ready are still sent, they only wait for the tracker they need.
+     */
+    EAGER
+}
@@ -0,0 +1,67 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+import com.atinternet.tracker.Tracker;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracker factory measuring how long the dispatcher's trackers take to be ready:
+ * the time spent creating them, and the time between the dispatcher's registration and the moment
+ * all of them were created.
+ */
+final class TrackerInitTiming implements TrackerRegistry.TrackerFactory {
+
+    static final long NOT_READY = -1;
+
+    private final TrackerRegistry.TrackerFactory factory;
+
+    private final long startNanos;
+
+    private final Set<String> pendingTrackers;
+
+    private long creationNanos;
+
+    private volatile long timeToReadyNanos = NOT_READY;
+
+    TrackerInitTiming(@NonNull TrackerRegistry.TrackerFactory factory, @NonNull String... trackerNames) {
+        this.factory = factory;
+        this.startNanos = System.nanoTime();
+        this.pendingTrackers = new HashSet<>(Arrays.asList(trackerNames));
+    }
+
+    @NonNull
+    @Override
+    public Tracker create(@NonNull String trackerName) {
+        long creationStart = System.nanoTime();
+        Tracker tracker = factory.create(trackerName);
+        long now = System.nanoTime();
+        synchronized (this) {
+            creationNanos += now - creationStart;
+            if (pendingTrackers.remove(trackerName) && pendingTrackers.isEmpty()) {
+                timeToReadyNanos = now - startNanos;
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * @return Time between the registration and the creation of the last tracker,
+     * in milliseconds, or {@link #NOT_READY}
+     */
+    long getTimeToReadyMillis() {
+        long nanos = timeToReadyNanos;
+        return nanos == NOT_READY ? NOT_READY : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return Total time spent creating trackers, in milliseconds
+     */
+    synchronized long getCreationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(creationNanos);
+    }
+}
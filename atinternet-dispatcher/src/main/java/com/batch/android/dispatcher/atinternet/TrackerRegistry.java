@@ -0,0 +1,179 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.atinternet.tracker.ATInternet;
+import com.atinternet.tracker.Tracker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trackers used by the dispatcher, by name.
+ *
+ * The registry's state is an immutable snapshot: the global override, the per-name overrides
+ * and the trackers created from the AT Internet SDK. Getting a tracker is a single volatile read,
+ * so concurrent dispatches never wait for each other.
+ * Changes (overrides, tracker creation) are serialized and publish a new snapshot: a change is
+ * never lost and readers never see half of one.
+ * Creating a tracker from the SDK can be slow: it is done outside of that lock, once per name,
+ * so that it only holds back the callers that need this very tracker.
+ * Forgetting the created trackers starts a new generation of snapshots: a tracker created during an older
+ * generation is not published, but created again, as the SDK may have been reconfigured meanwhile.
+ */
+final class TrackerRegistry {
+
+    /**
+     * Creates the trackers that are not overridden
+     */
+    interface TrackerFactory {
+        @NonNull
+        Tracker create(@NonNull String trackerName);
+    }
+
+    static final TrackerFactory AT_INTERNET_FACTORY = new TrackerFactory() {
+        @NonNull
+        @Override
+        public Tracker create(@NonNull String trackerName) {
+            return ATInternet.getInstance().getTracker(trackerName);
+        }
+    };
+
+    private final TrackerFactory factory;
+
+    private final Map<String, Object> creationLocks = new HashMap<>();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    TrackerRegistry(@NonNull TrackerFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Get a tracker, creating it on first use if it isn't overridden.
+     * A tracker overridden for its name wins over the global override.
+     */
+    @NonNull
+    Tracker get(@NonNull String trackerName) {
+        Tracker tracker = snapshot.find(trackerName);
+        if (tracker != null) {
+            return tracker;
+        }
+        return create(trackerName);
+    }
+
+    /**
+     * @param tracker Tracker to use for all names, or null to go back to the SDK's trackers.
+     *                Clearing the override also forgets the trackers created so far: they are fetched
+     *                from the SDK again, in case it was reconfigured.
+     */
+    synchronized void setGlobalOverride(@Nullable Tracker tracker) {
+        Snapshot current = snapshot;
+        if (tracker == null) {
+            snapshot = new Snapshot(current.generation + 1, null, current.overrides,
+                    Collections.<String, Tracker>emptyMap());
+        } else {
+            snapshot = new Snapshot(current.generation, tracker, current.overrides, current.created);
+        }
+    }
+
+    /**
+     * @param trackerName Name of the overridden tracker
+     * @param tracker Tracker to use for this name, or null to remove the override
+     */
+    synchronized void setOverride(@NonNull String trackerName, @Nullable Tracker tracker) {
+        Snapshot current = snapshot;
+        snapshot = new Snapshot(current.generation, current.globalOverride, with(current.overrides, trackerName, tracker),
+                current.created);
+    }
+
+    private Tracker create(String trackerName) {
+        synchronized (getCreationLock(trackerName)) {
+            while (true) {
+                // Another thread may have created it, or an override may have been set meanwhile
+                Snapshot current = snapshot;
+                Tracker tracker = current.find(trackerName);
+                if (tracker != null) {
+                    return tracker;
+                }
+                tracker = publishCreated(trackerName, factory.create(trackerName), current.generation);
+                if (tracker != null) {
+                    return tracker;
+                }
+            }
+        }
+    }
+
+    private synchronized Object getCreationLock(String trackerName) {
+        Object lock = creationLocks.get(trackerName);
+        if (lock == null) {
+            lock = new Object();
+            creationLocks.put(trackerName, lock);
+        }
+        return lock;
+    }
+
+    /**
+     * Publish a created tracker, unless the created trackers were forgotten since its creation started
+     *
+     * @param generation Generation of the snapshot the creation started from
+     * @return The tracker to use for this name, or null if the tracker is stale and must be created again
+     */
+    @Nullable
+    private synchronized Tracker publishCreated(String trackerName, Tracker tracker, long generation) {
+        Snapshot current = snapshot;
+        if (current.generation != generation) {
+            return null;
+        }
+        snapshot = new Snapshot(generation, current.globalOverride, current.overrides,
+                with(current.created, trackerName, tracker));
+        // An override set while the tracker was being created wins
+        return snapshot.find(trackerName);
+    }
+
+    private static Map<String, Tracker> with(Map<String, Tracker> map, String trackerName, Tracker tracker) {
+        Map<String, Tracker> copy = new HashMap<>(map);
+        if (tracker == null) {
+            copy.remove(trackerName);
+        } else {
+            copy.put(trackerName, tracker);
+        }
+        return copy.isEmpty() ? Collections.<String, Tracker>emptyMap() : Collections.unmodifiableMap(copy);
+    }
+
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(0, null,
+                Collections.<String, Tracker>emptyMap(), Collections.<String, Tracker>emptyMap());
+
+        /**
+         * Incremented each time the created trackers are forgotten
+         */
+        final long generation;
+        final Tracker globalOverride;
+        final Map<String, Tracker> overrides;
+        final Map<String, Tracker> created;
+
+        Snapshot(long generation, Tracker globalOverride, Map<String, Tracker> overrides,
+                 Map<String, Tracker> created) {
+            this.generation = generation;
+            this.globalOverride = globalOverride;
+            this.overrides = overrides;
+            this.created = created;
+        }
+
+        @Nullable
+        Tracker find(String trackerName) {
+            Tracker tracker = overrides.get(trackerName);
+            if (tracker != null) {
+                return tracker;
+            }
+            if (globalOverride != null) {
+                return globalOverride;
+            }
+            return created.get(trackerName);
+        }
+    }
+}
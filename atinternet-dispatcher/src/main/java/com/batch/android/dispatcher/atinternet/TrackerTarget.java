@@ -0,0 +1,70 @@
+package com.batch.android.dispatcher.atinternet;
+
+import androidx.annotation.NonNull;
+
+/**
+ * AT Internet site the dispatcher sends its hits to, through a pair of named trackers:
+ * one for the Screen hits, one for the OnSiteAds Publisher hits.
+ * Trackers are fetched from the AT Internet SDK by name, configure them with the site they report to.
+ * See {@link AtInternetDispatcher#setTrackerTargets(java.util.List, boolean)}.
+ */
+public final class TrackerTarget
+{
+    private static final TrackerTarget DEFAULT = new TrackerTarget(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER,
+            AtInternetDispatcher.BATCH_PUBLISHER_TRACKER);
+
+    private final String campaignTrackerName;
+    private final String publisherTrackerName;
+
+    /**
+     * @param campaignTrackerName Name of the tracker sending the Screen hits
+     * @param publisherTrackerName Name of the tracker sending the Publisher hits
+     */
+    public TrackerTarget(@NonNull String campaignTrackerName, @NonNull String publisherTrackerName) {
+        this.campaignTrackerName = campaignTrackerName;
+        this.publisherTrackerName = publisherTrackerName;
+    }
+
+    /**
+     * @return The target used by the dispatcher unless configured otherwise:
+     * {@link AtInternetDispatcher#BATCH_CAMPAIGN_TRACKER} and {@link AtInternetDispatcher#BATCH_PUBLISHER_TRACKER}
+     */
+    @NonNull
+    public static TrackerTarget getDefault() {
+        return DEFAULT;
+    }
+
+    @NonNull
+    public String getCampaignTrackerName() {
+        return campaignTrackerName;
+    }
+
+    @NonNull
+    public String getPublisherTrackerName() {
+        return publisherTrackerName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TrackerTarget)) {
+            return false;
+        }
+        TrackerTarget that = (TrackerTarget) o;
+        return campaignTrackerName.equals(that.campaignTrackerName) &&
+                publisherTrackerName.equals(that.publisherTrackerName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * campaignTrackerName.hashCode() + publisherTrackerName.hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return campaignTrackerName + "/" + publisherTrackerName;
+    }
+}
@@ -0,0 +1,327 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.ATInternet;
+import com.atinternet.tracker.Publisher;
+import com.atinternet.tracker.Publishers;
+import com.atinternet.tracker.Screen;
+import com.atinternet.tracker.Screens;
+import com.atinternet.tracker.Tracker;
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test the asynchronous dispatch mode of the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@PowerMockIgnore({"org.powermock.*", "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*"})
+@PrepareForTest(ATInternet.class)
+public class AsyncDispatchTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+    private Screens screens;
+    private Publishers publishers;
+    private Publisher publisher;
+    private AtInternetDispatcher atInternetDispatcher;
+    private final CountDownLatch releaseWorker = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        ATInternet atInternet = PowerMockito.mock(ATInternet.class);
+        Tracker tracker = PowerMockito.mock(Tracker.class);
+        publishers = PowerMockito.mock(Publishers.class);
+        screens = PowerMockito.mock(Screens.class);
+
+        PowerMockito.mockStatic(ATInternet.class);
+        Mockito.when(ATInternet.getInstance()).thenReturn(atInternet);
+        Mockito.when(atInternet.getTracker(Mockito.any())).thenThrow(new RuntimeException("getTracker should not be called"));
+        Mockito.when(tracker.Publishers()).thenReturn(publishers);
+        Mockito.when(tracker.Screens()).thenReturn(screens);
+
+        publisher = PowerMockito.mock(Publisher.class);
+        Mockito.when(publishers.add(Mockito.anyString())).thenReturn(publisher);
+
+        atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(tracker);
+    }
+
+    @After
+    public void tearDown() {
+        atInternetDispatcher.disableAsyncDispatch();
+    }
+
+    @Test
+    public void testEventIsSentOnWorkerThread() {
+        final AtomicReference<String> sendThread = new AtomicReference<>();
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("ShowedBatchInAppMessage")).thenReturn(screen);
+        Mockito.doAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return null;
+        }).when(screen).sendView();
+
+        atInternetDispatcher.enableAsyncDispatch();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload("CS1-[mylabeltest]", "button1", null, new Bundle()));
+
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Mockito.verify(publishers).add(Mockito.eq("[mylabeltest]"));
+        Mockito.verify(publisher).setFormat(Mockito.eq("[in-app]"));
+        Mockito.verify(publisher).setVariant(Mockito.eq("[button1]"));
+        Mockito.verify(publisher).sendImpression();
+        Mockito.verify(screen).Campaign("CS1-[mylabeltest]");
+        Mockito.verify(screen).sendView();
+        Assert.assertEquals(AsyncDispatchWorker.THREAD_NAME, sendThread.get());
+    }
+
+    @Test
+    public void testBurstIsFullySent() {
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add(Mockito.anyString())).thenReturn(screen);
+
+        atInternetDispatcher.enableAsyncDispatch(4, OverflowPolicy.RUN_ON_CALLER);
+        for (int i = 0; i < 50; i++) {
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    new TestEventPayload(null, null, new Bundle()));
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                    new TestEventPayload(null, null, new Bundle()));
+        }
+
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Mockito.verify(screens, Mockito.times(50)).add("DisplayedBatchPushNotification");
+        Mockito.verify(screens, Mockito.times(50)).add("OpenedBatchPushNotification");
+    }
+
+    @Test
+    public void testEventsFromOneThreadAreSentInOrder() {
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add(Mockito.anyString())).thenReturn(screen);
+
+        atInternetDispatcher.enableAsyncDispatch(64, OverflowPolicy.DROP_NEWEST);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        InOrder inOrder = Mockito.inOrder(screens);
+        inOrder.verify(screens).add("DisplayedBatchPushNotification");
+        inOrder.verify(screens).add("OpenedBatchPushNotification");
+        inOrder.verify(screens).add("DismissedBatchPushNotification");
+        Assert.assertEquals(0, atInternetDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    public void testDropNewestWhenFull() throws InterruptedException {
+        CountDownLatch workerBlocked = blockWorkerOnFirstDisplay();
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("OpenedBatchPushNotification")).thenReturn(screen);
+        Mockito.when(screens.add("DismissedBatchPushNotification")).thenReturn(screen);
+
+        atInternetDispatcher.enableAsyncDispatch(2, OverflowPolicy.DROP_NEWEST);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertTrue(workerBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Fill the two slots of the queue
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertEquals(1, atInternetDispatcher.getDroppedEventCount());
+
+        releaseWorker();
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Mockito.verify(screens, Mockito.times(2)).add("OpenedBatchPushNotification");
+        Mockito.verify(screens, Mockito.never()).add("DismissedBatchPushNotification");
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws InterruptedException {
+        CountDownLatch workerBlocked = blockWorkerOnFirstDisplay();
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("OpenedBatchPushNotification")).thenReturn(screen);
+        Mockito.when(screens.add("DismissedBatchPushNotification")).thenReturn(screen);
+
+        atInternetDispatcher.enableAsyncDispatch(2, OverflowPolicy.DROP_OLDEST);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertTrue(workerBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Fill the two slots of the queue
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertEquals(1, atInternetDispatcher.getDroppedEventCount());
+
+        releaseWorker();
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Mockito.verify(screens).add("OpenedBatchPushNotification");
+        Mockito.verify(screens).add("DismissedBatchPushNotification");
+    }
+
+    @Test
+    public void testDroppedEventsAreNotReplayed() throws InterruptedException {
+        Context context = ApplicationProvider.getApplicationContext();
+        CountDownLatch workerBlocked = blockWorkerOnFirstDisplay();
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("OpenedBatchPushNotification")).thenReturn(screen);
+        Mockito.when(screens.add("DismissedBatchPushNotification")).thenReturn(screen);
+
+        atInternetDispatcher.enableMetrics();
+        atInternetDispatcher.enableEventJournal(context);
+        atInternetDispatcher.enableAsyncDispatch(1, OverflowPolicy.DROP_NEWEST);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertTrue(workerBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+
+        releaseWorker();
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+        Assert.assertNotNull(metrics);
+        Assert.assertEquals(1, metrics.getEventCount(EventType.NOTIFICATION_DISMISS, DispatchMetrics.Outcome.DROPPED));
+        Assert.assertEquals(2, metrics.getEventCount(DispatchMetrics.Outcome.SENT));
+
+        // The dropped event's journal record was completed
+        AtInternetDispatcher newDispatcher = new AtInternetDispatcher();
+        newDispatcher.attachContext(context);
+        newDispatcher.setTrackerOverride(tracker);
+        newDispatcher.replayJournal();
+        Mockito.verify(screens, Mockito.never()).add("DismissedBatchPushNotification");
+        atInternetDispatcher.disableEventJournal();
+    }
+
+    @Test
+    public void testRunOnCallerWhenFull() throws InterruptedException {
+        CountDownLatch workerBlocked = blockWorkerOnFirstDisplay();
+        final AtomicReference<Thread> dismissThread = new AtomicReference<>();
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("OpenedBatchPushNotification")).thenReturn(screen);
+        Screen dismissScreen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("DismissedBatchPushNotification")).thenReturn(dismissScreen);
+        Mockito.doAnswer(invocation -> {
+            dismissThread.set(Thread.currentThread());
+            return null;
+        }).when(dismissScreen).sendView();
+
+        atInternetDispatcher.enableAsyncDispatch(2, OverflowPolicy.RUN_ON_CALLER);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertTrue(workerBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Fill the two slots of the queue
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertEquals(Thread.currentThread(), dismissThread.get());
+        Assert.assertEquals(0, atInternetDispatcher.getDroppedEventCount());
+
+        releaseWorker();
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Mockito.verify(screens, Mockito.times(2)).add("OpenedBatchPushNotification");
+    }
+
+    @Test
+    public void testDisableSendsQueuedEvents() {
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add(Mockito.anyString())).thenReturn(screen);
+
+        atInternetDispatcher.enableAsyncDispatch();
+        for (int i = 0; i < 20; i++) {
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+                    new TestEventPayload(null, null, new Bundle()));
+        }
+        atInternetDispatcher.disableAsyncDispatch();
+
+        Mockito.verify(screen, Mockito.times(20)).sendView();
+
+        // Back to synchronous dispatch
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+                new TestEventPayload(null, null, new Bundle()));
+        Mockito.verify(screen, Mockito.times(21)).sendView();
+    }
+
+    @Test
+    public void testSnapshotOnlyKeepsUsedFields() {
+        Bundle customPayload = new Bundle();
+        customPayload.putString("xtor", "AD-[custom]");
+        customPayload.putString("other", "value");
+        TestEventPayload payload = new TestEventPayload("tracking", "button", "https://batch.com", customPayload, true);
+
+        EventSnapshot snapshot = EventSnapshot.of(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload,
+                CustomVarPlan.getEmpty());
+
+        Assert.assertEquals(Batch.EventDispatcher.Type.MESSAGING_CLICK, snapshot.getType());
+        Assert.assertEquals("tracking", snapshot.getTrackingId());
+        Assert.assertEquals("button", snapshot.getWebViewAnalyticsID());
+        Assert.assertEquals("https://batch.com", snapshot.getDeeplink());
+        Assert.assertEquals("AD-[custom]", snapshot.getCustomValue("xtor"));
+        Assert.assertNull(snapshot.getCustomValue("other"));
+        Assert.assertTrue(snapshot.isPositiveAction());
+    }
+
+    /**
+     * Make the worker thread block while sending the first NOTIFICATION_DISPLAY event
+     *
+     * @return A latch released once the worker is blocked
+     */
+    private CountDownLatch blockWorkerOnFirstDisplay() {
+        final CountDownLatch workerBlocked = new CountDownLatch(1);
+        Screen displayScreen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add("DisplayedBatchPushNotification")).thenReturn(displayScreen);
+        Mockito.doAnswer(invocation -> {
+            workerBlocked.countDown();
+            releaseWorker.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(displayScreen).sendView();
+        return workerBlocked;
+    }
+
+    private void releaseWorker() {
+        releaseWorker.countDown();
+    }
+}
@@ -14,7 +14,10 @@ import com.atinternet.tracker.Tracker;
 import com.batch.android.Batch;
 import com.batch.android.BatchMessage;
 import com.batch.android.BatchPushPayload;
+import com.batch.android.dispatcher.atinternet.core.ParseCache;
+import com.batch.android.dispatcher.atinternet.core.XtorTag;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -654,6 +657,31 @@ public class AtInternetDispatcherTest
         Mockito.verify(customVars).add(1, webViewButtonIdExpected, CustomVar.CustomVarType.Screen);
     }
 
+    @Test
+    public void testXtorPublisherFields() {
+        String xtor = "AD-[campaign]-[creative]-3[variant]-[120x40]-[https://batch.com]-[home]-[header]";
+
+        Publisher publisher = PowerMockito.mock(Publisher.class);
+        Mockito.when(publishers.add("[campaign]")).thenReturn(publisher);
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add(Mockito.anyString())).thenReturn(screen);
+
+        TestEventPayload payload = new TestEventPayload(xtor, null, null, new Bundle(), false);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload);
+
+        Mockito.verify(publisher).setFormat(Mockito.eq("[in-app]"));
+        Mockito.verify(publisher).setVariant(Mockito.eq("3[variant]"));
+        Mockito.verify(publisher).setCreation(Mockito.eq("[creative]"));
+        Mockito.verify(publisher).setGeneralPlacement(Mockito.eq("[home]"));
+        Mockito.verify(publisher).setDetailedPlacement(Mockito.eq("[header]"));
+        Mockito.verify(publisher).setUrl(Mockito.eq("https://batch.com"));
+        Mockito.verify(publisher).sendImpression();
+
+        atInternetDispatcher.setXtorFieldsFirst(true);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload);
+        Mockito.verify(publisher).setFormat(Mockito.eq("[120x40]"));
+    }
+
     @Test
     public void testInAppClickNonPositive() {
 
@@ -775,4 +803,42 @@ public class AtInternetDispatcherTest
         Mockito.verify(screen).sendView();
     }
 
+    @Test
+    public void testCampaignEventsReuseParsedDeeplink() {
+
+        String xtor = "CS1-[mylabeltest]-test-15[sef]";
+        String campaignExpected = "[mylabeltest]";
+
+        Publisher publisher = PowerMockito.mock(Publisher.class);
+        Mockito.when(publishers.add(campaignExpected)).thenReturn(publisher);
+
+        Screen screen = PowerMockito.mock(Screen.class);
+        Mockito.when(screens.add(Mockito.anyString())).thenReturn(screen);
+
+        TestEventPayload payload = new TestEventPayload(null,
+                null,
+                "https://batch.com/test#xtor=" + xtor,
+                new Bundle(),
+                true);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload);
+
+        Mockito.verify(publishers, Mockito.times(2)).add(Mockito.eq(campaignExpected));
+        Mockito.verify(publisher).sendImpression();
+        Mockito.verify(publisher).sendTouch();
+        Mockito.verify(screen, Mockito.times(3)).Campaign(xtor);
+        Mockito.verify(screen, Mockito.times(3)).sendView();
+
+        ParseCache<String> deeplinkTagCache = atInternetDispatcher.getDeeplinkTagCache();
+        Assert.assertEquals(1, deeplinkTagCache.getMissCount());
+        Assert.assertEquals(2, deeplinkTagCache.getHitCount());
+        ParseCache<XtorTag> campaignCache = atInternetDispatcher.getCampaignCache();
+        Assert.assertEquals(1, campaignCache.getMissCount());
+        Assert.assertEquals(1, campaignCache.getHitCount());
+        // Push events have no variant
+        Assert.assertEquals(0, atInternetDispatcher.getVariantCache().getMissCount());
+    }
+
 }
@@ -0,0 +1,47 @@
+package com.batch.android.dispatcher.atinternet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the bounds of the asynchronous dispatch queue
+ */
+public class BoundedEventQueueTest {
+
+    @Test
+    public void testSingleSlotQueueFills() {
+        BoundedEventQueue<String> queue = new BoundedEventQueue<>(1);
+        Assert.assertEquals(2, queue.capacity());
+
+        Assert.assertTrue(queue.offer("first"));
+        Assert.assertTrue(queue.offer("second"));
+        Assert.assertFalse(queue.offer("third"));
+        Assert.assertEquals(2, queue.size());
+
+        Assert.assertEquals("first", queue.poll());
+        Assert.assertTrue(queue.offer("third"));
+        Assert.assertFalse(queue.offer("fourth"));
+        Assert.assertEquals("second", queue.poll());
+        Assert.assertEquals("third", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        BoundedEventQueue<Integer> queue = new BoundedEventQueue<>(3);
+        Assert.assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse(queue.offer(4));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(Integer.valueOf(i), queue.poll());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new BoundedEventQueue<String>(0);
+    }
+}
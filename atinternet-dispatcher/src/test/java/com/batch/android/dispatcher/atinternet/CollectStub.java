@@ -0,0 +1,149 @@
+package com.batch.android.dispatcher.atinternet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local AT Internet collection endpoint, recording the hits it receives.
+ * Wire bytes are counted from each request's line and headers, as hits are GET requests without a body.
+ * It can hold its answers, to keep the sender busy while hits pile up in its queue, and reject some hits.
+ */
+class CollectStub implements HttpHandler {
+
+    static final String PATH = "/hit.xiti";
+
+    private static final long HOLD_TIMEOUT_MS = 60000;
+
+    private static final byte[] PIXEL = new byte[43];
+
+    static {
+        // Without it, the server's split header and body writes wait for the client's delayed ACK, ~40ms per hit
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final List<String> hits = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicLong wireBytes = new AtomicLong();
+    private volatile CountDownLatch hold;
+    private volatile String rejectedPart;
+
+    CollectStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        hits.add(query);
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+
+        // "GET " + target + " HTTP/1.1\r\n", then "Name: value\r\n" per header and the final "\r\n"
+        long bytes = 4 + exchange.getRequestURI().getRawPath().length() + 1 + query.length() + 11 + 2;
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            for (String value : header.getValue()) {
+                bytes += header.getKey().length() + 2 + value.length() + 2;
+            }
+        }
+        wireBytes.addAndGet(bytes);
+
+        CountDownLatch currentHold = hold;
+        if (currentHold != null) {
+            try {
+                currentHold.await(HOLD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String currentRejectedPart = rejectedPart;
+        boolean rejected = currentRejectedPart != null && query.contains(currentRejectedPart);
+        exchange.sendResponseHeaders(rejected ? 400 : 200, PIXEL.length);
+        exchange.getResponseBody().write(PIXEL);
+        exchange.close();
+    }
+
+    /**
+     * Hold the answers to the next hits, until {@link #release()}
+     */
+    void hold() {
+        hold = new CountDownLatch(1);
+    }
+
+    void release() {
+        CountDownLatch currentHold = hold;
+        hold = null;
+        if (currentHold != null) {
+            currentHold.countDown();
+        }
+    }
+
+    /**
+     * Answer the hits whose query contains queryPart with a final error, or accept every hit again if it is null
+     */
+    void reject(String queryPart) {
+        rejectedPart = queryPart;
+    }
+
+    /**
+     * @return The query of each received hit, in order
+     */
+    List<String> getHits() {
+        synchronized (hits) {
+            return new ArrayList<>(hits);
+        }
+    }
+
+    /**
+     * @return The query of each received hit, in order, without the client and time parameters every hit has
+     */
+    List<String> getHitFields() {
+        List<String> fields = getHits();
+        for (int i = 0; i < fields.size(); i++) {
+            fields.set(i, fields.get(i).replaceFirst("&idclient=[^&]*&vtag=[^&]*&ptag=[^&]*&os=[^&]*(&apvr=[^&]*)?" +
+                    "&ts=[0-9]+&hl=[0-9]{2}x[0-9]{2}x[0-9]{2}", ""));
+        }
+        return fields;
+    }
+
+    int count(String queryPart) {
+        int count = 0;
+        for (String hit : getHits()) {
+            if (hit.contains(queryPart)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int getConnectionCount() {
+        return clientPorts.size();
+    }
+
+    long getWireBytes() {
+        return wireBytes.get();
+    }
+}
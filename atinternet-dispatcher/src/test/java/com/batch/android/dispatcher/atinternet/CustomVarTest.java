@@ -0,0 +1,102 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * Test the custom variables extracted from Batch payloads by the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class CustomVarTest {
+
+    private static final String DEEPLINK = "https://batch.com/sale?utm_source=push&xtor=AD-[deeplink]";
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.setCustomVarPlan(new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.SCREEN)
+                .addDeeplinkParameter("utm_source", 3, CustomVarPlan.Scope.SCREEN)
+                .addPayloadKey("audience", 1, CustomVarPlan.Scope.APP)
+                .build());
+        return atInternetDispatcher;
+    }
+
+    private static TestEventPayload payload(String campaignId) {
+        Bundle customPayload = new Bundle();
+        if (campaignId != null) {
+            customPayload.putString("campaign_id", campaignId);
+        }
+        customPayload.putString("audience", "vip");
+        return new TestEventPayload(null, DEEPLINK, customPayload);
+    }
+
+    @Test
+    public void testCustomVarsAreSentWithTheScreen() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload("42"));
+
+        Assert.assertEquals(1, recordingTracker.count("Screens.add"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[2, 42, Screen]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[3, push, Screen]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[1, vip, App]"));
+        // Reading the deeplink for the plan doesn't change where the XTOR tag comes from
+        Assert.assertEquals(1, recordingTracker.count("Screen.Campaign[AD-[deeplink]]"));
+    }
+
+    @Test
+    public void testMissingValuesAreNotSent() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload(null));
+
+        Assert.assertEquals(0, recordingTracker.count("CustomVars.add[2, "));
+        Assert.assertEquals(2, recordingTracker.count("CustomVars.add"));
+    }
+
+    @Test
+    public void testSnapshotKeepsTheValuesOfThePlan() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableHitBatching(60000, 100);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload("42"));
+        Assert.assertEquals(0, recordingTracker.count("Screens.add"));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[2, 42, Screen]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[3, push, Screen]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[1, vip, App]"));
+    }
+
+    @Test
+    public void testQueuedEventKeepsItsPlan() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableHitBatching(60000, 100);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload("42"));
+        // The new plan's indexes must not be used with the values copied for the old one
+        atInternetDispatcher.setCustomVarPlan(new CustomVarPlan.Builder()
+                .addPayloadKey("audience", 5, CustomVarPlan.Scope.SCREEN)
+                .build());
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[2, 42, Screen]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[1, vip, App]"));
+        Assert.assertEquals(0, recordingTracker.count("CustomVars.add[5, "));
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload("43"));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[5, vip, Screen]"));
+        Assert.assertEquals(0, recordingTracker.count("CustomVars.add[2, 43, Screen]"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.EventMapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test that deeplink XTOR tags are the same as when the dispatcher parsed deeplinks with android.net.Uri
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class DeeplinkUriCompatibilityTest {
+
+    @Test
+    public void testSameResultsAsUri() {
+        String[] atoms = {"xtor", "XtOr", "x", "=", "==", "&", "?", "#", ":", "/", "//", "%26", "%3D", "%3d",
+                "%5B", "%zz", "%2", "%", "+", " ", "\n", "AD", "-[a]", "%C3%A9", "%C3", "batch", "https:", "a=b", "mailto:"};
+        EventMapper mapper = new EventMapper();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder deeplink = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                deeplink.append(atoms[random.nextInt(atoms.length)]);
+            }
+            String expected;
+            try {
+                expected = getTagWithUri(deeplink.toString());
+            } catch (Exception e) {
+                continue;
+            }
+            EventSnapshot event = EventSnapshot.of(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    new TestEventPayload(null, deeplink.toString(), new Bundle()), CustomVarPlan.getEmpty());
+            Assert.assertEquals(deeplink.toString(), expected, mapper.resolveXtorTag(event));
+        }
+    }
+
+    /**
+     * The dispatcher's previous implementation, based on android.net.Uri
+     */
+    private static String getTagWithUri(String deeplink) {
+        String tag = null;
+        Uri uri = Uri.parse(deeplink.trim());
+        String fragment = uri.getFragment();
+        if (uri.isHierarchical()) {
+            if (fragment != null && !fragment.isEmpty()) {
+                Map<String, String> fragments = new HashMap<>();
+                for (String param : fragment.split("&")) {
+                    String[] parts = param.split("=");
+                    if (parts.length >= 2) {
+                        fragments.put(parts[0].toLowerCase(), parts[1]);
+                    }
+                }
+                tag = fragments.get("xtor");
+            }
+
+            for (String key : uri.getQueryParameterNames()) {
+                if ("xtor".equalsIgnoreCase(key)) {
+                    return uri.getQueryParameter(key);
+                }
+            }
+        }
+        return tag;
+    }
+}
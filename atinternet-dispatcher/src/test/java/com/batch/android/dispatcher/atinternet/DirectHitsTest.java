@@ -0,0 +1,225 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.HitSender;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test the hits sent by the AT Internet Event Dispatcher straight to a local collection endpoint
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class DirectHitsTest {
+
+    private static final Pattern TIMESTAMP = Pattern.compile("&ts=([0-9]+)&");
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+
+    private CollectStub collectStub;
+
+    @Before
+    public void setUp() throws IOException {
+        collectStub = new CollectStub();
+    }
+
+    @After
+    public void tearDown() {
+        collectStub.stop();
+        //noinspection ResultOfMethodCallIgnored
+        EventRollupFile.getFile(context).delete();
+        //noinspection ResultOfMethodCallIgnored
+        EventJournal.getFile(context).delete();
+        //noinspection ResultOfMethodCallIgnored
+        DuplicateFilterFile.getFile(context).delete();
+    }
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.enableDirectHits(context, collectStub.getUrl(), "123456", "visitor-1",
+                new HitSender(1000, 2, 1));
+        return atInternetDispatcher;
+    }
+
+    private AtInternetDispatcher createUnreachableDispatcher() throws IOException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.enableDirectHits(context, "http://127.0.0.1:" + closedPort + "/hit.xiti", "123456",
+                "visitor-1", new HitSender(1000, 2, 1));
+        return atInternetDispatcher;
+    }
+
+    private static long getTimestamp(String hit) {
+        Matcher matcher = TIMESTAMP.matcher(hit);
+        Assert.assertTrue(hit, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static TestEventPayload payload(String trackingId) {
+        return new TestEventPayload(trackingId, null, new Bundle());
+    }
+
+    @Test
+    public void testHitsAreSentToTheEndpoint() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[two]"));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+
+        Assert.assertEquals(Arrays.asList(
+                "s=123456&type=AT&ati=PUB-%5Bone%5D---%5Bin-app%5D---%5Bbatch%5D-",
+                "s=123456&p=ShowedBatchInAppMessage&xto=AD-%5Bone%5D",
+                "s=123456&p=DismissedBatchPushNotification&xto=CS1-%5Btwo%5D"), collectStub.getHitFields());
+        Assert.assertTrue(collectStub.getHits().get(0), collectStub.getHits().get(0).startsWith(
+                "s=123456&idclient=visitor-1&vtag=" + BuildConfig.AT_INTERNET_VERSION + "&ptag=Android&os="));
+        Assert.assertEquals(1, collectStub.getConnectionCount());
+        HitSender sender = atInternetDispatcher.getDirectHitSender();
+        Assert.assertNotNull(sender);
+        Assert.assertEquals(3, sender.getSentCount());
+        Assert.assertEquals(0, recordingTracker.count("Screen.sendView"));
+
+        // Trackers are used again once disabled
+        atInternetDispatcher.disableDirectHits();
+        Assert.assertNull(atInternetDispatcher.getDirectHitSender());
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(3, collectStub.getHits().size());
+    }
+
+    @Test
+    public void testSummaryAndSamplingRateHits() {
+        Context context = ApplicationProvider.getApplicationContext();
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.setSamplingPolicy(new SamplingPolicy.Builder()
+                .setRate(EventType.NOTIFICATION_DISMISS, 1)
+                .setRateCustomVarIndex(2)
+                .build());
+        atInternetDispatcher.enableEventRollup(context, 3600000, 7, EnumSet.of(EventType.MESSAGING_CLOSE), 8);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload(null));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+
+        Assert.assertEquals(Arrays.asList(
+                "s=123456&p=DismissedBatchPushNotification&f2=1.0",
+                "s=123456&p=ClosedBatchInAppMessage&xto=AD-%5Bone%5D&f7=2"), collectStub.getHitFields());
+        Assert.assertEquals(0, atInternetDispatcher.getPendingRollupCount());
+        atInternetDispatcher.disableEventRollup();
+        atInternetDispatcher.disableDirectHits();
+    }
+
+    @Test
+    public void testBatchedHitsAreDatedWhenDispatched() throws InterruptedException {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableHitBatching(3600000, 100);
+
+        long before = System.currentTimeMillis();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[two]"));
+        long after = System.currentTimeMillis();
+        Thread.sleep(50);
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+
+        Assert.assertEquals(1, collectStub.getHits().size());
+        long timestamp = getTimestamp(collectStub.getHits().get(0));
+        Assert.assertTrue(timestamp >= before && timestamp <= after);
+        atInternetDispatcher.disableHitBatching();
+        atInternetDispatcher.disableDirectHits();
+    }
+
+    @Test
+    public void testUnreachableEndpoint() throws IOException {
+        AtInternetDispatcher atInternetDispatcher = createUnreachableDispatcher();
+        atInternetDispatcher.enableMetrics();
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload(null));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        HitSender sender = atInternetDispatcher.getDirectHitSender();
+        Assert.assertNotNull(sender);
+        Assert.assertEquals(1, sender.getFailedCount());
+        Assert.assertEquals(1, sender.getRetryCount());
+        Assert.assertEquals(0, recordingTracker.count("Screen.sendView"));
+
+        DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+        Assert.assertNotNull(metrics);
+        Assert.assertEquals(1, metrics.getEventCount(EventType.NOTIFICATION_DISMISS, DispatchMetrics.Outcome.FAILED));
+        Assert.assertEquals(0, metrics.getEventCount(DispatchMetrics.Outcome.SENT));
+        atInternetDispatcher.disableDirectHits();
+    }
+
+    @Test
+    public void testUndeliveredEventsStayInTheJournal() throws IOException {
+        AtInternetDispatcher atInternetDispatcher = createUnreachableDispatcher();
+        atInternetDispatcher.enableEventJournal(context);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[two]"));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        HitSender sender = atInternetDispatcher.getDirectHitSender();
+        Assert.assertNotNull(sender);
+        Assert.assertEquals(1, sender.getFailedCount());
+
+        // Replayed on the next launch
+        RecordingTracker replayTracker = new RecordingTracker();
+        AtInternetDispatcher newDispatcher = new AtInternetDispatcher();
+        newDispatcher.attachContext(context);
+        newDispatcher.setTrackerOverride(replayTracker.getTracker());
+        newDispatcher.flush(1000);
+        Assert.assertEquals(1, replayTracker.count("Screen.sendView"));
+        atInternetDispatcher.disableDirectHits();
+    }
+
+    @Test
+    public void testOnlyUndeliveredHitsAreReplayed() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableEventJournal(context);
+        atInternetDispatcher.enableDuplicateSuppression(context, 60000, 100, 0.001);
+        collectStub.reject("&p=ShowedBatchInAppMessage");
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        Assert.assertEquals(2, collectStub.getHits().size());
+
+        // The publisher hit was accepted: the replay only sends the screen hit, and isn't seen as a duplicate
+        collectStub.reject(null);
+        AtInternetDispatcher newDispatcher = new AtInternetDispatcher();
+        newDispatcher.attachContext(context);
+        newDispatcher.enableDirectHits(context, collectStub.getUrl(), "123456", "visitor-1", new HitSender(1000, 2, 1));
+        Assert.assertTrue(newDispatcher.flush(5000));
+        Assert.assertEquals(Arrays.asList(
+                "s=123456&type=AT&ati=PUB-%5Bone%5D---%5Bin-app%5D---%5Bbatch%5D-",
+                "s=123456&p=ShowedBatchInAppMessage&xto=AD-%5Bone%5D",
+                "s=123456&p=ShowedBatchInAppMessage&xto=AD-%5Bone%5D"), collectStub.getHitFields());
+        Assert.assertEquals(0, newDispatcher.getSuppressedDuplicateCount());
+        atInternetDispatcher.disableDirectHits();
+        newDispatcher.disableDirectHits();
+    }
+}
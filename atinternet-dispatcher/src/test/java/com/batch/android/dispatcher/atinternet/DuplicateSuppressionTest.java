@@ -0,0 +1,91 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * Test the suppression of duplicate impressions and clicks by the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class DuplicateSuppressionTest {
+
+    private static final long WINDOW_MS = 60000;
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+
+    @After
+    public void tearDown() {
+        Context context = ApplicationProvider.getApplicationContext();
+        //noinspection ResultOfMethodCallIgnored
+        DuplicateFilterFile.getFile(context).delete();
+    }
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        return atInternetDispatcher;
+    }
+
+    private static TestEventPayload payload(String trackingId) {
+        return new TestEventPayload(trackingId, null, new Bundle());
+    }
+
+    @Test
+    public void testDuplicateImpressionsAreSuppressed() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableDuplicateSuppression(WINDOW_MS);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[two]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload("CS1-[one]"));
+        Assert.assertEquals(1, atInternetDispatcher.getSuppressedDuplicateCount());
+        Assert.assertEquals(2, recordingTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(3, recordingTracker.count("Screen.sendView"));
+
+        // Screen-only events and events without an XTOR tag are always sent
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload(null));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload(null));
+        Assert.assertEquals(1, atInternetDispatcher.getSuppressedDuplicateCount());
+        Assert.assertEquals(4, recordingTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(7, recordingTracker.count("Screen.sendView"));
+
+        atInternetDispatcher.disableDuplicateSuppression();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[one]"));
+        Assert.assertEquals(5, recordingTracker.count("Publisher.sendImpression"));
+    }
+
+    @Test
+    public void testDuplicatesAreSuppressedAcrossLaunches() {
+        Context context = ApplicationProvider.getApplicationContext();
+        AtInternetDispatcher firstLaunch = createDispatcher();
+        firstLaunch.enableDuplicateSuppression(context, WINDOW_MS, 100, 0.001);
+        firstLaunch.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+        Assert.assertTrue(DuplicateFilterFile.getFile(context).exists());
+
+        // The filter is reopened without being enabled again
+        AtInternetDispatcher secondLaunch = createDispatcher();
+        secondLaunch.attachContext(context);
+        secondLaunch.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+        Assert.assertEquals(1, secondLaunch.getSuppressedDuplicateCount());
+        Assert.assertEquals(1, recordingTracker.count("Publisher.sendImpression"));
+
+        secondLaunch.disableDuplicateSuppression();
+        Assert.assertFalse(DuplicateFilterFile.getFile(context).exists());
+    }
+}
@@ -0,0 +1,308 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * Test the dispatcher's memory-mapped event journal
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static EventSnapshot event(Batch.EventDispatcher.Type type, String trackingId, String deeplink,
+                                       String xtorCustomValue, String webViewAnalyticsId, boolean positiveAction) {
+        return EventSnapshot.restore(type, trackingId, deeplink, xtorCustomValue, webViewAnalyticsId, positiveAction,
+                System.currentTimeMillis(), CustomVarPlan.getEmpty(), new String[0], new String[0]);
+    }
+
+    @Test
+    public void testRecoverPendingEvents() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 8);
+        Assert.assertTrue(journal.takeRecoveredEvents(CustomVarPlan.getEmpty()).isEmpty());
+
+        long first = journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                "CS1-[mylabeltest]", null, null, null, true));
+        long second = journal.append(event(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+                null, "https://batch.com/test?xtor=AD-[fake]", null, "button1", false));
+        long third = journal.append(event(Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+                null, "https://batch.com", "EPR-2413", null, false));
+        long fourth = journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                null, null, null, null, false));
+        journal.complete(third);
+        Assert.assertEquals(3, journal.getPendingCount());
+        journal.close();
+
+        journal = EventJournal.open(file, 8);
+        List<EventSnapshot> recovered = journal.takeRecoveredEvents(CustomVarPlan.getEmpty());
+        Assert.assertEquals(3, recovered.size());
+
+        EventSnapshot event = recovered.get(0);
+        Assert.assertEquals(first, event.getJournalSequence());
+        Assert.assertEquals(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, event.getType());
+        Assert.assertEquals("CS1-[mylabeltest]", event.getTrackingId());
+        Assert.assertNull(event.getDeeplink());
+        Assert.assertNull(event.getCustomValue("xtor"));
+        Assert.assertNull(event.getWebViewAnalyticsID());
+        Assert.assertTrue(event.isPositiveAction());
+
+        event = recovered.get(1);
+        Assert.assertEquals(second, event.getJournalSequence());
+        Assert.assertEquals(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, event.getType());
+        Assert.assertNull(event.getTrackingId());
+        Assert.assertEquals("https://batch.com/test?xtor=AD-[fake]", event.getDeeplink());
+        Assert.assertEquals("button1", event.getWebViewAnalyticsID());
+        Assert.assertFalse(event.isPositiveAction());
+
+        event = recovered.get(2);
+        Assert.assertEquals(fourth, event.getJournalSequence());
+        Assert.assertEquals(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, event.getType());
+        Assert.assertNull(event.getTrackingId());
+        Assert.assertNull(event.getDeeplink());
+
+        // Sequences keep growing after a recovery
+        long fifth = journal.append(event(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                null, null, null, null, false));
+        Assert.assertTrue(fifth > fourth);
+        journal.close();
+    }
+
+    @Test
+    public void testEveryFieldIsKept() throws IOException {
+        CustomVarPlan plan = new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.SCREEN)
+                .addDeeplinkParameter("utm_source", 3, CustomVarPlan.Scope.SCREEN)
+                .addPayloadKey("audience", 1, CustomVarPlan.Scope.APP)
+                .build();
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 8);
+        journal.append(EventSnapshot.restore(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                null, "https://batch.com/test?utm_source=push&xtor=AD-[fake]", "CS8-[custom]", null, true,
+                1650000007000L, plan, new String[]{"campaign_id", "audience"}, new String[]{"42", null}));
+        journal.close();
+
+        journal = EventJournal.open(file, 8);
+        Assert.assertTrue(journal.hasRecoveredEvents());
+        EventSnapshot event = journal.takeRecoveredEvents(plan).get(0);
+        Assert.assertEquals("https://batch.com/test?utm_source=push&xtor=AD-[fake]", event.getDeeplink());
+        Assert.assertEquals("CS8-[custom]", event.getCustomValue("xtor"));
+        Assert.assertEquals("42", event.getCustomValue("campaign_id"));
+        Assert.assertNull(event.getCustomValue("audience"));
+        Assert.assertTrue(event.isPositiveAction());
+        Assert.assertEquals(1650000007000L, event.getTimestamp());
+
+        // Taken once
+        Assert.assertFalse(journal.hasRecoveredEvents());
+        Assert.assertTrue(journal.takeRecoveredEvents(plan).isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testValuesAreRestoredForTheNewPlan() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 8);
+        journal.append(EventSnapshot.restore(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-1", null, null, null, false, System.currentTimeMillis(),
+                new CustomVarPlan.Builder()
+                        .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.SCREEN)
+                        .addPayloadKey("audience", 1, CustomVarPlan.Scope.APP)
+                        .build(),
+                new String[]{"campaign_id", "audience"}, new String[]{"42", "vip"}));
+        journal.close();
+
+        CustomVarPlan newPlan = new CustomVarPlan.Builder()
+                .addPayloadKey("audience", 4, CustomVarPlan.Scope.SCREEN)
+                .addPayloadKey("segment", 5, CustomVarPlan.Scope.SCREEN)
+                .build();
+        EventSnapshot event = EventJournal.open(file, 8).takeRecoveredEvents(newPlan).get(0);
+        Assert.assertEquals(2, event.getCustomValueCount());
+        Assert.assertEquals("vip", event.getCustomValue("audience"));
+        Assert.assertNull(event.getCustomValue("segment"));
+        Assert.assertNull(event.getCustomValue("campaign_id"));
+    }
+
+    @Test
+    public void testOldestEventsAreEvicted() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 4);
+        for (int i = 0; i < 6; i++) {
+            journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    "AD-" + i, null, null, null, false));
+        }
+        Assert.assertEquals(2, journal.getEvictedCount());
+        Assert.assertEquals(4, journal.getPendingCount());
+        journal.close();
+
+        List<EventSnapshot> recovered = EventJournal.open(file, 4).takeRecoveredEvents(CustomVarPlan.getEmpty());
+        Assert.assertEquals(4, recovered.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("AD-" + (i + 2), recovered.get(i).getTrackingId());
+        }
+    }
+
+    @Test
+    public void testCompletingAnEvictedEventKeepsTheNewOne() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 1);
+        long first = journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-1", null, null, null, false));
+        journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-2", null, null, null, false));
+
+        journal.complete(first);
+
+        Assert.assertEquals(1, journal.getPendingCount());
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 8);
+        journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-[first]", null, null, null, false));
+        journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-[second]", null, null, null, false));
+        journal.close();
+
+        // Simulate a write interrupted in the middle of the second record's chars (slot 2)
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(EventJournal.HEADER_SIZE + 2 * EventJournal.RECORD_SIZE + EventJournal.OFFSET_CHARS + 6);
+            randomAccessFile.writeChar('X');
+        }
+
+        journal = EventJournal.open(file, 8);
+        List<EventSnapshot> recovered = journal.takeRecoveredEvents(CustomVarPlan.getEmpty());
+        Assert.assertEquals(1, recovered.size());
+        Assert.assertEquals("AD-[first]", recovered.get(0).getTrackingId());
+        Assert.assertEquals(1, journal.getPendingCount());
+        journal.close();
+    }
+
+    @Test
+    public void testGarbageFileIsRecreated() throws IOException {
+        File file = temporaryFolder.newFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            for (int i = 0; i < 1000; i++) {
+                randomAccessFile.writeInt(i * 31);
+            }
+        }
+
+        EventJournal journal = EventJournal.open(file, 8);
+        Assert.assertTrue(journal.takeRecoveredEvents(CustomVarPlan.getEmpty()).isEmpty());
+        Assert.assertEquals(0, journal.getPendingCount());
+        journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-1", null, null, null, false));
+        journal.close();
+
+        Assert.assertEquals(1, EventJournal.open(file, 8).takeRecoveredEvents(CustomVarPlan.getEmpty()).size());
+    }
+
+    @Test
+    public void testCapacityChangeKeepsEvents() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 8);
+        journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                "AD-1", null, null, null, false));
+        journal.close();
+
+        journal = EventJournal.open(file, 16);
+        List<EventSnapshot> recovered = journal.takeRecoveredEvents(CustomVarPlan.getEmpty());
+        Assert.assertEquals(1, recovered.size());
+        // Written again when dispatched
+        Assert.assertEquals(EventJournal.NO_SEQUENCE, recovered.get(0).getJournalSequence());
+        Assert.assertEquals(0, journal.getPendingCount());
+        journal.close();
+    }
+
+    @Test
+    public void testSmallerCapacityKeepsEvents() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 8);
+        for (int i = 0; i < 6; i++) {
+            journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    "AD-" + i, null, null, null, false));
+        }
+        journal.close();
+
+        // Records past the new capacity are read before the file shrinks
+        journal = EventJournal.open(file, 2);
+        List<EventSnapshot> recovered = journal.takeRecoveredEvents(CustomVarPlan.getEmpty());
+        Assert.assertEquals(6, recovered.size());
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals("AD-" + i, recovered.get(i).getTrackingId());
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testReopenKeepsTheCapacity() throws IOException {
+        File file = temporaryFolder.newFile();
+        EventJournal journal = EventJournal.open(file, 4);
+        for (int i = 0; i < 3; i++) {
+            journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    "AD-" + i, null, null, null, false));
+        }
+        journal.close();
+
+        journal = EventJournal.reopen(file);
+        List<EventSnapshot> recovered = journal.takeRecoveredEvents(CustomVarPlan.getEmpty());
+        Assert.assertEquals(3, recovered.size());
+        // Same layout: the records were kept in place
+        Assert.assertNotEquals(EventJournal.NO_SEQUENCE, recovered.get(0).getJournalSequence());
+        Assert.assertEquals(3, journal.getPendingCount());
+        Assert.assertEquals(EventJournal.HEADER_SIZE + 4 * EventJournal.RECORD_SIZE, file.length());
+        journal.close();
+    }
+
+    @Test
+    public void testReopenInvalidFileUsesTheDefaultCapacity() throws IOException {
+        File file = temporaryFolder.newFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.writeInt(42);
+        }
+
+        EventJournal journal = EventJournal.reopen(file);
+        Assert.assertFalse(journal.hasRecoveredEvents());
+        Assert.assertEquals(EventJournal.HEADER_SIZE + (long) EventJournal.DEFAULT_CAPACITY * EventJournal.RECORD_SIZE,
+                file.length());
+        journal.close();
+    }
+
+    @Test
+    public void testTooLargeEventIsSkipped() throws IOException {
+        StringBuilder deeplink = new StringBuilder("https://batch.com/?xtor=AD-1&");
+        while (deeplink.length() <= EventJournal.MAX_CHARS) {
+            deeplink.append("padding");
+        }
+
+        EventJournal journal = EventJournal.open(temporaryFolder.newFile(), 8);
+        long sequence = journal.append(event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                null, deeplink.toString(), null, null, false));
+
+        Assert.assertEquals(EventJournal.NO_SEQUENCE, sequence);
+        Assert.assertEquals(1, journal.getSkippedCount());
+        Assert.assertEquals(0, journal.getPendingCount());
+        journal.close();
+    }
+}
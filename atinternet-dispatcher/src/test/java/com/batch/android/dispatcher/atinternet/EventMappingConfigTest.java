@@ -0,0 +1,220 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.Tracker;
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import org.json.JSONException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the configuration of the event mapping, and that disabled events are dropped
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class EventMappingConfigTest {
+
+    @Test
+    public void testParseJson() throws JSONException {
+        EventMapping mapping = EventMappingParser.parse("{" +
+                "\"MESSAGING_AUTO_CLOSE\": {\"enabled\": false}," +
+                "\"NOTIFICATION_OPEN\": {\"screen_name\": \"PushOpened\", \"format\": null, \"role\": \"impression\"}," +
+                "\"MESSAGING_CLOSE\": {\"format\": \"[close]\"}" +
+                "}");
+
+        Assert.assertFalse(mapping.isEnabled(EventType.MESSAGING_AUTO_CLOSE));
+        Assert.assertEquals("AutoClosedBatchInAppMessage", mapping.getScreenName(EventType.MESSAGING_AUTO_CLOSE));
+        Assert.assertEquals("PushOpened", mapping.getScreenName(EventType.NOTIFICATION_OPEN));
+        Assert.assertNull(mapping.getFormat(EventType.NOTIFICATION_OPEN));
+        Assert.assertEquals(EventMapping.Role.IMPRESSION, mapping.getRole(EventType.NOTIFICATION_OPEN));
+        Assert.assertEquals("[close]", mapping.getFormat(EventType.MESSAGING_CLOSE));
+        Assert.assertEquals(EventMapping.Role.NONE, mapping.getRole(EventType.MESSAGING_CLOSE));
+        Assert.assertTrue(mapping.isEnabled(EventType.MESSAGING_SHOW));
+    }
+
+    @Test
+    public void testParseInvalidJson() {
+        String[] invalidMappings = {
+                "[]",
+                "{\"MESSAGING_EXPLODE\": {\"enabled\": false}}",
+                "{\"MESSAGING_SHOW\": {\"role\": \"sometimes\"}}",
+                "{\"MESSAGING_SHOW\": {\"enabled\": \"maybe\"}}",
+                "{\"MESSAGING_SHOW\": false}",
+        };
+        for (String json : invalidMappings) {
+            try {
+                EventMappingParser.parse(json);
+                Assert.fail("Parsed invalid mapping " + json);
+            } catch (JSONException expected) {
+                // Rejected as a whole
+            }
+        }
+    }
+
+    @Test
+    public void testDisabledEventIsDropped() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                throw new AssertionError("Disabled events should not get a tracker");
+            }
+        });
+        atInternetDispatcher.setEventMapping(new EventMapping.Builder()
+                .setEnabled(EventType.MESSAGING_AUTO_CLOSE, false)
+                .build());
+        atInternetDispatcher.enableAsyncDispatch();
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, new UnreadablePayload());
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        atInternetDispatcher.disableAsyncDispatch();
+
+        // Events queued before their type is disabled are dropped when they are sent
+        RecordingTracker recordingTracker = new RecordingTracker();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.enableHitBatching(60000, 10);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.setEventMapping(atInternetDispatcher.getEventMapping().toBuilder()
+                .setEnabled(EventType.MESSAGING_CLOSE, false)
+                .build());
+        atInternetDispatcher.disableHitBatching();
+
+        Assert.assertEquals(1, recordingTracker.count("Screens.add[ShowedBatchInAppMessage]"));
+        Assert.assertEquals(1, recordingTracker.count("Screens.add"));
+    }
+
+    @Test
+    public void testEventsDispatchedDuringTheSetup() throws InterruptedException {
+        RecordingTracker recordingTracker = new RecordingTracker();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        CountDownLatch releaseSetup = startStalledSetup(atInternetDispatcher);
+
+        // The stalled setup doesn't hold the caller back
+        long start = System.nanoTime();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload(null, null, new Bundle()));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertEquals(0, recordingTracker.count("Screens.add"));
+        Assert.assertFalse(atInternetDispatcher.flush(10));
+
+        // Sent with the mapping of the setup once it is done
+        releaseSetup.countDown();
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        Assert.assertEquals(1, recordingTracker.count("Screens.add[ClickedBatchInAppMessage]"));
+        Assert.assertEquals(1, recordingTracker.count("Screens.add"));
+    }
+
+    @Test
+    public void testMappingSetDuringTheSetup() throws InterruptedException {
+        RecordingTracker recordingTracker = new RecordingTracker();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        CountDownLatch releaseSetup = startStalledSetup(atInternetDispatcher);
+
+        // A mapping set by the application replaces the one of the setup, without waiting for it
+        long start = System.nanoTime();
+        atInternetDispatcher.setEventMapping(EventMapping.getDefault());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload(null, null, new Bundle()));
+
+        releaseSetup.countDown();
+        Assert.assertTrue(atInternetDispatcher.flush(5000));
+        Assert.assertEquals(1, recordingTracker.count("Screens.add[ShowedBatchInAppMessage]"));
+    }
+
+    /**
+     * Start a setup disabling MESSAGING_SHOW, stalled until the returned latch is released
+     */
+    private static CountDownLatch startStalledSetup(final AtInternetDispatcher atInternetDispatcher)
+            throws InterruptedException {
+        final CountDownLatch setupStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSetup = new CountDownLatch(1);
+        atInternetDispatcher.startSetup(new Runnable() {
+            @Override
+            public void run() {
+                setupStarted.countDown();
+                try {
+                    // Like a slow JSON resource
+                    releaseSetup.await(5000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                atInternetDispatcher.setMetaDataEventMapping(new EventMapping.Builder()
+                        .setEnabled(EventType.MESSAGING_SHOW, false)
+                        .build());
+            }
+        });
+        Assert.assertTrue(setupStarted.await(5000, TimeUnit.MILLISECONDS));
+        return releaseSetup;
+    }
+
+    /**
+     * Payload failing the test if any of its fields is read
+     */
+    private static class UnreadablePayload implements Batch.EventDispatcher.Payload {
+
+        @Nullable
+        @Override
+        public String getTrackingId() {
+            throw new AssertionError("Payload should not be read");
+        }
+
+        @Nullable
+        @Override
+        public String getDeeplink() {
+            throw new AssertionError("Payload should not be read");
+        }
+
+        @Override
+        public boolean isPositiveAction() {
+            throw new AssertionError("Payload should not be read");
+        }
+
+        @Nullable
+        @Override
+        public String getCustomValue(@NonNull String key) {
+            throw new AssertionError("Payload should not be read");
+        }
+
+        @Nullable
+        @Override
+        public BatchMessage getMessagingPayload() {
+            throw new AssertionError("Payload should not be read");
+        }
+
+        @Nullable
+        @Override
+        public BatchPushPayload getPushPayload() {
+            throw new AssertionError("Payload should not be read");
+        }
+
+        @Nullable
+        @Override
+        public String getWebViewAnalyticsID() {
+            throw new AssertionError("Payload should not be read");
+        }
+    }
+}
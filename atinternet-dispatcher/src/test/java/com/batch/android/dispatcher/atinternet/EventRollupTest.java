@@ -0,0 +1,126 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.EnumSet;
+
+/**
+ * Test the rollup of close and dismiss events into summary hits by the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class EventRollupTest {
+
+    private static final long FLUSH_INTERVAL_MS = 3600000;
+    private static final int COUNT_INDEX = 7;
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+
+    @After
+    public void tearDown() {
+        Context context = ApplicationProvider.getApplicationContext();
+        //noinspection ResultOfMethodCallIgnored
+        EventRollupFile.getFile(context).delete();
+    }
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        return atInternetDispatcher;
+    }
+
+    private static TestEventPayload payload(String trackingId) {
+        return new TestEventPayload(trackingId, null, new Bundle());
+    }
+
+    @Test
+    public void testCloseEventsAreRolledUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableMetrics();
+        atInternetDispatcher.enableEventRollup(context, FLUSH_INTERVAL_MS, COUNT_INDEX);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[two]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload(null));
+        // Impressions are sent as usual
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[two]"));
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(5, atInternetDispatcher.getPendingRollupCount());
+        DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+        Assert.assertNotNull(metrics);
+        Assert.assertEquals(5, metrics.getEventCount(DispatchMetrics.Outcome.ROLLED_UP));
+
+        Assert.assertTrue(atInternetDispatcher.flush(1000));
+        Assert.assertEquals(0, atInternetDispatcher.getPendingRollupCount());
+        Assert.assertEquals(4, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(1, recordingTracker.count("Screens.add[DismissedBatchPushNotification]"));
+        Assert.assertEquals(2, recordingTracker.count("Screens.add[ClosedBatchInAppMessage]"));
+        Assert.assertEquals(1, recordingTracker.count("Screen.Campaign[CS1-[one]]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[7, 3, Screen]"));
+        Assert.assertEquals(2, recordingTracker.count("CustomVars.add[7, 1, Screen]"));
+
+        atInternetDispatcher.disableEventRollup();
+        Assert.assertFalse(EventRollupFile.getFile(context).exists());
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[two]"));
+        Assert.assertEquals(5, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testCountsSurviveRestarts() {
+        Context context = ApplicationProvider.getApplicationContext();
+        AtInternetDispatcher firstLaunch = createDispatcher();
+        firstLaunch.enableEventRollup(context, FLUSH_INTERVAL_MS, COUNT_INDEX,
+                EnumSet.of(EventType.MESSAGING_AUTO_CLOSE), 8);
+        firstLaunch.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, payload("AD-[one]"));
+        firstLaunch.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, payload("AD-[one]"));
+        firstLaunch.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[one]"));
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+
+        // The rollup is reopened without being enabled again, with its counts
+        AtInternetDispatcher secondLaunch = createDispatcher();
+        secondLaunch.attachContext(context);
+        Assert.assertEquals(2, secondLaunch.getPendingRollupCount());
+        secondLaunch.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, payload("AD-[one]"));
+
+        secondLaunch.disableEventRollup();
+        Assert.assertEquals(2, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[7, 3, Screen]"));
+        Assert.assertFalse(EventRollupFile.getFile(context).exists());
+    }
+
+    @Test
+    public void testAppBackgroundSendsCounts() throws InterruptedException {
+        Context context = ApplicationProvider.getApplicationContext();
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableEventRollup(context, FLUSH_INTERVAL_MS, COUNT_INDEX);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR, payload("AD-[one]"));
+
+        atInternetDispatcher.onFlushTrigger(FlushTrigger.MEMORY_PRESSURE);
+        atInternetDispatcher.onFlushTrigger(FlushTrigger.APP_BACKGROUND);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (atInternetDispatcher.getPendingRollupCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, atInternetDispatcher.getPendingRollupCount());
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[7, 1, Screen]"));
+        atInternetDispatcher.disableEventRollup();
+    }
+}
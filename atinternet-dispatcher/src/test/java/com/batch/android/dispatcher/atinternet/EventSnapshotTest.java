@@ -0,0 +1,145 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test how the AT Internet Event Dispatcher reads event payloads: each field at most once,
+ * and XTOR sources only until one has a tag
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class EventSnapshotTest {
+
+    private static final String DEEPLINK = "https://batch.com/test?xtor=AD-[deeplink]";
+
+    /**
+     * Payload counting the calls of each of its accessors
+     */
+    private static class CountingPayload extends TestEventPayload {
+
+        private final Map<String, Integer> reads = new HashMap<>();
+
+        CountingPayload(String trackingId, String deeplink, String xtorCustomValue) {
+            super(trackingId, "button1", deeplink, bundleOf(xtorCustomValue), true);
+        }
+
+        private static Bundle bundleOf(String xtorCustomValue) {
+            Bundle bundle = new Bundle();
+            if (xtorCustomValue != null) {
+                bundle.putString(AtInternetDispatcher.XTOR, xtorCustomValue);
+            }
+            return bundle;
+        }
+
+        private void read(String accessor) {
+            Integer count = reads.get(accessor);
+            reads.put(accessor, count == null ? 1 : count + 1);
+        }
+
+        int getReadCount(String accessor) {
+            Integer count = reads.get(accessor);
+            return count == null ? 0 : count;
+        }
+
+        void assertReadAtMostOnce() {
+            for (Map.Entry<String, Integer> read : reads.entrySet()) {
+                Assert.assertEquals(read.getKey(), 1, (int) read.getValue());
+            }
+        }
+
+        @Override
+        public String getTrackingId() {
+            read("getTrackingId");
+            return super.getTrackingId();
+        }
+
+        @Override
+        public String getDeeplink() {
+            read("getDeeplink");
+            return super.getDeeplink();
+        }
+
+        @Override
+        public String getCustomValue(@NonNull String key) {
+            read("getCustomValue");
+            return super.getCustomValue(key);
+        }
+
+        @Override
+        public String getWebViewAnalyticsID() {
+            read("getWebViewAnalyticsID");
+            return super.getWebViewAnalyticsID();
+        }
+
+        @Override
+        public boolean isPositiveAction() {
+            read("isPositiveAction");
+            return super.isPositiveAction();
+        }
+    }
+
+    @Test
+    public void testSnapshotOnlyReadsTheWinningXtorSource() {
+        CountingPayload tracked = new CountingPayload("AD-[tracking]", DEEPLINK, "AD-[custom]");
+        EventSnapshot snapshot = EventSnapshot.of(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, tracked,
+                CustomVarPlan.getEmpty());
+        Assert.assertEquals("AD-[tracking]", snapshot.getTrackingId());
+        Assert.assertNull(snapshot.getXtorCustomValue());
+        Assert.assertNull(snapshot.getDeeplink());
+        Assert.assertEquals("button1", snapshot.getWebViewAnalyticsID());
+        Assert.assertEquals(0, tracked.getReadCount("getCustomValue"));
+        Assert.assertEquals(0, tracked.getReadCount("getDeeplink"));
+        tracked.assertReadAtMostOnce();
+
+        CountingPayload custom = new CountingPayload(null, DEEPLINK, "AD-[custom]");
+        snapshot = EventSnapshot.of(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, custom,
+                CustomVarPlan.getEmpty());
+        Assert.assertEquals("AD-[custom]", snapshot.getXtorCustomValue());
+        Assert.assertNull(snapshot.getDeeplink());
+        Assert.assertEquals(0, custom.getReadCount("getDeeplink"));
+        custom.assertReadAtMostOnce();
+
+        CountingPayload deeplink = new CountingPayload("", DEEPLINK, null);
+        snapshot = EventSnapshot.of(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, deeplink,
+                CustomVarPlan.getEmpty());
+        Assert.assertEquals(DEEPLINK, snapshot.getDeeplink());
+        deeplink.assertReadAtMostOnce();
+    }
+
+    @Test
+    public void testDispatchReadsEachFieldOnce() {
+        RecordingTracker recordingTracker = new RecordingTracker();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+
+        CountingPayload payload = new CountingPayload(null, DEEPLINK, null);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, payload);
+        payload.assertReadAtMostOnce();
+        Assert.assertEquals(1, payload.getReadCount("getWebViewAnalyticsID"));
+        Assert.assertEquals(1, recordingTracker.count("Publisher.setVariant"));
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+
+        atInternetDispatcher.enableAsyncDispatch();
+        payload = new CountingPayload(null, DEEPLINK, "AD-[custom]");
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, payload);
+        atInternetDispatcher.disableAsyncDispatch();
+        payload.assertReadAtMostOnce();
+        Assert.assertEquals(0, payload.getReadCount("getDeeplink"));
+        Assert.assertEquals(2, recordingTracker.count("Screen.sendView"));
+    }
+}
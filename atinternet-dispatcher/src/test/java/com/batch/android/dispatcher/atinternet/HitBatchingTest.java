@@ -0,0 +1,233 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.ATInternet;
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Test the hit batching of the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@PowerMockIgnore({"org.powermock.*", "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*"})
+@PrepareForTest(ATInternet.class)
+public class HitBatchingTest {
+
+    private static final long LONG_WINDOW_MS = 60000;
+    private static final long TIMEOUT_MS = 5000;
+
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+    private RecordingTracker recordingTracker;
+    private AtInternetDispatcher atInternetDispatcher;
+
+    @Before
+    public void setUp() {
+        ATInternet atInternet = PowerMockito.mock(ATInternet.class);
+        PowerMockito.mockStatic(ATInternet.class);
+        Mockito.when(ATInternet.getInstance()).thenReturn(atInternet);
+        Mockito.when(atInternet.getTracker(Mockito.any())).thenThrow(new RuntimeException("getTracker should not be called"));
+
+        recordingTracker = new RecordingTracker();
+        atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+    }
+
+    @After
+    public void tearDown() {
+        atInternetDispatcher.disableHitBatching();
+    }
+
+    @Test
+    public void testBatchedHitsAreIdentical() {
+        RecordingTracker unbatchedTracker = new RecordingTracker();
+        AtInternetDispatcher unbatchedDispatcher = new AtInternetDispatcher();
+        unbatchedDispatcher.setTrackerOverride(unbatchedTracker.getTracker());
+
+        atInternetDispatcher.enableHitBatching(LONG_WINDOW_MS, 100);
+        for (Event event : sampleEvents()) {
+            unbatchedDispatcher.dispatchEvent(event.type, event.payload);
+            atInternetDispatcher.dispatchEvent(event.type, event.payload);
+        }
+
+        Assert.assertTrue(recordingTracker.getCalls().isEmpty());
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Assert.assertFalse(unbatchedTracker.getCalls().isEmpty());
+        Assert.assertEquals(unbatchedTracker.getCalls(), recordingTracker.getCalls());
+    }
+
+    @Test
+    public void testBatchIsSentWhenFull() throws InterruptedException {
+        atInternetDispatcher.enableHitBatching(LONG_WINDOW_MS, 3);
+
+        dispatchDisplay();
+        dispatchDisplay();
+        Assert.assertEquals(0, recordingTracker.count("Screen.sendView"));
+
+        // Released on the batcher's thread, not the dispatching one
+        dispatchDisplay();
+        Assert.assertTrue(waitForViews(3));
+        Assert.assertEquals(3, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(3, recordingTracker.count("Publisher.sendImpression"));
+
+        dispatchDisplay();
+        Assert.assertEquals(3, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testBatchIsSentAfterWindow() throws InterruptedException {
+        atInternetDispatcher.enableHitBatching(50, 100);
+
+        dispatchDisplay();
+        dispatchDisplay();
+
+        Assert.assertTrue(waitForViews(2));
+    }
+
+    @Test
+    public void testBatchIsSentOnAppBackground() throws InterruptedException {
+        atInternetDispatcher.enableHitBatching(LONG_WINDOW_MS, 100, EnumSet.of(FlushTrigger.APP_BACKGROUND));
+        dispatchDisplay();
+
+        atInternetDispatcher.onFlushTrigger(FlushTrigger.MEMORY_PRESSURE);
+        Thread.sleep(100);
+        Assert.assertEquals(0, recordingTracker.count("Screen.sendView"));
+
+        atInternetDispatcher.onFlushTrigger(FlushTrigger.APP_BACKGROUND);
+        Assert.assertTrue(waitForViews(1));
+    }
+
+    @Test
+    public void testApplicationCallbacksTriggerFlush() throws InterruptedException {
+        Application application = ApplicationProvider.getApplicationContext();
+        atInternetDispatcher.attachContext(application);
+        atInternetDispatcher.enableHitBatching(LONG_WINDOW_MS, 100, EnumSet.of(FlushTrigger.MEMORY_PRESSURE));
+        dispatchDisplay();
+
+        application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        Assert.assertTrue(waitForViews(1));
+    }
+
+    @Test
+    public void testAppStateObserver() {
+        final List<FlushTrigger> triggers = new ArrayList<>();
+        AppStateObserver observer = new AppStateObserver(triggers::add);
+
+        observer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        observer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        observer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        observer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        observer.onLowMemory();
+
+        Assert.assertEquals(4, triggers.size());
+        Assert.assertEquals(FlushTrigger.APP_BACKGROUND, triggers.get(0));
+        Assert.assertEquals(FlushTrigger.MEMORY_PRESSURE, triggers.get(1));
+        Assert.assertEquals(FlushTrigger.MEMORY_PRESSURE, triggers.get(2));
+        Assert.assertEquals(FlushTrigger.MEMORY_PRESSURE, triggers.get(3));
+    }
+
+    @Test
+    public void testDisableSendsBatchedHits() {
+        atInternetDispatcher.enableHitBatching(LONG_WINDOW_MS, 100);
+        dispatchDisplay();
+        dispatchDisplay();
+
+        atInternetDispatcher.disableHitBatching();
+        Assert.assertEquals(2, recordingTracker.count("Screen.sendView"));
+
+        dispatchDisplay();
+        Assert.assertEquals(3, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testBatchingWithAsyncDispatch() {
+        atInternetDispatcher.enableAsyncDispatch();
+        atInternetDispatcher.enableHitBatching(LONG_WINDOW_MS, 100);
+        try {
+            for (int i = 0; i < 10; i++) {
+                dispatchDisplay();
+            }
+            Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+            Assert.assertEquals(10, recordingTracker.count("Screen.sendView"));
+        } finally {
+            atInternetDispatcher.disableAsyncDispatch();
+        }
+    }
+
+    private void dispatchDisplay() {
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, new Bundle()));
+    }
+
+    private boolean waitForViews(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (recordingTracker.count("Screen.sendView") >= count) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static List<Event> sampleEvents() {
+        Bundle customPayload = new Bundle();
+        customPayload.putString("xtor", "AD-[custom]");
+
+        List<Event> events = new ArrayList<>();
+        events.add(new Event(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload(null, null, "https://batch.com/test#xtor=CS1-[mylabeltest]-test-15[sef]", new Bundle())));
+        events.add(new Event(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, null, "https://batch.com/test?xtor=AD-[fake]", new Bundle(), true)));
+        events.add(new Event(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, null, customPayload)));
+        events.add(new Event(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload("EPR-2413", null, null, new Bundle())));
+        events.add(new Event(Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                new TestEventPayload("EPR-2413", null, null, new Bundle(), true)));
+        events.add(new Event(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+                new TestEventPayload("CS1-[mylabeltest]", "button1", null, new Bundle())));
+        events.add(new Event(Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+                new TestEventPayload(null, null, new Bundle())));
+        events.add(new Event(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE,
+                new TestEventPayload(null, null, new Bundle())));
+        events.add(new Event(Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR,
+                new TestEventPayload("salut salut", null, new Bundle())));
+        return events;
+    }
+
+    private static class Event {
+        final Batch.EventDispatcher.Type type;
+        final Batch.EventDispatcher.Payload payload;
+
+        Event(Batch.EventDispatcher.Type type, Batch.EventDispatcher.Payload payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+}
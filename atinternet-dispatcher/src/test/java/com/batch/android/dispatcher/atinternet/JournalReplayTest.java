@@ -0,0 +1,183 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.ATInternet;
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+/**
+ * Test that the AT Internet Event Dispatcher replays the events left in its journal
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@PowerMockIgnore({"org.powermock.*", "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*"})
+@PrepareForTest(ATInternet.class)
+public class JournalReplayTest {
+
+    private static final long LONG_WINDOW_MS = 60000;
+
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+    private Context context;
+
+    @Before
+    public void setUp() {
+        ATInternet atInternet = PowerMockito.mock(ATInternet.class);
+        PowerMockito.mockStatic(ATInternet.class);
+        Mockito.when(ATInternet.getInstance()).thenReturn(atInternet);
+        Mockito.when(atInternet.getTracker(Mockito.any())).thenThrow(new RuntimeException("getTracker should not be called"));
+
+        context = ApplicationProvider.getApplicationContext();
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        EventJournal.getFile(context).delete();
+    }
+
+    @Test
+    public void testEventsLostInBatchAreReplayed() {
+        RecordingTracker sentTracker = new RecordingTracker();
+        AtInternetDispatcher referenceDispatcher = new AtInternetDispatcher();
+        referenceDispatcher.setTrackerOverride(sentTracker.getTracker());
+
+        RecordingTracker lostTracker = new RecordingTracker();
+        AtInternetDispatcher dyingDispatcher = new AtInternetDispatcher();
+        dyingDispatcher.setTrackerOverride(lostTracker.getTracker());
+        dyingDispatcher.enableEventJournal(context);
+        dyingDispatcher.enableHitBatching(LONG_WINDOW_MS, 100);
+
+        TestEventPayload display = new TestEventPayload(null, null,
+                "https://batch.com/test#xtor=CS1-[mylabeltest]-test-15[sef]", new Bundle());
+        TestEventPayload open = new TestEventPayload("AD-[fake]", null, null, new Bundle(), true);
+        for (AtInternetDispatcher dispatcher : new AtInternetDispatcher[]{referenceDispatcher, dyingDispatcher}) {
+            dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, display);
+            dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, open);
+        }
+        // The process dies before the batch is sent
+        Assert.assertTrue(lostTracker.getCalls().isEmpty());
+
+        RecordingTracker replayTracker = new RecordingTracker();
+        AtInternetDispatcher newDispatcher = new AtInternetDispatcher();
+        newDispatcher.attachContext(context);
+        newDispatcher.setTrackerOverride(replayTracker.getTracker());
+        Assert.assertTrue(replayTracker.getCalls().isEmpty());
+
+        // Done by the registrar's setup thread
+        newDispatcher.replayJournal();
+        newDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+        referenceDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+
+        Assert.assertEquals(sentTracker.getCalls(), replayTracker.getCalls());
+
+        // Everything has been sent, nothing is replayed on the next launch
+        AtInternetDispatcher nextDispatcher = new AtInternetDispatcher();
+        RecordingTracker nextTracker = new RecordingTracker();
+        nextDispatcher.attachContext(context);
+        nextDispatcher.setTrackerOverride(nextTracker.getTracker());
+        nextDispatcher.flush(1000);
+        Assert.assertTrue(nextTracker.getCalls().isEmpty());
+    }
+
+    @Test
+    public void testReplayedEventsKeepTheirCustomVarsAndCapacity() {
+        CustomVarPlan plan = new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_id", 2, CustomVarPlan.Scope.SCREEN)
+                .addDeeplinkParameter("utm_source", 3, CustomVarPlan.Scope.SCREEN)
+                .build();
+        AtInternetDispatcher dyingDispatcher = new AtInternetDispatcher();
+        dyingDispatcher.setTrackerOverride(new RecordingTracker().getTracker());
+        dyingDispatcher.setCustomVarPlan(plan);
+        dyingDispatcher.enableEventJournal(context, 4);
+        dyingDispatcher.enableHitBatching(LONG_WINDOW_MS, 100);
+
+        Bundle customPayload = new Bundle();
+        customPayload.putString("campaign_id", "42");
+        dyingDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload("AD-[fake]", null, "https://batch.com/sale?utm_source=push", customPayload, true));
+
+        RecordingTracker replayTracker = new RecordingTracker();
+        AtInternetDispatcher newDispatcher = new AtInternetDispatcher();
+        newDispatcher.attachContext(context);
+        // Reopened with the capacity it was created with
+        Assert.assertEquals(EventJournal.HEADER_SIZE + 4 * EventJournal.RECORD_SIZE,
+                EventJournal.getFile(context).length());
+        newDispatcher.setCustomVarPlan(plan);
+        newDispatcher.setTrackerOverride(replayTracker.getTracker());
+        Assert.assertTrue(newDispatcher.flush(1000));
+
+        Assert.assertEquals(1, replayTracker.count("Screen.Campaign[AD-[fake]]"));
+        Assert.assertEquals(1, replayTracker.count("CustomVars.add[2, 42, Screen]"));
+        Assert.assertEquals(1, replayTracker.count("CustomVars.add[3, push, Screen]"));
+    }
+
+    @Test
+    public void testAsyncReplayIsSentFromTheWorker() {
+        AtInternetDispatcher dyingDispatcher = new AtInternetDispatcher();
+        dyingDispatcher.setTrackerOverride(new RecordingTracker().getTracker());
+        dyingDispatcher.enableEventJournal(context);
+        dyingDispatcher.enableHitBatching(LONG_WINDOW_MS, 100);
+        dyingDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestEventPayload("AD-[lost]", null, new Bundle()));
+
+        RecordingTracker replayTracker = new RecordingTracker();
+        AtInternetDispatcher newDispatcher = new AtInternetDispatcher();
+        newDispatcher.attachContext(context);
+        newDispatcher.setTrackerOverride(replayTracker.getTracker());
+        newDispatcher.enableAsyncDispatch();
+
+        newDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertTrue(newDispatcher.flush(1000));
+
+        // The recovered event is sent first
+        Assert.assertEquals(2, replayTracker.count("Screen.sendView"));
+        Assert.assertEquals(1, replayTracker.count("Screen.Campaign[AD-[lost]]"));
+        List<String> calls = replayTracker.getCalls();
+        Assert.assertTrue(calls.indexOf("Screens.add[DisplayedBatchPushNotification]") <
+                calls.indexOf("Screens.add[DismissedBatchPushNotification]"));
+        newDispatcher.disableAsyncDispatch();
+    }
+
+    @Test
+    public void testDisableDeletesJournal() {
+        AtInternetDispatcher dispatcher = new AtInternetDispatcher();
+        dispatcher.setTrackerOverride(new RecordingTracker().getTracker());
+        dispatcher.enableEventJournal(context);
+        Assert.assertTrue(EventJournal.getFile(context).exists());
+
+        dispatcher.disableEventJournal();
+        Assert.assertFalse(EventJournal.getFile(context).exists());
+
+        // Still dispatching without journal
+        RecordingTracker tracker = new RecordingTracker();
+        dispatcher.setTrackerOverride(tracker.getTracker());
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                new TestEventPayload(null, null, new Bundle()));
+        Assert.assertEquals(1, tracker.count("Screen.sendView"));
+    }
+}
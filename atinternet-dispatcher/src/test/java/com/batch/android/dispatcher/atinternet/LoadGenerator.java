@@ -0,0 +1,358 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Synthetic event streams, and a harness sending them through a dispatcher from several threads.
+ *
+ * A stream mixes event types, XTOR tags of several shapes and placements, deeplinks of various lengths
+ * and WebView analytics IDs, in configurable proportions. It only depends on the seed and the configuration,
+ * so that two runs can be compared.
+ */
+class LoadGenerator {
+
+    /**
+     * What the XTOR tag of an event looks like
+     */
+    enum XtorShape {
+        VALID,
+        INVALID_PREFIX,
+        /**
+         * Valid, with percent-encoded brackets when in the deeplink
+         */
+        ESCAPED_BRACKETS,
+        NONE
+    }
+
+    /**
+     * Where the XTOR tag of an event is
+     */
+    enum XtorPlacement {
+        QUERY,
+        FRAGMENT,
+        TRACKING_ID,
+        CUSTOM_VALUE
+    }
+
+    static final class Event {
+
+        final Batch.EventDispatcher.Type type;
+        final TestEventPayload payload;
+
+        Event(Batch.EventDispatcher.Type type, TestEventPayload payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + payload.getTrackingId() + " " + payload.getCustomValue(AtInternetDispatcher.XTOR) +
+                    " " + payload.getDeeplink() + " " + payload.getWebViewAnalyticsID() + " " +
+                    payload.isPositiveAction();
+        }
+    }
+
+    /**
+     * Results of a run
+     */
+    static final class Report {
+
+        final long eventCount;
+        final double eventsPerSecond;
+        final long p50Nanos;
+        final long p99Nanos;
+        /**
+         * -1 if the JVM can't measure allocations
+         */
+        final long bytesPerEvent;
+
+        Report(long eventCount, double eventsPerSecond, long p50Nanos, long p99Nanos, long bytesPerEvent) {
+            this.eventCount = eventCount;
+            this.eventsPerSecond = eventsPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.bytesPerEvent = bytesPerEvent;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d events, %.0f events/s, p50 %d ns, p99 %d ns, %d bytes/event",
+                    eventCount, eventsPerSecond, p50Nanos, p99Nanos, bytesPerEvent);
+        }
+    }
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    private final long seed;
+    private final Map<Batch.EventDispatcher.Type, Integer> typeWeights =
+            new EnumMap<>(Batch.EventDispatcher.Type.class);
+    private final Map<XtorShape, Integer> shapeWeights = new EnumMap<>(XtorShape.class);
+    private final Map<XtorPlacement, Integer> placementWeights = new EnumMap<>(XtorPlacement.class);
+    private int minPathLength = 10;
+    private int maxPathLength = 200;
+    private double webViewIdRate = 0.2;
+    private double positiveActionRate = 0.5;
+    private int campaignCount = 20;
+
+    /**
+     * Generator of a realistic mix: mostly push displays and in-app shows, valid tags in the deeplink's query
+     */
+    LoadGenerator(long seed) {
+        this.seed = seed;
+        typeWeights.put(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, 30);
+        typeWeights.put(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, 5);
+        typeWeights.put(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, 15);
+        typeWeights.put(Batch.EventDispatcher.Type.MESSAGING_SHOW, 20);
+        typeWeights.put(Batch.EventDispatcher.Type.MESSAGING_CLOSE, 10);
+        typeWeights.put(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, 5);
+        typeWeights.put(Batch.EventDispatcher.Type.MESSAGING_CLICK, 10);
+        typeWeights.put(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, 5);
+        shapeWeights.put(XtorShape.VALID, 70);
+        shapeWeights.put(XtorShape.INVALID_PREFIX, 10);
+        shapeWeights.put(XtorShape.ESCAPED_BRACKETS, 10);
+        shapeWeights.put(XtorShape.NONE, 10);
+        placementWeights.put(XtorPlacement.QUERY, 50);
+        placementWeights.put(XtorPlacement.FRAGMENT, 20);
+        placementWeights.put(XtorPlacement.TRACKING_ID, 20);
+        placementWeights.put(XtorPlacement.CUSTOM_VALUE, 10);
+    }
+
+    /**
+     * @param weight Relative weight of the type, 0 not to generate it
+     */
+    LoadGenerator setTypeWeight(Batch.EventDispatcher.Type type, int weight) {
+        typeWeights.put(type, weight);
+        return this;
+    }
+
+    LoadGenerator setShapeWeight(XtorShape shape, int weight) {
+        shapeWeights.put(shape, weight);
+        return this;
+    }
+
+    LoadGenerator setPlacementWeight(XtorPlacement placement, int weight) {
+        placementWeights.put(placement, weight);
+        return this;
+    }
+
+    /**
+     * @param min Minimum length of the deeplink's path, without the tag
+     * @param max Maximum length of the deeplink's path, without the tag
+     */
+    LoadGenerator setPathLength(int min, int max) {
+        this.minPathLength = min;
+        this.maxPathLength = max;
+        return this;
+    }
+
+    LoadGenerator setWebViewIdRate(double rate) {
+        this.webViewIdRate = rate;
+        return this;
+    }
+
+    LoadGenerator setPositiveActionRate(double rate) {
+        this.positiveActionRate = rate;
+        return this;
+    }
+
+    /**
+     * @param count Number of distinct campaigns the tags are drawn from
+     */
+    LoadGenerator setCampaignCount(int count) {
+        this.campaignCount = count;
+        return this;
+    }
+
+    List<Event> generate(int count) {
+        Random random = new Random(seed);
+        Batch.EventDispatcher.Type[] types = Batch.EventDispatcher.Type.values();
+        XtorShape[] shapes = XtorShape.values();
+        XtorPlacement[] placements = XtorPlacement.values();
+        int[] typeTotals = getCumulativeWeights(typeWeights, types);
+        int[] shapeTotals = getCumulativeWeights(shapeWeights, shapes);
+        int[] placementTotals = getCumulativeWeights(placementWeights, placements);
+
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Batch.EventDispatcher.Type type = types[pick(random, typeTotals)];
+            XtorShape shape = shapes[pick(random, shapeTotals)];
+            XtorPlacement placement = placements[pick(random, placementTotals)];
+            int campaign = random.nextInt(campaignCount);
+
+            String xtor = getXtor(shape, campaign, placement == XtorPlacement.QUERY ||
+                    placement == XtorPlacement.FRAGMENT);
+            StringBuilder deeplink = new StringBuilder("https://www.batch.com/");
+            int pathLength = minPathLength + random.nextInt(maxPathLength - minPathLength + 1);
+            for (int c = 0; c < pathLength; c++) {
+                deeplink.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String trackingId = null;
+            Bundle customPayload = new Bundle();
+            if (xtor != null) {
+                switch (placement) {
+                    case QUERY:
+                        deeplink.append("?utm_source=batch&xtor=").append(xtor);
+                        break;
+                    case FRAGMENT:
+                        deeplink.append("#section=offers&xtor=").append(xtor);
+                        break;
+                    case TRACKING_ID:
+                        trackingId = xtor;
+                        break;
+                    case CUSTOM_VALUE:
+                        customPayload.putString(AtInternetDispatcher.XTOR, xtor);
+                        break;
+                }
+            }
+            String webViewId = random.nextDouble() < webViewIdRate ? "button_" + random.nextInt(10) : null;
+            boolean positiveAction = random.nextDouble() < positiveActionRate;
+            events.add(new Event(type, new TestEventPayload(trackingId, webViewId, deeplink.toString(),
+                    customPayload, positiveAction)));
+        }
+        return events;
+    }
+
+    /**
+     * Send a stream through a dispatcher: each thread dispatches its share of the events as fast as it can,
+     * then the dispatcher is flushed.
+     *
+     * @param eventsPerThread Number of events each thread dispatches
+     */
+    Report run(AtInternetDispatcher dispatcher, int threadCount, int eventsPerThread) throws InterruptedException {
+        return run(dispatcher, threadCount, eventsPerThread, null);
+    }
+
+    /**
+     * @param onDispatched Run once every thread dispatched its events, before the dispatcher is flushed
+     */
+    Report run(final AtInternetDispatcher dispatcher, int threadCount, int eventsPerThread,
+               @Nullable Runnable onDispatched) throws InterruptedException {
+        final List<Event> events = generate(threadCount * eventsPerThread);
+        final long[][] latencies = new long[threadCount][eventsPerThread];
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final boolean measuresAllocations = threadBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+        final AtomicLong allocatedBytes = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            final int count = eventsPerThread;
+            final int stride = threadCount;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long before = measuresAllocations ? getAllocatedBytes(threadBean) : 0;
+                    for (int i = 0; i < count; i++) {
+                        Event event = events.get(i * stride + thread);
+                        long dispatchStart = System.nanoTime();
+                        dispatcher.dispatchEvent(event.type, event.payload);
+                        latencies[thread][i] = System.nanoTime() - dispatchStart;
+                    }
+                    if (measuresAllocations) {
+                        allocatedBytes.addAndGet(getAllocatedBytes(threadBean) - before);
+                    }
+                }
+            }, "load-generator-" + t);
+            threads[t].start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (onDispatched != null) {
+            onDispatched.run();
+        }
+        dispatcher.flush(TimeUnit.SECONDS.toMillis(30));
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+
+        long eventCount = (long) threadCount * eventsPerThread;
+        long[] sorted = new long[(int) eventCount];
+        for (int t = 0; t < threadCount; t++) {
+            System.arraycopy(latencies[t], 0, sorted, t * eventsPerThread, eventsPerThread);
+        }
+        Arrays.sort(sorted);
+        return new Report(eventCount,
+                eventCount * 1e9 / elapsedNanos,
+                getPercentile(sorted, 50),
+                getPercentile(sorted, 99),
+                measuresAllocations ? allocatedBytes.get() / Math.max(1, eventCount) : -1);
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean threadBean) {
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getPercentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String getXtor(XtorShape shape, int campaign, boolean inDeeplink) {
+        switch (shape) {
+            case VALID:
+                return "AD-" + campaign + "-[creative]-[variant]-15-[www.batch.com]-2-[top]";
+            case INVALID_PREFIX:
+                return "ZZ-[label" + campaign + "]-totot-titi";
+            case ESCAPED_BRACKETS:
+                return inDeeplink ? "CS1-%5Blabel" + campaign + "%5D-test-15%5Bsef%5D" :
+                        "CS1-[label" + campaign + "]-test-15[sef]";
+            case NONE:
+            default:
+                return null;
+        }
+    }
+
+    private static <E extends Enum<E>> int[] getCumulativeWeights(Map<E, Integer> weights, E[] values) {
+        int[] totals = new int[values.length];
+        int total = 0;
+        for (int i = 0; i < values.length; i++) {
+            Integer weight = weights.get(values[i]);
+            total += weight == null ? 0 : weight;
+            totals[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("at least one weight must be strictly positive");
+        }
+        return totals;
+    }
+
+    private static int pick(Random random, int[] cumulativeWeights) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return i;
+            }
+        }
+        return cumulativeWeights.length - 1;
+    }
+}
@@ -0,0 +1,167 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.HitSender;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Send synthetic event streams through the AT Internet Event Dispatcher from several threads
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class LoadTest {
+
+    private static final int THREAD_COUNT = 4;
+    private static final int EVENTS_PER_THREAD = 2500;
+
+    @Test
+    public void testStreamsAreDeterministic() {
+        List<LoadGenerator.Event> first = new LoadGenerator(42).generate(500);
+        List<LoadGenerator.Event> second = new LoadGenerator(42).generate(500);
+        List<LoadGenerator.Event> other = new LoadGenerator(43).generate(500);
+
+        Assert.assertEquals(first.toString(), second.toString());
+        Assert.assertNotEquals(first.toString(), other.toString());
+    }
+
+    @Test
+    public void testStreamDistributions() {
+        List<LoadGenerator.Event> events = new LoadGenerator(42)
+                .setTypeWeight(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, 0)
+                .setTypeWeight(Batch.EventDispatcher.Type.MESSAGING_SHOW, 0)
+                .setShapeWeight(LoadGenerator.XtorShape.INVALID_PREFIX, 0)
+                .setShapeWeight(LoadGenerator.XtorShape.ESCAPED_BRACKETS, 0)
+                .setShapeWeight(LoadGenerator.XtorShape.NONE, 0)
+                .setPlacementWeight(LoadGenerator.XtorPlacement.QUERY, 0)
+                .setPlacementWeight(LoadGenerator.XtorPlacement.TRACKING_ID, 0)
+                .setPlacementWeight(LoadGenerator.XtorPlacement.CUSTOM_VALUE, 0)
+                .setPathLength(1000, 1000)
+                .setWebViewIdRate(0)
+                .generate(200);
+
+        for (LoadGenerator.Event event : events) {
+            Assert.assertNotEquals(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, event.type);
+            Assert.assertNotEquals(Batch.EventDispatcher.Type.MESSAGING_SHOW, event.type);
+            Assert.assertNull(event.payload.getTrackingId());
+            Assert.assertNull(event.payload.getWebViewAnalyticsID());
+            String deeplink = event.payload.getDeeplink();
+            Assert.assertTrue(deeplink, deeplink.matches("https://www\\.batch\\.com/[a-z0-9]{1000}#.*&xtor=AD-.*"));
+        }
+    }
+
+    @Test
+    public void testSynchronousThroughput() throws InterruptedException {
+        RecordingTracker recordingTracker = new RecordingTracker();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+
+        LoadGenerator.Report report = new LoadGenerator(42).run(atInternetDispatcher, THREAD_COUNT, EVENTS_PER_THREAD);
+        String message = "Synchronous dispatch: " + report;
+
+        Assert.assertEquals(message, THREAD_COUNT * EVENTS_PER_THREAD, report.eventCount);
+        Assert.assertEquals(message, THREAD_COUNT * EVENTS_PER_THREAD, recordingTracker.count("Screens.add"));
+        Assert.assertTrue(message, report.eventsPerSecond > 0);
+        Assert.assertTrue(message, report.p50Nanos <= report.p99Nanos);
+    }
+
+    @Test
+    public void testAsynchronousThroughput() throws InterruptedException {
+        RecordingTracker recordingTracker = new RecordingTracker();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.enableAsyncDispatch(1024, OverflowPolicy.RUN_ON_CALLER);
+        try {
+            LoadGenerator.Report report = new LoadGenerator(42).run(atInternetDispatcher, THREAD_COUNT,
+                    EVENTS_PER_THREAD);
+            String message = "Asynchronous dispatch: " + report;
+
+            Assert.assertEquals(message, THREAD_COUNT * EVENTS_PER_THREAD, recordingTracker.count("Screens.add"));
+            Assert.assertEquals(message, 0, atInternetDispatcher.getDroppedEventCount());
+        } finally {
+            atInternetDispatcher.disableAsyncDispatch();
+        }
+    }
+
+    /**
+     * The collection endpoint holds its answers while the stream is dispatched: the hit being sent and the full
+     * queue behind it are delivered, every other hit is dropped and its event recorded as such.
+     */
+    @Test
+    public void testDirectHitsThroughput() throws InterruptedException, IOException {
+        RecordingTracker expectedTracker = new RecordingTracker();
+        AtInternetDispatcher expectedDispatcher = new AtInternetDispatcher();
+        expectedDispatcher.setTrackerOverride(expectedTracker.getTracker());
+        new LoadGenerator(42).run(expectedDispatcher, THREAD_COUNT, EVENTS_PER_THREAD);
+        // Plus the hit sent first, that keeps the sender busy
+        long expectedHits = 1 + expectedTracker.count("Screen.sendView") +
+                expectedTracker.count("Publisher.sendImpression") + expectedTracker.count("Publisher.sendTouch");
+
+        final CollectStub collectStub = new CollectStub();
+        final AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(new RecordingTracker().getTracker());
+        atInternetDispatcher.enableMetrics();
+        atInternetDispatcher.enableDirectHits(ApplicationProvider.getApplicationContext(), collectStub.getUrl(),
+                "123456", "visitor-1", new HitSender(60000, 2, 1));
+        try {
+            collectStub.hold();
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                    new TestEventPayload(null, null, new Bundle()));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (collectStub.getHits().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(1, collectStub.getHits().size());
+
+            LoadGenerator.Report report = new LoadGenerator(42).run(atInternetDispatcher, THREAD_COUNT,
+                    EVENTS_PER_THREAD, new Runnable() {
+                        @Override
+                        public void run() {
+                            collectStub.release();
+                        }
+                    });
+            Assert.assertTrue(atInternetDispatcher.flush(60000));
+
+            HitSender sender = atInternetDispatcher.getDirectHitSender();
+            Assert.assertNotNull(sender);
+            long sent = sender.getSentCount();
+            long dropped = atInternetDispatcher.getDroppedDirectHitCount();
+            String message = "Direct hits dispatch: " + report + String.format(Locale.US,
+                    ", %d hits expected, %d sent, %d dropped, %d connections, %d wire bytes/hit", expectedHits, sent,
+                    dropped, collectStub.getConnectionCount(), sent == 0 ? 0 : collectStub.getWireBytes() / sent);
+
+            Assert.assertEquals(message, 1 + DirectHits.QUEUE_CAPACITY, sent);
+            Assert.assertEquals(message, expectedHits - sent, dropped);
+            Assert.assertEquals(message, expectedHits, sent + dropped);
+            Assert.assertEquals(message, sent, collectStub.getHits().size());
+            Assert.assertEquals(message, 0, sender.getFailedCount());
+            // Hits go out over one keep-alive connection, unless the platform drops it
+            Assert.assertTrue(message, collectStub.getConnectionCount() <= 2);
+
+            DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+            Assert.assertNotNull(message, metrics);
+            Assert.assertEquals(message, 1 + report.eventCount,
+                    metrics.getEventCount(DispatchMetrics.Outcome.SENT) +
+                            metrics.getEventCount(DispatchMetrics.Outcome.DROPPED));
+            Assert.assertEquals(message, 0, metrics.getEventCount(DispatchMetrics.Outcome.FAILED));
+        } finally {
+            collectStub.release();
+            atInternetDispatcher.disableDirectHits();
+            collectStub.stop();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test the metrics recorded by the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class MetricsTest {
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        return atInternetDispatcher;
+    }
+
+    private static TestEventPayload payload(String trackingId) {
+        return new TestEventPayload(trackingId, null, new Bundle());
+    }
+
+    @Test
+    public void testMetricsAreDisabledByDefault() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[one]"));
+        Assert.assertNull(atInternetDispatcher.getMetrics());
+    }
+
+    @Test
+    public void testOutcomesAndXtorStatus() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableMetrics();
+        atInternetDispatcher.enableDuplicateSuppression(60000);
+        atInternetDispatcher.setEventMapping(new EventMapping.Builder()
+                .setEnabled(EventType.MESSAGING_AUTO_CLOSE, false)
+                .build());
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload("CS1-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("ZZ-[invalid]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload(null));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, payload(null));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload("CS1-[one]"));
+
+        DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+        Assert.assertNotNull(metrics);
+        Assert.assertEquals(1, metrics.getEventCount(EventType.NOTIFICATION_DISPLAY, DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(1, metrics.getEventCount(EventType.NOTIFICATION_DISPLAY, DispatchMetrics.Outcome.DUPLICATE));
+        Assert.assertEquals(2, metrics.getEventCount(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(1, metrics.getEventCount(EventType.MESSAGING_AUTO_CLOSE, DispatchMetrics.Outcome.DISABLED));
+        Assert.assertEquals(4, metrics.getEventCount(DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(4, recordingTracker.count("Screen.sendView"));
+
+        // Only events sending a publisher hit have their XTOR tag checked
+        Assert.assertEquals(2, metrics.getXtorCount(DispatchMetrics.XtorStatus.VALID));
+        Assert.assertEquals(1, metrics.getXtorCount(DispatchMetrics.XtorStatus.INVALID));
+        Assert.assertEquals(1, metrics.getXtorCount(DispatchMetrics.XtorStatus.MISSING));
+
+        Assert.assertEquals(6, metrics.getLatency(DispatchMetrics.Stage.DISPATCH).getCount());
+        Assert.assertEquals(5, metrics.getLatency(DispatchMetrics.Stage.PAYLOAD).getCount());
+        Assert.assertEquals(4, metrics.getLatency(DispatchMetrics.Stage.XTOR).getCount());
+        Assert.assertEquals(3, metrics.getLatency(DispatchMetrics.Stage.PUBLISHER_SEND).getCount());
+        Assert.assertEquals(4, metrics.getLatency(DispatchMetrics.Stage.SCREEN_SEND).getCount());
+        Assert.assertEquals(0, metrics.getLatency(DispatchMetrics.Stage.SNAPSHOT).getCount());
+
+        atInternetDispatcher.disableMetrics();
+        Assert.assertNull(atInternetDispatcher.getMetrics());
+    }
+
+    @Test
+    public void testSampledOutEvents() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.enableMetrics();
+        atInternetDispatcher.setSamplingPolicy(new SamplingPolicy.Builder()
+                .setRate(EventType.MESSAGING_CLICK, 0)
+                .build());
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload("CS1-[one]"));
+
+        DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+        Assert.assertNotNull(metrics);
+        Assert.assertEquals(1, metrics.getEventCount(EventType.MESSAGING_CLICK, DispatchMetrics.Outcome.SAMPLED_OUT));
+        Assert.assertEquals(0, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testListener() throws InterruptedException {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        final CountDownLatch reported = new CountDownLatch(1);
+        final AtomicReference<DispatchMetrics.Snapshot> snapshot = new AtomicReference<>();
+        atInternetDispatcher.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onMetrics(@NonNull DispatchMetrics.Snapshot metrics) {
+                if (metrics.getEventCount(DispatchMetrics.Outcome.SENT) > 0) {
+                    snapshot.set(metrics);
+                    reported.countDown();
+                }
+            }
+        }, 10);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload("CS1-[one]"));
+
+        Assert.assertTrue(reported.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, snapshot.get().getEventCount(EventType.NOTIFICATION_OPEN, DispatchMetrics.Outcome.SENT));
+        atInternetDispatcher.setMetricsListener(null, 0);
+        // Metrics stay enabled without a listener
+        Assert.assertNotNull(atInternetDispatcher.getMetrics());
+    }
+}
@@ -0,0 +1,263 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.EventMapping;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the priority lanes of the asynchronous dispatch mode
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class PriorityLanesTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final List<LaneRecorder> recorders = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (LaneRecorder recorder : recorders) {
+            recorder.release();
+            recorder.worker.shutdown(TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Worker whose events are named after their lane: "c" for conversions, "i" for impressions, "l" for low value.
+     * It starts blocked, so that the submitted events pile up in the lanes until it is released.
+     */
+    private static final class LaneRecorder {
+
+        private static final String BLOCKER = "c-blocker";
+
+        final AsyncDispatchWorker<String> worker;
+        final List<String> handled = new ArrayList<>();
+        final List<String> dropped = new ArrayList<>();
+        /**
+         * Event after which a conversion is submitted, from the worker thread, while the lanes are being drained
+         */
+        volatile String conversionTrigger;
+        private final CountDownLatch blockerStarted = new CountDownLatch(1);
+        private final CountDownLatch releaseWorker = new CountDownLatch(1);
+
+        LaneRecorder(PriorityLanes lanes) throws InterruptedException {
+            worker = new AsyncDispatchWorker<>(lanes.getCapacities(), lanes.getOverflowPolicies(), lanes.getWeights(),
+                    lanes.getMaxQueuedEvents(),
+                    new AsyncDispatchWorker.LaneClassifier<String>() {
+                        @Override
+                        public int getLane(@NonNull String event) {
+                            switch (event.charAt(0)) {
+                                case 'c':
+                                    return DispatchLane.CONVERSION.ordinal();
+                                case 'i':
+                                    return DispatchLane.IMPRESSION.ordinal();
+                                default:
+                                    return DispatchLane.LOW_VALUE.ordinal();
+                            }
+                        }
+                    },
+                    new EventHandler<String>() {
+                        @Override
+                        public void handle(@NonNull String event) {
+                            if (event.equals(BLOCKER)) {
+                                blockerStarted.countDown();
+                                awaitQuietly(releaseWorker);
+                                return;
+                            }
+                            synchronized (handled) {
+                                handled.add(event);
+                            }
+                            if (event.equals(conversionTrigger)) {
+                                worker.submit("c");
+                            }
+                        }
+                    },
+                    new EventHandler<String>() {
+                        @Override
+                        public void handle(@NonNull String event) {
+                            synchronized (dropped) {
+                                dropped.add(event);
+                            }
+                        }
+                    },
+                    AsyncDispatchWorker.THREAD_NAME);
+            worker.start();
+            worker.submit(BLOCKER);
+            Assert.assertTrue(blockerStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+
+        void release() {
+            releaseWorker.countDown();
+        }
+
+        /**
+         * @return Number of events handled between the conversion trigger and the conversion
+         */
+        int getConversionDelay() {
+            synchronized (handled) {
+                return handled.indexOf("c") - handled.indexOf(conversionTrigger) - 1;
+            }
+        }
+    }
+
+    private LaneRecorder startRecorder(PriorityLanes lanes) throws InterruptedException {
+        LaneRecorder recorder = new LaneRecorder(lanes);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    @Test
+    public void testConversionLatencyStaysFlat() throws InterruptedException {
+        PriorityLanes lanes = new PriorityLanes.Builder()
+                .setLane(DispatchLane.IMPRESSION, 4096, OverflowPolicy.DROP_OLDEST, 2)
+                .setLane(DispatchLane.LOW_VALUE, 4096, OverflowPolicy.DROP_OLDEST, 1)
+                .setMaxQueuedEvents(8192)
+                .build();
+        int[] burstSizes = {10, 100, 1000};
+        int[] delays = new int[burstSizes.length];
+        for (int run = 0; run < burstSizes.length; run++) {
+            LaneRecorder recorder = startRecorder(lanes);
+            recorder.conversionTrigger = "i5";
+            for (int i = 0; i < burstSizes[run]; i++) {
+                recorder.worker.submit("i" + i);
+                recorder.worker.submit("l" + i);
+            }
+            recorder.release();
+            Assert.assertTrue(recorder.worker.flush(TIMEOUT_MS));
+
+            Assert.assertEquals(2 * burstSizes[run] + 1, recorder.handled.size());
+            Assert.assertEquals(0, recorder.worker.getDroppedCount());
+            delays[run] = recorder.getConversionDelay();
+        }
+        // The conversion waits at most for the rest of the current round, whatever the size of the burst
+        for (int delay : delays) {
+            Assert.assertTrue("Conversion handled after " + delay + " events", delay >= 0 && delay <= 3);
+            Assert.assertEquals(delays[0], delay);
+        }
+    }
+
+    @Test
+    public void testWeightedDrainOrder() throws InterruptedException {
+        LaneRecorder recorder = startRecorder(PriorityLanes.getDefault());
+        for (int i = 0; i < 6; i++) {
+            recorder.worker.submit("l" + i);
+            recorder.worker.submit("i" + i);
+        }
+        for (int i = 0; i < 6; i++) {
+            recorder.worker.submit("c" + i);
+        }
+        recorder.release();
+        Assert.assertTrue(recorder.worker.flush(TIMEOUT_MS));
+
+        // The blocker used a conversion credit: 3 conversions, 2 impressions and 1 low value event per round
+        Assert.assertEquals("[c0, c1, c2, i0, i1, l0, c3, c4, c5]", recorder.handled.subList(0, 9).toString());
+        Assert.assertEquals(18, recorder.handled.size());
+        // Events of a lane keep their order
+        Assert.assertEquals("[i2, i3, l1, i4, i5, l2, l3, l4, l5]", recorder.handled.subList(9, 18).toString());
+    }
+
+    @Test
+    public void testLowerLanesAreShedFirst() throws InterruptedException {
+        LaneRecorder recorder = startRecorder(new PriorityLanes.Builder()
+                .setMaxQueuedEvents(4)
+                .build());
+        recorder.worker.submit("l0");
+        recorder.worker.submit("l1");
+        recorder.worker.submit("i0");
+        recorder.worker.submit("i1");
+        // Under pressure: each new conversion or impression sheds the oldest low value event first
+        recorder.worker.submit("c0");
+        recorder.worker.submit("i2");
+        Assert.assertEquals("[l0, l1]", recorder.dropped.toString());
+        // Then the oldest impressions
+        recorder.worker.submit("c1");
+        Assert.assertEquals("[l0, l1, i0]", recorder.dropped.toString());
+        // A low value event can't displace higher lanes
+        recorder.worker.submit("l2");
+        Assert.assertEquals("[l0, l1, i0, l2]", recorder.dropped.toString());
+
+        recorder.release();
+        Assert.assertTrue(recorder.worker.flush(TIMEOUT_MS));
+        Assert.assertEquals("[c0, c1, i1, i2]", recorder.handled.toString());
+        Assert.assertEquals(4, recorder.worker.getDroppedCount());
+        Assert.assertEquals(0, recorder.worker.getDroppedCount(DispatchLane.CONVERSION.ordinal()));
+        Assert.assertEquals(1, recorder.worker.getDroppedCount(DispatchLane.IMPRESSION.ordinal()));
+        Assert.assertEquals(3, recorder.worker.getDroppedCount(DispatchLane.LOW_VALUE.ordinal()));
+    }
+
+    @Test
+    public void testEventClassification() {
+        EventMapping mapping = EventMapping.getDefault();
+        Assert.assertEquals(DispatchLane.CONVERSION, lane(mapping, EventType.NOTIFICATION_OPEN, true));
+        Assert.assertEquals(DispatchLane.CONVERSION, lane(mapping, EventType.MESSAGING_WEBVIEW_CLICK, false));
+        Assert.assertEquals(DispatchLane.CONVERSION, lane(mapping, EventType.MESSAGING_CLICK, true));
+        // No touch is sent for them
+        Assert.assertEquals(DispatchLane.IMPRESSION, lane(mapping, EventType.NOTIFICATION_OPEN, false));
+        Assert.assertEquals(DispatchLane.IMPRESSION, lane(mapping, EventType.MESSAGING_CLICK, false));
+        Assert.assertEquals(DispatchLane.IMPRESSION, lane(mapping, EventType.NOTIFICATION_DISPLAY, true));
+        Assert.assertEquals(DispatchLane.IMPRESSION, lane(mapping, EventType.MESSAGING_SHOW, false));
+        Assert.assertEquals(DispatchLane.LOW_VALUE, lane(mapping, EventType.NOTIFICATION_DISMISS, false));
+        Assert.assertEquals(DispatchLane.LOW_VALUE, lane(mapping, EventType.MESSAGING_AUTO_CLOSE, false));
+        Assert.assertEquals(DispatchLane.LOW_VALUE, lane(mapping, EventType.UNKNOWN, true));
+
+        // The lane follows the role of the mapping
+        EventMapping remapped = new EventMapping.Builder()
+                .setRole(EventType.MESSAGING_CLOSE, EventMapping.Role.CLICK)
+                .setRole(EventType.MESSAGING_CLICK, EventMapping.Role.NONE)
+                .build();
+        Assert.assertEquals(DispatchLane.CONVERSION, lane(remapped, EventType.MESSAGING_CLOSE, true));
+        Assert.assertEquals(DispatchLane.IMPRESSION, lane(remapped, EventType.MESSAGING_CLICK, true));
+    }
+
+    private static DispatchLane lane(EventMapping mapping, EventType type, boolean positiveAction) {
+        return DispatchLane.of(type, mapping.getRole(type), positiveAction);
+    }
+
+    @Test
+    public void testDispatcherSendsEveryLane() {
+        RecordingTracker recordingTracker = new RecordingTracker();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.enableAsyncDispatch(PriorityLanes.getDefault());
+        try {
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    new TestEventPayload(null, null, new Bundle()));
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                    new TestEventPayload(null, null, new Bundle()));
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                    new TestEventPayload(null, null, new Bundle()));
+
+            Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+            Assert.assertEquals(3, recordingTracker.count("Screens.add"));
+            Assert.assertEquals(0, atInternetDispatcher.getDroppedEventCount(DispatchLane.LOW_VALUE));
+        } finally {
+            atInternetDispatcher.disableAsyncDispatch();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
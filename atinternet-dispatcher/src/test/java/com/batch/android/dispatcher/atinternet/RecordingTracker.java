@@ -0,0 +1,86 @@
+package com.batch.android.dispatcher.atinternet;
+
+import com.atinternet.tracker.CustomVars;
+import com.atinternet.tracker.Publisher;
+import com.atinternet.tracker.Publishers;
+import com.atinternet.tracker.Screen;
+import com.atinternet.tracker.Screens;
+import com.atinternet.tracker.Tracker;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.powermock.api.mockito.PowerMockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * AT Internet Tracker mock recording every call made on it and on the objects it creates,
+ * so that the hits built by two dispatchers can be compared.
+ */
+class RecordingTracker {
+
+    private final List<String> calls = new ArrayList<>();
+    private final Tracker tracker;
+    private final Screens screens;
+    private final Publishers publishers;
+
+    RecordingTracker() {
+        tracker = mockRecording(Tracker.class, "Tracker");
+        screens = mockRecording(Screens.class, "Screens");
+        publishers = mockRecording(Publishers.class, "Publishers");
+    }
+
+    Tracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * @return A copy of the recorded calls, formatted as "Class.method[arguments]"
+     */
+    List<String> getCalls() {
+        synchronized (calls) {
+            return new ArrayList<>(calls);
+        }
+    }
+
+    int count(String call) {
+        int count = 0;
+        for (String recorded : getCalls()) {
+            if (recorded.startsWith(call)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private <T> T mockRecording(Class<T> clazz, final String label) {
+        return PowerMockito.mock(clazz, (InvocationOnMock invocation) -> record(label, invocation));
+    }
+
+    private Object record(String label, InvocationOnMock invocation) throws Throwable {
+        if (invocation.getMethod().getDeclaringClass() == Object.class) {
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        }
+
+        String method = invocation.getMethod().getName();
+        synchronized (calls) {
+            calls.add(label + "." + method + Arrays.toString(invocation.getArguments()));
+        }
+        switch (label + "." + method) {
+            case "Tracker.Screens":
+                return screens;
+            case "Tracker.Publishers":
+                return publishers;
+            case "Screens.add":
+                return mockRecording(Screen.class, "Screen");
+            case "Publishers.add":
+                return mockRecording(Publisher.class, "Publisher");
+            case "Screen.CustomVars":
+                return mockRecording(CustomVars.class, "CustomVars");
+            default:
+                return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+}
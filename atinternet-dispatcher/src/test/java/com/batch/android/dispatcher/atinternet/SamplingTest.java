@@ -0,0 +1,110 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+import com.batch.android.dispatcher.atinternet.core.SamplingPolicy;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * Test the sampling of the events sent by the AT Internet Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class SamplingTest {
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        return atInternetDispatcher;
+    }
+
+    private static TestEventPayload payload(String trackingId) {
+        return new TestEventPayload(trackingId, null, new Bundle());
+    }
+
+    @Test
+    public void testSampledOutEvents() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.setSamplingPolicy(new SamplingPolicy.Builder()
+                .setRate(EventType.MESSAGING_CLOSE, 0)
+                .setRateCustomVarIndex(2)
+                .build());
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+
+        Assert.assertEquals(1, atInternetDispatcher.getSampledOutEventCount());
+        Assert.assertEquals(1, recordingTracker.count("Screens.add"));
+        Assert.assertEquals(1, recordingTracker.count("Screens.add[ShowedBatchInAppMessage]"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add[2, 1.0, "));
+
+        // Removing the policy sends everything again
+        atInternetDispatcher.setSamplingPolicy(null);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[one]"));
+        Assert.assertEquals(2, recordingTracker.count("Screens.add"));
+        Assert.assertEquals(1, recordingTracker.count("CustomVars.add"));
+        Assert.assertEquals(0, atInternetDispatcher.getSampledOutEventCount());
+    }
+
+    @Test
+    public void testRateLimitedEvents() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.setSamplingPolicy(new SamplingPolicy.Builder()
+                .setRateLimit(3, 60000)
+                .build());
+
+        // An impression sends two hits: a publisher and a screen
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[one]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("AD-[two]"));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("AD-[one]"));
+
+        Assert.assertEquals(1, atInternetDispatcher.getRateLimitedEventCount());
+        Assert.assertEquals(1, recordingTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(2, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testRateCustomVarCannotBeInThePlan() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        SamplingPolicy policy = new SamplingPolicy.Builder().setRateCustomVarIndex(2).build();
+        CustomVarPlan plan = new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_group", 2, CustomVarPlan.Scope.SCREEN)
+                .build();
+        atInternetDispatcher.setSamplingPolicy(policy);
+        try {
+            atInternetDispatcher.setCustomVarPlan(plan);
+            Assert.fail("Accepted a plan setting the sampling rate's custom variable");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+        Assert.assertEquals(CustomVarPlan.getEmpty(), atInternetDispatcher.getCustomVarPlan());
+
+        atInternetDispatcher.setSamplingPolicy(null);
+        atInternetDispatcher.setCustomVarPlan(plan);
+        try {
+            atInternetDispatcher.setSamplingPolicy(policy);
+            Assert.fail("Accepted a policy sending its rate in a custom variable of the plan");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+        Assert.assertNull(atInternetDispatcher.getSamplingPolicy());
+
+        // App custom variables don't collide with the rate's screen variable
+        atInternetDispatcher.setCustomVarPlan(new CustomVarPlan.Builder()
+                .addPayloadKey("campaign_group", 2, CustomVarPlan.Scope.APP)
+                .build());
+        atInternetDispatcher.setSamplingPolicy(policy);
+    }
+}
@@ -0,0 +1,213 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.Tracker;
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.SectionTracer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the system trace sections of the AT Internet Event Dispatcher: they must be properly nested,
+ * and every section must be ended, whatever the code path
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class TracingTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+    private final RecordingTracer tracer = new RecordingTracer();
+
+    private AtInternetDispatcher createDispatcher() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(recordingTracker.getTracker());
+        atInternetDispatcher.setSectionTracer(tracer);
+        return atInternetDispatcher;
+    }
+
+    private static TestEventPayload payload(String trackingId, String deeplink) {
+        return new TestEventPayload(trackingId, deeplink, new Bundle());
+    }
+
+    @Test
+    public void testSynchronousDispatchSections() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                payload(null, "https://batch.com/test?xtor=CS1-[mylabeltest]"));
+
+        tracer.assertBalanced();
+        Assert.assertEquals(Arrays.asList(
+                "AtInternet:dispatchEvent",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:mapEvent",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:mapEvent/AtInternet:deeplinkTag",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:mapEvent/AtInternet:xtorCampaign",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:sendPublisher",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:sendPublisher/AtInternet:getTracker",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:sendScreen",
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:sendScreen/AtInternet:getTracker"
+        ), tracer.getSectionPaths());
+        Assert.assertTrue(tracer.getAsyncSections().isEmpty());
+    }
+
+    @Test
+    public void testTracingCanBeDisabled() {
+        AtInternetDispatcher atInternetDispatcher = createDispatcher();
+        Assert.assertTrue(atInternetDispatcher.isSystemTracingEnabled());
+        atInternetDispatcher.setSystemTracingEnabled(false);
+        Assert.assertFalse(atInternetDispatcher.isSystemTracingEnabled());
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                payload("CS1-[one]", null));
+
+        Assert.assertTrue(tracer.getSectionPaths().isEmpty());
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testSectionsAreEndedWhenSendingThrows() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                throw new IllegalStateException("No tracker");
+            }
+        });
+        atInternetDispatcher.setSectionTracer(tracer);
+
+        try {
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("CS1-[one]", null));
+            Assert.fail("The tracker exception should be thrown");
+        } catch (IllegalStateException expected) {
+            // Sync dispatch lets errors through
+        }
+        tracer.assertBalanced();
+        Assert.assertTrue(tracer.getSectionPaths().contains(
+                "AtInternet:dispatchEvent/AtInternet:sendEvent/AtInternet:sendPublisher/AtInternet:getTracker"));
+    }
+
+    @Test
+    public void testDeferredEventsHaveAsyncSections() throws InterruptedException {
+        final CountDownLatch workerBlocked = new CountDownLatch(1);
+        final CountDownLatch releaseWorker = new CountDownLatch(1);
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                workerBlocked.countDown();
+                try {
+                    releaseWorker.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return recordingTracker.getTracker();
+            }
+        });
+        atInternetDispatcher.setSectionTracer(tracer);
+        atInternetDispatcher.enableAsyncDispatch(2, OverflowPolicy.DROP_NEWEST);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload("CS1-[one]", null));
+        Assert.assertTrue(workerBlocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // Fill the two slots of the queue
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload("CS1-[one]", null));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload("CS1-[two]", null));
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload("CS1-[one]", null));
+        Assert.assertEquals(1, atInternetDispatcher.getDroppedEventCount());
+
+        releaseWorker.countDown();
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        atInternetDispatcher.disableAsyncDispatch();
+
+        // The dropped event's section is ended too
+        tracer.assertBalanced();
+        Assert.assertEquals(4, tracer.getAsyncSections().size());
+        Assert.assertTrue(tracer.getSectionPaths().contains("AtInternet:sendEvent/AtInternet:mapEvent"));
+    }
+
+    /**
+     * Checks the sections per thread as they are recorded, and keeps the path of every section
+     */
+    private static class RecordingTracer implements SectionTracer {
+
+        private final ThreadLocal<Deque<String>> stacks = new ThreadLocal<Deque<String>>() {
+            @Override
+            protected Deque<String> initialValue() {
+                return new ArrayDeque<>();
+            }
+        };
+        private final List<String> paths = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> asyncSections = new ArrayList<>();
+        private final Map<Integer, String> openAsyncSections = new HashMap<>();
+        private final List<Deque<String>> allStacks = new ArrayList<>();
+
+        @Override
+        public synchronized void beginSection(@NonNull String name) {
+            Deque<String> stack = stacks.get();
+            if (!allStacks.contains(stack)) {
+                allStacks.add(stack);
+            }
+            String parent = stack.peek();
+            String path = parent == null ? name : parent + "/" + name;
+            stack.push(path);
+            paths.add(path);
+        }
+
+        @Override
+        public synchronized void endSection() {
+            if (stacks.get().poll() == null) {
+                errors.add("endSection without a section");
+            }
+        }
+
+        @Override
+        public synchronized void beginAsyncSection(@NonNull String name, int cookie) {
+            if (openAsyncSections.put(cookie, name) != null) {
+                errors.add("Cookie " + cookie + " reused");
+            }
+            asyncSections.add(name);
+        }
+
+        @Override
+        public synchronized void endAsyncSection(@NonNull String name, int cookie) {
+            if (!name.equals(openAsyncSections.remove(cookie))) {
+                errors.add("endAsyncSection without a section for " + name + " " + cookie);
+            }
+        }
+
+        synchronized List<String> getSectionPaths() {
+            return new ArrayList<>(paths);
+        }
+
+        synchronized List<String> getAsyncSections() {
+            return new ArrayList<>(asyncSections);
+        }
+
+        synchronized void assertBalanced() {
+            Assert.assertEquals(new ArrayList<String>(), errors);
+            for (Deque<String> stack : allStacks) {
+                Assert.assertTrue("Sections left open: " + stack, stack.isEmpty());
+            }
+            Assert.assertTrue("Async sections left open: " + openAsyncSections, openAsyncSections.isEmpty());
+        }
+    }
+}
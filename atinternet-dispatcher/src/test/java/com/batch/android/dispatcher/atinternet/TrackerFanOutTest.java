@@ -0,0 +1,190 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.Tracker;
+import com.batch.android.Batch;
+import com.batch.android.dispatcher.atinternet.core.CustomVarPlan;
+import com.batch.android.dispatcher.atinternet.core.DispatchMetrics;
+import com.batch.android.dispatcher.atinternet.core.EventType;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test sending the hits of the AT Internet Event Dispatcher to several sites
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class TrackerFanOutTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final TrackerTarget GLOBAL = new TrackerTarget("global-campaign", "global-publisher");
+    private static final TrackerTarget FRANCE = new TrackerTarget("fr-campaign", "fr-publisher");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final RecordingTracker globalTracker = new RecordingTracker();
+    private final RecordingTracker franceTracker = new RecordingTracker();
+
+    private static TestEventPayload payload(String deeplink) {
+        return new TestEventPayload(null, deeplink, new Bundle());
+    }
+
+    private static void setTargetOverride(AtInternetDispatcher atInternetDispatcher, TrackerTarget target,
+                                          RecordingTracker tracker) {
+        atInternetDispatcher.setTrackerOverride(target.getCampaignTrackerName(), tracker.getTracker());
+        atInternetDispatcher.setTrackerOverride(target.getPublisherTrackerName(), tracker.getTracker());
+    }
+
+    @Test
+    public void testDefaultTarget() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        Assert.assertEquals(Collections.singletonList(TrackerTarget.getDefault()),
+                atInternetDispatcher.getTrackerTargets());
+        Assert.assertEquals(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER,
+                TrackerTarget.getDefault().getCampaignTrackerName());
+        Assert.assertEquals(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER,
+                TrackerTarget.getDefault().getPublisherTrackerName());
+    }
+
+    @Test
+    public void testEventsAreParsedOnce() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerTargets(Arrays.asList(GLOBAL, FRANCE));
+        setTargetOverride(atInternetDispatcher, GLOBAL, globalTracker);
+        setTargetOverride(atInternetDispatcher, FRANCE, franceTracker);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                payload("https://batch.com/test?xtor=CS1-[mylabeltest]"));
+
+        Assert.assertEquals(globalTracker.getCalls(), franceTracker.getCalls());
+        Assert.assertEquals(1, globalTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(1, globalTracker.count("Screen.sendView"));
+        Assert.assertEquals(1, atInternetDispatcher.getDeeplinkTagCache().getMissCount());
+        Assert.assertEquals(0, atInternetDispatcher.getDeeplinkTagCache().getHitCount());
+        Assert.assertEquals(1, atInternetDispatcher.getCampaignCache().getMissCount());
+        Assert.assertEquals(0, atInternetDispatcher.getCampaignCache().getHitCount());
+    }
+
+    @Test
+    public void testFailingTargetDoesNotStopTheOthers() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                throw new IllegalStateException("No tracker named " + trackerName);
+            }
+        });
+        atInternetDispatcher.setTrackerTargets(Arrays.asList(GLOBAL, FRANCE));
+        setTargetOverride(atInternetDispatcher, FRANCE, franceTracker);
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload(null));
+        Assert.assertEquals(1, franceTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(1, franceTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testSlowTargetDoesNotDelayTheOthers() throws InterruptedException {
+        final CountDownLatch releaseGlobal = new CountDownLatch(1);
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                // Only the global target's trackers are created, they take a while
+                try {
+                    releaseGlobal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return globalTracker.getTracker();
+            }
+        });
+        atInternetDispatcher.setTrackerTargets(Arrays.asList(GLOBAL, FRANCE), true);
+        setTargetOverride(atInternetDispatcher, FRANCE, franceTracker);
+        atInternetDispatcher.enableMetrics();
+
+        for (int i = 0; i < 3; i++) {
+            atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    payload("https://batch.com/test?xtor=CS1-[campaign" + i + "]"));
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (franceTracker.count("Screen.sendView") < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(3, franceTracker.count("Screen.sendView"));
+        Assert.assertEquals(0, globalTracker.count("Screen.sendView"));
+        // Not sent until every target sent it
+        Assert.assertEquals(0, atInternetDispatcher.getMetrics().getEventCount(DispatchMetrics.Outcome.SENT));
+
+        releaseGlobal.countDown();
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Assert.assertEquals(3, globalTracker.count("Screen.sendView"));
+        Assert.assertEquals(3, atInternetDispatcher.getMetrics().getEventCount(DispatchMetrics.Outcome.SENT));
+        Assert.assertEquals(globalTracker.getCalls(), franceTracker.getCalls());
+        Assert.assertEquals(0, atInternetDispatcher.getDroppedTargetHitCount());
+
+        // Back to the default target, once the queued hits are sent
+        atInternetDispatcher.setTrackerTargets(Collections.singletonList(TrackerTarget.getDefault()));
+        Assert.assertFalse(atInternetDispatcher.getTrackerTargets().contains(FRANCE));
+    }
+
+    @Test
+    public void testFailingParallelTargetIsRecorded() {
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                throw new IllegalStateException("No tracker named " + trackerName);
+            }
+        });
+        atInternetDispatcher.setTrackerTargets(Arrays.asList(GLOBAL, FRANCE), true);
+        setTargetOverride(atInternetDispatcher, FRANCE, franceTracker);
+        atInternetDispatcher.enableMetrics();
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload(null));
+        Assert.assertTrue(atInternetDispatcher.flush(TIMEOUT_MS));
+        Assert.assertEquals(1, franceTracker.count("Screen.sendView"));
+        DispatchMetrics.Snapshot metrics = atInternetDispatcher.getMetrics();
+        Assert.assertEquals(1, metrics.getEventCount(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.FAILED));
+        Assert.assertEquals(0, metrics.getEventCount(DispatchMetrics.Outcome.SENT));
+    }
+
+    @Test
+    public void testJournalRecordIsCompletedOnceEveryTargetRan() throws IOException {
+        EventJournal journal = EventJournal.open(temporaryFolder.newFile(), 8);
+        long sequence = journal.append(EventSnapshot.of(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload(null),
+                CustomVarPlan.getEmpty()));
+        DispatchMetrics metrics = new DispatchMetrics();
+        SendCompletion completion = new SendCompletion(EventType.MESSAGING_SHOW, metrics, journal, sequence, 3);
+
+        completion.onSent();
+        completion.onDropped();
+        Assert.assertEquals(1, journal.getPendingCount());
+        Assert.assertEquals(0, metrics.snapshot().getEventCount(EventType.MESSAGING_SHOW,
+                DispatchMetrics.Outcome.DROPPED));
+
+        completion.onFailed();
+        Assert.assertEquals(0, journal.getPendingCount());
+        Assert.assertEquals(1, metrics.snapshot().getEventCount(EventType.MESSAGING_SHOW,
+                DispatchMetrics.Outcome.DROPPED));
+        journal.close();
+    }
+}
@@ -96,6 +96,28 @@ public class TrackerOverrideTest {
         verifyTrackedEvents();
     }
 
+    @Test
+    public void testPerTrackerOverride() {
+        PowerMockito.mockStatic(ATInternet.class);
+        ATInternet atInternet = PowerMockito.mock(ATInternet.class);
+        Mockito.when(ATInternet.getInstance()).thenReturn(atInternet);
+        Mockito.when(atInternet.getTracker(Mockito.any())).thenThrow(new RuntimeException("ATInternet's getTracker should not be called"));
+
+        Tracker globalTracker = PowerMockito.mock(Tracker.class);
+        Tracker campaignTracker = PowerMockito.mock(Tracker.class);
+        Mockito.when(campaignTracker.Screens()).thenReturn(screens);
+
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher();
+        atInternetDispatcher.setTrackerOverride(globalTracker);
+        atInternetDispatcher.setTrackerOverride(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER, campaignTracker);
+        atInternetDispatcher.setTrackerOverride(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER, tracker);
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload(null, null, new Bundle()));
+
+        verifyTrackedEvents();
+        Mockito.verifyNoInteractions(globalTracker);
+    }
+
     private void verifyTrackedEvents() {
         Mockito.verify(publishers).add(Mockito.eq("[batch-default-campaign]"));
         Mockito.verify(publisher).setAdvertiserId(Mockito.eq("[batch]"));
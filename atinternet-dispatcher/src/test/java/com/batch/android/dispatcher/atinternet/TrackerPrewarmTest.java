@@ -0,0 +1,136 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.Tracker;
+import com.batch.android.Batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the initialization strategies of the dispatcher's trackers
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class TrackerPrewarmTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final RecordingTracker recordingTracker = new RecordingTracker();
+    private final ConcurrentHashMap<String, AtomicInteger> creations = new ConcurrentHashMap<>();
+    private final CountDownLatch publisherCreationStarted = new CountDownLatch(1);
+    private final CountDownLatch releasePublisherCreation = new CountDownLatch(1);
+
+    /**
+     * Creates the trackers instantly, except the publisher tracker which waits for releasePublisherCreation
+     */
+    private final TrackerRegistry.TrackerFactory slowPublisherFactory = new TrackerRegistry.TrackerFactory() {
+        @NonNull
+        @Override
+        public Tracker create(@NonNull String trackerName) {
+            creations.putIfAbsent(trackerName, new AtomicInteger());
+            creations.get(trackerName).incrementAndGet();
+            if (AtInternetDispatcher.BATCH_PUBLISHER_TRACKER.equals(trackerName)) {
+                publisherCreationStarted.countDown();
+                awaitQuietly(releasePublisherCreation);
+            }
+            return recordingTracker.getTracker();
+        }
+    };
+
+    private int getCreationCount(String trackerName) {
+        AtomicInteger count = creations.get(trackerName);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void testLazyInitialization() {
+        releasePublisherCreation.countDown();
+        AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(slowPublisherFactory);
+        Assert.assertTrue(creations.isEmpty());
+        Assert.assertEquals(-1, atInternetDispatcher.getTrackersTimeToReadyMillis());
+
+        atInternetDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload(null, null, new Bundle()));
+
+        Assert.assertEquals(1, getCreationCount(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER));
+        Assert.assertEquals(1, getCreationCount(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        Assert.assertTrue(atInternetDispatcher.getTrackersTimeToReadyMillis() >= 0);
+        Assert.assertEquals(1, recordingTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+    }
+
+    @Test
+    public void testEventsDuringPrewarm() throws InterruptedException {
+        final AtInternetDispatcher atInternetDispatcher = new AtInternetDispatcher(slowPublisherFactory);
+        atInternetDispatcher.prewarmTrackers();
+        Assert.assertTrue(publisherCreationStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // A screen-only event doesn't wait for the publisher tracker
+        Thread closeThread = dispatchOnThread(atInternetDispatcher, Batch.EventDispatcher.Type.MESSAGING_CLOSE);
+        closeThread.join(TIMEOUT_MS);
+        Assert.assertFalse(closeThread.isAlive());
+        Assert.assertEquals(1, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(-1, atInternetDispatcher.getTrackersTimeToReadyMillis());
+
+        // An impression waits for the publisher tracker being created, and is sent once it is ready
+        Thread showThread = dispatchOnThread(atInternetDispatcher, Batch.EventDispatcher.Type.MESSAGING_SHOW);
+        showThread.join(100);
+        Assert.assertTrue(showThread.isAlive());
+        releasePublisherCreation.countDown();
+        showThread.join(TIMEOUT_MS);
+        Assert.assertFalse(showThread.isAlive());
+
+        Assert.assertEquals(1, recordingTracker.count("Publisher.sendImpression"));
+        Assert.assertEquals(2, recordingTracker.count("Screen.sendView"));
+        Assert.assertEquals(1, getCreationCount(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER));
+        Assert.assertEquals(1, getCreationCount(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        Assert.assertTrue(atInternetDispatcher.getTrackersTimeToReadyMillis() >= 0);
+    }
+
+    @Test
+    public void testTrackerInitStrategyMetaData() {
+        Assert.assertEquals(TrackerInitStrategy.LAZY, AtInternetRegistrar.getTrackerInitStrategy((Bundle) null));
+
+        Bundle metaData = new Bundle();
+        Assert.assertEquals(TrackerInitStrategy.LAZY, AtInternetRegistrar.getTrackerInitStrategy(metaData));
+        metaData.putString(AtInternetRegistrar.TRACKER_INIT_METADATA, "eager");
+        Assert.assertEquals(TrackerInitStrategy.EAGER, AtInternetRegistrar.getTrackerInitStrategy(metaData));
+        metaData.putString(AtInternetRegistrar.TRACKER_INIT_METADATA, "Lazy");
+        Assert.assertEquals(TrackerInitStrategy.LAZY, AtInternetRegistrar.getTrackerInitStrategy(metaData));
+        metaData.putString(AtInternetRegistrar.TRACKER_INIT_METADATA, "sometimes");
+        Assert.assertEquals(TrackerInitStrategy.LAZY, AtInternetRegistrar.getTrackerInitStrategy(metaData));
+    }
+
+    private static Thread dispatchOnThread(final AtInternetDispatcher atInternetDispatcher,
+                                           final Batch.EventDispatcher.Type type) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                atInternetDispatcher.dispatchEvent(type, new TestEventPayload(null, null, new Bundle()));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
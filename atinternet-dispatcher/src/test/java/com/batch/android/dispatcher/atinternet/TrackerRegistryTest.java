@@ -0,0 +1,233 @@
+package com.batch.android.dispatcher.atinternet;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.atinternet.tracker.Tracker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test the dispatcher's tracker registry, including under concurrent use
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class TrackerRegistryTest {
+
+    private final ConcurrentHashMap<String, AtomicInteger> creations = new ConcurrentHashMap<>();
+
+    private final TrackerRegistry.TrackerFactory countingFactory = new TrackerRegistry.TrackerFactory() {
+        @NonNull
+        @Override
+        public Tracker create(@NonNull String trackerName) {
+            creations.putIfAbsent(trackerName, new AtomicInteger());
+            creations.get(trackerName).incrementAndGet();
+            return PowerMockito.mock(Tracker.class);
+        }
+    };
+
+    private int getCreationCount(String trackerName) {
+        AtomicInteger count = creations.get(trackerName);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void testOverridePrecedence() {
+        TrackerRegistry registry = new TrackerRegistry(countingFactory);
+        Tracker created = registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER);
+        Assert.assertSame(created, registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        Assert.assertEquals(1, getCreationCount(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+
+        Tracker global = PowerMockito.mock(Tracker.class);
+        Tracker publisher = PowerMockito.mock(Tracker.class);
+        registry.setGlobalOverride(global);
+        registry.setOverride(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER, publisher);
+        Assert.assertSame(global, registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        Assert.assertSame(publisher, registry.get(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER));
+
+        registry.setOverride(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER, null);
+        Assert.assertSame(global, registry.get(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER));
+        Assert.assertEquals(0, getCreationCount(AtInternetDispatcher.BATCH_PUBLISHER_TRACKER));
+
+        // Clearing the global override fetches the trackers from the SDK again
+        registry.setGlobalOverride(null);
+        Assert.assertNotSame(created, registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        Assert.assertEquals(2, getCreationCount(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+    }
+
+    @Test
+    public void testTrackerCreatedBeforeClearingIsNotPublished() throws InterruptedException {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch cleared = new CountDownLatch(1);
+        final AtomicInteger creationCount = new AtomicInteger();
+        final TrackerRegistry registry = new TrackerRegistry(new TrackerRegistry.TrackerFactory() {
+            @NonNull
+            @Override
+            public Tracker create(@NonNull String trackerName) {
+                if (creationCount.incrementAndGet() == 1) {
+                    creating.countDown();
+                    awaitQuietly(cleared);
+                }
+                return PowerMockito.mock(Tracker.class);
+            }
+        });
+        final AtomicReference<Tracker> result = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+            }
+        });
+        thread.start();
+        Assert.assertTrue(creating.await(10, TimeUnit.SECONDS));
+
+        // The SDK is reconfigured while the first tracker is being created
+        registry.setGlobalOverride(PowerMockito.mock(Tracker.class));
+        registry.setGlobalOverride(null);
+        cleared.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+
+        Assert.assertEquals(2, creationCount.get());
+        Assert.assertNotNull(result.get());
+        Assert.assertSame(result.get(), registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        Assert.assertEquals(2, creationCount.get());
+    }
+
+    @Test
+    public void testConcurrentFirstUseCreatesOnce() throws InterruptedException {
+        final TrackerRegistry registry = new TrackerRegistry(countingFactory);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Tracker[] results = new Tracker[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    results[index] = registry.get(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER);
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        Assert.assertEquals(1, getCreationCount(AtInternetDispatcher.BATCH_CAMPAIGN_TRACKER));
+        for (Tracker result : results) {
+            Assert.assertSame(results[0], result);
+        }
+    }
+
+    /**
+     * Writers keep replacing the override of their own tracker name while readers get all of them:
+     * readers must only see trackers that were set, never an older one after a newer one,
+     * and no writer's last update may be lost.
+     */
+    @Test
+    public void testConcurrentOverridesStress() throws InterruptedException {
+        final int writerCount = 4;
+        final int readerCount = 4;
+        final int updatesPerWriter = 2000;
+
+        final TrackerRegistry registry = new TrackerRegistry(countingFactory);
+        final String[] names = new String[writerCount];
+        final Tracker[][] trackers = new Tracker[writerCount][updatesPerWriter];
+        // Writer and sequence number of each tracker, -1 for the trackers created by the factory
+        final Map<Tracker, Integer> ownerOf = new IdentityHashMap<>();
+        final Map<Tracker, Integer> sequences = new IdentityHashMap<>();
+        for (int w = 0; w < writerCount; w++) {
+            names[w] = "tracker-" + w;
+            Tracker created = registry.get(names[w]);
+            ownerOf.put(created, w);
+            sequences.put(created, -1);
+            for (int u = 0; u < updatesPerWriter; u++) {
+                trackers[w][u] = PowerMockito.mock(Tracker.class);
+                ownerOf.put(trackers[w][u], w);
+                sequences.put(trackers[w][u], u);
+            }
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger runningWriters = new AtomicInteger(writerCount);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[writerCount + readerCount];
+        for (int w = 0; w < writerCount; w++) {
+            final int writer = w;
+            threads[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    for (int u = 0; u < updatesPerWriter; u++) {
+                        registry.setOverride(names[writer], trackers[writer][u]);
+                    }
+                    runningWriters.decrementAndGet();
+                }
+            });
+        }
+        for (int r = 0; r < readerCount; r++) {
+            threads[writerCount + r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    int[] lastSeen = new int[writerCount];
+                    Arrays.fill(lastSeen, -1);
+                    while (runningWriters.get() > 0 && failure.get() == null) {
+                        for (int w = 0; w < writerCount; w++) {
+                            Tracker tracker = registry.get(names[w]);
+                            Integer owner = ownerOf.get(tracker);
+                            if (owner == null || owner != w) {
+                                failure.set("Unexpected tracker for " + names[w]);
+                                return;
+                            }
+                            int sequence = sequences.get(tracker);
+                            if (sequence < lastSeen[w]) {
+                                failure.set("Went back from " + lastSeen[w] + " to " + sequence + " for " + names[w]);
+                                return;
+                            }
+                            lastSeen[w] = sequence;
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        Assert.assertNull(failure.get());
+        for (int w = 0; w < writerCount; w++) {
+            Assert.assertSame(trackers[w][updatesPerWriter - 1], registry.get(names[w]));
+            Assert.assertEquals(1, getCreationCount(names[w]));
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
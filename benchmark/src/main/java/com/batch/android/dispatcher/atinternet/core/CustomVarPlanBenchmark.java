@@ -0,0 +1,65 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping an event with custom variables, depending on their number.
+ * Variables alternate between custom payload keys and deeplink parameters: the cost should grow linearly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomVarPlanBenchmark {
+
+    private static final String[] PAYLOAD_KEYS = {"campaign_id", "audience", "ab_test", "locale"};
+    private static final String[] DEEPLINK_PARAMETERS = {"utm_source", "utm_medium", "utm_campaign", "utm_content"};
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int variables;
+
+    private EventMapper mapper;
+    private Payloads.Fields fields;
+
+    @Setup
+    public void setUp() {
+        CustomVarPlan.Builder builder = new CustomVarPlan.Builder();
+        for (int i = 0; i < variables; i++) {
+            if (i % 2 == 0) {
+                builder.addPayloadKey(PAYLOAD_KEYS[i / 2], i + 2, CustomVarPlan.Scope.SCREEN);
+            } else {
+                builder.addDeeplinkParameter(DEEPLINK_PARAMETERS[i / 2], i + 2, CustomVarPlan.Scope.SCREEN);
+            }
+        }
+        mapper = new EventMapper();
+        mapper.setCustomVarPlan(builder.build());
+
+        Map<String, String> customValues = new HashMap<>();
+        for (String key : PAYLOAD_KEYS) {
+            customValues.put(key, key + "-value");
+        }
+        fields = new Payloads.Fields(null, Payloads.LONG_PATH + "#xtor=CS1-[mylabeltest]-test-15[sef]", null, null,
+                true, customValues);
+    }
+
+    @Benchmark
+    public HitDescription map() {
+        return mapper.map(EventType.NOTIFICATION_OPEN, fields);
+    }
+}
@@ -0,0 +1,80 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting the XTOR tag of a deeplink
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeeplinkTagBenchmark {
+
+    @Param({"SHORT_QUERY", "SHORT_FRAGMENT", "LONG_QUERY", "LONG_FRAGMENT", "ESCAPED_BRACKETS", "NO_XTOR", "MIXED"})
+    public String mix;
+
+    private String[] deeplinks;
+    private int next;
+    private ParseCache<String> cache;
+
+    @Setup
+    public void setUp() {
+        deeplinks = Payloads.getDeeplinks(mix);
+        cache = new ParseCache<>(32);
+    }
+
+    private String nextDeeplink() {
+        String deeplink = deeplinks[next];
+        next = (next + 1) % deeplinks.length;
+        return deeplink;
+    }
+
+    @Benchmark
+    public String scanner() {
+        return DeeplinkTagScanner.getTag(nextDeeplink(), "xtor");
+    }
+
+    @Benchmark
+    public String cachedScanner() {
+        return cache.get(nextDeeplink(), deeplink -> DeeplinkTagScanner.getTag(deeplink, "xtor"));
+    }
+
+    /**
+     * Baseline: the part of the previous implementation that doesn't need android.net.Uri.
+     * It trims the deeplink and splits the fragment into a map of every parameter,
+     * the Uri parsing and query lookup then came on top of it.
+     */
+    @Benchmark
+    public String splitFragmentMap() {
+        String deeplink = nextDeeplink().trim();
+        int fragmentStart = deeplink.indexOf('#');
+        if (fragmentStart < 0) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<>();
+        for (String param : deeplink.substring(fragmentStart + 1).split("&")) {
+            String[] parts = param.split("=");
+            if (parts.length >= 2) {
+                map.put(parts[0].toLowerCase(), parts[1]);
+            }
+        }
+        return map.get("xtor");
+    }
+}
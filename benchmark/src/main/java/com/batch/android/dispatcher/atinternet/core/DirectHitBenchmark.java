@@ -0,0 +1,155 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of the direct hits backend: building the collection URLs of an event, and sending them to a local
+ * collection endpoint over a kept-alive connection, or a new connection per hit.
+ * buildHits is the direct counterpart of EventMapperBenchmark.map, which stops where the AT Internet SDK starts.
+ * sendHits also reports hits/s and request bytes/s as seen by the endpoint, their ratio is the bytes per hit.
+ * Over loopback, without latency nor TLS, new connections cost little: KEEP_ALIVE and CLOSE only diverge by the
+ * handshakes a mobile network would add to each hit.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DirectHitBenchmark {
+
+    private static final int EVENTS_PER_MIX = 3;
+    private static final byte[] PIXEL = new byte[43];
+
+    static {
+        // Without it, the server's split header and body writes wait for the client's delayed ACK, ~40ms per hit
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Param({"PUSH", "WEBVIEW", "MIXED"})
+    public String mix;
+
+    @Param({"KEEP_ALIVE", "CLOSE"})
+    public String connection;
+
+    private final EventType[] types = new EventType[EVENTS_PER_MIX];
+    private Payloads.Fields[] events;
+    private int next;
+    private EventMapper mapper;
+    private CollectUrlBuilder urlBuilder;
+    private HitSender sender;
+    private HttpServer server;
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    @Setup
+    public void setUp() throws IOException {
+        events = Payloads.getEvents(mix, types);
+        mapper = new EventMapper();
+        final boolean close = "CLOSE".equals(connection);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hit.xiti", exchange -> {
+            receivedBytes.addAndGet(getRequestBytes(exchange.getRequestURI().getRawPath(),
+                    exchange.getRequestURI().getRawQuery(), exchange.getRequestHeaders()));
+            if (close) {
+                exchange.getResponseHeaders().set("Connection", "close");
+            }
+            exchange.sendResponseHeaders(200, PIXEL.length);
+            exchange.getResponseBody().write(PIXEL);
+            exchange.close();
+        });
+        server.start();
+        urlBuilder = new CollectUrlBuilder("http://127.0.0.1:" + server.getAddress().getPort() + "/hit.xiti",
+                "123456", "4b1d2f3e-9c8a-4f6b-8e2d-1a7c5b3e9f0d", "2.14.0", "12", "4.2.0");
+        sender = new HitSender(HitSender.DEFAULT_TIMEOUT_MS, 1, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Size of a GET request: its request line, headers and the empty line ending them
+     */
+    private static long getRequestBytes(String path, String query, Headers headers) {
+        long bytes = "GET ".length() + path.length() + 1 + query.length() + " HTTP/1.1\r\n".length() + 2;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                bytes += header.getKey().length() + 2 + value.length() + 2;
+            }
+        }
+        return bytes;
+    }
+
+    private HitDescription nextHit() {
+        int index = next;
+        next = (next + 1) % EVENTS_PER_MIX;
+        return mapper.map(types[index], events[index]);
+    }
+
+    @Benchmark
+    public String buildHits() {
+        HitDescription hit = nextHit();
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        long timestamp = System.currentTimeMillis();
+        String publisherHit = onSiteAd == null ? null : urlBuilder.buildPublisherHit(onSiteAd, timestamp);
+        String screenHit = urlBuilder.buildScreenHit(hit, SamplingPolicy.NO_CUSTOM_VAR, null, timestamp);
+        return publisherHit == null ? screenHit : publisherHit;
+    }
+
+    @Benchmark
+    public boolean sendHits(Wire wire) {
+        HitDescription hit = nextHit();
+        long bytesBefore = receivedBytes.get();
+        boolean sent = true;
+        HitDescription.OnSiteAd onSiteAd = hit.getOnSiteAd();
+        long timestamp = System.currentTimeMillis();
+        String publisherHit = onSiteAd == null ? null : urlBuilder.buildPublisherHit(onSiteAd, timestamp);
+        if (publisherHit != null) {
+            sent = sender.send(publisherHit);
+            wire.hits++;
+        }
+        sent &= sender.send(urlBuilder.buildScreenHit(hit, SamplingPolicy.NO_CUSTOM_VAR, null, timestamp));
+        wire.hits++;
+        wire.requestBytes += receivedBytes.get() - bytesBefore;
+        return sent;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Wire {
+
+        public long hits;
+        public long requestBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            requestBytes = 0;
+        }
+    }
+}
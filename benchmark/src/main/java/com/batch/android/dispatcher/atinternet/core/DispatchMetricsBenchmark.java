@@ -0,0 +1,67 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of recording metrics on the dispatch path, alone and from several threads,
+ * compared with a single shared atomic counter
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchMetricsBenchmark {
+
+    private final DispatchMetrics metrics = new DispatchMetrics();
+    private final AtomicLong sharedCounter = new AtomicLong();
+
+    @Benchmark
+    @Threads(1)
+    public void recordOutcome() {
+        metrics.recordOutcome(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordOutcomeContended() {
+        metrics.recordOutcome(EventType.MESSAGING_SHOW, DispatchMetrics.Outcome.SENT);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordLatency() {
+        metrics.recordLatency(DispatchMetrics.Stage.DISPATCH, 1500);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatencyContended() {
+        metrics.recordLatency(DispatchMetrics.Stage.DISPATCH, 1500);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long sharedAtomicContended() {
+        return sharedCounter.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public DispatchMetrics.Snapshot snapshot() {
+        return metrics.snapshot();
+    }
+}
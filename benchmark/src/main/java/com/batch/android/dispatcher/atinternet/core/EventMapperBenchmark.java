@@ -0,0 +1,81 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning an event into its hits, everything the dispatcher does before calling the AT Internet SDK.
+ * mapCountingReads also reports the number of payload field reads, to compare with the number of operations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventMapperBenchmark {
+
+    private static final int EVENTS_PER_MIX = 3;
+
+    @Param({"PUSH", "TRACKING_ID", "WEBVIEW", "CUSTOM_XTOR", "MIXED"})
+    public String mix;
+
+    private final EventType[] types = new EventType[EVENTS_PER_MIX];
+    private Payloads.Fields[] events;
+    private Payloads.CountingFields[] countingEvents;
+    private int next;
+    private EventMapper mapper;
+
+    @Setup
+    public void setUp() {
+        events = Payloads.getEvents(mix, types);
+        countingEvents = new Payloads.CountingFields[events.length];
+        for (int i = 0; i < events.length; i++) {
+            countingEvents[i] = new Payloads.CountingFields(events[i]);
+        }
+        mapper = new EventMapper();
+    }
+
+    @Benchmark
+    public HitDescription map() {
+        int index = next;
+        next = (next + 1) % EVENTS_PER_MIX;
+        return mapper.map(types[index], events[index]);
+    }
+
+    @Benchmark
+    public HitDescription mapCountingReads(FieldReads fieldReads) {
+        int index = next;
+        next = (next + 1) % EVENTS_PER_MIX;
+        Payloads.CountingFields fields = countingEvents[index];
+        long before = fields.reads;
+        HitDescription hit = mapper.map(types[index], fields);
+        fieldReads.reads += fields.reads - before;
+        return hit;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FieldReads {
+
+        public long reads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            reads = 0;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Realistic payload mixes for the benchmarks
+ */
+final class Payloads {
+
+    static final String LONG_PATH = "https://www.batch.com/fr/blog/2022/05/notifications-push-android" +
+            "/retention-engagement-ecommerce?utm_source=newsletter&utm_medium=email&utm_campaign=spring_sale" +
+            "&utm_content=hero_banner&ref=home_carousel&session=4b1d2f3e-9c8a-4f6b-8e2d-1a7c5b3e9f0d";
+
+    private Payloads() {}
+
+    /**
+     * @param mix One of the benchmarks' deeplink mixes
+     * @return Deeplinks to cycle through
+     */
+    static String[] getDeeplinks(String mix) {
+        switch (mix) {
+            case "SHORT_QUERY":
+                return new String[]{"batch://?xtor=CS1-[mylabeltest]-test-15[sef]"};
+            case "SHORT_FRAGMENT":
+                return new String[]{"batch://#xtor=CS1-[mylabeltest]-test-15[sef]"};
+            case "LONG_QUERY":
+                return new String[]{LONG_PATH + "&xtor=AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]"};
+            case "LONG_FRAGMENT":
+                return new String[]{LONG_PATH + "#section=offers&xtor=AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]"};
+            case "ESCAPED_BRACKETS":
+                return new String[]{"https://batch.com/test?xtor=CS2-%5Bmylabeltesttoto%5D-test-15%5Bsef%5D",
+                        "https://batch.com/test#xtor=CS1-%5Bmylabeltest%5D-test-15%5Bsef%5D"};
+            case "NO_XTOR":
+                return new String[]{LONG_PATH, "https://batch.com/test#section=offers"};
+            case "MIXED":
+                return new String[]{
+                        "batch://?xtor=CS1-[mylabeltest]-test-15[sef]",
+                        LONG_PATH + "#section=offers&xtor=AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]",
+                        "https://batch.com/test?xtor=CS2-%5Bmylabeltesttoto%5D-test-15%5Bsef%5D",
+                        " \n https://batch.com/test?XTor=AD-[fake]#xtor=CS8-[fake2] \n",
+                        LONG_PATH,
+                };
+            default:
+                throw new IllegalArgumentException("Unknown deeplink mix: " + mix);
+        }
+    }
+
+    /**
+     * @param mix One of the benchmarks' XTOR mixes
+     * @return XTOR tags to cycle through
+     */
+    static String[] getXtors(String mix) {
+        switch (mix) {
+            case "SHORT":
+                return new String[]{"CS1-[mylabeltest]"};
+            case "FULL":
+                return new String[]{"AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]"};
+            case "ESCAPED_DASHES":
+                return new String[]{"EPR-[my-label]-[a-b-c]-[d-e]-15-[www.batch-test.com]"};
+            case "INVALID":
+                return new String[]{"ZZ-[mylabel]-totot-titi", "CS1"};
+            case "MIXED":
+                return new String[]{
+                        "CS1-[mylabeltest]-test-15[sef]",
+                        "AD-4242-yolo-swag",
+                        "EPR-[my-label]-[a-b-c]-[d-e]-15-[www.batch-test.com]",
+                        "ZZ-[mylabel]-totot-titi",
+                };
+            default:
+                throw new IllegalArgumentException("Unknown XTOR mix: " + mix);
+        }
+    }
+
+    /**
+     * Payload fields of a benchmarked event
+     */
+    static final class Fields implements EventFields {
+
+        private final String trackingId;
+        private final String deeplink;
+        private final String xtorCustomValue;
+        private final String webViewAnalyticsID;
+        private final boolean positiveAction;
+        private final Map<String, String> customValues;
+
+        Fields(String trackingId, String deeplink, String xtorCustomValue, String webViewAnalyticsID,
+               boolean positiveAction) {
+            this(trackingId, deeplink, xtorCustomValue, webViewAnalyticsID, positiveAction,
+                    Collections.<String, String>emptyMap());
+        }
+
+        Fields(String trackingId, String deeplink, String xtorCustomValue, String webViewAnalyticsID,
+               boolean positiveAction, Map<String, String> customValues) {
+            this.trackingId = trackingId;
+            this.deeplink = deeplink;
+            this.xtorCustomValue = xtorCustomValue;
+            this.webViewAnalyticsID = webViewAnalyticsID;
+            this.positiveAction = positiveAction;
+            this.customValues = customValues;
+        }
+
+        @Override
+        public String getTrackingId() {
+            return trackingId;
+        }
+
+        @Override
+        public String getDeeplink() {
+            return deeplink;
+        }
+
+        @Override
+        public String getXtorCustomValue() {
+            return xtorCustomValue;
+        }
+
+        @Override
+        public String getCustomValue(String key) {
+            return customValues.get(key);
+        }
+
+        @Override
+        public String getWebViewAnalyticsID() {
+            return webViewAnalyticsID;
+        }
+
+        @Override
+        public boolean isPositiveAction() {
+            return positiveAction;
+        }
+    }
+
+    /**
+     * Payload fields counting how many times they are read
+     */
+    static final class CountingFields implements EventFields {
+
+        private final EventFields fields;
+        long reads;
+
+        CountingFields(EventFields fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public String getTrackingId() {
+            reads++;
+            return fields.getTrackingId();
+        }
+
+        @Override
+        public String getDeeplink() {
+            reads++;
+            return fields.getDeeplink();
+        }
+
+        @Override
+        public String getXtorCustomValue() {
+            reads++;
+            return fields.getXtorCustomValue();
+        }
+
+        @Override
+        public String getCustomValue(String key) {
+            reads++;
+            return fields.getCustomValue(key);
+        }
+
+        @Override
+        public String getWebViewAnalyticsID() {
+            reads++;
+            return fields.getWebViewAnalyticsID();
+        }
+
+        @Override
+        public boolean isPositiveAction() {
+            reads++;
+            return fields.isPositiveAction();
+        }
+    }
+
+    /**
+     * @param mix One of the benchmarks' event mixes
+     * @param types Filled with the type of each event
+     * @return Payload fields of the events to cycle through, matching types
+     */
+    static Fields[] getEvents(String mix, EventType[] types) {
+        Fields push = new Fields(null, LONG_PATH + "#xtor=CS1-[mylabeltest]-test-15[sef]", null, null, true);
+        Fields trackingId = new Fields("AD-4242-[creative]-[variant]-15-[www.batch.com]-2-[top]", null, null, null, false);
+        Fields inApp = new Fields(null, "https://batch.com/test?xtor=CS2-%5Bmylabeltesttoto%5D-test-15%5Bsef%5D",
+                null, null, false);
+        Fields webView = new Fields(null, null, "EPR-[my-label]-[a-b-c]", "webview_button_1", false);
+        Fields customXtor = new Fields(null, LONG_PATH + "#xtor=CS1-[mylabeltest]-test-15[sef]", "AD-[custom]",
+                null, true);
+        switch (mix) {
+            case "PUSH":
+                types[0] = EventType.NOTIFICATION_DISPLAY;
+                types[1] = EventType.NOTIFICATION_OPEN;
+                types[2] = EventType.NOTIFICATION_DISMISS;
+                return new Fields[]{push, push, push};
+            case "TRACKING_ID":
+                types[0] = EventType.NOTIFICATION_DISPLAY;
+                types[1] = EventType.NOTIFICATION_OPEN;
+                types[2] = EventType.NOTIFICATION_DISMISS;
+                return new Fields[]{trackingId, trackingId, trackingId};
+            case "WEBVIEW":
+                types[0] = EventType.MESSAGING_SHOW;
+                types[1] = EventType.MESSAGING_WEBVIEW_CLICK;
+                types[2] = EventType.MESSAGING_CLOSE;
+                return new Fields[]{webView, webView, webView};
+            case "CUSTOM_XTOR":
+                types[0] = EventType.NOTIFICATION_DISPLAY;
+                types[1] = EventType.NOTIFICATION_OPEN;
+                types[2] = EventType.NOTIFICATION_DISMISS;
+                return new Fields[]{customXtor, customXtor, customXtor};
+            case "MIXED":
+                types[0] = EventType.NOTIFICATION_DISPLAY;
+                types[1] = EventType.MESSAGING_CLICK;
+                types[2] = EventType.MESSAGING_WEBVIEW_CLICK;
+                return new Fields[]{push, inApp, webView};
+            default:
+                throw new IllegalArgumentException("Unknown event mix: " + mix);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.batch.android.dispatcher.atinternet.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting the campaign ID of a XTOR, as done for OnSiteAds events
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XtorBenchmark {
+
+    @Param({"SHORT", "FULL", "ESCAPED_DASHES", "INVALID", "MIXED"})
+    public String mix;
+
+    private String[] xtors;
+    private int next;
+    private ParseCache<String> cache;
+    private ParseCache<XtorTag> tagCache;
+
+    @Setup
+    public void setUp() {
+        xtors = Payloads.getXtors(mix);
+        cache = new ParseCache<>(32);
+        tagCache = new ParseCache<>(32);
+    }
+
+    private String nextXtor() {
+        String xtor = xtors[next];
+        next = (next + 1) % xtors.length;
+        return xtor;
+    }
+
+    @Benchmark
+    public String xtorParse() {
+        Xtor xtor = Xtor.parse(nextXtor());
+        return xtor.isValidXtor() ? xtor.getPart(1) : null;
+    }
+
+    @Benchmark
+    public String xtorViewParse() {
+        XtorView xtor = XtorView.parse(nextXtor());
+        return xtor.isValidXtor() ? xtor.getPart(1) : null;
+    }
+
+    @Benchmark
+    public String validCampaign() {
+        return XtorView.getValidCampaign(nextXtor());
+    }
+
+    @Benchmark
+    public String cachedValidCampaign() {
+        return cache.get(nextXtor(), XtorView::getValidCampaign);
+    }
+
+    /**
+     * What EventMapper does: the tag model is cached, and only its campaign is read
+     */
+    @Benchmark
+    public String cachedTagCampaign() {
+        XtorTag tag = tagCache.get(nextXtor(), XtorTag::parse);
+        return tag != null ? tag.getCampaign() : null;
+    }
+
+    /**
+     * Cost of a cache miss when all the publisher fields are read
+     */
+    @Benchmark
+    public XtorTag.Label tagAllParts() {
+        XtorTag tag = XtorTag.parse(nextXtor());
+        if (tag == null) {
+            return null;
+        }
+        tag.getCampaign();
+        tag.getCreative();
+        tag.getFormat();
+        tag.getWebsite();
+        tag.getGeneralPlacement();
+        tag.getDetailedPlacement();
+        return tag.getVariant();
+    }
+}